@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Reads resources as bytes, memory mapped where the {@link Source} can, and remembers
+ *         them, as text decoded from UTF-8 in one pass or as read only bytes. A resource is kept
+ *         in the form it was last asked for. The least recently used resources are dropped once
+ *         the kept ones take more than the budget, text counting two bytes a character.
+ *         <p/>
+ *         Sources close their file handles as soon as the bytes are mapped or read, mapped
+ *         memory goes away with the last reference to it. Pure Java and thread safe.
+ */
+public class AssetCache {
+
+    /**
+     * Where the bytes of resources come from.
+     */
+    public interface Source {
+
+        /**
+         * @param resourceId Resource to read.
+         * @return Its bytes from position to limit, mapped or read. Not modified afterwards.
+         * @throws IOException If the resource cannot be read.
+         */
+        ByteBuffer open(int resourceId) throws IOException;
+    }
+
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Bytes read per step when a stream does not say how long it is.
+     */
+    private static final int CHUNK_BYTES = 16 * 1024;
+
+    private final Source mSource;
+    private final long mMaxBytes;
+
+    /**
+     * Kept resources, String or ByteBuffer, least recently used first.
+     */
+    private final LinkedHashMap<Integer, Object> mEntries = new LinkedHashMap<Integer, Object>(16, 0.75f, true);
+    private long mBytes;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param source   Where the bytes come from.
+     * @param maxBytes Memory the kept resources may take.
+     */
+    public AssetCache(final Source source, final long maxBytes) {
+        this.mSource = source;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param resourceId Resource holding UTF-8 text.
+     * @return The text.
+     * @throws IOException If the resource cannot be read.
+     */
+    public String getText(final int resourceId) throws IOException {
+        synchronized (this) {
+            final Object entry = mEntries.get(resourceId);
+            if (entry instanceof String) {
+                mHits++;
+                return (String) entry;
+            }
+            mMisses++;
+        }
+        final String text = decodeText(mSource.open(resourceId));
+        put(resourceId, text, sizeOf(text));
+        return text;
+    }
+
+    /**
+     * @param resourceId Resource to read.
+     * @return Its bytes, read only, from position to limit. Every call returns its own view.
+     * @throws IOException If the resource cannot be read.
+     */
+    public ByteBuffer getBytes(final int resourceId) throws IOException {
+        synchronized (this) {
+            final Object entry = mEntries.get(resourceId);
+            if (entry instanceof ByteBuffer) {
+                mHits++;
+                return ((ByteBuffer) entry).duplicate();
+            }
+            mMisses++;
+        }
+        final ByteBuffer bytes = mSource.open(resourceId).asReadOnlyBuffer();
+        put(resourceId, bytes, bytes.remaining());
+        return bytes.duplicate();
+    }
+
+    /**
+     * Drops the least recently used resources until the kept ones take at most the given size.
+     */
+    public synchronized void trimToSize(final long maxBytes) {
+        final Iterator<Map.Entry<Integer, Object>> entries = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && entries.hasNext()) {
+            mBytes -= sizeOf(entries.next().getValue());
+            entries.remove();
+        }
+    }
+
+    /**
+     * Drops every kept resource.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return Memory the kept resources take.
+     */
+    public synchronized long getByteCount() {
+        return mBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Decodes UTF-8 text in one pass, without the lines a reader would split it into.
+     *
+     * @param bytes Text from position to limit. The position is not changed.
+     */
+    public static String decodeText(final ByteBuffer bytes) {
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), UTF_8);
+        }
+        // One bulk copy out of a mapping or direct buffer decodes several times faster than a
+        // CharsetDecoder reading it in place.
+        final byte[] data = new byte[bytes.remaining()];
+        bytes.duplicate().get(data);
+        return new String(data, UTF_8);
+    }
+
+    /**
+     * Reads a stream to its end into a heap buffer. Does not close it.
+     *
+     * @param input         Stream to read.
+     * @param expectedBytes Bytes the stream is expected to hold, e.g. from available(), to read
+     *                      it without growing the buffer. Any guess works.
+     * @return The bytes read, from position 0 to limit.
+     * @throws IOException If the stream cannot be read.
+     */
+    public static ByteBuffer readFully(final InputStream input, final int expectedBytes) throws IOException {
+        byte[] data = new byte[Math.max(expectedBytes, 0) + 1];
+        int length = 0;
+        int read;
+        while ((read = input.read(data, length, data.length - length)) != -1) {
+            length += read;
+            if (length == data.length) {
+                final byte[] grown = new byte[data.length + Math.max(data.length, CHUNK_BYTES)];
+                System.arraycopy(data, 0, grown, 0, length);
+                data = grown;
+            }
+        }
+        return ByteBuffer.wrap(data, 0, length);
+    }
+
+    private synchronized void put(final int resourceId, final Object value, final long bytes) {
+        if (bytes > mMaxBytes) {
+            return;
+        }
+        final Object previous = mEntries.put(resourceId, value);
+        if (previous != null) {
+            mBytes -= sizeOf(previous);
+        }
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    private static long sizeOf(final Object value) {
+        return value instanceof String ? 2L * ((String) value).length() : ((ByteBuffer) value).remaining();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.opengl.GLES20;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decodes panorama resources with BitmapFactory and copies the pixels out as RGBA.
+ *         Panoramas larger than one texture are decoded tile by tile with BitmapRegionDecoder.
+ */
+public class BitmapPanoramaDecoder implements PanoramaDecoder {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final Resources mResources;
+    private final BitmapPool mBitmaps;
+
+    public BitmapPanoramaDecoder(final Resources resources) {
+        this(resources, null);
+    }
+
+    /**
+     * @param resources Resources the panoramas are in.
+     * @param bitmaps   Bitmaps to decode into, null to decode into new ones.
+     */
+    public BitmapPanoramaDecoder(final Resources resources, final BitmapPool bitmaps) {
+        this.mResources = resources;
+        this.mBitmaps = bitmaps;
+    }
+
+    @Override
+    public TiledImage decode(final int resourceId, final int maxTileSize, final StagingBufferPool buffers)
+            throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;    // No pre-scaling
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        // Read the size only, to lay out the tiles.
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, resourceId, options);
+        options.inJustDecodeBounds = false;
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Unable to decode resource " + resourceId);
+        }
+
+        final TileGrid grid = new TileGrid(options.outWidth, options.outHeight, maxTileSize);
+        final PixelImage[] tiles = new PixelImage[grid.getTileCount()];
+
+        if (tiles.length == 1) {
+            // Read in the resource
+            boolean pooled = false;
+            Bitmap bitmap = null;
+            if (mBitmaps != null) {
+                mBitmaps.prepare(options, options.outWidth, options.outHeight);
+                try {
+                    bitmap = BitmapFactory.decodeResource(mResources, resourceId, options);
+                } catch (IllegalArgumentException e) {
+                    // The decoder cannot reuse the bitmap, decode into a new one below.
+                }
+                pooled = mBitmaps.decoded(options, bitmap);
+            }
+            if (bitmap == null) {
+                bitmap = BitmapFactory.decodeResource(mResources, resourceId, options);
+            }
+            tiles[0] = copyPixels(bitmap, resourceId, buffers, pooled ? mBitmaps : null);
+            return new TiledImage(grid, tiles);
+        }
+
+        // Too large for one texture, decode tile by tile so the full image is never in memory.
+        final InputStream inputStream = mResources.openRawResource(resourceId);
+        try {
+            final BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            try {
+                final Rect region = new Rect();
+                for (int row = 0; row < grid.getRows(); row++) {
+                    for (int column = 0; column < grid.getColumns(); column++) {
+                        region.set(grid.getTileX(column), grid.getTileY(row),
+                                grid.getTileX(column) + grid.getTileWidth(column),
+                                grid.getTileY(row) + grid.getTileHeight(row));
+                        tiles[grid.getTileIndex(column, row)] = decodeRegion(regionDecoder, region, options,
+                                resourceId, buffers, mBitmaps);
+                    }
+                }
+            } finally {
+                regionDecoder.recycle();
+            }
+        } catch (IOException e) {
+            for (PixelImage tile : tiles) {
+                if (tile != null) {
+                    buffers.recycle(tile.getPixels());
+                }
+            }
+            throw e;
+        } finally {
+            inputStream.close();
+        }
+
+        return new TiledImage(grid, tiles);
+    }
+
+    /**
+     * Decodes a region into a bitmap from the pool if there is one, and copies it out.
+     *
+     * @param bitmaps Bitmaps to decode into, or null.
+     */
+    static PixelImage decodeRegion(final BitmapRegionDecoder regionDecoder, final Rect region,
+                                   final BitmapFactory.Options options, final int resourceId,
+                                   final StagingBufferPool buffers, final BitmapPool bitmaps) throws IOException {
+        boolean pooled = false;
+        Bitmap bitmap = null;
+        if (bitmaps != null) {
+            final int sampleSize = Math.max(1, options.inSampleSize);
+            bitmaps.prepare(options, (region.width() + sampleSize - 1) / sampleSize,
+                    (region.height() + sampleSize - 1) / sampleSize);
+            try {
+                bitmap = regionDecoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                // The decoder cannot reuse the bitmap, decode into a new one below.
+            }
+            pooled = bitmaps.decoded(options, bitmap);
+        }
+        if (bitmap == null) {
+            bitmap = regionDecoder.decodeRegion(region, options);
+        }
+        return copyPixels(bitmap, resourceId, buffers, pooled ? bitmaps : null);
+    }
+
+    /**
+     * Copies a decoded bitmap into a staging buffer and recycles it.
+     *
+     * @param bitmaps The pool the bitmap goes back to, null if it is not from one.
+     */
+    static PixelImage copyPixels(final Bitmap bitmap, final int resourceId,
+                                 final StagingBufferPool buffers, final BitmapPool bitmaps) throws IOException {
+        if (bitmap == null) {
+            throw new IOException("Unable to decode resource " + resourceId);
+        }
+
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final ByteBuffer pixels = buffers.acquire(width * height * BYTES_PER_PIXEL);
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.position(0);
+
+        // Recycle the bitmap, since its data has been copied out.
+        if (bitmaps != null) {
+            bitmaps.recycle(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+
+        return new PixelImage(width, height, BYTES_PER_PIXEL, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, pixels);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Keeps the bitmaps panoramas are decoded into, so the next decode reuses one through
+ *         inBitmap instead of allocating tens of megabytes on the heap. From API 19 on, where a
+ *         decode may reconfigure any large enough mutable bitmap; before that inBitmap needs the
+ *         exact size, which tiles at the edges and sampled levels do not have. Thread safe.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+public class BitmapPool extends SizeClassPool<Bitmap> {
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Width of the bitmaps allocated for a size class, every class holds whole rows of it.
+     */
+    private static final int ALLOCATION_WIDTH = 256;
+
+    /**
+     * @param maxFreeBytes Bytes of idle bitmaps kept at most.
+     * @param leakListener Told about leaked bitmaps, null to not watch for leaks.
+     */
+    public BitmapPool(final long maxFreeBytes, final LeakListener leakListener) {
+        super(maxFreeBytes, leakListener);
+    }
+
+    /**
+     * Points the options at an idle bitmap that holds an ARGB_8888 image of the given size.
+     * Hand it to {@link #decoded} after the decode.
+     *
+     * @param options Decode options, made mutable.
+     * @param width   Width the decode produces.
+     * @param height  Height the decode produces.
+     */
+    public void prepare(final BitmapFactory.Options options, final int width, final int height) {
+        options.inMutable = true;
+        options.inBitmap = acquire(width * height * BYTES_PER_PIXEL);
+    }
+
+    /**
+     * Takes back the bitmap {@link #prepare} lent when the decode did not use it.
+     *
+     * @param options Decode options prepared by {@link #prepare}.
+     * @param decoded Result of the decode, null if it failed.
+     * @return True if the result is the lent bitmap, which goes back with {@link #recycle}.
+     */
+    public boolean decoded(final BitmapFactory.Options options, final Bitmap decoded) {
+        final Bitmap lent = options.inBitmap;
+        options.inBitmap = null;
+        if (lent != null && lent != decoded) {
+            recycle(lent);
+        }
+        return lent != null && lent == decoded;
+    }
+
+    @Override
+    protected Bitmap allocate(final int bytes) {
+        return Bitmap.createBitmap(ALLOCATION_WIDTH, bytes / (ALLOCATION_WIDTH * BYTES_PER_PIXEL),
+                Bitmap.Config.ARGB_8888);
+    }
+
+    @Override
+    protected int sizeOf(final Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    @Override
+    protected void free(final Bitmap bitmap) {
+        bitmap.recycle();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decodes regions of panorama resources with BitmapRegionDecoder.
+ */
+public class BitmapTileDecoder implements TileDecoder {
+
+    private final Resources mResources;
+    private final BitmapPool mBitmaps;
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private final Rect mRegion = new Rect();
+
+    private int mResourceId;
+    private BitmapRegionDecoder mRegionDecoder;
+
+    public BitmapTileDecoder(final Resources resources) {
+        this(resources, null);
+    }
+
+    /**
+     * @param resources Resources the panoramas are in.
+     * @param bitmaps   Bitmaps to decode into, null to decode into new ones.
+     */
+    public BitmapTileDecoder(final Resources resources, final BitmapPool bitmaps) {
+        this.mResources = resources;
+        this.mBitmaps = bitmaps;
+        mOptions.inScaled = false;    // No pre-scaling
+        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    @Override
+    public void open(final int resourceId) throws IOException {
+        close();
+
+        final InputStream inputStream = mResources.openRawResource(resourceId);
+        try {
+            mRegionDecoder = BitmapRegionDecoder.newInstance(inputStream, false);
+        } finally {
+            inputStream.close();
+        }
+        mResourceId = resourceId;
+    }
+
+    @Override
+    public int getWidth() {
+        return mRegionDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mRegionDecoder.getHeight();
+    }
+
+    @Override
+    public PixelImage decodeRegion(final int left, final int top, final int width, final int height,
+                                   final int sampleSize, final StagingBufferPool buffers) throws IOException {
+        mRegion.set(left, top, left + width, top + height);
+        mOptions.inSampleSize = sampleSize;
+        return BitmapPanoramaDecoder.decodeRegion(mRegionDecoder, mRegion, mOptions, mResourceId, buffers,
+                mBitmaps);
+    }
+
+    @Override
+    public void close() {
+        if (mRegionDecoder != null) {
+            mRegionDecoder.recycle();
+            mRegionDecoder = null;
+        }
+    }
+}
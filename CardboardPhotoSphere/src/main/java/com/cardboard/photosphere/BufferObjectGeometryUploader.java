@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Keeps the geometry in GL buffer objects, so it is copied to the GPU once instead of on
+ *         every draw.
+ */
+public class BufferObjectGeometryUploader implements GeometryUploader {
+
+    /**
+     * Vertex buffer in slot 0, index buffer in slot 1.
+     */
+    private final int[] mBufferHandles = new int[2];
+
+    private final RenderState mRenderState;
+    private final GLCalls mGL;
+
+    /**
+     * @param renderState Tracks the buffer bindings, so draws leave the buffers bound.
+     */
+    public BufferObjectGeometryUploader(final RenderState renderState) {
+        this.mRenderState = renderState;
+        this.mGL = renderState.getGL();
+    }
+
+    @Override
+    public boolean upload(final FloatBuffer vertices, final ShortBuffer indices) {
+        mGL.glGenBuffers(mBufferHandles.length, mBufferHandles, 0);
+
+        if (mBufferHandles[0] == 0 || mBufferHandles[1] == 0) {
+            release();
+            return false;
+        }
+
+        vertices.position(0);
+        mRenderState.bindBuffer(GLCalls.GL_ARRAY_BUFFER, mBufferHandles[0]);
+        mGL.glBufferData(GLCalls.GL_ARRAY_BUFFER, vertices.capacity() * SphereMesh.BYTES_PER_FLOAT,
+                vertices, GLCalls.GL_STATIC_DRAW);
+
+        indices.position(0);
+        mRenderState.bindBuffer(GLCalls.GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+        mGL.glBufferData(GLCalls.GL_ELEMENT_ARRAY_BUFFER, indices.capacity() * SphereMesh.BYTES_PER_SHORT,
+                indices, GLCalls.GL_STATIC_DRAW);
+        return true;
+    }
+
+    @Override
+    public void bindAttribute(final int handle, final int size, final int strideBytes, final int offset) {
+        mRenderState.bindBuffer(GLCalls.GL_ARRAY_BUFFER, mBufferHandles[0]);
+        mGL.glVertexAttribPointer(handle, size, GLCalls.GL_FLOAT, false, strideBytes,
+                offset * SphereMesh.BYTES_PER_FLOAT);
+    }
+
+    @Override
+    public void drawElements(final int mode, final int first, final int count) {
+        mRenderState.bindBuffer(GLCalls.GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+        mGL.glDrawElements(mode, count, GLCalls.GL_UNSIGNED_SHORT, first * SphereMesh.BYTES_PER_SHORT);
+    }
+
+    @Override
+    public void drawElementsInstanced(final int mode, final int first, final int count, final int instances) {
+        mRenderState.bindBuffer(GLCalls.GL_ELEMENT_ARRAY_BUFFER, mBufferHandles[1]);
+        mGL.glDrawElementsInstanced(mode, count, GLCalls.GL_UNSIGNED_SHORT, first * SphereMesh.BYTES_PER_SHORT,
+                instances);
+    }
+
+    @Override
+    public void release() {
+        mRenderState.deleteBuffers(mBufferHandles);
+        mBufferHandles[0] = 0;
+        mBufferHandles[1] = 0;
+    }
+}
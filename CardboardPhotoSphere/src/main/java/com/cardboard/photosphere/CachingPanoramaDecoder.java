@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Serves whole panoramas from a {@link PixelDiskCache}, decoding and storing them on a
+ *         miss. Entries are keyed by the resource's content and the tile size, so they come back
+ *         already tiled for the current GL context.
+ */
+public class CachingPanoramaDecoder implements PanoramaDecoder {
+
+    private static final String TAG = "CachingPanoramaDecoder";
+
+    private final PanoramaDecoder mDecoder;
+    private final PixelDiskCache mCache;
+    private final ResourceHasher mHasher;
+
+    public CachingPanoramaDecoder(final PanoramaDecoder decoder, final PixelDiskCache cache,
+                                  final ResourceHasher hasher) {
+        this.mDecoder = decoder;
+        this.mCache = cache;
+        this.mHasher = hasher;
+    }
+
+    @Override
+    public TiledImage decode(final int resourceId, final int maxTileSize, final StagingBufferPool buffers)
+            throws IOException {
+        final String key = mHasher.hash(resourceId) + "-t" + maxTileSize;
+        final TiledImage cached = mCache.get(key, buffers);
+        if (cached != null) {
+            return cached;
+        }
+
+        final TiledImage image = mDecoder.decode(resourceId, maxTileSize, buffers);
+        try {
+            mCache.put(key, image);
+        } catch (IOException e) {
+            // The cache is an optimisation only, carry on with the decoded image.
+            Log.w(TAG, "Unable to cache " + key, e);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Serves decoded regions from a {@link PixelDiskCache}, decoding and storing them on a
+ *         miss. Entries are keyed by the resource's content, the region and the sample size, so
+ *         base layers and tiles of every level are cached alike.
+ */
+public class CachingTileDecoder implements TileDecoder {
+
+    private static final String TAG = "CachingTileDecoder";
+
+    private final TileDecoder mDecoder;
+    private final PixelDiskCache mCache;
+    private final ResourceHasher mHasher;
+
+    private String mHash;
+
+    public CachingTileDecoder(final TileDecoder decoder, final PixelDiskCache cache, final ResourceHasher hasher) {
+        this.mDecoder = decoder;
+        this.mCache = cache;
+        this.mHasher = hasher;
+    }
+
+    @Override
+    public void open(final int resourceId) throws IOException {
+        mHash = null;
+        mDecoder.open(resourceId);
+        mHash = mHasher.hash(resourceId);
+    }
+
+    @Override
+    public int getWidth() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public PixelImage decodeRegion(final int left, final int top, final int width, final int height,
+                                   final int sampleSize, final StagingBufferPool buffers) throws IOException {
+        final String key = mHash + "-r" + left + "_" + top + "_" + width + "_" + height + "_s" + sampleSize;
+        final TiledImage cached = mCache.get(key, buffers);
+        if (cached != null) {
+            return cached.getTile(0);
+        }
+
+        final PixelImage image = mDecoder.decodeRegion(left, top, width, height, sampleSize, buffers);
+        try {
+            mCache.put(key, new TiledImage(
+                    new TileGrid(image.getWidth(), image.getHeight(),
+                            Math.max(image.getWidth(), image.getHeight())),
+                    new PixelImage[]{image}));
+        } catch (IOException e) {
+            // The cache is an optimisation only, carry on with the decoded region.
+            Log.w(TAG, "Unable to cache " + key, e);
+        }
+        return image;
+    }
+
+    @Override
+    public void close() {
+        mHash = null;
+        mDecoder.close();
+    }
+}
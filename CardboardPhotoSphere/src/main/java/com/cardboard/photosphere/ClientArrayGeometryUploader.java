@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Fallback that draws straight from client side buffers, for contexts where buffer
+ *         objects cannot be created. The driver copies the data on every draw.
+ */
+public class ClientArrayGeometryUploader implements GeometryUploader {
+
+    private FloatBuffer mVertices;
+    private ShortBuffer mIndices;
+
+    private final RenderState mRenderState;
+    private final GLCalls mGL;
+
+    /**
+     * @param renderState Tracks the buffer bindings, which must be 0 to draw from client memory.
+     */
+    public ClientArrayGeometryUploader(final RenderState renderState) {
+        this.mRenderState = renderState;
+        this.mGL = renderState.getGL();
+    }
+
+    @Override
+    public boolean upload(final FloatBuffer vertices, final ShortBuffer indices) {
+        mVertices = vertices;
+        mIndices = indices;
+        return true;
+    }
+
+    @Override
+    public void bindAttribute(final int handle, final int size, final int strideBytes, final int offset) {
+        mRenderState.bindBuffer(GLCalls.GL_ARRAY_BUFFER, 0);
+        mVertices.position(offset);
+        mGL.glVertexAttribPointer(handle, size, GLCalls.GL_FLOAT, false, strideBytes, mVertices);
+    }
+
+    @Override
+    public void drawElements(final int mode, final int first, final int count) {
+        mRenderState.bindBuffer(GLCalls.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mIndices.position(first);
+        mGL.glDrawElements(mode, count, GLCalls.GL_UNSIGNED_SHORT, mIndices);
+    }
+
+    @Override
+    public void drawElementsInstanced(final int mode, final int first, final int count, final int instances) {
+        mRenderState.bindBuffer(GLCalls.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mIndices.position(first);
+        mGL.glDrawElementsInstanced(mode, count, GLCalls.GL_UNSIGNED_SHORT, mIndices, instances);
+    }
+
+    @Override
+    public void release() {
+        mVertices = null;
+        mIndices = null;
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Resamples an equirectangular panorama into the six faces of a cube map.
+ *         <p/>
+ *         Faces are in GL_TEXTURE_CUBE_MAP_POSITIVE_X to NEGATIVE_Z order and laid out the way
+ *         the GL samples them, so the face texel a direction selects holds the panorama in that
+ *         direction, in the frame of {@link EquirectMath}. Both images are tightly packed 4 byte
+ *         pixels, top row first, whose channels are filtered independently.
+ *         <p/>
+ *         The rows of all faces are converted in parallel by a {@link ParallelRange}, or on the
+ *         calling thread without one. Pure Java, shared with the offline tools.
+ */
+public class CubemapConverter {
+
+    /**
+     * How the panorama is sampled.
+     */
+    public enum Filter {
+        /**
+         * 2x2 texels, weighted linearly.
+         */
+        BILINEAR,
+
+        /**
+         * 4x4 texels, weighted by a Catmull-Rom spline. Sharper, twice as slow.
+         */
+        BICUBIC
+    }
+
+    public static final int FACES = 6;
+    public static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Rows below which a task converts instead of splitting.
+     */
+    private static final int ROWS_PER_TASK = 16;
+
+    private final Filter mFilter;
+    private final ParallelRange mParallel;
+
+    /**
+     * @param filter   How the panorama is sampled.
+     * @param parallel Runs the rows in parallel, or null to convert on the calling thread.
+     */
+    public CubemapConverter(final Filter filter, final ParallelRange parallel) {
+        this.mFilter = filter;
+        this.mParallel = parallel;
+    }
+
+    /**
+     * Picks the face edge that keeps the panorama's texel density at the equator, where a face
+     * spans a quarter of its width.
+     *
+     * @param width   Panorama width.
+     * @param maxSize Largest face edge, e.g. GL_MAX_CUBE_MAP_TEXTURE_SIZE.
+     * @return The power of two nearest to a quarter of the width, at most the largest edge.
+     */
+    public static int faceSize(final int width, final int maxSize) {
+        final int quarter = Math.max(1, width / 4);
+        int size = Integer.highestOneBit(quarter);
+        if (quarter - size > size * 2 - quarter) {
+            size *= 2;
+        }
+        return Math.min(size, Integer.highestOneBit(maxSize));
+    }
+
+    /**
+     * Converts a panorama. Returns once all faces are written.
+     *
+     * @param source   Panorama pixels.
+     * @param width    Panorama width.
+     * @param height   Panorama height.
+     * @param faces    One buffer per face of at least faceSize^2 pixels, written from 0.
+     * @param faceSize Face edge in pixels.
+     */
+    public void convert(final ByteBuffer source, final int width, final int height, final ByteBuffer[] faces,
+                        final int faceSize) {
+        if (faces.length != FACES) {
+            throw new IllegalArgumentException("A cube map has " + FACES + " faces, not " + faces.length);
+        }
+        if (source.capacity() < width * height * BYTES_PER_PIXEL) {
+            throw new IllegalArgumentException("Pixel buffer too small for " + width + "x" + height);
+        }
+        for (ByteBuffer face : faces) {
+            if (face.capacity() < faceSize * faceSize * BYTES_PER_PIXEL) {
+                throw new IllegalArgumentException("Face buffer too small for " + faceSize + "x" + faceSize);
+            }
+        }
+
+        final Job job = new Job(mFilter, source, width, height, faces, faceSize);
+        if (mParallel == null) {
+            job.run(0, FACES * faceSize);
+        } else {
+            mParallel.run(job, 0, FACES * faceSize, ROWS_PER_TASK);
+        }
+    }
+
+    /**
+     * Direction through a point of a face, as the GL maps directions to faces.
+     *
+     * @param face      Face, 0 for GL_TEXTURE_CUBE_MAP_POSITIVE_X.
+     * @param s         Horizontal face coordinate, -1 at the left edge to 1 at the right.
+     * @param t         Vertical face coordinate, -1 at the top row to 1 at the bottom.
+     * @param direction Receives the direction, not normalised, its major axis is 1.
+     */
+    public static void faceDirection(final int face, final double s, final double t, final double[] direction) {
+        switch (face) {
+            case 0:
+                set(direction, 1, -t, -s);
+                break;
+            case 1:
+                set(direction, -1, -t, s);
+                break;
+            case 2:
+                set(direction, s, 1, t);
+                break;
+            case 3:
+                set(direction, s, -1, -t);
+                break;
+            case 4:
+                set(direction, s, -t, 1);
+                break;
+            case 5:
+                set(direction, -s, -t, -1);
+                break;
+            default:
+                throw new IllegalArgumentException("No face " + face);
+        }
+    }
+
+    private static void set(final double[] direction, final double x, final double y, final double z) {
+        direction[0] = x;
+        direction[1] = y;
+        direction[2] = z;
+    }
+
+    /**
+     * One conversion, shared by its tasks.
+     */
+    private static final class Job implements ParallelRange.Body {
+        final Filter mFilter;
+        final ByteBuffer mSource;
+        final int mWidth;
+        final int mHeight;
+        final ByteBuffer[] mFaces;
+        final int mFaceSize;
+
+        Job(final Filter filter, final ByteBuffer source, final int width, final int height,
+            final ByteBuffer[] faces, final int faceSize) {
+            this.mFilter = filter;
+            this.mSource = source;
+            this.mWidth = width;
+            this.mHeight = height;
+            this.mFaces = faces;
+            this.mFaceSize = faceSize;
+        }
+
+        /**
+         * Converts rows of the faces taken one after another, face 0 first.
+         */
+        @Override
+        public void run(final int firstRow, final int endRow) {
+            final double[] direction = new double[3];
+            final float[] uv = new float[2];
+            final int[] pixel = new int[BYTES_PER_PIXEL];
+
+            for (int row = firstRow; row < endRow; row++) {
+                final int face = row / mFaceSize;
+                final int y = row % mFaceSize;
+                final ByteBuffer target = mFaces[face];
+                final double t = 2.0 * (y + 0.5) / mFaceSize - 1;
+                int offset = y * mFaceSize * BYTES_PER_PIXEL;
+
+                for (int x = 0; x < mFaceSize; x++) {
+                    faceDirection(face, 2.0 * (x + 0.5) / mFaceSize - 1, t, direction);
+                    final double length = Math.sqrt(direction[0] * direction[0]
+                            + direction[1] * direction[1] + direction[2] * direction[2]);
+                    EquirectMath.directionToUv(direction[0] / length, direction[1] / length,
+                            direction[2] / length, uv);
+
+                    final double sx = uv[0] * mWidth - 0.5;
+                    final double sy = uv[1] * mHeight - 0.5;
+                    if (mFilter == Filter.BICUBIC) {
+                        sampleBicubic(sx, sy, pixel);
+                    } else {
+                        sampleBilinear(sx, sy, pixel);
+                    }
+                    for (int channel = 0; channel < BYTES_PER_PIXEL; channel++) {
+                        target.put(offset++, (byte) pixel[channel]);
+                    }
+                }
+            }
+        }
+
+        private void sampleBilinear(final double x, final double y, final int[] pixel) {
+            final int x0 = (int) Math.floor(x);
+            final int y0 = (int) Math.floor(y);
+            final double fx = x - x0;
+            final double fy = y - y0;
+            final int left = wrapColumn(x0);
+            final int right = wrapColumn(x0 + 1);
+            final int top = clampRow(y0);
+            final int bottom = clampRow(y0 + 1);
+
+            for (int channel = 0; channel < BYTES_PER_PIXEL; channel++) {
+                final double upper = texel(left, top, channel) * (1 - fx) + texel(right, top, channel) * fx;
+                final double lower = texel(left, bottom, channel) * (1 - fx) + texel(right, bottom, channel) * fx;
+                pixel[channel] = (int) (upper * (1 - fy) + lower * fy + 0.5);
+            }
+        }
+
+        private void sampleBicubic(final double x, final double y, final int[] pixel) {
+            final int x0 = (int) Math.floor(x);
+            final int y0 = (int) Math.floor(y);
+            final double fx = x - x0;
+            final double fy = y - y0;
+
+            for (int channel = 0; channel < BYTES_PER_PIXEL; channel++) {
+                double sum = 0;
+                for (int j = -1; j <= 2; j++) {
+                    final int row = clampRow(y0 + j);
+                    double line = 0;
+                    for (int i = -1; i <= 2; i++) {
+                        line += texel(wrapColumn(x0 + i), row, channel) * catmullRom(i - fx);
+                    }
+                    sum += line * catmullRom(j - fy);
+                }
+                pixel[channel] = (int) Math.max(0, Math.min(255, sum + 0.5));
+            }
+        }
+
+        private int texel(final int x, final int y, final int channel) {
+            return mSource.get((y * mWidth + x) * BYTES_PER_PIXEL + channel) & 0xff;
+        }
+
+        /**
+         * The panorama wraps around horizontally.
+         */
+        private int wrapColumn(final int x) {
+            final int column = x % mWidth;
+            return column < 0 ? column + mWidth : column;
+        }
+
+        private int clampRow(final int y) {
+            return Math.max(0, Math.min(mHeight - 1, y));
+        }
+
+        /**
+         * Catmull-Rom weight of a texel at a distance.
+         */
+        private static double catmullRom(final double distance) {
+            final double x = Math.abs(distance);
+            if (x < 1) {
+                return (1.5 * x - 2.5) * x * x + 1;
+            }
+            if (x < 2) {
+                return ((-0.5 * x + 2.5) * x - 4) * x + 2;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The equirectangular mapping between directions and texture coordinates, as the proxy
+ *         fragment shader computes it per pixel. Kept in step with
+ *         {@code _fragment_shader_equirect.glsl}, the benchmarks' EquirectShaderCheck compares
+ *         the two, and both against the sphere mesh, at the seam, the poles and in between.
+ *         <p/>
+ *         Directions use the sphere's frame: y up, azimuth from +x towards +z. u runs with the
+ *         azimuth from 0 to 1, v from the north pole at 0 to the south pole at 1, so both match
+ *         the texture coordinates the sphere mesh ends up sampling with: its fragment shader
+ *         samples at 1 - s, not at the s stored in the mesh.
+ */
+public final class EquirectMath {
+
+    private EquirectMath() {
+    }
+
+    /**
+     * Texture coordinate of a direction.
+     *
+     * @param x  Unit direction, x.
+     * @param y  Unit direction, y.
+     * @param z  Unit direction, z.
+     * @param uv Receives u and v, each 0 to 1.
+     */
+    public static void directionToUv(final double x, final double y, final double z, final float[] uv) {
+        double u = Math.atan2(z, x) / Maths.THREE_SIXTY_DEGREES;
+        u -= Math.floor(u);
+        uv[0] = (float) u;
+        uv[1] = (float) (Math.acos(Math.max(-1.0, Math.min(1.0, y))) / Maths.ONE_EIGHTY_DEGREES);
+    }
+
+    /**
+     * Direction of a texture coordinate, the inverse of {@link #directionToUv}.
+     *
+     * @param u         Horizontal texture coordinate.
+     * @param v         Vertical texture coordinate.
+     * @param direction Receives the unit direction.
+     */
+    public static void uvToDirection(final double u, final double v, final float[] direction) {
+        final double azimuth = u * Maths.THREE_SIXTY_DEGREES;
+        final double polar = v * Maths.ONE_EIGHTY_DEGREES;
+        direction[0] = (float) (Math.sin(polar) * Math.cos(azimuth));
+        direction[1] = (float) Math.cos(polar);
+        direction[2] = (float) (Math.sin(polar) * Math.sin(azimuth));
+    }
+
+    /**
+     * Where a ray from inside a sphere centred on the origin leaves it, as a direction from the
+     * centre. This is the point of the sphere an eye off the centre sees.
+     *
+     * @param eye       Ray origin, inside the sphere.
+     * @param x         Ray direction, x, need not be unit length.
+     * @param y         Ray direction, y.
+     * @param z         Ray direction, z.
+     * @param radius    Sphere radius.
+     * @param direction Receives the unit direction from the centre to the exit point.
+     */
+    public static void exitDirection(final float[] eye, final double x, final double y, final double z,
+                                     final double radius, final float[] direction) {
+        final double length = Math.sqrt(x * x + y * y + z * z);
+        final double dx = x / length;
+        final double dy = y / length;
+        final double dz = z / length;
+        final double b = eye[0] * dx + eye[1] * dy + eye[2] * dz;
+        final double c = eye[0] * eye[0] + eye[1] * eye[1] + eye[2] * eye[2] - radius * radius;
+        final double t = -b + Math.sqrt(b * b - c);
+        direction[0] = (float) ((eye[0] + t * dx) / radius);
+        direction[1] = (float) ((eye[1] + t * dy) / radius);
+        direction[2] = (float) ((eye[2] + t * dz) / radius);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A tiled, mipmapped panorama of ETC compressed blocks, as written by the offline
+ *         transcoder.
+ *         <p/>
+ *         Layout, all integers big endian:
+ *         <pre>
+ *         int magic "ETCP", int version, int GL format
+ *         int image width, int image height, int max tile size, int level count
+ *         per tile, per level: int offset, int length
+ *         blocks
+ *         </pre>
+ *         Tiles follow the {@link TileGrid} of the image and tile size. Level n of a tile is the
+ *         tile scaled down by 2^n, at least 1 pixel. Offsets count from the start of the file.
+ *         <p/>
+ *         Pure Java, shared with the transcoder.
+ */
+public class EtcContainer {
+
+    /**
+     * GL_ETC1_RGB8_OES. ETC1 blocks are also valid ETC2 RGB8 blocks.
+     */
+    public static final int GL_ETC1_RGB8_OES = 0x8D64;
+
+    /**
+     * GL_COMPRESSED_RGB8_ETC2, core in OpenGL ES 3.0.
+     */
+    public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+
+    /**
+     * Bytes of one 4x4 block.
+     */
+    public static final int BYTES_PER_BLOCK = 8;
+
+    private static final int MAGIC = 0x45544350;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 7;
+    private static final int BYTES_PER_INT = 4;
+
+    private final ByteBuffer mData;
+    private final int mFormat;
+    private final TileGrid mGrid;
+    private final int mLevelCount;
+
+    private EtcContainer(final ByteBuffer data, final int format, final TileGrid grid, final int levelCount) {
+        this.mData = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.mFormat = format;
+        this.mGrid = grid;
+        this.mLevelCount = levelCount;
+    }
+
+    /**
+     * Reads a container, checking that every level is where and as large as it should be.
+     *
+     * @param data Whole file, e.g. memory mapped. Kept by the container.
+     * @return The container.
+     * @throws IOException If the data is not a valid container.
+     */
+    public static EtcContainer read(final ByteBuffer data) throws IOException {
+        final ByteBuffer header = data.duplicate().order(ByteOrder.BIG_ENDIAN);
+        header.position(0);
+        if (header.remaining() < HEADER_INTS * BYTES_PER_INT || header.getInt() != MAGIC) {
+            throw new IOException("Not an ETC container");
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported ETC container version " + version);
+        }
+
+        final int format = header.getInt();
+        final TileGrid grid;
+        try {
+            grid = new TileGrid(header.getInt(), header.getInt(), header.getInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid ETC container grid", e);
+        }
+        final int levelCount = header.getInt();
+        if (levelCount <= 0 || header.remaining() < (long) grid.getTileCount() * levelCount * 2 * BYTES_PER_INT) {
+            throw new IOException("Truncated ETC container");
+        }
+
+        final EtcContainer container = new EtcContainer(data, format, grid, levelCount);
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            for (int level = 0; level < levelCount; level++) {
+                final int offset = container.getLevelOffset(tile, level);
+                final int length = container.getLevelLength(tile, level);
+                if (length != dataSize(container.getLevelWidth(tile, level), container.getLevelHeight(tile, level))
+                        || offset < 0 || (long) offset + length > data.capacity()) {
+                    throw new IOException("Corrupt ETC container at tile " + tile + " level " + level);
+                }
+            }
+        }
+        return container;
+    }
+
+    /**
+     * Writes a container.
+     *
+     * @param output     Stream to write to.
+     * @param format     GL compressed format of the blocks.
+     * @param grid       Tile layout of the image.
+     * @param levelCount Number of levels of every tile.
+     * @param blocks     Blocks per tile and level, in {@link TileGrid#getTileIndex} order.
+     * @throws IOException If the stream fails.
+     */
+    public static void write(final OutputStream output, final int format, final TileGrid grid,
+                             final int levelCount, final byte[][][] blocks) throws IOException {
+        final DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(format);
+        data.writeInt(grid.getImageWidth());
+        data.writeInt(grid.getImageHeight());
+        data.writeInt(grid.getMaxTileSize());
+        data.writeInt(levelCount);
+
+        int offset = (HEADER_INTS + grid.getTileCount() * levelCount * 2) * BYTES_PER_INT;
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            for (int level = 0; level < levelCount; level++) {
+                data.writeInt(offset);
+                data.writeInt(blocks[tile][level].length);
+                offset += blocks[tile][level].length;
+            }
+        }
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            for (int level = 0; level < levelCount; level++) {
+                data.write(blocks[tile][level]);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * @return Bytes of ETC blocks covering an image, partial blocks included.
+     */
+    public static int dataSize(final int width, final int height) {
+        return ((width + 3) / 4) * ((height + 3) / 4) * BYTES_PER_BLOCK;
+    }
+
+    /**
+     * @return Edge of a level, halved per level and at least 1.
+     */
+    public static int levelSize(final int size, final int level) {
+        return Math.max(1, size >> level);
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public TileGrid getGrid() {
+        return mGrid;
+    }
+
+    public int getLevelCount() {
+        return mLevelCount;
+    }
+
+    public int getLevelWidth(final int tile, final int level) {
+        return levelSize(mGrid.getTileWidth(tile % mGrid.getColumns()), level);
+    }
+
+    public int getLevelHeight(final int tile, final int level) {
+        return levelSize(mGrid.getTileHeight(tile / mGrid.getColumns()), level);
+    }
+
+    /**
+     * @return Blocks of a level, as a view into the container's data.
+     */
+    public ByteBuffer getLevelData(final int tile, final int level) {
+        final ByteBuffer blocks = mData.duplicate();
+        blocks.position(getLevelOffset(tile, level));
+        blocks.limit(blocks.position() + getLevelLength(tile, level));
+        return blocks.slice();
+    }
+
+    private int getLevelOffset(final int tile, final int level) {
+        return mData.getInt(entry(tile, level));
+    }
+
+    private int getLevelLength(final int tile, final int level) {
+        return mData.getInt(entry(tile, level) + BYTES_PER_INT);
+    }
+
+    private int entry(final int tile, final int level) {
+        return (HEADER_INTS + (tile * mLevelCount + level) * 2) * BYTES_PER_INT;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Finds the compressed containers the transcoder made for panorama resources.
+ *         <p/>
+ *         The container of R.drawable.photo_sphere_1 is the asset panoramas/photo_sphere_1.etcp.
+ *         Containers are stored uncompressed in the APK, so they are memory mapped instead of
+ *         read. They are only used while the GL context can sample ETC blocks.
+ */
+public class EtcPanoramaAssets {
+
+    private static final String DIRECTORY = "panoramas/";
+    private static final String SUFFIX = ".etcp";
+
+    private final Resources mResources;
+    private final AssetManager mAssets;
+
+    /**
+     * Compressed format of the current GL context, 0 if it has none.
+     */
+    private volatile int mTextureFormat;
+
+    public EtcPanoramaAssets(final Resources resources, final AssetManager assets) {
+        this.mResources = resources;
+        this.mAssets = assets;
+    }
+
+    /**
+     * Sets the format ETC blocks are uploaded as, see {@link TextureHelper#getEtcTextureFormat}.
+     *
+     * @param textureFormat GL compressed format, or 0 to decode the resources instead.
+     */
+    public void setTextureFormat(final int textureFormat) {
+        mTextureFormat = textureFormat;
+    }
+
+    /**
+     * Maps the container of a resource.
+     *
+     * @param resourceId Panorama resource.
+     * @return The container, or null if there is none or the GL cannot use it.
+     * @throws IOException If the container exists but cannot be read.
+     */
+    public EtcContainer open(final int resourceId) throws IOException {
+        if (mTextureFormat == 0) {
+            return null;
+        }
+
+        final AssetFileDescriptor descriptor;
+        try {
+            descriptor = mAssets.openFd(DIRECTORY + mResources.getResourceEntryName(resourceId) + SUFFIX);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        try {
+            final FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+            try {
+                final ByteBuffer data = input.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        descriptor.getStartOffset(), descriptor.getLength());
+                return EtcContainer.read(data);
+            } finally {
+                input.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Copies a level of a tile out of the mapped container.
+     *
+     * @param container Container to copy from.
+     * @param tile      Tile of the container's grid.
+     * @param level     Level of the tile.
+     * @param buffers   Pool to take the block buffer from.
+     * @return The compressed image, tagged with the current GL format.
+     */
+    public PixelImage copyLevel(final EtcContainer container, final int tile, final int level,
+                                final StagingBufferPool buffers) {
+        final ByteBuffer source = container.getLevelData(tile, level);
+        final int byteCount = source.remaining();
+        final ByteBuffer blocks = buffers.acquire(byteCount);
+        blocks.put(source);
+        blocks.position(0);
+        return new PixelImage(container.getLevelWidth(tile, level), container.getLevelHeight(tile, level),
+                mTextureFormat, blocks, byteCount);
+    }
+}
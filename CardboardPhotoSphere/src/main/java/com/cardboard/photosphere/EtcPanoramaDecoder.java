@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Loads panoramas from their ETC containers when there are any, and decodes the
+ *         resources otherwise. Compressed tiles take a quarter to an eighth of the texture
+ *         memory of decoded ones.
+ */
+public class EtcPanoramaDecoder implements PanoramaDecoder {
+
+    private final PanoramaDecoder mDecoder;
+    private final EtcPanoramaAssets mAssets;
+
+    public EtcPanoramaDecoder(final PanoramaDecoder decoder, final EtcPanoramaAssets assets) {
+        this.mDecoder = decoder;
+        this.mAssets = assets;
+    }
+
+    @Override
+    public TiledImage decode(final int resourceId, final int maxTileSize, final StagingBufferPool buffers)
+            throws IOException {
+        final EtcContainer container = mAssets.open(resourceId);
+        if (container == null || container.getGrid().getMaxTileSize() > maxTileSize) {
+            return mDecoder.decode(resourceId, maxTileSize, buffers);
+        }
+
+        // The container's own tiles fit the context, use its full resolution level.
+        final TileGrid grid = container.getGrid();
+        final PixelImage[] tiles = new PixelImage[grid.getTileCount()];
+        for (int tile = 0; tile < tiles.length; tile++) {
+            tiles[tile] = mAssets.copyLevel(container, tile, 0, buffers);
+        }
+        return new TiledImage(grid, tiles);
+    }
+}
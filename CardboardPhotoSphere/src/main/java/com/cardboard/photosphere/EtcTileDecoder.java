@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Serves streamed tiles from the ETC container of a panorama when there is one.
+ *         <p/>
+ *         A region is served from the container if it is exactly one of its tiles, at a sample
+ *         size matching one of its levels. Anything else, like the base layer of the whole
+ *         panorama, is decoded from the resource.
+ */
+public class EtcTileDecoder implements TileDecoder {
+
+    private final TileDecoder mDecoder;
+    private final EtcPanoramaAssets mAssets;
+
+    private EtcContainer mContainer;
+
+    public EtcTileDecoder(final TileDecoder decoder, final EtcPanoramaAssets assets) {
+        this.mDecoder = decoder;
+        this.mAssets = assets;
+    }
+
+    @Override
+    public void open(final int resourceId) throws IOException {
+        mContainer = null;
+        mDecoder.open(resourceId);
+        mContainer = mAssets.open(resourceId);
+    }
+
+    @Override
+    public int getWidth() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public PixelImage decodeRegion(final int left, final int top, final int width, final int height,
+                                   final int sampleSize, final StagingBufferPool buffers) throws IOException {
+        final int tile = findTile(left, top, width, height);
+        final int level = Integer.numberOfTrailingZeros(sampleSize);
+        if (tile >= 0 && sampleSize == 1 << level && level < mContainer.getLevelCount()) {
+            return mAssets.copyLevel(mContainer, tile, level, buffers);
+        }
+        return mDecoder.decodeRegion(left, top, width, height, sampleSize, buffers);
+    }
+
+    @Override
+    public void close() {
+        mContainer = null;
+        mDecoder.close();
+    }
+
+    /**
+     * @return The container tile covering exactly the region, or -1.
+     */
+    private int findTile(final int left, final int top, final int width, final int height) {
+        if (mContainer == null) {
+            return -1;
+        }
+        final TileGrid grid = mContainer.getGrid();
+        for (int row = 0; row < grid.getRows(); row++) {
+            if (grid.getTileY(row) != top || grid.getTileHeight(row) != height) {
+                continue;
+            }
+            for (int column = 0; column < grid.getColumns(); column++) {
+                if (grid.getTileX(column) == left && grid.getTileWidth(column) == width) {
+                    return grid.getTileIndex(column, row);
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The view projection matrix of every eye, recomputed only when the eye's view, the
+ *         head correction, the camera or the projection changed since it was last asked for. Pure Java and
+ *         allocation free after construction.
+ *         <p/>
+ *         Matrices are column major, as android.opengl.Matrix keeps them.
+ */
+public class EyeMatrices {
+
+    /**
+     * Eyes tracked, indexed as com.google.vrtoolkit.cardboard.Eye.Type numbers them.
+     */
+    public static final int MAX_EYES = 3;
+
+    private final float[] mCamera = new float[16];
+    private final float[] mHeadCorrection = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+    private final float[] mCorrectedEyeView = new float[16];
+    private final float[] mProjection = new float[16];
+    private final float[][] mEyeViews = new float[MAX_EYES][16];
+    private final float[][] mViews = new float[MAX_EYES][16];
+    private final float[][] mViewProjections = new float[MAX_EYES][16];
+    private final float[][] mEyePositions = new float[MAX_EYES][3];
+    private final boolean[] mValid = new boolean[MAX_EYES];
+
+    /**
+     * @param camera Camera matrix, applied before every eye's view.
+     */
+    public void setCamera(final float[] camera) {
+        if (copyIfChanged(camera, mCamera)) {
+            invalidate();
+        }
+    }
+
+    /**
+     * @param headCorrection Rotation applied between every eye's view and the camera, e.g. to
+     *                       move the head to a predicted orientation. Identity for none.
+     */
+    public void setHeadCorrection(final float[] headCorrection) {
+        if (copyIfChanged(headCorrection, mHeadCorrection)) {
+            invalidate();
+        }
+    }
+
+    /**
+     * @param projection Projection matrix, applied after every eye's view.
+     */
+    public void setProjection(final float[] projection) {
+        if (copyIfChanged(projection, mProjection)) {
+            invalidate();
+        }
+    }
+
+    /**
+     * @param eye     Eye type, below {@link #MAX_EYES}.
+     * @param eyeView View matrix of the eye in this frame.
+     * @return projection * eyeView * headCorrection * camera, owned by this object and valid until the eye's next
+     * call.
+     */
+    public float[] getViewProjection(final int eye, final float[] eyeView) {
+        if (copyIfChanged(eyeView, mEyeViews[eye]) || !mValid[eye]) {
+            multiply(mCorrectedEyeView, mEyeViews[eye], mHeadCorrection);
+            multiply(mViews[eye], mCorrectedEyeView, mCamera);
+            multiply(mViewProjections[eye], mProjection, mViews[eye]);
+            eyePosition(mEyePositions[eye], mViews[eye]);
+            mValid[eye] = true;
+        }
+        return mViewProjections[eye];
+    }
+
+    /**
+     * @param eye Eye type, below {@link #MAX_EYES}.
+     * @return Position of the eye in model space as x, y and z, from the eye's last
+     * {@link #getViewProjection} call. Owned by this object.
+     */
+    public float[] getEyePosition(final int eye) {
+        return mEyePositions[eye];
+    }
+
+    private void invalidate() {
+        for (int eye = 0; eye < MAX_EYES; eye++) {
+            mValid[eye] = false;
+        }
+    }
+
+    /**
+     * @return True if the target differed from the source and was overwritten.
+     */
+    private static boolean copyIfChanged(final float[] source, final float[] target) {
+        boolean changed = false;
+        for (int i = 0; i < 16; i++) {
+            if (target[i] != source[i]) {
+                target[i] = source[i];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Origin of a rigid view matrix in model space, -R^T * t.
+     */
+    static void eyePosition(final float[] result, final float[] view) {
+        for (int axis = 0; axis < 3; axis++) {
+            result[axis] = -(view[axis * 4] * view[12] + view[axis * 4 + 1] * view[13]
+                    + view[axis * 4 + 2] * view[14]);
+        }
+    }
+
+    /**
+     * result = lhs * rhs. The result must not be either input.
+     */
+    static void multiply(final float[] result, final float[] lhs, final float[] rhs) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[k * 4 + row] * rhs[column * 4 + k];
+                }
+                result[column * 4 + row] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Runs a loop on a fork-join pool, halving the range until it is down to the grain.
+ *         <p/>
+ *         The only app class that refers to fork-join types. ForkJoinPool is only on Android from
+ *         API 21, so this class must only be loaded behind an SDK_INT check.
+ */
+public class ForkJoinRange implements ParallelRange {
+
+    private final ForkJoinPool mPool;
+
+    /**
+     * Runs on a new pool of one thread per processor.
+     */
+    public ForkJoinRange() {
+        this(new ForkJoinPool());
+    }
+
+    public ForkJoinRange(final ForkJoinPool pool) {
+        this.mPool = pool;
+    }
+
+    @Override
+    public void run(final Body body, final int first, final int end, final int grain) {
+        mPool.invoke(new Split(body, first, end, Math.max(1, grain)));
+    }
+
+    /**
+     * Runs a range of iterations, split in halves until it is small enough.
+     */
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Body mBody;
+        private final int mFirst;
+        private final int mEnd;
+        private final int mGrain;
+
+        Split(final Body body, final int first, final int end, final int grain) {
+            this.mBody = body;
+            this.mFirst = first;
+            this.mEnd = end;
+            this.mGrain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mFirst <= mGrain) {
+                mBody.run(mFirst, mEnd);
+                return;
+            }
+            final int middle = (mFirst + mEnd) >>> 1;
+            invokeAll(new Split(mBody, mFirst, middle, mGrain), new Split(mBody, middle, mEnd, mGrain));
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Draws an eye foveated, as laid out by a {@link FoveationLayout}. The eye is first drawn
+ *         whole into a low resolution texture, which is then scaled up into the eye's viewport
+ *         around the inner region, and the inner region is drawn at full resolution:
+ *         <pre>
+ *         renderer.onNewFrame();
+ *         ...
+ *         renderer.beginPeriphery(layout);
+ *         surface.draw(...);
+ *         renderer.beginInner(layout, eyeViewport);
+ *         surface.draw(...);
+ *         </pre>
+ *         The framebuffer bound before the first {@link #beginPeriphery} of a frame, e.g. the one
+ *         Cardboard distorts from, is bound again for the inner region. It is only queried once
+ *         per frame, as a GL query can stall a threaded driver.
+ */
+public class FoveatedRenderer {
+
+    /**
+     * Corners of a quad covering the viewport, and its two triangles.
+     */
+    private static final float[] QUAD = {-1, -1, 1, -1, 1, 1, -1, 1};
+    private static final short[] TRIANGLES = {0, 1, 2, 0, 2, 3};
+    private static final int NUM_FLOATS_PER_POSITION = 2;
+    private static final int VERTEX_STRIDE = NUM_FLOATS_PER_POSITION * SphereMesh.BYTES_PER_FLOAT;
+
+    private static final String[] ATTRIBUTES = {"a_Position"};
+    private static final String[] UNIFORMS = {"u_Texture"};
+    private static final int POSITION = 0;
+    private static final int TEXTURE = 0;
+    private static final int TEXTURE_UNIT = 0;
+
+    private final RenderState mRenderState;
+    private final ShaderProgramCache mPrograms;
+    private final int[] mHandle = new int[1];
+
+    private ShaderProgram mProgram;
+    private GeometryUploader mGeometryUploader;
+    private FloatBuffer mVertexBuffer;
+    private ShortBuffer mIndexBuffer;
+
+    /**
+     * Low resolution target of the periphery, created at the first size it is needed at.
+     */
+    private int mFramebuffer;
+    private int mTexture;
+    private int mTargetWidth;
+    private int mTargetHeight;
+
+    /**
+     * Framebuffer bound before the periphery was drawn, and whether it was queried this frame.
+     */
+    private int mEyeFramebuffer;
+    private boolean mEyeFramebufferQueried;
+
+    /**
+     * @param renderState GL state shared with the rest of the renderer.
+     * @param programs    Programs shared with the rest of the renderer.
+     */
+    public FoveatedRenderer(final RenderState renderState, final ShaderProgramCache programs) {
+        this.mRenderState = renderState;
+        this.mPrograms = programs;
+    }
+
+    /**
+     * Creates the GL objects of the compositing pass. Must be called on the GL thread every time
+     * a new surface (and so a new GL context) is created.
+     *
+     * @param context Context used to read the shaders.
+     */
+    public void onSurfaceCreated(final Context context) {
+
+        // The target went away with the previous context.
+        mEyeFramebufferQueried = false;
+        mFramebuffer = 0;
+        mTexture = 0;
+
+        mProgram = mPrograms.getProgram(getProgramKeys(context).get(0), UNIFORMS);
+        mRenderState.useProgram(mProgram.getHandle());
+        GLES20.glUniform1i(mProgram.getUniformLocation(TEXTURE), TEXTURE_UNIT);
+
+        releaseBuffers();
+        ByteBuffer byteBuffer = NativeMemoryTracker.get().allocate(NativeMemoryTracker.Owner.GEOMETRY,
+                QUAD.length * SphereMesh.BYTES_PER_FLOAT);
+        mVertexBuffer = byteBuffer.asFloatBuffer();
+        mVertexBuffer.put(QUAD);
+        mVertexBuffer.position(0);
+        byteBuffer = NativeMemoryTracker.get().allocate(NativeMemoryTracker.Owner.GEOMETRY,
+                TRIANGLES.length * SphereMesh.BYTES_PER_SHORT);
+        mIndexBuffer = byteBuffer.asShortBuffer();
+        mIndexBuffer.put(TRIANGLES);
+        mIndexBuffer.position(0);
+
+        mGeometryUploader = new BufferObjectGeometryUploader(mRenderState);
+        if (mGeometryUploader.upload(mVertexBuffer, mIndexBuffer)) {
+            releaseBuffers();
+        } else {
+            mGeometryUploader = new ClientArrayGeometryUploader(mRenderState);
+            mGeometryUploader.upload(mVertexBuffer, mIndexBuffer);
+        }
+    }
+
+    /**
+     * Starts a frame, the eye framebuffer is queried again before its first foveated eye.
+     */
+    public void onNewFrame() {
+        mEyeFramebufferQueried = false;
+    }
+
+    /**
+     * Binds the periphery target and clears it. The eye is then drawn whole, with its own
+     * matrices.
+     *
+     * @param layout Layout of the eye.
+     */
+    public void beginPeriphery(final FoveationLayout layout) {
+        if (!mEyeFramebufferQueried) {
+            GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, mHandle, 0);
+            mEyeFramebuffer = mHandle[0];
+            mEyeFramebufferQueried = true;
+        }
+
+        if (mFramebuffer == 0 || mTargetWidth != layout.getPeripheryWidth()
+                || mTargetHeight != layout.getPeripheryHeight()) {
+            deleteTarget();
+            createTarget(layout.getPeripheryWidth(), layout.getPeripheryHeight());
+        }
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glViewport(0, 0, mTargetWidth, mTargetHeight);
+        mRenderState.setEnabled(GLES20.GL_SCISSOR_TEST, false);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    }
+
+    /**
+     * Scales the periphery up into the eye's viewport around the inner region, and limits
+     * drawing to the inner region. The eye is then drawn again, with the same matrices.
+     *
+     * @param layout      Layout of the eye.
+     * @param eyeViewport Viewport of the eye as x, y, width, height.
+     */
+    public void beginInner(final FoveationLayout layout, final int[] eyeViewport) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mEyeFramebuffer);
+        GLES20.glViewport(eyeViewport[0], eyeViewport[1], eyeViewport[2], eyeViewport[3]);
+        mRenderState.setEnabled(GLES20.GL_SCISSOR_TEST, true);
+
+        mRenderState.useProgram(mProgram.getHandle());
+        mRenderState.setEnabled(GLES20.GL_CULL_FACE, false);
+        final int positionHandle = mProgram.getAttributeLocation(POSITION);
+        mGeometryUploader.bindAttribute(positionHandle, NUM_FLOATS_PER_POSITION, VERTEX_STRIDE, 0);
+        mRenderState.setVertexAttribArrayEnabled(positionHandle, true);
+        mRenderState.bindTexture(TEXTURE_UNIT, mTexture);
+        final int[] rects = layout.getCompositeRects();
+        for (int i = 0; i < layout.getCompositeRectCount() * 4; i += 4) {
+            GLES20.glScissor(eyeViewport[0] + rects[i], eyeViewport[1] + rects[i + 1], rects[i + 2], rects[i + 3]);
+            mGeometryUploader.drawElements(GLES20.GL_TRIANGLES, 0, TRIANGLES.length);
+        }
+
+        final int[] inner = layout.getInnerRect();
+        GLES20.glScissor(eyeViewport[0] + inner[0], eyeViewport[1] + inner[1], inner[2], inner[3]);
+    }
+
+    private void createTarget(final int width, final int height) {
+        mTexture = TextureHelper.createTexture(width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                GLES20.GL_CLAMP_TO_EDGE, TextureSampling.BILINEAR);
+        mRenderState.invalidateTextures();
+
+        GLES20.glGenFramebuffers(1, mHandle, 0);
+        mFramebuffer = mHandle[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D,
+                mTexture, 0);
+        final int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mEyeFramebuffer);
+            deleteTarget();
+            throw new RuntimeException("Incomplete periphery framebuffer " + status);
+        }
+        mTargetWidth = width;
+        mTargetHeight = height;
+    }
+
+    private void deleteTarget() {
+        if (mFramebuffer != 0) {
+            mHandle[0] = mFramebuffer;
+            GLES20.glDeleteFramebuffers(1, mHandle, 0);
+            mFramebuffer = 0;
+        }
+        if (mTexture != 0) {
+            mHandle[0] = mTexture;
+            GLES20.glDeleteTextures(1, mHandle, 0);
+            mRenderState.invalidateTextures();
+            mTexture = 0;
+        }
+    }
+
+    private void releaseBuffers() {
+        if (mVertexBuffer != null) {
+            NativeMemoryTracker.get().release(NativeMemoryTracker.Owner.GEOMETRY,
+                    mVertexBuffer.capacity() * SphereMesh.BYTES_PER_FLOAT);
+            NativeMemoryTracker.get().release(NativeMemoryTracker.Owner.GEOMETRY,
+                    mIndexBuffer.capacity() * SphereMesh.BYTES_PER_SHORT);
+            mVertexBuffer = null;
+            mIndexBuffer = null;
+        }
+    }
+
+    /**
+     * Releases the GL objects of the renderer.
+     */
+    public void release() {
+        deleteTarget();
+        if (mGeometryUploader != null) {
+            mGeometryUploader.release();
+            mGeometryUploader = null;
+        }
+        releaseBuffers();
+
+        // The program belongs to the cache.
+        mProgram = null;
+    }
+
+    /**
+     * @param context Context used to read the shaders.
+     * @return The programs {@link #onSurfaceCreated} asks its {@link ShaderProgramCache} for.
+     */
+    public List<ShaderProgramCache.Key> getProgramKeys(final Context context) {
+        return Collections.singletonList(new ShaderProgramCache.Key(
+                ResourceAssets.readText(context, R.raw._vertex_shader_blit),
+                ResourceAssets.readText(context, R.raw._fragment_shader_blit),
+                ATTRIBUTES));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Splits an eye's viewport for foveated rendering: an inner region around the lens
+ *         centre drawn at full resolution, and the whole eye drawn at a lower resolution for the
+ *         periphery. Pure Java and allocation free after construction, so the split and what it
+ *         saves can be worked out without a GL.
+ *         <p/>
+ *         The inner region covers a fraction of the lens field of view in every direction,
+ *         placed through the projection the eye is rendered with. Rectangles are in pixels from
+ *         the bottom left of the eye's viewport, as x, y, width, height.
+ *         <p/>
+ *         The periphery is only scaled up into the ring around the inner region, as up to four
+ *         composite rectangles, since the inner region is drawn over anyway.
+ */
+public class FoveationLayout {
+
+    private final float mInnerFraction;
+    private final float mPeripheryScale;
+
+    private int mWidth;
+    private int mHeight;
+    private final int[] mInnerRect = new int[4];
+    private int mPeripheryWidth;
+    private int mPeripheryHeight;
+
+    /**
+     * Below, above, left of and right of the inner region, the empty ones left out.
+     */
+    private final int[] mCompositeRects = new int[16];
+    private int mCompositeRectCount;
+
+    /**
+     * @param innerFraction  Fraction of the lens field of view the inner region spans, per
+     *                       direction, 0 to 1.
+     * @param peripheryScale Resolution of the periphery relative to the eye's, 0 to 1.
+     */
+    public FoveationLayout(final float innerFraction, final float peripheryScale) {
+        // Written to refuse NaN as well.
+        if (!(innerFraction >= 0 && innerFraction <= 1 && peripheryScale > 0 && peripheryScale <= 1)) {
+            throw new IllegalArgumentException("Invalid foveation " + innerFraction + ", " + peripheryScale);
+        }
+        this.mInnerFraction = innerFraction;
+        this.mPeripheryScale = peripheryScale;
+    }
+
+    /**
+     * Lays out an eye.
+     *
+     * @param width      Eye viewport width in pixels.
+     * @param height     Eye viewport height in pixels.
+     * @param projection Perspective projection the eye is rendered with, column major.
+     * @param lensLeft   Lens field of view left of the centre, in degrees.
+     * @param lensRight  Lens field of view right of the centre, in degrees.
+     * @param lensBottom Lens field of view below the centre, in degrees.
+     * @param lensTop    Lens field of view above the centre, in degrees.
+     */
+    public void update(final int width, final int height, final float[] projection, final float lensLeft,
+                       final float lensRight, final float lensBottom, final float lensTop) {
+        mWidth = width;
+        mHeight = height;
+
+        // Tangents of the projection's frustum edges, the viewport spans them linearly.
+        final double left = (1 - projection[8]) / projection[0];
+        final double right = (1 + projection[8]) / projection[0];
+        final double bottom = (1 - projection[9]) / projection[5];
+        final double top = (1 + projection[9]) / projection[5];
+
+        final int x0 = toPixel(-tangent(lensLeft), left, right, width, false);
+        final int x1 = toPixel(tangent(lensRight), left, right, width, true);
+        final int y0 = toPixel(-tangent(lensBottom), bottom, top, height, false);
+        final int y1 = toPixel(tangent(lensTop), bottom, top, height, true);
+        mInnerRect[0] = x0;
+        mInnerRect[1] = y0;
+        mInnerRect[2] = Math.max(0, x1 - x0);
+        mInnerRect[3] = Math.max(0, y1 - y0);
+
+        mPeripheryWidth = Math.max(1, (int) Math.ceil(width * mPeripheryScale));
+        mPeripheryHeight = Math.max(1, (int) Math.ceil(height * mPeripheryScale));
+
+        final int innerTop = y0 + mInnerRect[3];
+        final int innerRight = x0 + mInnerRect[2];
+        mCompositeRectCount = 0;
+        addCompositeRect(0, 0, width, y0);
+        addCompositeRect(0, innerTop, width, height - innerTop);
+        addCompositeRect(0, y0, x0, mInnerRect[3]);
+        addCompositeRect(innerRight, y0, width - innerRight, mInnerRect[3]);
+    }
+
+    private void addCompositeRect(final int x, final int y, final int width, final int height) {
+        if (width > 0 && height > 0) {
+            final int i = mCompositeRectCount++ * 4;
+            mCompositeRects[i] = x;
+            mCompositeRects[i + 1] = y;
+            mCompositeRects[i + 2] = width;
+            mCompositeRects[i + 3] = height;
+        }
+    }
+
+    private double tangent(final float lensDegrees) {
+        return Math.tan(Math.toRadians(lensDegrees * mInnerFraction));
+    }
+
+    /**
+     * @return The pixel edge of a tangent, rounded outwards and inside the viewport.
+     */
+    private static int toPixel(final double tangent, final double min, final double max, final int size,
+                               final boolean up) {
+        final double pixel = (tangent + min) / (min + max) * size;
+        return Math.max(0, Math.min(size, (int) (up ? Math.ceil(pixel) : Math.floor(pixel))));
+    }
+
+    /**
+     * @return The full resolution region, owned by this object.
+     */
+    public int[] getInnerRect() {
+        return mInnerRect;
+    }
+
+    /**
+     * @return The rectangles the periphery is scaled up into, 4 ints each, owned by this object.
+     */
+    public int[] getCompositeRects() {
+        return mCompositeRects;
+    }
+
+    /**
+     * @return Rectangles in {@link #getCompositeRects}, 0 to 4.
+     */
+    public int getCompositeRectCount() {
+        return mCompositeRectCount;
+    }
+
+    public int getPeripheryWidth() {
+        return mPeripheryWidth;
+    }
+
+    public int getPeripheryHeight() {
+        return mPeripheryHeight;
+    }
+
+    /**
+     * @return Panorama fragments of the eye without foveation.
+     */
+    public long getFullFragments() {
+        return (long) mWidth * mHeight;
+    }
+
+    /**
+     * @return Panorama fragments of the eye with foveation, the periphery and the inner region.
+     */
+    public long getShadedFragments() {
+        return (long) mPeripheryWidth * mPeripheryHeight + (long) mInnerRect[2] * mInnerRect[3];
+    }
+
+    /**
+     * @return Fragments of scaling the periphery up into the ring around the inner region, a
+     * single texture fetch each.
+     */
+    public long getCompositeFragments() {
+        return (long) mWidth * mHeight - (long) mInnerRect[2] * mInnerRect[3];
+    }
+
+    /**
+     * @return Fragments foveation saves in the eye, panorama and composite ones alike, negative
+     * if it writes more than drawing the eye whole.
+     */
+    public long getSavedFragments() {
+        return getFullFragments() - getShadedFragments() - getCompositeFragments();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Timings of the stages of the app in nanoseconds, each kept in a {@link TimingRing} of
+ *         recent samples and a {@link LatencyHistogram}, and frames that missed the display
+ *         refresh. Recording is lock-free and never allocates, so it is cheap enough for every
+ *         frame; a {@link MetricsExporter} reads the numbers on another thread.
+ */
+public final class FrameMetrics {
+
+    /**
+     * What a timing measures.
+     */
+    public enum Stage {
+        /** All of onDrawFrame. */
+        FRAME,
+        /** Per frame work before drawing, uploads included. */
+        NEW_FRAME,
+        /** Texture uploads within the frame's budget. */
+        UPLOAD,
+        /** Drawing the eyes. */
+        DRAW,
+        /** Decoding a panorama or tile, on the decoding thread. */
+        DECODE,
+        /** Compiling and linking a shader program. */
+        SHADER_COMPILE
+    }
+
+    /**
+     * Recent samples kept per stage, about 17 seconds of frames at 60 Hz.
+     */
+    public static final int RING_CAPACITY = 1024;
+
+    /**
+     * Frame intervals longer than this are a pause, e.g. the app in the background, not jank.
+     */
+    private static final long MAX_FRAME_GAP_NANOS = 250000000L;
+
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    private static final FrameMetrics sInstance = new FrameMetrics(RING_CAPACITY);
+
+    private final TimingRing[] mRings = new TimingRing[Stage.values().length];
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.values().length];
+
+    private volatile long mRefreshIntervalNanos;
+    private long mLastFrameStart;
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mJankyFrames = new AtomicLong();
+    private final AtomicLong mMissedRefreshes = new AtomicLong();
+
+    /**
+     * Creates metrics with their own buffers. The app uses the shared {@link #get()} instance.
+     *
+     * @param ringCapacity Recent samples kept per stage.
+     */
+    public FrameMetrics(final int ringCapacity) {
+        for (int i = 0; i < mRings.length; i++) {
+            mRings[i] = new TimingRing(ringCapacity);
+            mHistograms[i] = new LatencyHistogram();
+        }
+        setRefreshRate(DEFAULT_REFRESH_RATE);
+    }
+
+    /**
+     * @return The metrics shared by the whole app.
+     */
+    public static FrameMetrics get() {
+        return sInstance;
+    }
+
+    /**
+     * @param hertz Refresh rate of the display, frames taking longer than one refresh are jank.
+     */
+    public void setRefreshRate(final float hertz) {
+        if (hertz <= 0) {
+            throw new IllegalArgumentException("Invalid refresh rate " + hertz);
+        }
+        mRefreshIntervalNanos = (long) (1e9 / hertz);
+    }
+
+    public long getRefreshIntervalNanos() {
+        return mRefreshIntervalNanos;
+    }
+
+    /**
+     * Records a timing. Safe on any thread.
+     *
+     * @param stage What was timed.
+     * @param nanos How long it took.
+     */
+    public void record(final Stage stage, final long nanos) {
+        mRings[stage.ordinal()].record(nanos);
+        mHistograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the time since a start, e.g. <code>start = metrics.recordSince(stage, start)</code>
+     * to time consecutive stages.
+     *
+     * @param stage      What was timed.
+     * @param startNanos When it started, on the System.nanoTime() clock.
+     * @return Now, on the same clock.
+     */
+    public long recordSince(final Stage stage, final long startNanos) {
+        final long now = System.nanoTime();
+        record(stage, now - startNanos);
+        return now;
+    }
+
+    /**
+     * Counts a frame, and the display refreshes it missed since the previous one. Only called on
+     * the GL thread.
+     *
+     * @param startNanos When the frame started, on the System.nanoTime() clock.
+     */
+    public void frameStarted(final long startNanos) {
+        final long interval = startNanos - mLastFrameStart;
+        final boolean first = mLastFrameStart == 0;
+        mLastFrameStart = startNanos;
+        mFrames.incrementAndGet();
+        if (first || interval > MAX_FRAME_GAP_NANOS) {
+            return;
+        }
+
+        // Rounded, so the jitter of a frame on time is not taken for a missed refresh.
+        final long refresh = mRefreshIntervalNanos;
+        final long missed = (interval + refresh / 2) / refresh - 1;
+        if (missed > 0) {
+            mJankyFrames.incrementAndGet();
+            mMissedRefreshes.addAndGet(missed);
+        }
+    }
+
+    public TimingRing getRing(final Stage stage) {
+        return mRings[stage.ordinal()];
+    }
+
+    public LatencyHistogram getHistogram(final Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    /**
+     * @return Frames started so far.
+     */
+    public long getFrames() {
+        return mFrames.get();
+    }
+
+    /**
+     * @return Frames that started one or more refreshes late.
+     */
+    public long getJankyFrames() {
+        return mJankyFrames.get();
+    }
+
+    /**
+     * @return Refreshes that showed a previous frame again.
+     */
+    public long getMissedRefreshes() {
+        return mMissedRefreshes.get();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The GL calls the geometry path makes, {@link GLES20Calls} on the device. Keeping them
+ *         behind an interface lets {@link RenderState}, the {@link GeometryUploader}s and
+ *         {@link SphereDrawer} run against a recording fake on the JVM.
+ *         <p/>
+ *         Methods mirror their GLES20 and GLES30 namesakes one to one.
+ */
+public interface GLCalls {
+
+    int GL_TRIANGLES = 0x0004;
+    int GL_FRONT = 0x0404;
+    int GL_BACK = 0x0405;
+    int GL_CW = 0x0900;
+    int GL_CCW = 0x0901;
+    int GL_CULL_FACE = 0x0B44;
+    int GL_DEPTH_TEST = 0x0B71;
+    int GL_BLEND = 0x0BE2;
+    int GL_SCISSOR_TEST = 0x0C11;
+    int GL_TEXTURE_2D = 0x0DE1;
+    int GL_UNSIGNED_SHORT = 0x1403;
+    int GL_FLOAT = 0x1406;
+    int GL_TEXTURE_CUBE_MAP = 0x8513;
+    int GL_TEXTURE0 = 0x84C0;
+    int GL_ARRAY_BUFFER = 0x8892;
+    int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    int GL_STATIC_DRAW = 0x88E4;
+
+    void glUseProgram(int program);
+
+    void glDeleteProgram(int program);
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glEnable(int capability);
+
+    void glDisable(int capability);
+
+    void glCullFace(int mode);
+
+    void glFrontFace(int mode);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    /**
+     * Points an attribute into the bound GL_ARRAY_BUFFER.
+     */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    /**
+     * Points an attribute at client memory, from the buffer's position.
+     */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, FloatBuffer data);
+
+    /**
+     * Draws from the bound GL_ELEMENT_ARRAY_BUFFER, offset in bytes.
+     */
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    /**
+     * Draws from client memory, from the buffer's position.
+     */
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    /**
+     * GLES30 only, see {@link #glDrawElements(int, int, int, int)}.
+     */
+    void glDrawElementsInstanced(int mode, int count, int type, int offset, int instances);
+
+    /**
+     * GLES30 only, see {@link #glDrawElements(int, int, int, Buffer)}.
+     */
+    void glDrawElementsInstanced(int mode, int count, int type, Buffer indices, int instances);
+
+    void glUniform1i(int location, int x);
+
+    void glUniform4f(int location, float x, float y, float z, float w);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+}
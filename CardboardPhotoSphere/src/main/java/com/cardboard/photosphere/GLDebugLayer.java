@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decides when GL errors are checked. glGetError can stall the CPU until the GPU has
+ *         caught up, so the check at every labelled call site that debugging needs is too dear
+ *         for release builds:
+ *         <ul>
+ *         <li>{@link Mode#OFF} never calls glGetError.</li>
+ *         <li>{@link Mode#SAMPLED} calls it once every few frames, at the end of the frame. When
+ *         that finds an error, the next frame checks at every call site to find where it is.</li>
+ *         <li>{@link Mode#STRICT} checks at every call site and throws on the first error.</li>
+ *         </ul>
+ *         Errors are attributed to the last labelled call site before them. Only used on the GL
+ *         thread.
+ */
+public final class GLDebugLayer {
+
+    /**
+     * How often GL errors are checked.
+     */
+    public enum Mode {
+        OFF,
+        SAMPLED,
+        STRICT
+    }
+
+    /**
+     * Where GL errors come from, glGetError on the device.
+     */
+    public interface ErrorSource {
+        /**
+         * @return The next recorded error, or {@link #GL_NO_ERROR}.
+         */
+        int glGetError();
+    }
+
+    public static final int GL_NO_ERROR = 0;
+
+    private final ErrorSource mErrorSource;
+    private final int mSampleInterval;
+    private Mode mMode;
+
+    private String mSite = "none";
+    private long mFrame;
+    private boolean mPinpointRequested;
+    private boolean mPinpointing;
+    private int mErrorCount;
+    private int mFrameStartErrorCount;
+    private String mLastError;
+
+    /**
+     * @param errorSource    Where errors come from.
+     * @param mode           How often errors are checked.
+     * @param sampleInterval Frames between two checks in {@link Mode#SAMPLED}.
+     */
+    public GLDebugLayer(final ErrorSource errorSource, final Mode mode, final int sampleInterval) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException("Invalid sample interval " + sampleInterval);
+        }
+        this.mErrorSource = errorSource;
+        this.mSampleInterval = sampleInterval;
+        setMode(mode);
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public void setMode(final Mode mode) {
+        mMode = mode;
+        mPinpointRequested = false;
+        mPinpointing = false;
+    }
+
+    /**
+     * Starts a frame.
+     */
+    public void beginFrame() {
+        mFrame++;
+        mPinpointing = mPinpointRequested;
+        mPinpointRequested = false;
+        mFrameStartErrorCount = mErrorCount;
+    }
+
+    /**
+     * Names the call site that comes next, for errors found later on. Never calls the GL.
+     *
+     * @param site Label of the call site.
+     */
+    public void label(final String site) {
+        mSite = site;
+    }
+
+    /**
+     * Labels a call site and checks for errors there if the mode does.
+     *
+     * @param site Label of the call site.
+     * @throws RuntimeException On an error in {@link Mode#STRICT}.
+     */
+    public void check(final String site) {
+        label(site);
+        if (mMode == Mode.STRICT) {
+            final int error = mErrorSource.glGetError();
+            if (error != GL_NO_ERROR) {
+                drain();
+                throw new RuntimeException(site + ": glError " + error);
+            }
+        } else if (mMode == Mode.SAMPLED && mPinpointing) {
+            final int error = mErrorSource.glGetError();
+            if (error != GL_NO_ERROR) {
+                drain();
+                onError(site + ": glError " + error);
+            }
+        }
+    }
+
+    /**
+     * Ends a frame, checking for errors once if it is a sampled frame.
+     *
+     * @return True if the frame found errors, {@link #getLastError()} describes the last one.
+     */
+    public boolean endFrame() {
+        if (mMode == Mode.SAMPLED && !mPinpointing && mFrame % mSampleInterval == 0) {
+            final int error = mErrorSource.glGetError();
+            if (error != GL_NO_ERROR) {
+                drain();
+                onError("glError " + error + " at or before " + mSite);
+                mPinpointRequested = true;
+            }
+        }
+        mPinpointing = false;
+        return mErrorCount != mFrameStartErrorCount;
+    }
+
+    /**
+     * @return Errors found in {@link Mode#SAMPLED} so far.
+     */
+    public int getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * @return The last error found in {@link Mode#SAMPLED} and where, or null.
+     */
+    public String getLastError() {
+        return mLastError;
+    }
+
+    private void onError(final String error) {
+        mErrorCount++;
+        mLastError = error;
+    }
+
+    /**
+     * Clears the errors left after the first, so they are not reported again later.
+     */
+    private void drain() {
+        while (mErrorSource.glGetError() != GL_NO_ERROR) {
+            // Every error flag is reset as it is read.
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Forwards {@link GLCalls} to the device's GL.
+ */
+public class GLES20Calls implements GLCalls {
+
+    @Override
+    public void glUseProgram(final int program) {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public void glDeleteProgram(final int program) {
+        GLES20.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glActiveTexture(final int texture) {
+        GLES20.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(final int target, final int texture) {
+        GLES20.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glGenBuffers(final int n, final int[] buffers, final int offset) {
+        GLES20.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(final int target, final int buffer) {
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(final int target, final int size, final Buffer data, final int usage) {
+        GLES20.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glDeleteBuffers(final int n, final int[] buffers, final int offset) {
+        GLES20.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glEnable(final int capability) {
+        GLES20.glEnable(capability);
+    }
+
+    @Override
+    public void glDisable(final int capability) {
+        GLES20.glDisable(capability);
+    }
+
+    @Override
+    public void glCullFace(final int mode) {
+        GLES20.glCullFace(mode);
+    }
+
+    @Override
+    public void glFrontFace(final int mode) {
+        GLES20.glFrontFace(mode);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(final int index) {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(final int index) {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(final int index, final int size, final int type, final boolean normalized,
+                                      final int stride, final int offset) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(final int index, final int size, final int type, final boolean normalized,
+                                      final int stride, final FloatBuffer data) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, data);
+    }
+
+    @Override
+    public void glDrawElements(final int mode, final int count, final int type, final int offset) {
+        GLES20.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElements(final int mode, final int count, final int type, final Buffer indices) {
+        GLES20.glDrawElements(mode, count, type, indices);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glDrawElementsInstanced(final int mode, final int count, final int type, final int offset,
+                                        final int instances) {
+        GLES30.glDrawElementsInstanced(mode, count, type, offset, instances);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glDrawElementsInstanced(final int mode, final int count, final int type, final Buffer indices,
+                                        final int instances) {
+        GLES30.glDrawElementsInstanced(mode, count, type, indices, instances);
+    }
+
+    @Override
+    public void glUniform1i(final int location, final int x) {
+        GLES20.glUniform1i(location, x);
+    }
+
+    @Override
+    public void glUniform4f(final int location, final float x, final float y, final float z, final float w) {
+        GLES20.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(final int location, final int count, final boolean transpose,
+                                   final float[] value, final int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Links programs for a {@link ShaderProgramCache} with the GL. Program binaries are read
+ *         back and loaded on OpenGL ES 3.0 from API 18, where GLES30 is, if the driver offers
+ *         at least one binary format.
+ */
+public class GLProgramCompiler implements ShaderProgramCache.Compiler {
+
+    private final boolean mBinaries;
+    private final String mDriver;
+
+    /**
+     * Must be called on the GL thread, to look at the driver.
+     */
+    public GLProgramCompiler() {
+        boolean binaries = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && TextureHelper.isOpenGLES3()) {
+            final int[] formats = new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+            binaries = formats[0] > 0;
+        }
+        this.mBinaries = binaries;
+        this.mDriver = GLES20.glGetString(GLES20.GL_VENDOR) + "/" + GLES20.glGetString(GLES20.GL_RENDERER)
+                + "/" + GLES20.glGetString(GLES20.GL_VERSION);
+    }
+
+    /**
+     * @return True if program binaries are read back and loaded.
+     */
+    public boolean isBinarySupported() {
+        return mBinaries;
+    }
+
+    @Override
+    public int compile(final String vertexShader, final String fragmentShader, final String[] attributes) {
+        final int vertexShaderHandle = ShaderHelper.compileShader(GLES20.GL_VERTEX_SHADER, vertexShader);
+        final int fragmentShaderHandle = ShaderHelper.compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentShader);
+        try {
+            return ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, attributes, mBinaries);
+        } finally {
+            // The program keeps the compiled code, the shaders go away with it.
+            GLES20.glDeleteShader(vertexShaderHandle);
+            GLES20.glDeleteShader(fragmentShaderHandle);
+        }
+    }
+
+    @Override
+    public ShaderProgramCache.Binary getBinary(final int program) {
+        if (!mBinaries) {
+            return null;
+        }
+        final int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return null;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        final int[] written = new int[1];
+        final int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], written, 0, format, 0, buffer);
+        if (written[0] <= 0 || GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+            return null;
+        }
+        final byte[] data = new byte[written[0]];
+        buffer.get(data);
+        return new ShaderProgramCache.Binary(format[0], data);
+    }
+
+    @Override
+    public int loadBinary(final ShaderProgramCache.Binary binary) {
+        if (!mBinaries) {
+            return 0;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(binary.getData().length).order(ByteOrder.nativeOrder());
+        buffer.put(binary.getData()).position(0);
+
+        final int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, binary.getFormat(), buffer, binary.getData().length);
+
+        // A binary of another driver version fails like a link would.
+        final int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (linkStatus[0] == 0 || GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    @Override
+    public int getUniformLocation(final int program, final String name) {
+        return GLES20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void deleteProgram(final int program) {
+        GLES20.glDeleteProgram(program);
+    }
+
+    @Override
+    public void finish() {
+        GLES20.glFinish();
+    }
+
+    @Override
+    public String getDriver() {
+        return mDriver;
+    }
+}
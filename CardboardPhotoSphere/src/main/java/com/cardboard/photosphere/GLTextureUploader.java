@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Uploads staged pixels into GL_TEXTURE_2D textures with glTexSubImage2D. Compressed
+ *         images are uploaded whole when their texture is created.
+ *         <p/>
+ *         With mipmapped sampling the GL builds the mip levels with glGenerateMipmap where it
+ *         can. Where it cannot, on OpenGL ES 2.0 without GL_OES_texture_npot for images that are
+ *         not a power of two, {@link #prepare} resamples them to one and builds the levels on the
+ *         decoding thread. Compressed images keep a single level.
+ *         <p/>
+ *         Cube maps are uploaded the same way into GL_TEXTURE_CUBE_MAP, their faces are powers of
+ *         two so the GL always builds their mip levels.
+ */
+public class GLTextureUploader implements TextureUploader {
+
+    private final TextureSampling mSampling;
+    private final float mAnisotropy;
+    private final MipmapBuilder.Filter mMipmapFilter;
+
+    /**
+     * What the current GL context supports, read on the GL thread and used by {@link #prepare}.
+     */
+    private volatile boolean mNpotMipmapSupported;
+    private volatile float mMaxAnisotropy = 1f;
+
+    /**
+     * Uploads nearest sampled textures without mip levels.
+     */
+    public GLTextureUploader() {
+        this(TextureSampling.NEAREST, 1f, MipmapBuilder.Filter.BOX);
+    }
+
+    /**
+     * @param sampling     How textures are filtered.
+     * @param anisotropy   Anisotropy of mipmapped textures, capped to what the GL supports. 1 for
+     *                     none.
+     * @param mipmapFilter Filter of mip levels built on the CPU.
+     */
+    public GLTextureUploader(final TextureSampling sampling, final float anisotropy,
+                             final MipmapBuilder.Filter mipmapFilter) {
+        this.mSampling = sampling;
+        this.mAnisotropy = anisotropy;
+        this.mMipmapFilter = mipmapFilter;
+    }
+
+    /**
+     * Reads what the new GL context supports. Must be called on the GL thread every time a new
+     * surface is created, before any texture is created.
+     */
+    public void onSurfaceCreated() {
+        mNpotMipmapSupported = TextureHelper.isNpotMipmapSupported();
+        mMaxAnisotropy = TextureHelper.getMaxAnisotropy();
+    }
+
+    @Override
+    public PixelImage prepare(final PixelImage image, final StagingBufferPool buffers) {
+        if (!mSampling.isMipmapped() || image.isCompressed() || canGenerateMipmaps(image)) {
+            return image;
+        }
+
+        final PixelImage resampled = MipmapBuilder.resample(image,
+                MipmapBuilder.nearestPowerOfTwo(image.getWidth()), MipmapBuilder.nearestPowerOfTwo(image.getHeight()),
+                buffers);
+        image.recycle(buffers);
+        resampled.setMipmaps(MipmapBuilder.build(resampled, mMipmapFilter, buffers));
+        return resampled;
+    }
+
+    @Override
+    public int createTexture(final PixelImage image, final boolean wrap) {
+        if (image.isCompressed()) {
+            final ByteBuffer blocks = image.getPixels();
+            blocks.position(0);
+            return TextureHelper.createCompressedTexture(image.getWidth(), image.getHeight(), image.getFormat(),
+                    blocks, image.getByteCount(), wrap ? GLES20.GL_REPEAT : GLES20.GL_CLAMP_TO_EDGE, mSampling);
+        }
+        return TextureHelper.createTexture(image.getWidth(), image.getHeight(), image.getFormat(),
+                image.getType(), wrap ? GLES20.GL_REPEAT : GLES20.GL_CLAMP_TO_EDGE, mSampling);
+    }
+
+    @Override
+    public void uploadRows(final int texture, final PixelImage image, final int firstRow, final int rowCount) {
+        if (image.isCompressed()) {
+            return;
+        }
+        final ByteBuffer pixels = image.getPixels();
+        pixels.position(firstRow * image.getRowBytes());
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, image.getRowBytes() % 4 == 0 ? 4 : 1);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, firstRow, image.getWidth(), rowCount,
+                image.getFormat(), image.getType(), pixels);
+
+        pixels.position(0);
+    }
+
+    @Override
+    public void finishTexture(final int texture, final PixelImage image) {
+        if (!hasMipmaps(image)) {
+            return;
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        if (image.getMipmapCount() > 0) {
+            for (int i = 0; i < image.getMipmapCount(); i++) {
+                final PixelImage level = image.getMipmap(i);
+                final ByteBuffer pixels = level.getPixels();
+                pixels.position(0);
+                GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, level.getRowBytes() % 4 == 0 ? 4 : 1);
+                GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, i + 1, level.getFormat(), level.getWidth(),
+                        level.getHeight(), 0, level.getFormat(), level.getType(), pixels);
+            }
+        } else {
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+
+        TextureHelper.setFilters(mSampling.getMinFilter(true), mSampling.getMagFilter());
+        if (mAnisotropy > 1f && mMaxAnisotropy > 1f) {
+            TextureHelper.setAnisotropy(Math.min(mAnisotropy, mMaxAnisotropy));
+        }
+    }
+
+    @Override
+    public int createCubeMap(final PixelImage face) {
+        return TextureHelper.createCubeMapTexture(face.getWidth(), face.getFormat(), face.getType(), mSampling);
+    }
+
+    @Override
+    public void uploadFaceRows(final int texture, final int face, final PixelImage image, final int firstRow,
+                               final int rowCount) {
+        final ByteBuffer pixels = image.getPixels();
+        pixels.position(firstRow * image.getRowBytes());
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_CUBE_MAP, texture);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, image.getRowBytes() % 4 == 0 ? 4 : 1);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face, 0, 0, firstRow, image.getWidth(),
+                rowCount, image.getFormat(), image.getType(), pixels);
+
+        pixels.position(0);
+    }
+
+    @Override
+    public void finishCubeMap(final int texture, final PixelImage face) {
+        if (!mSampling.isMipmapped()) {
+            return;
+        }
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_CUBE_MAP, texture);
+        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_CUBE_MAP);
+        TextureHelper.setFilters(GLES20.GL_TEXTURE_CUBE_MAP, mSampling.getMinFilter(true), mSampling.getMagFilter());
+        if (mAnisotropy > 1f && mMaxAnisotropy > 1f) {
+            TextureHelper.setAnisotropy(GLES20.GL_TEXTURE_CUBE_MAP, Math.min(mAnisotropy, mMaxAnisotropy));
+        }
+    }
+
+    @Override
+    public int getCubeMapByteCount(final PixelImage face) {
+        final int faceBytes = mSampling.isMipmapped()
+                ? face.getByteCount() + face.getByteCount() / 3 : face.getByteCount();
+        return faceBytes * CubemapConverter.FACES;
+    }
+
+    @Override
+    public int getTextureByteCount(final PixelImage image) {
+        if (!hasMipmaps(image)) {
+            return image.getByteCount();
+        }
+        if (image.getMipmapCount() == 0) {
+            // The levels below add up to a third of level 0.
+            return image.getByteCount() + image.getByteCount() / 3;
+        }
+        int bytes = image.getByteCount();
+        for (int i = 0; i < image.getMipmapCount(); i++) {
+            bytes += image.getMipmap(i).getByteCount();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void deleteTexture(final int texture) {
+        final int[] textureHandle = {texture};
+        GLES20.glDeleteTextures(1, textureHandle, 0);
+    }
+
+    /**
+     * @return True if the finished texture of the image has mip levels.
+     */
+    private boolean hasMipmaps(final PixelImage image) {
+        return mSampling.isMipmapped() && !image.isCompressed()
+                && (image.getMipmapCount() > 0 || canGenerateMipmaps(image));
+    }
+
+    private boolean canGenerateMipmaps(final PixelImage image) {
+        return mNpotMipmapSupported
+                || MipmapBuilder.isPowerOfTwo(image.getWidth()) && MipmapBuilder.isPowerOfTwo(image.getHeight());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Moves mesh data to wherever the GL draws it from, and issues the draws against it.
+ *         <p/>
+ *         Attribute and index locations are given as offsets into the uploaded data, so callers
+ *         never hand client memory to the draw calls themselves.
+ */
+public interface GeometryUploader {
+
+    /**
+     * Uploads interleaved vertex data and triangle indices. Must be called on the GL thread, once
+     * per GL context.
+     *
+     * @param vertices Interleaved vertex data, read from position 0.
+     * @param indices  Triangle indices, read from position 0.
+     * @return true if the data was uploaded, false if this uploader is not usable on the context.
+     */
+    boolean upload(FloatBuffer vertices, ShortBuffer indices);
+
+    /**
+     * Points a vertex attribute at the uploaded vertex data.
+     *
+     * @param handle      Attribute location.
+     * @param size        Number of floats in the attribute.
+     * @param strideBytes Distance in bytes between two vertices.
+     * @param offset      Offset of the attribute inside a vertex, in floats.
+     */
+    void bindAttribute(int handle, int size, int strideBytes, int offset);
+
+    /**
+     * Draws from the uploaded indices.
+     *
+     * @param mode  Primitive type.
+     * @param first First index to draw.
+     * @param count Number of indices to draw.
+     */
+    void drawElements(int mode, int first, int count);
+
+    /**
+     * Draws instances of the uploaded indices. Only on OpenGL ES 3.0 and later.
+     *
+     * @param mode      Primitive type.
+     * @param first     First index to draw.
+     * @param count     Number of indices to draw.
+     * @param instances Number of instances.
+     */
+    void drawElementsInstanced(int mode, int first, int count, int instances);
+
+    /**
+     * Releases the GL objects created by {@link #upload}.
+     */
+    void release();
+}
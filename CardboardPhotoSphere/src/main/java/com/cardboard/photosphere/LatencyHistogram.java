@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A histogram of durations in nanoseconds with log-linear buckets, like an HDR histogram:
+ *         every power of two is split into {@link #SUB_BUCKETS} equal buckets, so a value is
+ *         counted within 1/32 (about 3%) of itself from a nanosecond up to {@link #MAX_VALUE}.
+ *         <p/>
+ *         Recording is one atomic increment and never allocates, so any thread may record while
+ *         another drains the counts. Draining hands the counts over and starts a new interval.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Significant bits kept of a value, and the buckets per power of two they give.
+     */
+    private static final int PRECISION_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << PRECISION_BITS;
+
+    /**
+     * Largest value told apart from larger ones, about 18 minutes. Longer values count as it.
+     */
+    private static final int MAX_MAGNITUDE = 40;
+    public static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    /**
+     * Number of buckets, values below 2 * {@link #SUB_BUCKETS} each have their own.
+     */
+    public static final int BUCKETS = (MAX_MAGNITUDE - PRECISION_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Counts a value. Negative values count as 0.
+     *
+     * @param value Duration in nanoseconds.
+     */
+    public void record(final long value) {
+        mCounts.incrementAndGet(bucketOf(value));
+    }
+
+    /**
+     * Moves the counts recorded since the last drain into an array. A value recorded meanwhile
+     * lands either in this drain or in the next one, never in both or neither.
+     *
+     * @param counts Receives the count of every bucket, at least {@link #BUCKETS} long.
+     * @return The number of values drained.
+     */
+    public long drainTo(final long[] counts) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.getAndSet(i, 0);
+            total += counts[i];
+        }
+        return total;
+    }
+
+    /**
+     * @param value Duration in nanoseconds.
+     * @return The bucket the value is counted in.
+     */
+    public static int bucketOf(final long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final long clamped = Math.min(value, MAX_VALUE);
+        final int shift = 63 - Long.numberOfLeadingZeros(clamped) - PRECISION_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (clamped >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @param bucket A bucket index.
+     * @return The largest value counted in the bucket.
+     */
+    public static long highestValueOf(final int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Finds the value at or below which a percentage of drained values lie.
+     *
+     * @param counts     Counts from {@link #drainTo}.
+     * @param total      Number of values in the counts.
+     * @param percentile Percentage between 0 and 100.
+     * @return The highest value of the bucket the percentile falls in, 0 without values.
+     */
+    public static long valueAtPercentile(final long[] counts, final long total, final double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Picks the pyramid level a panorama tile is drawn at.
+ *         <p/>
+ *         Seen from the centre of the sphere every direction is equally far away, so the screen
+ *         covers a fixed number of pixels per radian. An equirectangular image has a fixed number
+ *         of texels per radian vertically, and more horizontally towards the poles. A tile is
+ *         drawn from the coarsest level that still has at least the minimum texels per pixel in
+ *         both directions, since anything finer is lost to minification.
+ *         <p/>
+ *         A row that already has a level only moves to a coarser one once it has
+ *         {@link #HYSTERESIS} times the texels that level needs, so a viewport that changes by a
+ *         few pixels does not flip rows back and forth across a threshold. It moves to a finer
+ *         one as soon as its level falls short.
+ */
+public class LodSelector {
+
+    /**
+     * Texels per screen pixel that a level must keep.
+     */
+    public static final float DEFAULT_MIN_TEXELS_PER_PIXEL = 1f;
+
+    /**
+     * Surplus over a coarser level's threshold that a row needs before it leaves its level.
+     */
+    public static final float HYSTERESIS = 1.25f;
+
+    private final float mMinTexelsPerPixel;
+
+    /**
+     * Screen pixels per radian at the centre of the view, 0 until the viewport is known.
+     */
+    private double mPixelsPerRadian;
+
+    public LodSelector() {
+        this(DEFAULT_MIN_TEXELS_PER_PIXEL);
+    }
+
+    /**
+     * @param minTexelsPerPixel Texels per screen pixel that a level must keep.
+     */
+    public LodSelector(final float minTexelsPerPixel) {
+        if (minTexelsPerPixel <= 0) {
+            throw new IllegalArgumentException("minTexelsPerPixel must be positive, was " + minTexelsPerPixel);
+        }
+        this.mMinTexelsPerPixel = minTexelsPerPixel;
+    }
+
+    /**
+     * Sets the viewport an eye is rendered to.
+     *
+     * @param viewportHeight Height of an eye's viewport in pixels.
+     * @param yFovInDegrees  Vertical field of view of the projection.
+     */
+    public void setViewport(final int viewportHeight, final float yFovInDegrees) {
+        mPixelsPerRadian = viewportHeight / 2.0 / Math.tan(Math.toRadians(yFovInDegrees) / 2);
+    }
+
+    /**
+     * @return Screen pixels per radian at the centre of the view, 0 until the viewport is set.
+     */
+    public double getPixelsPerRadian() {
+        return mPixelsPerRadian;
+    }
+
+    /**
+     * @return The lowest texel density of a row of tiles at full resolution, in texels per radian.
+     */
+    public static double texelsPerRadian(final TileGrid grid, final int row) {
+        final double vertical = grid.getImageHeight() / Maths.ONE_EIGHTY_DEGREES;
+
+        // Parallels shrink by sin(polar), the widest one in the row has the fewest texels per radian.
+        final double polarStart = grid.getPolarStart(row);
+        final double polarEnd = grid.getPolarEnd(row);
+        final double widest = polarStart <= Maths.NINETY_DEGREES && polarEnd >= Maths.NINETY_DEGREES
+                ? 1 : Math.max(Math.sin(polarStart), Math.sin(polarEnd));
+        final double horizontal = grid.getImageWidth() / Maths.THREE_SIXTY_DEGREES / widest;
+
+        return Math.min(vertical, horizontal);
+    }
+
+    /**
+     * @param grid     Tile layout of the full resolution panorama.
+     * @param row      Row of the tile.
+     * @param maxLevel Coarsest level available. Level n is the image scaled down by 2^n.
+     * @return The coarsest level between 0 and maxLevel with enough texels per pixel, 0 until the
+     * viewport is set.
+     */
+    public int selectLevel(final TileGrid grid, final int row, final int maxLevel) {
+        if (mPixelsPerRadian <= 0) {
+            return 0;
+        }
+
+        final double surplus = getSurplus(grid, row);
+        if (surplus < 2) {
+            return 0;
+        }
+        final int level = (int) Math.floor(Math.log(surplus) / Math.log(2));
+        return Math.min(level, maxLevel);
+    }
+
+    /**
+     * Like {@link #selectLevel(TileGrid, int, int)}, but keeps a row at its current level until a
+     * coarser one has {@link #HYSTERESIS} times the texels it needs.
+     *
+     * @param grid         Tile layout of the full resolution panorama.
+     * @param row          Row of the tile.
+     * @param maxLevel     Coarsest level available.
+     * @param currentLevel Level the row's tiles are at now, or -1 if it has none.
+     * @return The level between 0 and maxLevel to draw the row at.
+     */
+    public int selectLevel(final TileGrid grid, final int row, final int maxLevel, final int currentLevel) {
+        final int level = selectLevel(grid, row, maxLevel);
+        if (currentLevel < 0 || level <= currentLevel) {
+            // Too coarse a level loses detail, so finer levels are taken at once.
+            return level;
+        }
+
+        final double surplus = getSurplus(grid, row);
+        int coarser = level;
+        while (coarser > currentLevel && surplus < (1 << coarser) * HYSTERESIS) {
+            coarser--;
+        }
+        return coarser;
+    }
+
+    /**
+     * @return Texels per screen pixel of a row at full resolution, over the minimum. Only
+     * meaningful once the viewport is set.
+     */
+    public double getSurplus(final TileGrid grid, final int row) {
+        return texelsPerRadian(grid, row) / (mPixelsPerRadian * mMinTexelsPerPixel);
+    }
+}
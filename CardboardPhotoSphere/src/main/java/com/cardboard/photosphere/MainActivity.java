@@ -19,54 +19,225 @@ package com.cardboard.photosphere;
 import android.media.MediaPlayer;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
 import android.util.Log;
+import android.view.KeyEvent;
 
 import com.google.vrtoolkit.cardboard.CardboardActivity;
 import com.google.vrtoolkit.cardboard.CardboardView;
 import com.google.vrtoolkit.cardboard.Eye;
+import com.google.vrtoolkit.cardboard.FieldOfView;
 import com.google.vrtoolkit.cardboard.HeadTransform;
 import com.google.vrtoolkit.cardboard.Viewport;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import javax.microedition.khronos.egl.EGLConfig;
 
 import static android.opengl.GLES20.glViewport;
-import static android.opengl.Matrix.multiplyMM;
 
 /**
  * @author Sree Kumar A.V
  *         <p/>
  *         A Cardboard sample application to create a photo sphere.
  */
-public class MainActivity extends CardboardActivity implements CardboardView.StereoRenderer {
+public class MainActivity extends CardboardActivity implements CardboardView.Renderer {
 
     private static final String TAG = "MainActivity";
 
     private Sphere mSphere;
+    private ProxyCube mProxyCube;
+    private PanoramaSurface mSurface;
     private final float[] mCamera = new float[16];
     private final float[] mProjectionMatrix = new float[16];
-    private final float[] mViewProjectionMatrix = new float[16];
+    private final EyeMatrices mEyeMatrices = new EyeMatrices();
+    private final RenderState mRenderState = new RenderState(new GLES20Calls());
+    private final StereoBatch mStereoBatch = new StereoBatch();
+    private final int[] mLeftViewport = new int[4];
+    private final int[] mRightViewport = new int[4];
 
     private float CAMERA_Z = 0.5f;
-    private float[] mView = new float[16];
     private CardboardView mCardboardView;
     private int[] mResourceId = {R.drawable.photo_sphere_1, R.drawable.photo_sphere_2, R.drawable.photo_sphere_3};
-    private int mCurrentPhotoPos = 0;
-    private boolean mIsCardboardTriggered;
+    private volatile boolean mIsCardboardTriggered;
+    private volatile boolean mIsSurfaceToggled;
+    private volatile boolean mIsFoveationToggled;
     private MediaPlayer mMediaPlayer;
 
+    /**
+     * Time a frame may spend uploading a new panorama.
+     */
+    private static final long UPLOAD_BUDGET_NANOS = 4000000L;
 
     /**
-     * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
-     *
-     * @param label Label to report in case of error.
+     * Stream full resolution tiles around the view direction instead of loading whole panoramas.
      */
-    private static void checkGLError(String label) {
-        int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
-            Log.e(TAG, label + ": glError " + error);
-            throw new RuntimeException(label + ": glError " + error);
+    private static final boolean STREAM_TILES = true;
+
+    /**
+     * Edge of a streamed tile and largest edge of the low resolution base layer, in pixels.
+     */
+    private static final int STREAM_TILE_SIZE = 512;
+    private static final int STREAM_BASE_LAYER_SIZE = 1024;
+
+    /**
+     * Angles beyond the view cone to prefetch tiles in and to keep them in, in radians.
+     */
+    private static final double STREAM_PREFETCH_MARGIN = Math.toRadians(20);
+    private static final double STREAM_EVICT_MARGIN = Math.toRadians(45);
+    private static final int STREAM_MAX_RESIDENT_TILES = 24;
+
+    /**
+     * Texture memory kept for shown and prefetched panoramas.
+     */
+    private static final long TEXTURE_CACHE_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Disk space kept for decoded panoramas, so later launches skip decoding.
+     */
+    private static final long DISK_CACHE_BUDGET_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * How panorama textures are filtered. Mip levels the GL cannot build are built with the
+     * filter on the decoding thread.
+     */
+    private static final TextureSampling TEXTURE_SAMPLING = TextureSampling.TRILINEAR;
+    private static final float TEXTURE_ANISOTROPY = 4f;
+    private static final MipmapBuilder.Filter MIPMAP_FILTER = MipmapBuilder.Filter.BOX;
+
+    /**
+     * How both eyes are drawn, falling back to the shared path where instancing is not possible.
+     */
+    private static final StereoMode STEREO_MODE = StereoMode.INSTANCED;
+
+    /**
+     * Convert whole panoramas into cube maps while loading them, drawn on the proxy cube. Not
+     * with streamed tiles. The conversion runs in parallel from API 21, where fork-join is.
+     */
+    private static final boolean CUBE_MAP = false;
+    private static final CubemapConverter.Filter CUBE_MAP_FILTER = CubemapConverter.Filter.BILINEAR;
+
+    /**
+     * Start on the proxy cube instead of the sphere. The volume down key switches between them.
+     */
+    private static final boolean START_WITH_PROXY_CUBE = false;
+
+    /**
+     * Foveated rendering: the inner region spans this fraction of the lens field of view at full
+     * resolution, the periphery is drawn at this scale. The volume up key switches it on and off.
+     */
+    private static final float FOVEATION_INNER_FRACTION = 0.5f;
+    private static final float FOVEATION_PERIPHERY_SCALE = 0.5f;
+    private static final boolean START_FOVEATED = false;
+
+    /**
+     * Screen pixels the sphere's flat triangles may draw a texel away from where it belongs. The
+     * sphere is tessellated at the lowest depth within it for the eye's viewport.
+     */
+    private static final float SPHERE_MAX_ERROR_PIXELS = TessellationSelector.DEFAULT_MAX_ERROR_PIXELS;
+
+    private final TessellationSelector mTessellation = new TessellationSelector(SPHERE_MAX_ERROR_PIXELS);
+
+    private final FoveationLayout mFoveationLayout = new FoveationLayout(FOVEATION_INNER_FRACTION,
+            FOVEATION_PERIPHERY_SCALE);
+    private final int[] mEyeViewport = new int[4];
+    private FoveatedRenderer mFoveatedRenderer;
+    private boolean mFoveated = START_FOVEATED;
+
+    /**
+     * How the head orientation is extrapolated from the pose sampled at the start of the frame
+     * to when the eyes are drawn, plus any latency past that. The tracker already predicts its
+     * poses for the nominal display latency, so only the time the frame spends before drawing,
+     * e.g. uploading, is added by default.
+     */
+    private static final PosePredictor.Model POSE_MODEL = PosePredictor.Model.CONSTANT_VELOCITY;
+    private static final long POSE_EXTRA_LATENCY_NANOS = 0L;
+
+    private final PosePredictor mPosePredictor = new PosePredictor(POSE_MODEL);
+    private final float[] mHeadView = new float[16];
+    private final float[] mHeadOrientation = new float[4];
+    private final float[] mPredictedOrientation = new float[4];
+    private final float[] mHeadCorrection = new float[16];
+
+    /**
+     * Stage timings and missed refreshes are logged this often. With the trace on, every sample
+     * is also appended to frame_metrics.csv in the app's external files directory.
+     */
+    private static final long METRICS_EXPORT_INTERVAL_SECONDS = 5;
+    private static final boolean METRICS_TRACE = false;
+
+    /**
+     * Programs are shared by everything that draws, and linked from binaries kept in the cache
+     * directory where the driver allows. Programs are linked ahead on a shared context while the
+     * GL thread sets up, from API 17.
+     */
+    private static final boolean SHADER_WARM_UP = true;
+
+    private ShaderProgramCache mShaderCache;
+    private ShaderWarmUp mShaderWarmUp;
+
+    private final FrameMetrics mMetrics = FrameMetrics.get();
+    private ScheduledExecutorService mMetricsExecutor;
+
+    /**
+     * Frames drawn on the current surface and the time spent in them, logged on every switch.
+     */
+    private int mSurfaceFrames;
+    private long mSurfaceFrameNanos;
+
+    /**
+     * Idle staging buffers and decode bitmaps kept for the next panorama, a whole 4096x2048 one
+     * each. Bitmaps are reused from API 19. Debug builds report buffers that are dropped instead
+     * of going back to their pool.
+     */
+    private static final long STAGING_POOL_BUDGET_BYTES = 48L * 1024 * 1024;
+    private static final long BITMAP_POOL_BUDGET_BYTES = 32L * 1024 * 1024;
+
+    private StagingBufferPool mStagingBuffers;
+    private BitmapPool mBitmaps;
+
+    private ExecutorService mDecodeExecutor;
+    private GLTextureUploader mUploader;
+    private TileStreamer mTileStreamer;
+    private PanoramaGallery mGallery;
+    private EtcPanoramaAssets mEtcAssets;
+    private final LodSelector mLodSelector = new LodSelector();
+    private final float[] mForward = new float[3];
+
+    /**
+     * How often GL errors are checked. Debug builds check at every call site and release builds
+     * once a second, unless the launch intent picks a mode, e.g.
+     * <code>adb shell am start -n com.cardboard.photosphere/.MainActivity --es glDebug off</code>
+     */
+    private static final String EXTRA_GL_DEBUG = "glDebug";
+    private static final int GL_DEBUG_SAMPLE_INTERVAL = 60;
+
+    private GLDebugLayer mGLDebug;
+
+    /**
+     * @return The GL error checking mode the intent asks for, or the build type's.
+     */
+    private GLDebugLayer.Mode getGLDebugMode() {
+        final String mode = getIntent().getStringExtra(EXTRA_GL_DEBUG);
+        if (mode != null) {
+            try {
+                return GLDebugLayer.Mode.valueOf(mode.toUpperCase(Locale.US));
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown GL debug mode " + mode);
+            }
         }
+        return GLDebugLayer.Mode.valueOf(BuildConfig.GL_DEBUG_MODE);
     }
 
     /**
@@ -77,11 +248,93 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        mGLDebug = new GLDebugLayer(new GLDebugLayer.ErrorSource() {
+            @Override
+            public int glGetError() {
+                return GLES20.glGetError();
+            }
+        }, getGLDebugMode(), GL_DEBUG_SAMPLE_INTERVAL);
+        Log.i(TAG, "GL errors checked: " + mGLDebug.getMode());
+
         setContentView(R.layout.common_ui);
         mCardboardView = (CardboardView) findViewById(R.id.cardboard_view);
         mCardboardView.setRenderer(this);
         setCardboardView(mCardboardView);
 
+        /** The render state relies on the distortion pass putting back the GL state it changes **/
+        mCardboardView.setRestoreGLStateEnabled(true);
+
+        /** Setting the camera in the center, it never moves **/
+        Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        mEyeMatrices.setCamera(mCamera);
+
+        /** Panoramas are decoded on a background thread and uploaded in slices per frame **/
+        mDecodeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PanoramaDecoder");
+            }
+        });
+        final SizeClassPool.LeakListener leakListener = !BuildConfig.DEBUG ? null : new SizeClassPool.LeakListener() {
+            @Override
+            public void onLeak(final int bytes, final Throwable acquiredAt) {
+                Log.w(TAG, "A pooled buffer of " + bytes + " bytes was never recycled", acquiredAt);
+            }
+        };
+        mStagingBuffers = new StagingBufferPool(NativeMemoryTracker.get(), STAGING_POOL_BUDGET_BYTES, leakListener);
+        mBitmaps = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                ? new BitmapPool(BITMAP_POOL_BUDGET_BYTES, leakListener) : null;
+        mUploader = new GLTextureUploader(TEXTURE_SAMPLING, TEXTURE_ANISOTROPY, MIPMAP_FILTER);
+        final PixelDiskCache diskCache = new PixelDiskCache(new File(getCacheDir(), "panoramas"),
+                DISK_CACHE_BUDGET_BYTES);
+        final ResourceHasher hasher = new ResourceHasher(getResources());
+        mEtcAssets = new EtcPanoramaAssets(getResources(), getAssets());
+        final PanoramaSource source;
+        if (STREAM_TILES) {
+            /** Prefetches only decode base layers, which are never in the ETC containers **/
+            mTileStreamer = new TileStreamer(mDecodeExecutor, new EtcTileDecoder(
+                    new CachingTileDecoder(new BitmapTileDecoder(getResources(), mBitmaps), diskCache, hasher), mEtcAssets),
+                    new CachingTileDecoder(new BitmapTileDecoder(getResources(), mBitmaps), diskCache, hasher),
+                    mUploader, mStagingBuffers,
+                    STREAM_TILE_SIZE, STREAM_BASE_LAYER_SIZE, STREAM_PREFETCH_MARGIN, STREAM_EVICT_MARGIN,
+                    STREAM_MAX_RESIDENT_TILES, mLodSelector);
+            source = mTileStreamer;
+        } else if (CUBE_MAP) {
+            /** Cube maps are converted from decoded pixels, not from ETC blocks **/
+            source = new PanoramaLoader(mDecodeExecutor,
+                    new CachingPanoramaDecoder(new BitmapPanoramaDecoder(getResources(), mBitmaps), diskCache, hasher),
+                    mUploader, mStagingBuffers,
+                    new CubemapConverter(CUBE_MAP_FILTER, Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                            ? new ForkJoinRange() : null));
+        } else {
+            source = new PanoramaLoader(mDecodeExecutor, new EtcPanoramaDecoder(
+                    new CachingPanoramaDecoder(new BitmapPanoramaDecoder(getResources(), mBitmaps), diskCache, hasher),
+                    mEtcAssets),
+                    mUploader, mStagingBuffers);
+        }
+        source.setPrefetchFailureListener(new PanoramaSource.PrefetchFailureListener() {
+            @Override
+            public void onPrefetchFailed(final int resourceId, final IOException e) {
+                Log.w(TAG, "Unable to prefetch panorama " + resourceId, e);
+            }
+        });
+        mGallery = new PanoramaGallery(mResourceId, source,
+                new PanoramaTextureCache(mUploader, TEXTURE_CACHE_BUDGET_BYTES));
+
+        /** Frames are jank when they miss the display's refresh, the timings are reported off the GL thread **/
+        mMetrics.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
+        final File traceDir = METRICS_TRACE ? getExternalFilesDir(null) : null;
+        mMetricsExecutor = Executors.newSingleThreadScheduledExecutor();
+        mMetricsExecutor.scheduleAtFixedRate(new MetricsExporter(mMetrics,
+                        traceDir != null ? new File(traceDir, "frame_metrics.csv") : null),
+                METRICS_EXPORT_INTERVAL_SECONDS, METRICS_EXPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
         playMusic();
 
 
@@ -90,6 +343,23 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     @Override
     public void onRendererShutdown() {
         Log.i(TAG, "onRendererShutdown");
+
+        mGallery.release();
+        if (mSphere != null) {
+            mSphere.release();
+            mProxyCube.release();
+            mFoveatedRenderer.release();
+        }
+        if (mShaderWarmUp != null) {
+            mShaderWarmUp.join();
+            mShaderWarmUp = null;
+        }
+        if (mShaderCache != null) {
+            mShaderCache.release();
+            Log.i(TAG, "Programs: " + mShaderCache.getHitCount() + " shared, " + mShaderCache.getBinaryLoadCount()
+                    + " from binaries, " + mShaderCache.getCompileCount() + " compiled, "
+                    + mShaderCache.getBinaryRejectCount() + " binaries rejected");
+        }
     }
 
     @Override
@@ -97,9 +367,20 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
         /**Setting the view port to the width and height of the device **/
         glViewport(0, 0, width, height);
-        /** Setting the projection Matrix for the view **/
-        MatrixHelper.perspectiveM(mProjectionMatrix, 90, (float) width
+        /** Setting the projection Matrix for the view, the eyes split the width in VR mode **/
+        final int eyeWidth = mCardboardView.getVRMode() ? width / 2 : width;
+        MatrixHelper.perspectiveM(mProjectionMatrix, 90, (float) eyeWidth
                 / (float) height, 1f, 10f);
+        mEyeMatrices.setProjection(mProjectionMatrix);
+        if (STREAM_TILES) {
+            mTileStreamer.setViewCone(TileVisibility.coneHalfAngle(90, (float) eyeWidth / (float) height));
+            mLodSelector.setViewport(height, 90);
+        }
+        mTessellation.setViewport(height, 90);
+        final int depth = mTessellation.selectDepth();
+        mSphere.setDepth(depth);
+        Log.i(TAG, String.format("Sphere depth %d, %.2f pixels of error", depth,
+                mTessellation.screenError(depth)));
 
         Log.i(TAG, "onSurfaceChanged");
     }
@@ -117,63 +398,217 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         Log.i(TAG, "onSurfaceCreated");
         GLES20.glClearColor(1f, 1f, 0f, 1f);// Dark background so text shows up well.
 
-        /** Creating the Sphere for Rendering images inside the sphere **/
-        mSphere = new Sphere(this, 50, 5f);
-        mSphere.loadTexture(this, getPhotoIndex());
-        checkGLError("onSurfaceCreated");
+        /** The programs of the previous context went away with it, binaries are kept **/
+        if (mShaderWarmUp != null) {
+            mShaderWarmUp.join();
+            mShaderWarmUp = null;
+        }
+        if (mShaderCache == null) {
+            mShaderCache = new ShaderProgramCache(new GLProgramCompiler(), new File(getCacheDir(), "shaders"));
+        }
+        mShaderCache.onSurfaceCreated();
+
+        /** Creating the Sphere for Rendering images inside the sphere, and the cube to compare it with **/
+        if (mSphere == null) {
+            mSphere = new Sphere(mTessellation.selectDepth(), 5f, mRenderState, mShaderCache);
+            mProxyCube = new ProxyCube(5f, mRenderState, mShaderCache);
+            mSurface = START_WITH_PROXY_CUBE || CUBE_MAP && !STREAM_TILES ? mProxyCube : mSphere;
+            mFoveatedRenderer = new FoveatedRenderer(mRenderState, mShaderCache);
+        }
+
+        /** The new context starts from the default state **/
+        mRenderState.reset();
+
+        /** The previous context and everything in it is gone, upload again **/
+        final boolean instancedStereo = STEREO_MODE == StereoMode.INSTANCED
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2 && TextureHelper.isOpenGLES3();
+        if (SHADER_WARM_UP) {
+            // Listed in the opposite order to the GL thread's, so the two rarely wait for each other.
+            final List<ShaderProgramCache.Key> keys = new ArrayList<ShaderProgramCache.Key>();
+            keys.addAll(mFoveatedRenderer.getProgramKeys(this));
+            keys.addAll(mProxyCube.getProgramKeys(this, instancedStereo));
+            keys.addAll(mSphere.getProgramKeys(this, instancedStereo));
+            mShaderWarmUp = ShaderWarmUp.start(mShaderCache, keys);
+        }
+        mSphere.onSurfaceCreated(this, instancedStereo);
+        mProxyCube.onSurfaceCreated(this, instancedStereo);
+        mFoveatedRenderer.onSurfaceCreated(this);
+        mEtcAssets.setTextureFormat(TextureHelper.getEtcTextureFormat());
+        mUploader.onSurfaceCreated();
+        mGallery.onSurfaceCreated(CUBE_MAP && !STREAM_TILES
+                ? Math.min(TextureHelper.getMaxTextureSize(), TextureHelper.getMaxCubeMapTextureSize())
+                : TextureHelper.getMaxTextureSize());
+        mGLDebug.check("onSurfaceCreated");
+
+        Log.i(TAG, NativeMemoryTracker.get().getUsageReport());
 
     }
 
 
     /**
-     * Prepares OpenGL ES before we draw a frame.
+     * Draws a frame for both eyes.
      *
      * @param headTransform The head transformation in the new frame.
+     * @param leftEye       The left eye, or the only one outside VR mode.
+     * @param rightEye      The right eye, null outside VR mode.
      */
     @Override
-    public void onNewFrame(HeadTransform headTransform) {
+    public void onDrawFrame(HeadTransform headTransform, Eye leftEye, Eye rightEye) {
+        final long start = System.nanoTime();
+        mMetrics.frameStarted(start);
+        mGLDebug.beginFrame();
+        headTransform.getHeadView(mHeadView, 0);
+        PosePredictor.fromMatrix(mHeadView, mHeadOrientation);
+        mPosePredictor.addSample(start, mHeadOrientation);
+
+        onNewFrame(headTransform);
+
+        /** What every tile draws with is worked out once for both eyes **/
+        mSurface.prepareFrame();
+        final long drawStart = mMetrics.recordSince(FrameMetrics.Stage.NEW_FRAME, start);
+
+        /** The head has moved on while the frame uploaded, catch up right before drawing **/
+        latchHeadPose(System.nanoTime() + POSE_EXTRA_LATENCY_NANOS);
+
+        if (rightEye == null || STEREO_MODE == StereoMode.PER_EYE) {
+            mRenderState.setEnabled(GLES20.GL_SCISSOR_TEST, true);
+            drawEye(leftEye, true);
+            if (rightEye != null) {
+                drawEye(rightEye, true);
+            }
+        } else {
+            mRenderState.setEnabled(GLES20.GL_SCISSOR_TEST, false);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+
+            leftEye.getViewport().getAsArray(mLeftViewport, 0);
+            rightEye.getViewport().getAsArray(mRightViewport, 0);
+            if (STEREO_MODE == StereoMode.INSTANCED && !mFoveated && mSurface.isStereoSupported()
+                    && mStereoBatch.setViewports(mLeftViewport, mRightViewport)) {
+                /** One viewport over both eyes, one draw per tile for both **/
+                final int[] viewport = mStereoBatch.getViewport();
+                glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+                mStereoBatch.setMatrix(0, mEyeMatrices.getViewProjection(leftEye.getType(), leftEye.getEyeView()));
+                mStereoBatch.setMatrix(1, mEyeMatrices.getViewProjection(rightEye.getType(), rightEye.getEyeView()));
+                mGLDebug.label("drawStereo");
+                mSurface.drawStereo(mStereoBatch);
+            } else {
+                drawEye(leftEye, false);
+                drawEye(rightEye, false);
+            }
+        }
 
-        /** Setting the camera in the center **/
-        Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
-        checkGLError("onReadyToDraw");
+        mGLDebug.check("onDrawFrame");
+        if (mGLDebug.endFrame()) {
+            Log.e(TAG, mGLDebug.getLastError());
+        }
+
+        final long end = mMetrics.recordSince(FrameMetrics.Stage.DRAW, drawStart);
+        mMetrics.record(FrameMetrics.Stage.FRAME, end - start);
+        mSurfaceFrames++;
+        mSurfaceFrameNanos += end - start;
     }
 
     /**
-     * Draws a frame for an eye.
+     * Prepares OpenGL ES before we draw a frame.
      *
-     * @param eye The eye to render. Includes all required transformations.
+     * @param headTransform The head transformation in the new frame.
      */
-    @Override
-    public void onDrawEye(Eye eye) {
+    private void onNewFrame(HeadTransform headTransform) {
 
+        if (mIsCardboardTriggered) {
+            mIsCardboardTriggered = false;
+            mGallery.next();
+        }
+        if (mIsSurfaceToggled) {
+            mIsSurfaceToggled = false;
+            toggleSurface();
+        }
+        if (mIsFoveationToggled) {
+            mIsFoveationToggled = false;
+            mFoveated = !mFoveated;
+            Log.i(TAG, "Foveated rendering " + (mFoveated ? "on" : "off"));
+        }
+        mFoveatedRenderer.onNewFrame();
+
+        /** Continue uploading the next panorama, the current one stays until it is complete **/
+        headTransform.getForwardVector(mForward, 0);
+        final long uploadStart = System.nanoTime();
+        final PanoramaTexture texture = mGallery.onGlFrame(mForward[0], mForward[1], mForward[2],
+                UPLOAD_BUDGET_NANOS);
+        mMetrics.recordSince(FrameMetrics.Stage.UPLOAD, uploadStart);
+        if (texture != null) {
+            mSphere.setTexture(texture);
+            mProxyCube.setTexture(texture);
+        }
+        /** Uploads and evictions bind and delete textures behind the render state **/
+        mRenderState.invalidateTextures();
+        mGLDebug.check("onReadyToDraw");
+    }
 
-        // float[] scratch = new float[16];
-        //   long time = SystemClock.uptimeMillis() % 4000L;
-        //   float angle = 0.090f * ((int) time);
-        // Matrix.setRotateM(mRotationMatrix, 0, angle, 0, 1, 0.0f);
+    /**
+     * Points every eye's view at the head orientation predicted for a time. The eye views still
+     * hold the orientation sampled at the start of the frame, so the correction turns that one
+     * into the predicted one: eyeView * R(sampled)^T * R(predicted).
+     *
+     * @param timeNanos When the frame is expected on the display, on the System.nanoTime() clock.
+     */
+    private void latchHeadPose(final long timeNanos) {
+        mPosePredictor.predict(timeNanos, mPredictedOrientation);
+        PosePredictor.relativeRotation(mHeadOrientation, mPredictedOrientation, mHeadCorrection);
+        mEyeMatrices.setHeadCorrection(mHeadCorrection);
+    }
 
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        /** Camera should move based on the user movement **/
-        Matrix.multiplyMM(mView, 0, eye.getEyeView(), 0, mCamera, 0);
+    /**
+     * Draws a frame for an eye.
+     *
+     * @param eye   The eye to render. Includes all required transformations.
+     * @param clear True to clear the eye's viewport first, the scissor test must be enabled.
+     */
+    private void drawEye(Eye eye, boolean clear) {
+        mGLDebug.label("drawEye");
+        eye.getViewport().setGLViewport();
+        if (clear) {
+            eye.getViewport().setGLScissor();
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        }
 
-        /** setting the view projection matrix **/
-        multiplyMM(mViewProjectionMatrix, 0, mProjectionMatrix, 0, mView, 0);
-        //  multiplyMM(mViewProjectionMatrix, 0, mProjectionMatrix, 0, mCamera, 0);
-        //  multiplyMM(scratch, 0, mViewProjectionMatrix, 0, mRotationMatrix, 0);
+        /** Camera should move based on the user movement, the matrices are only rebuilt when it did **/
+        final float[] viewProjectionMatrix = mEyeMatrices.getViewProjection(eye.getType(), eye.getEyeView());
 
         /** Drawing the sphere  and apply the projection to it**/
-        mSphere.draw(mViewProjectionMatrix);
-
-        checkGLError("onDrawEye");
-
-        if (mIsCardboardTriggered) {
-            mIsCardboardTriggered = false;
-            resetTexture();
-
-
+        final float[] eyePosition = mEyeMatrices.getEyePosition(eye.getType());
+        if (!mFoveated) {
+            mSurface.draw(viewProjectionMatrix, eyePosition);
+            mGLDebug.check("drawEye");
+            return;
         }
 
+        /** The whole eye at low resolution, then the centre of the lens at full resolution over it **/
+        final Viewport viewport = eye.getViewport();
+        final FieldOfView fov = eye.getFov();
+        viewport.getAsArray(mEyeViewport, 0);
+        mFoveationLayout.update(viewport.width, viewport.height, mProjectionMatrix,
+                fov.getLeft(), fov.getRight(), fov.getBottom(), fov.getTop());
+        mFoveatedRenderer.beginPeriphery(mFoveationLayout);
+        mSurface.draw(viewProjectionMatrix, eyePosition);
+        mGLDebug.check("drawEye periphery");
+        mFoveatedRenderer.beginInner(mFoveationLayout, mEyeViewport);
+        mSurface.draw(viewProjectionMatrix, eyePosition);
+        mGLDebug.check("drawEye inner");
+    }
 
+    /**
+     * Switches between the sphere and the proxy cube, logging how long the frames on the
+     * previous one took to submit.
+     */
+    private void toggleSurface() {
+        if (mSurfaceFrames > 0) {
+            Log.i(TAG, (mSurface == mSphere ? "Sphere" : "Proxy cube") + ": " + mSurfaceFrames
+                    + " frames, " + mSurfaceFrameNanos / mSurfaceFrames / 1000 + " us per frame");
+        }
+        mSurface = mSurface == mSphere ? mProxyCube : mSphere;
+        mSurfaceFrames = 0;
+        mSurfaceFrameNanos = 0;
     }
 
     @Override
@@ -188,26 +623,33 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     public void onCardboardTrigger() {
         Log.i(TAG, "onCardboardTrigger");
 
-        /* Flag to sync with onDrawEye */
+        /* Flag to sync with onNewFrame */
         mIsCardboardTriggered = true;
 
 
     }
 
     /**
-     * Reload the texture
+     * Swallows the volume keys, which switch surfaces and foveation when released.
      */
-    private void resetTexture() {
-        mSphere.deleteCurrentTexture();
-        checkGLError("after deleting texture");
-        mSphere.loadTexture(this, getPhotoIndex());
-        checkGLError("loading texture");
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        return keyCode == KeyEvent.KEYCODE_VOLUME_DOWN || keyCode == KeyEvent.KEYCODE_VOLUME_UP
+                || super.onKeyDown(keyCode, event);
     }
 
-    private int getPhotoIndex() {
-        return mResourceId[mCurrentPhotoPos++ % mResourceId.length];
-
-
+    @Override
+    public boolean onKeyUp(int keyCode, KeyEvent event) {
+        /* Flags to sync with onNewFrame */
+        if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
+            mIsSurfaceToggled = true;
+            return true;
+        }
+        if (keyCode == KeyEvent.KEYCODE_VOLUME_UP) {
+            mIsFoveationToggled = true;
+            return true;
+        }
+        return super.onKeyUp(keyCode, event);
     }
 
     private void playMusic() {
@@ -219,6 +661,26 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
     }
 
+    /**
+     * Frees idle pooled buffers, half of them while the app runs low on memory and all once it
+     * is hidden or the system runs critically low.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        final boolean all = level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_CRITICAL;
+        // Halve what is idle now, a pool well under its cap would otherwise keep everything.
+        mStagingBuffers.trimToSize(all ? 0 : mStagingBuffers.getFreeBytes() / 2);
+        if (mBitmaps != null) {
+            mBitmaps.trimToSize(all ? 0 : mBitmaps.getFreeBytes() / 2);
+        }
+        if (all) {
+            ResourceAssets.getCache(this).clear();
+        }
+        Log.i(TAG, "onTrimMemory " + level + ", " + NativeMemoryTracker.get().getUsageReport());
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
@@ -227,4 +689,12 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
             mMediaPlayer.stop();
 
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        mDecodeExecutor.shutdownNow();
+        mMetricsExecutor.shutdownNow();
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Reports the {@link FrameMetrics} gathered since the previous report: the 50th, 95th and
+ *         99th percentile and the maximum of every stage and the frames that missed a refresh to
+ *         logcat, and optionally every recorded sample to a CSV file for offline analysis.
+ *         <p/>
+ *         Meant to run periodically on a thread of its own, its allocations stay off the
+ *         threads that record.
+ */
+public class MetricsExporter implements Runnable {
+
+    private static final String TAG = "FrameMetrics";
+
+    private final FrameMetrics mMetrics;
+    private final File mTraceFile;
+    private final long[] mCounts = new long[LatencyHistogram.BUCKETS];
+    private final long[] mSamples;
+    private final long[] mSequences = new long[FrameMetrics.Stage.values().length];
+    private long mFrames;
+    private long mJankyFrames;
+    private long mMissedRefreshes;
+
+    /**
+     * @param metrics   Metrics to report.
+     * @param traceFile CSV file the samples are appended to, null to only log.
+     */
+    public MetricsExporter(final FrameMetrics metrics, final File traceFile) {
+        this.mMetrics = metrics;
+        this.mTraceFile = traceFile;
+        mSamples = new long[metrics.getRing(FrameMetrics.Stage.FRAME).getCapacity()];
+        for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+            mSequences[stage.ordinal()] = metrics.getRing(stage).getSequence();
+        }
+    }
+
+    @Override
+    public void run() {
+        export();
+    }
+
+    /**
+     * Reports the metrics gathered since the previous call.
+     */
+    public void export() {
+        final StringBuilder report = new StringBuilder();
+        final long frames = mMetrics.getFrames();
+        final long jankyFrames = mMetrics.getJankyFrames();
+        final long missedRefreshes = mMetrics.getMissedRefreshes();
+        report.append("frames=").append(frames - mFrames)
+                .append(" janky=").append(jankyFrames - mJankyFrames)
+                .append(" missedRefreshes=").append(missedRefreshes - mMissedRefreshes)
+                .append(" refresh=").append(mMetrics.getRefreshIntervalNanos() / 1000).append("us");
+        mFrames = frames;
+        mJankyFrames = jankyFrames;
+        mMissedRefreshes = missedRefreshes;
+
+        for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+            final long count = mMetrics.getHistogram(stage).drainTo(mCounts);
+            if (count == 0) {
+                continue;
+            }
+            report.append('\n').append(stage).append(": n=").append(count)
+                    .append(" p50=").append(percentileMicros(count, 50))
+                    .append(" p95=").append(percentileMicros(count, 95))
+                    .append(" p99=").append(percentileMicros(count, 99))
+                    .append(" max=").append(percentileMicros(count, 100)).append("us");
+        }
+        Log.i(TAG, report.toString());
+
+        if (mTraceFile != null) {
+            try {
+                writeTrace();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write " + mTraceFile, e);
+            }
+        }
+    }
+
+    private long percentileMicros(final long count, final double percentile) {
+        return LatencyHistogram.valueAtPercentile(mCounts, count, percentile) / 1000;
+    }
+
+    /**
+     * Appends the samples recorded since the previous call as stage,nanoseconds lines, and how
+     * many the rings overwrote before they were read.
+     */
+    private void writeTrace() throws IOException {
+        final boolean header = !mTraceFile.exists();
+        final Writer writer = new BufferedWriter(new FileWriter(mTraceFile, true));
+        try {
+            if (header) {
+                writer.write("stage,nanos\n");
+            }
+            for (FrameMetrics.Stage stage : FrameMetrics.Stage.values()) {
+                final TimingRing ring = mMetrics.getRing(stage);
+                final long from = mSequences[stage.ordinal()];
+                final long to = ring.getSequence();
+                final int count = ring.copy(from, to, mSamples);
+                mSequences[stage.ordinal()] = to;
+                for (int i = 0; i < count; i++) {
+                    writer.write(stage + "," + mSamples[i] + "\n");
+                }
+                if (count < to - from) {
+                    Log.w(TAG, (to - from - count) + " " + stage + " samples were overwritten before export");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Builds mip levels of staged images on the CPU, for textures the GL cannot build them
+ *         for itself.
+ *         <p/>
+ *         OpenGL ES 2.0 only mipmaps power of two textures unless GL_OES_texture_npot is there.
+ *         Such images are first resampled to the nearest power of two with a Lanczos filter, which
+ *         keeps them sharp, and their levels are then halved down to 1x1 with the chosen filter.
+ *         Works on images of unsigned byte components. Pure Java, so levels can also be generated
+ *         on the JVM.
+ */
+public final class MipmapBuilder {
+
+    /**
+     * Filter each level is built from the one before it with.
+     */
+    public enum Filter {
+        /**
+         * Average of 2x2 texels, cheap.
+         */
+        BOX,
+
+        /**
+         * Windowed sinc over 6x6 texels, sharper at about ten times the cost.
+         */
+        LANCZOS
+    }
+
+    /**
+     * Lobes of the Lanczos window on either side of the centre.
+     */
+    private static final int LANCZOS_LOBES = 3;
+
+    private MipmapBuilder() {
+    }
+
+    /**
+     * Builds the levels below an image, as glTexImage2D expects them.
+     *
+     * @param image   Level 0, left untouched.
+     * @param filter  Filter to halve levels with.
+     * @param buffers Pool to take the pixel buffers of the levels from.
+     * @return Levels 1 to the 1x1 level, each half the size of the one before it rounded down.
+     */
+    public static PixelImage[] build(final PixelImage image, final Filter filter,
+                                     final StagingBufferPool buffers) {
+        final PixelImage[] levels = new PixelImage[getLevelCount(image.getWidth(), image.getHeight()) - 1];
+        PixelImage level = image;
+        for (int i = 0; i < levels.length; i++) {
+            final int width = Math.max(1, level.getWidth() / 2);
+            final int height = Math.max(1, level.getHeight() / 2);
+            level = filter == Filter.BOX
+                    ? halve(level, width, height, buffers) : resample(level, width, height, buffers);
+            levels[i] = level;
+        }
+        return levels;
+    }
+
+    /**
+     * @return Number of mip levels of a texture, level 0 and the 1x1 level included.
+     */
+    public static int getLevelCount(final int width, final int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    public static boolean isPowerOfTwo(final int size) {
+        return size > 0 && (size & (size - 1)) == 0;
+    }
+
+    /**
+     * @return The power of two closest to the size in scale, so 384 goes up to 512 and 352 goes
+     * down to 256.
+     */
+    public static int nearestPowerOfTwo(final int size) {
+        final int below = Integer.highestOneBit(Math.max(1, size));
+        return size - below < below * 2 - size ? below : below * 2;
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. Odd edges are dropped, as GL level sizes round down.
+     *
+     * @param source  Image of unsigned byte components.
+     * @param width   Width of the result, half the source's rounded down and at least 1.
+     * @param height  Height of the result, half the source's rounded down and at least 1.
+     * @param buffers Pool to take the pixel buffer of the result from.
+     */
+    static PixelImage halve(final PixelImage source, final int width, final int height,
+                            final StagingBufferPool buffers) {
+        checkFilterable(source);
+        final int bytesPerPixel = source.getBytesPerPixel();
+        final int rowBytes = source.getRowBytes();
+        final int lastColumn = (source.getWidth() - 1) * bytesPerPixel;
+        final int lastRow = (source.getHeight() - 1) * rowBytes;
+        final ByteBuffer src = source.getPixels();
+        final ByteBuffer dst = buffers.acquire(width * height * bytesPerPixel);
+
+        int out = 0;
+        for (int y = 0; y < height; y++) {
+            final int row0 = 2 * y * rowBytes;
+            final int row1 = Math.min(row0 + rowBytes, lastRow);
+            for (int x = 0; x < width; x++) {
+                final int column0 = 2 * x * bytesPerPixel;
+                final int column1 = Math.min(column0 + bytesPerPixel, lastColumn);
+                for (int c = 0; c < bytesPerPixel; c++) {
+                    final int sum = (src.get(row0 + column0 + c) & 0xff) + (src.get(row0 + column1 + c) & 0xff)
+                            + (src.get(row1 + column0 + c) & 0xff) + (src.get(row1 + column1 + c) & 0xff);
+                    dst.put(out++, (byte) ((sum + 2) >> 2));
+                }
+            }
+        }
+
+        return new PixelImage(width, height, bytesPerPixel, source.getFormat(), source.getType(), dst);
+    }
+
+    /**
+     * Resamples an image to any size with a separable Lanczos filter, horizontally first.
+     *
+     * @param source  Image of unsigned byte components.
+     * @param width   Width of the result.
+     * @param height  Height of the result.
+     * @param buffers Pool to take the pixel buffer of the result from.
+     */
+    public static PixelImage resample(final PixelImage source, final int width, final int height,
+                                      final StagingBufferPool buffers) {
+        checkFilterable(source);
+        final int bytesPerPixel = source.getBytesPerPixel();
+        final int sourceWidth = source.getWidth();
+        final int sourceHeight = source.getHeight();
+        final ByteBuffer src = source.getPixels();
+
+        // Horizontal pass into floats, one row of the source at a time.
+        final Kernel columns = new Kernel(sourceWidth, width);
+        final float[] horizontal = new float[width * sourceHeight * bytesPerPixel];
+        for (int y = 0; y < sourceHeight; y++) {
+            final int row = y * source.getRowBytes();
+            int out = y * width * bytesPerPixel;
+            for (int x = 0; x < width; x++) {
+                final int first = columns.mFirst[x];
+                final int weights = x * columns.mTaps;
+                for (int c = 0; c < bytesPerPixel; c++) {
+                    float sum = 0;
+                    for (int t = 0; t < columns.mTaps; t++) {
+                        final int column = clamp(first + t, sourceWidth - 1);
+                        sum += columns.mWeights[weights + t] * (src.get(row + column * bytesPerPixel + c) & 0xff);
+                    }
+                    horizontal[out++] = sum;
+                }
+            }
+        }
+
+        // Vertical pass into the result.
+        final Kernel rows = new Kernel(sourceHeight, height);
+        final int rowFloats = width * bytesPerPixel;
+        final ByteBuffer dst = buffers.acquire(width * height * bytesPerPixel);
+        int out = 0;
+        for (int y = 0; y < height; y++) {
+            final int first = rows.mFirst[y];
+            final int weights = y * rows.mTaps;
+            for (int i = 0; i < rowFloats; i++) {
+                float sum = 0;
+                for (int t = 0; t < rows.mTaps; t++) {
+                    sum += rows.mWeights[weights + t] * horizontal[clamp(first + t, sourceHeight - 1) * rowFloats + i];
+                }
+                dst.put(out++, (byte) clamp(Math.round(sum), 255));
+            }
+        }
+
+        return new PixelImage(width, height, bytesPerPixel, source.getFormat(), source.getType(), dst);
+    }
+
+    private static void checkFilterable(final PixelImage source) {
+        if (source.isCompressed()) {
+            throw new IllegalArgumentException("Cannot filter compressed blocks");
+        }
+    }
+
+    private static int clamp(final int value, final int max) {
+        return value < 0 ? 0 : value > max ? max : value;
+    }
+
+    /**
+     * Lanczos weights of every target sample along one axis, normalised to sum to 1.
+     */
+    private static final class Kernel {
+
+        private final int mTaps;
+        private final int[] mFirst;
+        private final float[] mWeights;
+
+        Kernel(final int sourceSize, final int targetSize) {
+            final double scale = (double) sourceSize / targetSize;
+            // Widen the window when shrinking, so it also filters out what the target cannot hold.
+            final double stretch = Math.max(1, scale);
+            final double support = LANCZOS_LOBES * stretch;
+            mTaps = (int) Math.ceil(support) * 2 + 1;
+            mFirst = new int[targetSize];
+            mWeights = new float[targetSize * mTaps];
+
+            for (int i = 0; i < targetSize; i++) {
+                final double centre = (i + 0.5) * scale - 0.5;
+                final int first = (int) Math.floor(centre - support) + 1;
+                mFirst[i] = first;
+                double total = 0;
+                for (int t = 0; t < mTaps; t++) {
+                    final double weight = lanczos((first + t - centre) / stretch);
+                    mWeights[i * mTaps + t] = (float) weight;
+                    total += weight;
+                }
+                for (int t = 0; t < mTaps; t++) {
+                    mWeights[i * mTaps + t] /= total;
+                }
+            }
+        }
+
+        private static double lanczos(final double x) {
+            if (x == 0) {
+                return 1;
+            }
+            if (Math.abs(x) >= LANCZOS_LOBES) {
+                return 0;
+            }
+            final double px = Math.PI * x;
+            return LANCZOS_LOBES * Math.sin(px) * Math.sin(px / LANCZOS_LOBES) / (px * px);
+        }
+    }
+}
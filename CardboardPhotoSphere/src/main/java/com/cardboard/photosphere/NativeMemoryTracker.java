@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Allocates the direct (off-heap) buffers of the app and keeps count of the live bytes
+ *         per owner. Direct memory is invisible to the Java heap statistics, so this is the only
+ *         place that knows how much of it we hold.
+ */
+public final class NativeMemoryTracker {
+
+    /**
+     * What a direct buffer is used for.
+     */
+    public enum Owner {
+        GEOMETRY,
+        TEXTURES,
+        STAGING
+    }
+
+    private static final NativeMemoryTracker sInstance = new NativeMemoryTracker();
+
+    private final AtomicLong[] mLiveBytes = new AtomicLong[Owner.values().length];
+
+    /**
+     * Creates a tracker with its own counters. The app uses the shared {@link #get()} instance.
+     */
+    public NativeMemoryTracker() {
+        for (int i = 0; i < mLiveBytes.length; i++) {
+            mLiveBytes[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * @return The tracker shared by the whole app.
+     */
+    public static NativeMemoryTracker get() {
+        return sInstance;
+    }
+
+    /**
+     * Allocates a direct buffer in native byte order and counts it against the owner.
+     *
+     * @param owner What the buffer is used for.
+     * @param bytes Size of the buffer in bytes.
+     * @return The new buffer.
+     */
+    public ByteBuffer allocate(final Owner owner, final int bytes) {
+        final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytes);
+        byteBuffer.order(ByteOrder.nativeOrder());
+        mLiveBytes[owner.ordinal()].addAndGet(bytes);
+        return byteBuffer;
+    }
+
+    /**
+     * Stops counting a buffer obtained from {@link #allocate}. The caller must drop every
+     * reference to it so the memory can be reclaimed.
+     *
+     * @param owner Owner the buffer was allocated for.
+     * @param bytes Size of the buffer in bytes.
+     */
+    public void release(final Owner owner, final int bytes) {
+        final long live = mLiveBytes[owner.ordinal()].addAndGet(-bytes);
+        if (live < 0) {
+            throw new IllegalStateException("Released more " + owner + " memory than allocated: " + live);
+        }
+    }
+
+    /**
+     * @param owner Owner to query.
+     * @return Bytes currently held by the owner.
+     */
+    public long getLiveBytes(final Owner owner) {
+        return mLiveBytes[owner.ordinal()].get();
+    }
+
+    /**
+     * @return Bytes currently held by all owners.
+     */
+    public long getTotalLiveBytes() {
+        long total = 0;
+        for (AtomicLong live : mLiveBytes) {
+            total += live.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return The live bytes of every owner, for the log.
+     */
+    public String getUsageReport() {
+        final StringBuilder report = new StringBuilder("Native memory:");
+        for (Owner owner : Owner.values()) {
+            report.append(' ').append(owner).append('=').append(getLiveBytes(owner));
+        }
+        report.append(" total=").append(getTotalLiveBytes());
+        return report.toString();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decodes a panorama into staged pixels, one image per tile. Called on a background thread.
+ */
+public interface PanoramaDecoder {
+
+    /**
+     * @param resourceId  Resource to decode.
+     * @param maxTileSize Largest tile edge the GL accepts, the image is split into tiles above it.
+     * @param buffers     Pool to take the pixel buffers of the result from.
+     * @return The decoded pixels.
+     * @throws IOException If the resource cannot be decoded.
+     */
+    TiledImage decode(int resourceId, int maxTileSize, StagingBufferPool buffers) throws IOException;
+}
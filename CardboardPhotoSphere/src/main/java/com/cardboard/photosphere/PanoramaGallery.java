@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Cycles through a fixed list of panoramas.
+ *         <p/>
+ *         Panoramas that were shown or prefetched stay in a {@link PanoramaTextureCache}, so
+ *         going back to one swaps texture handles instead of decoding again. While a panorama is
+ *         on screen its neighbours in the list are prefetched. Only used on the GL thread.
+ */
+public class PanoramaGallery {
+
+    private final int[] mResourceIds;
+    private final PanoramaSource mSource;
+    private final PanoramaTextureCache mCache;
+
+    /**
+     * Position in the list of the panorama shown or being loaded.
+     */
+    private int mPosition;
+
+    /**
+     * Resource being loaded to show, or 0 once it is shown.
+     */
+    private int mPendingResourceId;
+
+    /**
+     * Resources prefetched but not yet handed back by the source.
+     */
+    private final Set<Integer> mPrefetching = new HashSet<Integer>();
+
+    /**
+     * Panorama to hand to the renderer on the next frame.
+     */
+    private PanoramaTexture mShow;
+
+    /**
+     * @param resourceIds Panoramas in the order they are shown.
+     * @param source      Loads the panoramas.
+     * @param cache       Keeps the loaded panoramas.
+     */
+    public PanoramaGallery(final int[] resourceIds, final PanoramaSource source, final PanoramaTextureCache cache) {
+        this.mResourceIds = resourceIds;
+        this.mSource = source;
+        this.mCache = cache;
+    }
+
+    /**
+     * Starts loading the current panorama again into a new GL context.
+     *
+     * @param maxTextureSize Largest texture edge of the new context, GL_MAX_TEXTURE_SIZE.
+     */
+    public void onSurfaceCreated(final int maxTextureSize) {
+        mCache.clear();
+        mPrefetching.clear();
+        mShow = null;
+        mSource.onSurfaceCreated(maxTextureSize);
+        show(mPosition);
+    }
+
+    /**
+     * Moves on to the next panorama of the list.
+     */
+    public void next() {
+        show(mPosition + 1);
+    }
+
+    /**
+     * Advances loading. Must be called once per frame.
+     *
+     * @param x           Unit view direction, x.
+     * @param y           Unit view direction, y.
+     * @param z           Unit view direction, z.
+     * @param budgetNanos Time uploads may take in this frame.
+     * @return The panorama to render from now on, still owned by the gallery, or null to keep
+     * the current one.
+     */
+    public PanoramaTexture onGlFrame(final float x, final float y, final float z, final long budgetNanos) {
+        final PanoramaTexture requested = mSource.onGlFrame(x, y, z, budgetNanos);
+        if (requested != null) {
+            mCache.put(requested);
+            showLoaded(requested);
+        }
+
+        PanoramaTexture prefetched;
+        while ((prefetched = mSource.pollPrefetched()) != null) {
+            mPrefetching.remove(prefetched.getResourceId());
+            if (mCache.contains(prefetched.getResourceId())) {
+                mCache.discard(prefetched);
+                continue;
+            }
+            mCache.put(prefetched);
+            if (prefetched.getResourceId() == mPendingResourceId) {
+                mSource.resume(prefetched);
+                showLoaded(prefetched);
+            }
+        }
+
+        // Streamed panoramas grow as tiles come in.
+        mCache.trim();
+
+        final PanoramaTexture show = mShow;
+        mShow = null;
+        return show;
+    }
+
+    /**
+     * Deletes all textures. Must be called on the GL thread.
+     */
+    public void release() {
+        mSource.release();
+        mCache.release();
+        mPrefetching.clear();
+        mShow = null;
+    }
+
+    private void show(final int position) {
+        mPosition = position % mResourceIds.length;
+        final int resourceId = mResourceIds[mPosition];
+        mPendingResourceId = resourceId;
+
+        final PanoramaTexture cached = mCache.get(resourceId);
+        if (cached != null) {
+            mSource.resume(cached);
+            showLoaded(cached);
+        } else {
+            mSource.request(resourceId);
+        }
+    }
+
+    private void showLoaded(final PanoramaTexture texture) {
+        mPendingResourceId = 0;
+        mCache.pin(texture);
+        mShow = texture;
+
+        // Load the neighbours in the background, so moving on is a texture handle swap.
+        prefetch(mPosition + 1);
+        prefetch(mPosition + mResourceIds.length - 1);
+    }
+
+    private void prefetch(final int position) {
+        final int resourceId = mResourceIds[position % mResourceIds.length];
+        if (resourceId != mResourceIds[mPosition] && !mCache.contains(resourceId)
+                && mPrefetching.add(resourceId)) {
+            mSource.prefetch(resourceId);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Loads panoramas without stalling the GL thread.
+ *         <p/>
+ *         Decoding runs on the given executor into a pooled staging buffer. The GL thread calls
+ *         {@link #onGlFrame} once per frame, which uploads the decoded rows in slices until the
+ *         frame's time budget is spent. Panoramas larger than GL_MAX_TEXTURE_SIZE arrive as
+ *         several tiles, each uploaded into its own texture. The new texture is only handed out once it is complete,
+ *         so the current one keeps rendering in the meantime. A newer request supersedes any
+ *         older one still being decoded or uploaded. Prefetched panoramas are uploaded while no
+ *         requested one is waiting, and are never superseded.
+ *         <p/>
+ *         With a {@link CubemapConverter}, every panorama is decoded whole and converted into
+ *         the six faces of a cube map after decoding, which are uploaded into one
+ *         GL_TEXTURE_CUBE_MAP.
+ */
+public class PanoramaLoader implements PanoramaSource {
+
+    /**
+     * Rows uploaded per glTexSubImage2D call.
+     */
+    private static final int ROWS_PER_SLICE = 64;
+
+    private final Executor mExecutor;
+    private final PanoramaDecoder mDecoder;
+    private final TextureUploader mUploader;
+    private final StagingBufferPool mBuffers;
+    private final CubemapConverter mCubemapConverter;
+
+    /**
+     * Incremented on every request, anything decoded for an older value is stale.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /**
+     * Latest decoded image waiting for the GL thread.
+     */
+    private final AtomicReference<Decoded> mDecoded = new AtomicReference<Decoded>();
+
+    /**
+     * Decoded prefetches waiting for the GL thread.
+     */
+    private final Queue<Decoded> mDecodedPrefetches = new ConcurrentLinkedQueue<Decoded>();
+
+    /**
+     * Uploaded prefetches waiting for {@link #pollPrefetched}, only touched on the GL thread.
+     */
+    private final Queue<PanoramaTexture> mPrefetched = new ArrayDeque<PanoramaTexture>();
+
+    /**
+     * Latest decode failure, reported on the GL thread.
+     */
+    private final AtomicReference<IOException> mFailure = new AtomicReference<IOException>();
+
+    /**
+     * Largest tile edge of the current GL context.
+     */
+    private volatile int mMaxTileSize;
+
+    private volatile PrefetchFailureListener mPrefetchFailureListener;
+
+    // Upload in progress, only touched on the GL thread.
+    private Decoded mUploading;
+    private int[] mUploadTextures;
+    private int mTile;
+    private int mNextRow;
+
+    public PanoramaLoader(final Executor executor, final PanoramaDecoder decoder,
+                          final TextureUploader uploader, final StagingBufferPool buffers) {
+        this(executor, decoder, uploader, buffers, null);
+    }
+
+    /**
+     * @param cubemapConverter Converts every panorama into a cube map, or null to upload them as
+     *                         they are. The decoder must then produce uncompressed RGBA pixels.
+     */
+    public PanoramaLoader(final Executor executor, final PanoramaDecoder decoder,
+                          final TextureUploader uploader, final StagingBufferPool buffers,
+                          final CubemapConverter cubemapConverter) {
+        this.mExecutor = executor;
+        this.mDecoder = decoder;
+        this.mUploader = uploader;
+        this.mBuffers = buffers;
+        this.mCubemapConverter = cubemapConverter;
+    }
+
+    @Override
+    public void request(final int resourceId) {
+        final int generation = mGeneration.incrementAndGet();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get()) {
+                    return;
+                }
+
+                final TiledImage image;
+                try {
+                    image = load(resourceId);
+                } catch (IOException e) {
+                    // A superseded request fails nobody.
+                    if (generation == mGeneration.get()) {
+                        mFailure.set(e);
+                    }
+                    return;
+                }
+
+                recycle(mDecoded.getAndSet(new Decoded(generation, resourceId, false, image)));
+            }
+        });
+    }
+
+    @Override
+    public void prefetch(final int resourceId) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDecodedPrefetches.add(new Decoded(0, resourceId, true, load(resourceId)));
+                } catch (IOException e) {
+                    onPrefetchFailed(resourceId, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setPrefetchFailureListener(final PrefetchFailureListener listener) {
+        mPrefetchFailureListener = listener;
+    }
+
+    /**
+     * Cancels any pending request, a whole panorama has nothing more to load.
+     */
+    @Override
+    public void resume(final PanoramaTexture texture) {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Advances the pending upload, at least one slice per frame. The view direction is not used.
+     */
+    @Override
+    public PanoramaTexture onGlFrame(final float x, final float y, final float z, final long budgetNanos) {
+        final long start = System.nanoTime();
+
+        final IOException failure = mFailure.getAndSet(null);
+        if (failure != null) {
+            throw new RuntimeException("Error loading texture.", failure);
+        }
+
+        // Drop an upload that a newer request superseded.
+        if (mUploading != null && !mUploading.mPrefetch && mUploading.mGeneration != mGeneration.get()) {
+            deleteUploadTextures();
+            abandonUpload();
+        }
+
+        if (mUploading == null) {
+            Decoded decoded = mDecoded.getAndSet(null);
+            if (decoded != null && decoded.mGeneration != mGeneration.get()) {
+                recycle(decoded);
+                decoded = null;
+            }
+            if (decoded == null) {
+                decoded = mDecodedPrefetches.poll();
+            }
+            if (decoded == null) {
+                return null;
+            }
+            mUploading = decoded;
+            mUploadTextures = new int[decoded.mImage.getTileCount()];
+            mTile = 0;
+            mNextRow = 0;
+        }
+
+        // The tiles of a cube map are its faces, all uploaded into the first texture.
+        final TiledImage tiles = mUploading.mImage;
+        final boolean cubeMap = mCubemapConverter != null;
+        final boolean wrap = tiles.getTileCount() == 1;
+        do {
+            final PixelImage image = tiles.getTile(mTile);
+            if (mNextRow == 0 && !cubeMap) {
+                mUploadTextures[mTile] = mUploader.createTexture(image, wrap);
+            } else if (mNextRow == 0 && mTile == 0) {
+                mUploadTextures[0] = mUploader.createCubeMap(image);
+            }
+
+            final int rows = Math.min(ROWS_PER_SLICE, image.getHeight() - mNextRow);
+            if (cubeMap) {
+                mUploader.uploadFaceRows(mUploadTextures[0], mTile, image, mNextRow, rows);
+            } else {
+                mUploader.uploadRows(mUploadTextures[mTile], image, mNextRow, rows);
+            }
+            mNextRow += rows;
+
+            if (mNextRow == image.getHeight()) {
+                if (!cubeMap) {
+                    mUploader.finishTexture(mUploadTextures[mTile], image);
+                } else if (mTile == tiles.getTileCount() - 1) {
+                    mUploader.finishCubeMap(mUploadTextures[0], image);
+                }
+                mTile++;
+                mNextRow = 0;
+            }
+        } while (mTile < tiles.getTileCount() && System.nanoTime() - start < budgetNanos);
+
+        if (mTile < tiles.getTileCount()) {
+            return null;
+        }
+
+        final PanoramaTexture texture;
+        if (cubeMap) {
+            final PixelImage face = tiles.getTile(0);
+            texture = new PanoramaTexture(mUploading.mResourceId,
+                    new TileGrid(face.getWidth(), face.getHeight(), face.getWidth()), true);
+            texture.setTextureHandle(0, mUploadTextures[0], mUploader.getCubeMapByteCount(face));
+        } else {
+            texture = new PanoramaTexture(mUploading.mResourceId, tiles.getGrid());
+            for (int tile = 0; tile < tiles.getTileCount(); tile++) {
+                texture.setTextureHandle(tile, mUploadTextures[tile],
+                        mUploader.getTextureByteCount(tiles.getTile(tile)));
+            }
+        }
+        final boolean prefetch = mUploading.mPrefetch;
+        abandonUpload();
+
+        if (prefetch) {
+            mPrefetched.add(texture);
+            return null;
+        }
+        return texture;
+    }
+
+    @Override
+    public PanoramaTexture pollPrefetched() {
+        return mPrefetched.poll();
+    }
+
+    /**
+     * Forgets an upload into a lost GL context. The decoded image is dropped as well, callers
+     * request the panorama again for the new context.
+     */
+    @Override
+    public void onSurfaceCreated(final int maxTileSize) {
+        mMaxTileSize = maxTileSize;
+        if (mUploading != null) {
+            abandonUpload();
+        }
+        mPrefetched.clear();
+    }
+
+    @Override
+    public void release() {
+        mGeneration.incrementAndGet();
+        if (mUploading != null) {
+            deleteUploadTextures();
+            abandonUpload();
+        }
+        recycle(mDecoded.getAndSet(null));
+        Decoded prefetch;
+        while ((prefetch = mDecodedPrefetches.poll()) != null) {
+            recycle(prefetch);
+        }
+        mPrefetched.clear();
+        mBuffers.clear();
+    }
+
+    private void onPrefetchFailed(final int resourceId, final IOException e) {
+        final PrefetchFailureListener listener = mPrefetchFailureListener;
+        if (listener != null) {
+            listener.onPrefetchFailed(resourceId, e);
+        }
+    }
+
+    private void deleteUploadTextures() {
+        for (int texture : mUploadTextures) {
+            if (texture != 0) {
+                mUploader.deleteTexture(texture);
+            }
+        }
+    }
+
+    private void abandonUpload() {
+        recycle(mUploading);
+        mUploading = null;
+        mUploadTextures = null;
+        mTile = 0;
+        mNextRow = 0;
+    }
+
+    /**
+     * Decodes a panorama and readies it for upload. Called on the executor.
+     */
+    private TiledImage load(final int resourceId) throws IOException {
+        final long start = System.nanoTime();
+        final TiledImage image;
+        if (mCubemapConverter == null) {
+            image = prepare(mDecoder.decode(resourceId, mMaxTileSize, mBuffers));
+        } else {
+            // The converter samples the whole panorama, which is never uploaded as it is.
+            image = toCubeMap(mDecoder.decode(resourceId, Integer.MAX_VALUE, mBuffers));
+        }
+        FrameMetrics.get().recordSince(FrameMetrics.Stage.DECODE, start);
+        return image;
+    }
+
+    /**
+     * Converts a whole decoded panorama into cube map faces, as the tiles of a strip of six.
+     * Recycles the panorama. Called on the executor.
+     */
+    private TiledImage toCubeMap(final TiledImage image) throws IOException {
+        final PixelImage panorama = image.getTile(0);
+        if (image.getTileCount() != 1 || panorama.getBytesPerPixel() != CubemapConverter.BYTES_PER_PIXEL) {
+            recycle(image);
+            throw new IOException("Cube maps are converted from whole RGBA panoramas");
+        }
+
+        final int size = CubemapConverter.faceSize(panorama.getWidth(), mMaxTileSize);
+        final PixelImage[] faces = new PixelImage[CubemapConverter.FACES];
+        final ByteBuffer[] pixels = new ByteBuffer[CubemapConverter.FACES];
+        for (int face = 0; face < faces.length; face++) {
+            pixels[face] = mBuffers.acquire(size * size * CubemapConverter.BYTES_PER_PIXEL);
+            faces[face] = new PixelImage(size, size, CubemapConverter.BYTES_PER_PIXEL, panorama.getFormat(),
+                    panorama.getType(), pixels[face]);
+        }
+        try {
+            mCubemapConverter.convert(panorama.getPixels(), panorama.getWidth(), panorama.getHeight(),
+                    pixels, size);
+        } finally {
+            panorama.recycle(mBuffers);
+        }
+        return new TiledImage(new TileGrid(size * CubemapConverter.FACES, size, size), faces);
+    }
+
+    /**
+     * Readies every tile of a decoded image for upload. Called on the executor.
+     */
+    private TiledImage prepare(final TiledImage image) {
+        final PixelImage[] tiles = new PixelImage[image.getTileCount()];
+        for (int tile = 0; tile < tiles.length; tile++) {
+            tiles[tile] = mUploader.prepare(image.getTile(tile), mBuffers);
+        }
+        return new TiledImage(image.getGrid(), tiles);
+    }
+
+    private void recycle(final Decoded decoded) {
+        if (decoded != null) {
+            recycle(decoded.mImage);
+        }
+    }
+
+    private void recycle(final TiledImage image) {
+        for (int tile = 0; tile < image.getTileCount(); tile++) {
+            image.getTile(tile).recycle(mBuffers);
+        }
+    }
+
+    /**
+     * A decoded image and the request it belongs to.
+     */
+    private static final class Decoded {
+        final int mGeneration;
+        final int mResourceId;
+        final boolean mPrefetch;
+        final TiledImage mImage;
+
+        Decoded(final int generation, final int resourceId, final boolean prefetch, final TiledImage image) {
+            this.mGeneration = generation;
+            this.mResourceId = resourceId;
+            this.mPrefetch = prefetch;
+            this.mImage = image;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A panorama at successively halved resolutions, finest level first.
+ *         <p/>
+ *         Every level is built from the one before it with a 2x2 box filter, so the pyramid
+ *         costs a third more than its finest level and no further decoding. Pure Java, so levels
+ *         can also be generated on the JVM.
+ */
+public class PanoramaPyramid {
+
+    private final List<PixelImage> mLevels;
+
+    private PanoramaPyramid(final List<PixelImage> levels) {
+        this.mLevels = levels;
+    }
+
+    /**
+     * Builds the pyramid of an image.
+     *
+     * @param finest       Finest level, now owned by the pyramid.
+     * @param coarsestSize Levels are added until the largest edge is at most this many pixels.
+     * @param buffers      Pool to take the pixel buffers of the coarser levels from.
+     * @return The pyramid.
+     */
+    public static PanoramaPyramid build(final PixelImage finest, final int coarsestSize,
+                                        final StagingBufferPool buffers) {
+        final List<PixelImage> levels = new ArrayList<PixelImage>();
+        PixelImage level = finest;
+        levels.add(level);
+        while (Math.max(level.getWidth(), level.getHeight()) > coarsestSize
+                && Math.min(level.getWidth(), level.getHeight()) > 1) {
+            level = downsample(level, buffers);
+            levels.add(level);
+        }
+        return new PanoramaPyramid(levels);
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. An odd last row or column is averaged with itself.
+     *
+     * @param source  Image of unsigned byte components.
+     * @param buffers Pool to take the pixel buffer of the result from.
+     * @return The image at half the width and height, rounded up.
+     */
+    public static PixelImage downsample(final PixelImage source, final StagingBufferPool buffers) {
+        if (source.isCompressed()) {
+            throw new IllegalArgumentException("Cannot filter compressed blocks");
+        }
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        final int bytesPerPixel = source.getBytesPerPixel();
+        final int rowBytes = source.getRowBytes();
+        final int halfWidth = (width + 1) / 2;
+        final int halfHeight = (height + 1) / 2;
+        final ByteBuffer src = source.getPixels();
+        final ByteBuffer dst = buffers.acquire(halfWidth * halfHeight * bytesPerPixel);
+
+        int out = 0;
+        for (int y = 0; y < halfHeight; y++) {
+            final int row0 = 2 * y * rowBytes;
+            final int row1 = Math.min(2 * y + 1, height - 1) * rowBytes;
+            for (int x = 0; x < halfWidth; x++) {
+                final int column0 = 2 * x * bytesPerPixel;
+                final int column1 = Math.min(2 * x + 1, width - 1) * bytesPerPixel;
+                for (int c = 0; c < bytesPerPixel; c++) {
+                    final int sum = (src.get(row0 + column0 + c) & 0xff) + (src.get(row0 + column1 + c) & 0xff)
+                            + (src.get(row1 + column0 + c) & 0xff) + (src.get(row1 + column1 + c) & 0xff);
+                    dst.put(out++, (byte) ((sum + 2) >> 2));
+                }
+            }
+        }
+
+        return new PixelImage(halfWidth, halfHeight, bytesPerPixel, source.getFormat(), source.getType(), dst);
+    }
+
+    /**
+     * @return Number of levels, at least 1.
+     */
+    public int getLevelCount() {
+        return mLevels.size();
+    }
+
+    /**
+     * @param level 0 for the finest level.
+     */
+    public PixelImage getLevel(final int level) {
+        return mLevels.get(level);
+    }
+
+    /**
+     * Hands the pixel buffers of all levels back to the pool.
+     */
+    public void recycle(final StagingBufferPool buffers) {
+        for (int i = 0; i < mLevels.size(); i++) {
+            buffers.recycle(mLevels.get(i).getPixels());
+        }
+        mLevels.clear();
+    }
+}
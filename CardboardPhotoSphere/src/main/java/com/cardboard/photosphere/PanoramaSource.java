@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Produces the textures of panoramas in the background, for showing right away or for
+ *         prefetching into a cache. All methods except {@link #request} and {@link #prefetch}
+ *         must be called on the GL thread.
+ *         <p/>
+ *         Only a failed request fails a frame. A failed prefetch is dropped and reported to the
+ *         {@link PrefetchFailureListener}, since nothing may ever ask for that panorama.
+ */
+public interface PanoramaSource {
+
+    /**
+     * Hears of prefetches that failed, on the thread that decoded them.
+     */
+    interface PrefetchFailureListener {
+        /**
+         * @param resourceId Resource that was prefetched.
+         * @param e          Why it failed.
+         */
+        void onPrefetchFailed(int resourceId, IOException e);
+    }
+
+    /**
+     * @param listener Listener for failed prefetches, or null to drop them silently.
+     */
+    void setPrefetchFailureListener(PrefetchFailureListener listener);
+
+    /**
+     * Forgets all textures of a lost GL context. Callers request the panorama again.
+     *
+     * @param maxTextureSize Largest texture edge of the new context, GL_MAX_TEXTURE_SIZE.
+     */
+    void onSurfaceCreated(int maxTextureSize);
+
+    /**
+     * Starts loading a panorama to show. Supersedes any earlier request. May be called from
+     * any thread.
+     *
+     * @param resourceId Resource to load.
+     */
+    void request(int resourceId);
+
+    /**
+     * Starts loading a panorama that may be shown later. Does not supersede anything. May be
+     * called from any thread.
+     *
+     * @param resourceId Resource to load.
+     */
+    void prefetch(int resourceId);
+
+    /**
+     * Shows a panorama loaded earlier, cancelling any pending request.
+     *
+     * @param texture Textures of the panorama, still owned by the caller.
+     */
+    void resume(PanoramaTexture texture);
+
+    /**
+     * Advances loading. Must be called once per frame.
+     *
+     * @param x           Unit view direction, x.
+     * @param y           Unit view direction, y.
+     * @param z           Unit view direction, z.
+     * @param budgetNanos Time uploads may take in this frame.
+     * @return The textures of the requested panorama once they can be shown, now owned by the
+     * caller, or null.
+     */
+    PanoramaTexture onGlFrame(float x, float y, float z, long budgetNanos);
+
+    /**
+     * @return Textures of a prefetched panorama, now owned by the caller, or null if none
+     * completed.
+     */
+    PanoramaTexture pollPrefetched();
+
+    /**
+     * Deletes any partially uploaded textures and frees the staging buffers. Textures handed out
+     * belong to the caller.
+     */
+    void release();
+}
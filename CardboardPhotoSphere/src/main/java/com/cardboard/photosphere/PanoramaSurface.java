@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Something a panorama is drawn onto around the viewer. All methods run on the GL thread.
+ */
+public interface PanoramaSurface {
+
+    /**
+     * Creates the GL objects of the surface. Must be called every time a new surface (and so a
+     * new GL context) is created.
+     *
+     * @param context         Context used to read the shaders.
+     * @param instancedStereo True to also build what {@link #drawStereo} needs, only on OpenGL ES
+     *                        3.0 and later.
+     */
+    void onSurfaceCreated(Context context, boolean instancedStereo);
+
+    /**
+     * @param context         Context used to read the shaders.
+     * @param instancedStereo True to include what {@link #drawStereo} needs.
+     * @return The programs {@link #onSurfaceCreated} asks its {@link ShaderProgramCache} for,
+     * so they can be linked ahead.
+     */
+    List<ShaderProgramCache.Key> getProgramKeys(Context context, boolean instancedStereo);
+
+    /**
+     * @return True if {@link #drawStereo} can be used in this GL context.
+     */
+    boolean isStereoSupported();
+
+    /**
+     * Switches to a new panorama.
+     *
+     * @param texture Textures to render with, still owned by the caller.
+     */
+    void setTexture(PanoramaTexture texture);
+
+    /**
+     * Works out what the frame draws with. Call once per frame, before drawing the eyes.
+     */
+    void prepareFrame();
+
+    /**
+     * Draws the panorama for one eye.
+     *
+     * @param mvpMatrix   Model view projection matrix.
+     * @param eyePosition Position of the eye in model space, x, y and z.
+     */
+    void draw(float[] mvpMatrix, float[] eyePosition);
+
+    /**
+     * Draws the panorama for both eyes at once. The viewport must cover both eyes, see
+     * {@link StereoBatch}.
+     *
+     * @param batch Matrices of both eyes.
+     */
+    void drawStereo(StereoBatch batch);
+
+    /**
+     * Releases the GL objects of the surface.
+     */
+    void release();
+}
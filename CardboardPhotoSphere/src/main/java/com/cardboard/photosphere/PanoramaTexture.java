@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         GL textures of a panorama, one per tile of its grid.
+ *         <p/>
+ *         A streamed panorama also has a low resolution base texture of the whole image, and
+ *         only some of its tiles have a texture at any time. Tiles without one are drawn from
+ *         the base texture. The texture memory of every texture is tracked so caches can
+ *         stay within a budget.
+ *         <p/>
+ *         A cube map panorama has a single tile whose texture is a GL_TEXTURE_CUBE_MAP.
+ */
+public class PanoramaTexture {
+
+    private final int mResourceId;
+    private final TileGrid mGrid;
+    private final boolean mCubeMap;
+    private final int[] mTextureHandles;
+    private final int[] mTextureBytes;
+    private final int[] mTileLevels;
+    private int mBaseTextureHandle;
+    private int mBaseTextureBytes;
+
+    /**
+     * Creates a panorama without any textures yet.
+     *
+     * @param resourceId Resource the panorama was loaded from.
+     * @param grid       Tile layout of the panorama.
+     */
+    public PanoramaTexture(final int resourceId, final TileGrid grid) {
+        this(resourceId, grid, false);
+    }
+
+    /**
+     * Creates a panorama without any textures yet.
+     *
+     * @param resourceId Resource the panorama was loaded from.
+     * @param grid       Tile layout of the panorama, a single tile for a cube map.
+     * @param cubeMap    True if the tile texture is a cube map.
+     */
+    public PanoramaTexture(final int resourceId, final TileGrid grid, final boolean cubeMap) {
+        this.mResourceId = resourceId;
+        this.mGrid = grid;
+        this.mCubeMap = cubeMap;
+        this.mTextureHandles = new int[grid.getTileCount()];
+        this.mTextureBytes = new int[grid.getTileCount()];
+        this.mTileLevels = new int[grid.getTileCount()];
+    }
+
+    public int getResourceId() {
+        return mResourceId;
+    }
+
+    public TileGrid getGrid() {
+        return mGrid;
+    }
+
+    /**
+     * @return True if the texture of the single tile is a cube map rather than a 2D texture.
+     */
+    public boolean isCubeMap() {
+        return mCubeMap;
+    }
+
+    /**
+     * @return Texture of the tile, or 0 if it is not loaded.
+     */
+    public int getTextureHandle(final int tile) {
+        return mTextureHandles[tile];
+    }
+
+    /**
+     * Changes the texture of a tile. The previous texture must be deleted by the caller.
+     *
+     * @param tile          Tile, in {@link TileGrid#getTileIndex} order.
+     * @param textureHandle New texture, or 0.
+     * @param bytes         Texture memory of the new texture.
+     */
+    public void setTextureHandle(final int tile, final int textureHandle, final int bytes) {
+        mTextureHandles[tile] = textureHandle;
+        mTextureBytes[tile] = bytes;
+    }
+
+    /**
+     * @return Level of the full resolution image the tile's texture was decoded at, 0 unless set.
+     */
+    public int getTileLevel(final int tile) {
+        return mTileLevels[tile];
+    }
+
+    /**
+     * Records the level a tile's texture was decoded at, so a resumed panorama keeps its rows at
+     * their levels.
+     *
+     * @param tile  Tile, in {@link TileGrid#getTileIndex} order.
+     * @param level Level of the full resolution image, scaled down by 2^level.
+     */
+    public void setTileLevel(final int tile, final int level) {
+        mTileLevels[tile] = level;
+    }
+
+    /**
+     * Changes the base texture, e.g. to a finer level. The previous texture must be deleted by
+     * the caller.
+     *
+     * @param textureHandle New texture, or 0.
+     * @param bytes         Texture memory of the new texture.
+     */
+    public void setBaseTextureHandle(final int textureHandle, final int bytes) {
+        mBaseTextureHandle = textureHandle;
+        mBaseTextureBytes = bytes;
+    }
+
+    /**
+     * @return Low resolution texture of the whole panorama, or 0.
+     */
+    public int getBaseTextureHandle() {
+        return mBaseTextureHandle;
+    }
+
+    /**
+     * @return The tile texture handles, for glDeleteTextures. Unloaded tiles are 0.
+     */
+    public int[] getTextureHandles() {
+        return mTextureHandles;
+    }
+
+    /**
+     * @return Texture memory of the base texture and all tile textures.
+     */
+    public long getByteCount() {
+        long bytes = mBaseTextureBytes;
+        for (int tileBytes : mTextureBytes) {
+            bytes += tileBytes;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Keeps the textures of recently shown and prefetched panoramas within a texture memory
+ *         budget, keyed by resource.
+ *         <p/>
+ *         When over budget the least recently used panoramas are deleted, except the pinned one
+ *         that is on screen. The cache owns every texture put into it. Only used on the GL thread,
+ *         textures are deleted through the {@link TextureUploader}.
+ */
+public class PanoramaTextureCache {
+
+    private final TextureUploader mUploader;
+    private final long mBudgetBytes;
+
+    /**
+     * Panoramas in access order, least recently used first.
+     */
+    private final LinkedHashMap<Integer, PanoramaTexture> mTextures =
+            new LinkedHashMap<Integer, PanoramaTexture>(8, 0.75f, true);
+
+    private PanoramaTexture mPinned;
+
+    /**
+     * @param uploader    Deletes the textures of evicted panoramas.
+     * @param budgetBytes Texture memory the cache tries to stay within.
+     */
+    public PanoramaTextureCache(final TextureUploader uploader, final long budgetBytes) {
+        this.mUploader = uploader;
+        this.mBudgetBytes = budgetBytes;
+    }
+
+    /**
+     * @return The panorama of the resource, now the most recently used, or null.
+     */
+    public PanoramaTexture get(final int resourceId) {
+        return mTextures.get(resourceId);
+    }
+
+    public boolean contains(final int resourceId) {
+        return mTextures.containsKey(resourceId);
+    }
+
+    /**
+     * Adds a panorama, deleting the textures of any other panorama of the same resource. Nothing
+     * is evicted until the next {@link #trim}.
+     *
+     * @param texture Panorama to add, now owned by the cache.
+     */
+    public void put(final PanoramaTexture texture) {
+        final PanoramaTexture previous = mTextures.put(texture.getResourceId(), texture);
+        if (previous != null && previous != texture) {
+            if (previous == mPinned) {
+                mPinned = texture;
+            }
+            delete(previous);
+        }
+    }
+
+    /**
+     * Protects a panorama in the cache from eviction, e.g. while it is on screen. Unpins the
+     * previous one.
+     */
+    public void pin(final PanoramaTexture texture) {
+        mPinned = texture;
+    }
+
+    /**
+     * Evicts the least recently used unpinned panoramas until the cache is within its budget.
+     * Streamed panoramas grow after they were added, so callers trim once per frame.
+     */
+    public void trim() {
+        long bytes = getByteCount();
+        final Iterator<PanoramaTexture> textures = mTextures.values().iterator();
+        while (bytes > mBudgetBytes && textures.hasNext()) {
+            final PanoramaTexture texture = textures.next();
+            if (texture != mPinned) {
+                bytes -= texture.getByteCount();
+                textures.remove();
+                delete(texture);
+            }
+        }
+    }
+
+    /**
+     * @return Texture memory of all cached panoramas.
+     */
+    public long getByteCount() {
+        long bytes = 0;
+        for (PanoramaTexture texture : mTextures.values()) {
+            bytes += texture.getByteCount();
+        }
+        return bytes;
+    }
+
+    public int size() {
+        return mTextures.size();
+    }
+
+    /**
+     * Forgets all panoramas without deleting them, when their GL context is gone.
+     */
+    public void clear() {
+        mTextures.clear();
+        mPinned = null;
+    }
+
+    /**
+     * Deletes all panoramas.
+     */
+    public void release() {
+        for (PanoramaTexture texture : mTextures.values()) {
+            delete(texture);
+        }
+        clear();
+    }
+
+    /**
+     * Deletes the textures of a panorama that is not in the cache.
+     */
+    public void discard(final PanoramaTexture texture) {
+        if (!mTextures.containsValue(texture)) {
+            delete(texture);
+        }
+    }
+
+    private void delete(final PanoramaTexture texture) {
+        if (texture.getBaseTextureHandle() != 0) {
+            mUploader.deleteTexture(texture.getBaseTextureHandle());
+        }
+        final int[] handles = texture.getTextureHandles();
+        for (int handle : handles) {
+            if (handle != 0) {
+                mUploader.deleteTexture(handle);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Runs the iterations of a loop, in parallel where the implementation can. Lets the pure
+ *         Java converters and generators take a thread pool without naming fork-join types, which
+ *         Android only has from API 21, see {@link ForkJoinRange}.
+ */
+public interface ParallelRange {
+
+    /**
+     * A loop body, run on disjoint ranges of its iterations.
+     */
+    interface Body {
+        void run(int first, int end);
+    }
+
+    /**
+     * Runs every iteration from first to end once, returning when all have run.
+     *
+     * @param body  Loop body.
+     * @param first First iteration.
+     * @param end   Iteration after the last.
+     * @param grain Fewest iterations worth running on their own.
+     */
+    void run(Body body, int first, int end, int grain);
+}
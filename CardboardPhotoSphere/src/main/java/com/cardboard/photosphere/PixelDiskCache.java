@@ -0,0 +1,339 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Keeps decoded panoramas on disk, ready to be uploaded without decoding them again.
+ *         <p/>
+ *         Every entry is one file holding a {@link TiledImage}: a header with the tile grid and
+ *         the format and CRC32 of every tile, followed by the raw pixels of the tiles. Entries are
+ *         read through a memory mapped FileChannel straight into staging buffers, checking the
+ *         CRCs on the way. Entries that are truncated, corrupt or of another version are deleted
+ *         and reported as misses. When the directory grows beyond its budget the least recently
+ *         used entries are deleted.
+ *         <p/>
+ *         Pure Java. Safe to use from several threads as long as every key is only written by one
+ *         of them at a time.
+ */
+public class PixelDiskCache {
+
+    /**
+     * "PXB1", marks a pixel blob.
+     */
+    private static final int MAGIC = 0x50584231;
+
+    /**
+     * Bumped whenever the layout changes, older entries are then discarded.
+     */
+    private static final int VERSION = 1;
+
+    private static final int HEADER_INTS = 6;
+    private static final int TILE_INTS = 6;
+    private static final int BYTES_PER_INT = 4;
+
+    private static final String SUFFIX = ".pxb";
+
+    /**
+     * Bytes copied and checksummed per step.
+     */
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    /**
+     * @param directory Directory holding the entries, created if missing.
+     * @param maxBytes  Disk space the entries may take.
+     */
+    public PixelDiskCache(final File directory, final long maxBytes) {
+        this.mDirectory = directory;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Reads an entry.
+     *
+     * @param key     Key of the entry, made of file name characters.
+     * @param buffers Pool to take the pixel buffers from.
+     * @return The image, or null if there is no valid entry.
+     */
+    public TiledImage get(final String key, final StagingBufferPool buffers) {
+        final File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        PixelImage[] tiles = null;
+        try {
+            final RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = input.getChannel();
+                final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                mapped.order(ByteOrder.BIG_ENDIAN);
+
+                final TileGrid grid = readGrid(mapped);
+                if (grid == null) {
+                    file.delete();
+                    return null;
+                }
+
+                tiles = new PixelImage[grid.getTileCount()];
+                int payload = mapped.position() + tiles.length * TILE_INTS * BYTES_PER_INT;
+                final byte[] chunk = new byte[CHUNK_BYTES];
+                for (int tile = 0; tile < tiles.length; tile++) {
+                    final int width = mapped.getInt();
+                    final int height = mapped.getInt();
+                    final int bytesPerPixel = mapped.getInt();
+                    final int format = mapped.getInt();
+                    final int type = mapped.getInt();
+                    final int crc = mapped.getInt();
+                    final long bytes = (long) width * height * bytesPerPixel;
+                    if (width <= 0 || height <= 0 || bytesPerPixel <= 0 || payload + bytes > mapped.capacity()) {
+                        recycle(tiles, buffers);
+                        file.delete();
+                        return null;
+                    }
+
+                    final ByteBuffer pixels = buffers.acquire((int) bytes);
+                    tiles[tile] = new PixelImage(width, height, bytesPerPixel, format, type, pixels);
+                    if (copy(mapped, payload, pixels, (int) bytes, chunk) != crc) {
+                        recycle(tiles, buffers);
+                        file.delete();
+                        return null;
+                    }
+                    payload += bytes;
+                }
+
+                file.setLastModified(System.currentTimeMillis());
+                return new TiledImage(grid, tiles);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            recycle(tiles, buffers);
+            return null;
+        } catch (RuntimeException e) {
+            // A header that does not add up, e.g. a tile count the grid does not have.
+            recycle(tiles, buffers);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry, replacing any previous one, then trims the directory to its budget.
+     *
+     * @param key   Key of the entry, made of file name characters.
+     * @param image Image to store. The pixel buffers' positions are not changed.
+     * @throws IOException If the entry cannot be written.
+     */
+    public void put(final String key, final TiledImage image) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        for (int tile = 0; tile < image.getTileCount(); tile++) {
+            if (image.getTile(tile).isCompressed()) {
+                throw new IllegalArgumentException("Compressed tiles are not cached");
+            }
+        }
+
+        final TileGrid grid = image.getGrid();
+        final ByteBuffer header = ByteBuffer.allocate(
+                (HEADER_INTS + image.getTileCount() * TILE_INTS) * BYTES_PER_INT).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(grid.getImageWidth()).putInt(grid.getImageHeight())
+                .putInt(grid.getMaxTileSize()).putInt(image.getTileCount());
+
+        final byte[] chunk = new byte[CHUNK_BYTES];
+        for (int tile = 0; tile < image.getTileCount(); tile++) {
+            final PixelImage pixels = image.getTile(tile);
+            header.putInt(pixels.getWidth()).putInt(pixels.getHeight()).putInt(pixels.getBytesPerPixel())
+                    .putInt(pixels.getFormat()).putInt(pixels.getType())
+                    .putInt(checksum(pixels.getPixels(), pixels.getByteCount(), chunk));
+        }
+        header.flip();
+
+        // Write next to the entry and rename, so readers never see half an entry.
+        final File temp = new File(mDirectory, key + ".tmp");
+        final RandomAccessFile output = new RandomAccessFile(temp, "rw");
+        try {
+            output.setLength(0);
+            final FileChannel channel = output.getChannel();
+            writeFully(channel, header);
+            for (int tile = 0; tile < image.getTileCount(); tile++) {
+                final PixelImage pixels = image.getTile(tile);
+                final ByteBuffer data = pixels.getPixels().duplicate();
+                data.position(0);
+                data.limit(pixels.getByteCount());
+                writeFully(channel, data);
+            }
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(getFile(key))) {
+            temp.delete();
+            throw new IOException("Unable to store " + key);
+        }
+
+        trim();
+    }
+
+    /**
+     * Deletes the least recently used entries until the directory is within its budget.
+     */
+    public void trim() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long bytes = 0;
+        for (File file : files) {
+            bytes += file.length();
+        }
+        if (bytes <= mMaxBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                final long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < files.length && bytes > mMaxBytes; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                bytes -= length;
+            }
+        }
+    }
+
+    /**
+     * @return Disk space taken by all entries.
+     */
+    public long getByteCount() {
+        final File[] files = mDirectory.listFiles();
+        long bytes = 0;
+        if (files != null) {
+            for (File file : files) {
+                bytes += file.length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Deletes an entry.
+     */
+    public void remove(final String key) {
+        getFile(key).delete();
+    }
+
+    private File getFile(final String key) {
+        return new File(mDirectory, key + SUFFIX);
+    }
+
+    /**
+     * @return The grid of a valid header, or null.
+     */
+    private static TileGrid readGrid(final ByteBuffer input) {
+        if (input.remaining() < HEADER_INTS * BYTES_PER_INT
+                || input.getInt() != MAGIC || input.getInt() != VERSION) {
+            return null;
+        }
+        final TileGrid grid = new TileGrid(input.getInt(), input.getInt(), input.getInt());
+        final int tileCount = input.getInt();
+        if (tileCount != grid.getTileCount() || input.remaining() < tileCount * TILE_INTS * BYTES_PER_INT) {
+            return null;
+        }
+        return grid;
+    }
+
+    /**
+     * Copies pixels out of the mapped file.
+     *
+     * @return CRC32 of the copied bytes.
+     */
+    private static int copy(final ByteBuffer source, final int offset, final ByteBuffer target, final int bytes,
+                            final byte[] chunk) {
+        final ByteBuffer input = source.duplicate();
+        input.position(offset);
+        target.position(0);
+
+        final CRC32 crc = new CRC32();
+        int remaining = bytes;
+        while (remaining > 0) {
+            final int length = Math.min(remaining, chunk.length);
+            input.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+            target.put(chunk, 0, length);
+            remaining -= length;
+        }
+        target.position(0);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return CRC32 of the first bytes of the buffer, leaving its position alone.
+     */
+    private static int checksum(final ByteBuffer pixels, final int bytes, final byte[] chunk) {
+        final ByteBuffer input = pixels.duplicate();
+        input.position(0);
+
+        final CRC32 crc = new CRC32();
+        int remaining = bytes;
+        while (remaining > 0) {
+            final int length = Math.min(remaining, chunk.length);
+            input.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+            remaining -= length;
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    private static void recycle(final PixelImage[] tiles, final StagingBufferPool buffers) {
+        if (tiles != null) {
+            for (PixelImage tile : tiles) {
+                if (tile != null) {
+                    buffers.recycle(tile.getPixels());
+                }
+            }
+        }
+    }
+}
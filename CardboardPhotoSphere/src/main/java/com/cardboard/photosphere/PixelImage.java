@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decoded pixels of a panorama, ready to be handed to the GL as they are. Either plain
+ *         rows of pixels, or blocks of a compressed format that are uploaded in one go.
+ */
+public class PixelImage {
+
+    private static final PixelImage[] NO_MIPMAPS = new PixelImage[0];
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBytesPerPixel;
+    private final int mFormat;
+    private final int mType;
+    private final ByteBuffer mPixels;
+    private final int mByteCount;
+    private PixelImage[] mMipmaps = NO_MIPMAPS;
+
+    /**
+     * @param width         Width in pixels.
+     * @param height        Height in pixels.
+     * @param bytesPerPixel Bytes per pixel, rows are tightly packed.
+     * @param format        GL pixel format, e.g. GL_RGBA.
+     * @param type          GL pixel type, e.g. GL_UNSIGNED_BYTE.
+     * @param pixels        Pixel data, top row first, starting at position 0.
+     */
+    public PixelImage(final int width, final int height, final int bytesPerPixel, final int format,
+                      final int type, final ByteBuffer pixels) {
+        if (pixels.capacity() < width * height * bytesPerPixel) {
+            throw new IllegalArgumentException("Pixel buffer too small for " + width + "x" + height);
+        }
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mBytesPerPixel = bytesPerPixel;
+        this.mFormat = format;
+        this.mType = type;
+        this.mPixels = pixels;
+        this.mByteCount = width * height * bytesPerPixel;
+    }
+
+    /**
+     * Creates an image of compressed blocks.
+     *
+     * @param width            Width in pixels.
+     * @param height           Height in pixels.
+     * @param compressedFormat GL compressed internal format, e.g. GL_ETC1_RGB8_OES.
+     * @param data             Compressed blocks, starting at position 0.
+     * @param byteCount        Size of the compressed blocks in bytes.
+     */
+    public PixelImage(final int width, final int height, final int compressedFormat, final ByteBuffer data,
+                      final int byteCount) {
+        if (data.capacity() < byteCount) {
+            throw new IllegalArgumentException("Block buffer too small for " + byteCount + " bytes");
+        }
+        this.mWidth = width;
+        this.mHeight = height;
+        this.mBytesPerPixel = 0;
+        this.mFormat = compressedFormat;
+        this.mType = 0;
+        this.mPixels = data;
+        this.mByteCount = byteCount;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getBytesPerPixel() {
+        return mBytesPerPixel;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public ByteBuffer getPixels() {
+        return mPixels;
+    }
+
+    /**
+     * @return True if the image holds compressed blocks, which have no rows to upload separately.
+     */
+    public boolean isCompressed() {
+        return mBytesPerPixel == 0;
+    }
+
+    /**
+     * @return Bytes in one row, 0 for compressed images.
+     */
+    public int getRowBytes() {
+        return mWidth * mBytesPerPixel;
+    }
+
+    /**
+     * @return Bytes in the whole image, without mip levels.
+     */
+    public int getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * Attaches mip levels built on the CPU, to be uploaded along with the image.
+     *
+     * @param mipmaps Levels 1 to the 1x1 level, now owned by this image.
+     */
+    public void setMipmaps(final PixelImage[] mipmaps) {
+        this.mMipmaps = mipmaps;
+    }
+
+    /**
+     * @return Number of attached mip levels, 0 if the GL builds them or there are none.
+     */
+    public int getMipmapCount() {
+        return mMipmaps.length;
+    }
+
+    /**
+     * @param i 0 for level 1.
+     */
+    public PixelImage getMipmap(final int i) {
+        return mMipmaps[i];
+    }
+
+    /**
+     * Hands the pixel buffers of the image and its mip levels back to the pool.
+     */
+    public void recycle(final StagingBufferPool buffers) {
+        buffers.recycle(mPixels);
+        for (PixelImage mipmap : mMipmaps) {
+            buffers.recycle(mipmap.getPixels());
+        }
+        mMipmaps = NO_MIPMAPS;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Extrapolates a head orientation from its recent history. Pure Java and allocation free
+ *         after construction.
+ *         <p/>
+ *         Orientations are unit quaternions x, y, z, w. The angular velocity is estimated from
+ *         the last two samples, and with {@link Model#CONSTANT_ACCELERATION} its change from the
+ *         last three. Rotation increments are taken in the frame the quaternions are expressed
+ *         in: q1 = d * q0.
+ */
+public class PosePredictor {
+
+    /**
+     * How the orientation moves past the last sample.
+     */
+    public enum Model {
+        /**
+         * The last sample as it is.
+         */
+        NONE,
+
+        /**
+         * Keeps turning at the last angular velocity.
+         */
+        CONSTANT_VELOCITY,
+
+        /**
+         * Keeps changing the angular velocity as it last changed.
+         */
+        CONSTANT_ACCELERATION
+    }
+
+    private static final int HISTORY = 3;
+
+    /**
+     * Samples further apart than this start a new history, e.g. after a pause.
+     */
+    private static final long MAX_SAMPLE_GAP_NANOS = 100000000L;
+
+    /**
+     * Longest extrapolation, past it errors grow faster than they are corrected.
+     */
+    private static final long MAX_PREDICTION_NANOS = 100000000L;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Model mModel;
+    private final long[] mTimes = new long[HISTORY];
+    private final double[][] mSamples = new double[HISTORY][4];
+    private int mCount;
+
+    private final double[] mDelta = new double[4];
+    private final double[] mOlderVelocity = new double[3];
+    private final double[] mVelocity = new double[3];
+    private final double[] mRotation = new double[4];
+
+    public PosePredictor(final Model model) {
+        this.mModel = model;
+    }
+
+    public Model getModel() {
+        return mModel;
+    }
+
+    /**
+     * Forgets the history.
+     */
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * Adds an orientation, later than the previous ones.
+     *
+     * @param timeNanos  When the orientation was sampled, e.g. System.nanoTime().
+     * @param quaternion Orientation as x, y, z, w.
+     */
+    public void addSample(final long timeNanos, final float[] quaternion) {
+        if (mCount > 0) {
+            final long gap = timeNanos - mTimes[mCount - 1];
+            if (gap <= 0) {
+                // Same frame again, keep the newer orientation.
+                mCount--;
+            } else if (gap > MAX_SAMPLE_GAP_NANOS) {
+                mCount = 0;
+            }
+        }
+        if (mCount == HISTORY) {
+            final double[] oldest = mSamples[0];
+            System.arraycopy(mTimes, 1, mTimes, 0, HISTORY - 1);
+            System.arraycopy(mSamples, 1, mSamples, 0, HISTORY - 1);
+            mSamples[HISTORY - 1] = oldest;
+            mCount--;
+        }
+
+        final double[] sample = mSamples[mCount];
+        final double length = Math.sqrt(quaternion[0] * quaternion[0] + quaternion[1] * quaternion[1]
+                + quaternion[2] * quaternion[2] + quaternion[3] * quaternion[3]);
+        for (int i = 0; i < 4; i++) {
+            sample[i] = quaternion[i] / length;
+        }
+        // q and -q are the same orientation, keep the one next to the previous sample.
+        if (mCount > 0 && dot(sample, mSamples[mCount - 1]) < 0) {
+            for (int i = 0; i < 4; i++) {
+                sample[i] = -sample[i];
+            }
+        }
+        mTimes[mCount] = timeNanos;
+        mCount++;
+    }
+
+    /**
+     * Extrapolates the orientation.
+     *
+     * @param timeNanos When the orientation is wanted, on the clock of the samples.
+     * @param result    Receives the orientation as x, y, z, w.
+     * @return False if there are no samples yet, the result is then left alone.
+     */
+    public boolean predict(final long timeNanos, final float[] result) {
+        if (mCount == 0) {
+            return false;
+        }
+        final int last = mCount - 1;
+        final double[] latest = mSamples[last];
+        if (mModel == Model.NONE || mCount < 2) {
+            copy(latest, result);
+            return true;
+        }
+
+        final double ahead = Math.max(0, Math.min(MAX_PREDICTION_NANOS, timeNanos - mTimes[last]))
+                / NANOS_PER_SECOND;
+        final double interval = (mTimes[last] - mTimes[last - 1]) / NANOS_PER_SECOND;
+        angularVelocity(mSamples[last - 1], latest, interval, mVelocity);
+
+        // The velocity estimate belongs to the middle of the last interval.
+        final double lag = interval / 2;
+        if (mModel == Model.CONSTANT_ACCELERATION && mCount == HISTORY) {
+            final double olderInterval = (mTimes[last - 1] - mTimes[last - 2]) / NANOS_PER_SECOND;
+            angularVelocity(mSamples[last - 2], mSamples[last - 1], olderInterval, mOlderVelocity);
+            final double span = (olderInterval + interval) / 2;
+            for (int i = 0; i < 3; i++) {
+                final double acceleration = (mVelocity[i] - mOlderVelocity[i]) / span;
+                mVelocity[i] = mVelocity[i] * ahead + acceleration * (lag * ahead + ahead * ahead / 2);
+            }
+        } else {
+            for (int i = 0; i < 3; i++) {
+                mVelocity[i] *= ahead;
+            }
+        }
+
+        exp(mVelocity, mRotation);
+        multiply(mRotation, latest, mDelta);
+        copy(mDelta, result);
+        return true;
+    }
+
+    /**
+     * Rotation vector per second turning one orientation into the next.
+     */
+    private void angularVelocity(final double[] from, final double[] to, final double seconds,
+                                 final double[] velocity) {
+        // d = to * from^-1
+        conjugate(from, mRotation);
+        multiply(to, mRotation, mDelta);
+        log(mDelta, velocity);
+        for (int i = 0; i < 3; i++) {
+            velocity[i] /= seconds;
+        }
+    }
+
+    /**
+     * @return The angle between two orientations, in radians.
+     */
+    public static double angleBetween(final float[] a, final float[] b) {
+        final double length = Math.sqrt((a[0] * a[0] + a[1] * a[1] + a[2] * a[2] + a[3] * a[3])
+                * (b[0] * b[0] + b[1] * b[1] + b[2] * b[2] + b[3] * b[3]));
+        final double cos = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]) / length;
+        return 2 * Math.acos(Math.min(1, cos));
+    }
+
+    /**
+     * Orientation of the rotation part of a column major matrix.
+     *
+     * @param matrix     4x4 matrix, its upper 3x3 a rotation.
+     * @param quaternion Receives x, y, z, w.
+     */
+    public static void fromMatrix(final float[] matrix, final float[] quaternion) {
+        final float m00 = matrix[0], m10 = matrix[1], m20 = matrix[2];
+        final float m01 = matrix[4], m11 = matrix[5], m21 = matrix[6];
+        final float m02 = matrix[8], m12 = matrix[9], m22 = matrix[10];
+        final float trace = m00 + m11 + m22;
+        if (trace > 0) {
+            final float s = (float) Math.sqrt(trace + 1) * 2;
+            quaternion[0] = (m21 - m12) / s;
+            quaternion[1] = (m02 - m20) / s;
+            quaternion[2] = (m10 - m01) / s;
+            quaternion[3] = s / 4;
+        } else if (m00 > m11 && m00 > m22) {
+            final float s = (float) Math.sqrt(1 + m00 - m11 - m22) * 2;
+            quaternion[0] = s / 4;
+            quaternion[1] = (m01 + m10) / s;
+            quaternion[2] = (m02 + m20) / s;
+            quaternion[3] = (m21 - m12) / s;
+        } else if (m11 > m22) {
+            final float s = (float) Math.sqrt(1 + m11 - m00 - m22) * 2;
+            quaternion[0] = (m01 + m10) / s;
+            quaternion[1] = s / 4;
+            quaternion[2] = (m12 + m21) / s;
+            quaternion[3] = (m02 - m20) / s;
+        } else {
+            final float s = (float) Math.sqrt(1 + m22 - m00 - m11) * 2;
+            quaternion[0] = (m02 + m20) / s;
+            quaternion[1] = (m12 + m21) / s;
+            quaternion[2] = s / 4;
+            quaternion[3] = (m10 - m01) / s;
+        }
+    }
+
+    /**
+     * Rotation matrix of an orientation, the inverse of {@link #fromMatrix}.
+     *
+     * @param quaternion Unit quaternion x, y, z, w.
+     * @param matrix     Receives a column major 4x4 matrix without translation.
+     */
+    public static void toMatrix(final float[] quaternion, final float[] matrix) {
+        toMatrix(quaternion[0], quaternion[1], quaternion[2], quaternion[3], matrix);
+    }
+
+    private static void toMatrix(final float x, final float y, final float z, final float w, final float[] matrix) {
+        matrix[0] = 1 - 2 * (y * y + z * z);
+        matrix[1] = 2 * (x * y + w * z);
+        matrix[2] = 2 * (x * z - w * y);
+        matrix[3] = 0;
+        matrix[4] = 2 * (x * y - w * z);
+        matrix[5] = 1 - 2 * (x * x + z * z);
+        matrix[6] = 2 * (y * z + w * x);
+        matrix[7] = 0;
+        matrix[8] = 2 * (x * z + w * y);
+        matrix[9] = 2 * (y * z - w * x);
+        matrix[10] = 1 - 2 * (x * x + y * y);
+        matrix[11] = 0;
+        matrix[12] = 0;
+        matrix[13] = 0;
+        matrix[14] = 0;
+        matrix[15] = 1;
+    }
+
+    /**
+     * Rotation matrix taking one orientation to another: R(from) * matrix = R(to).
+     *
+     * @param from   Unit quaternion x, y, z, w.
+     * @param to     Unit quaternion x, y, z, w.
+     * @param matrix Receives a column major 4x4 matrix without translation.
+     */
+    public static void relativeRotation(final float[] from, final float[] to, final float[] matrix) {
+        // R(from)^T * R(to) = R(from^-1 * to)
+        final float x = from[3] * to[0] - from[0] * to[3] - from[1] * to[2] + from[2] * to[1];
+        final float y = from[3] * to[1] + from[0] * to[2] - from[1] * to[3] - from[2] * to[0];
+        final float z = from[3] * to[2] - from[0] * to[1] + from[1] * to[0] - from[2] * to[3];
+        final float w = from[3] * to[3] + from[0] * to[0] + from[1] * to[1] + from[2] * to[2];
+        toMatrix(x, y, z, w, matrix);
+    }
+
+    private static double dot(final double[] a, final double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    }
+
+    private static void copy(final double[] quaternion, final float[] result) {
+        for (int i = 0; i < 4; i++) {
+            result[i] = (float) quaternion[i];
+        }
+    }
+
+    private static void conjugate(final double[] q, final double[] result) {
+        result[0] = -q[0];
+        result[1] = -q[1];
+        result[2] = -q[2];
+        result[3] = q[3];
+    }
+
+    /**
+     * result = a * b, result must not be either input.
+     */
+    private static void multiply(final double[] a, final double[] b, final double[] result) {
+        result[0] = a[3] * b[0] + a[0] * b[3] + a[1] * b[2] - a[2] * b[1];
+        result[1] = a[3] * b[1] - a[0] * b[2] + a[1] * b[3] + a[2] * b[0];
+        result[2] = a[3] * b[2] + a[0] * b[1] - a[1] * b[0] + a[2] * b[3];
+        result[3] = a[3] * b[3] - a[0] * b[0] - a[1] * b[1] - a[2] * b[2];
+    }
+
+    /**
+     * Rotation vector of a unit quaternion, the axis scaled by the angle.
+     */
+    private static void log(final double[] q, final double[] rotation) {
+        final double sin = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2]);
+        // The shorter way round.
+        final double w = q[3] < 0 ? -q[3] : q[3];
+        final double sign = q[3] < 0 ? -1 : 1;
+        final double scale = sin < 1e-12 ? 2 : 2 * Math.atan2(sin, w) / sin;
+        for (int i = 0; i < 3; i++) {
+            rotation[i] = q[i] * sign * scale;
+        }
+    }
+
+    /**
+     * Unit quaternion of a rotation vector.
+     */
+    private static void exp(final double[] rotation, final double[] q) {
+        final double angle = Math.sqrt(rotation[0] * rotation[0] + rotation[1] * rotation[1]
+                + rotation[2] * rotation[2]);
+        final double scale = angle < 1e-12 ? 0.5 : Math.sin(angle / 2) / angle;
+        q[0] = rotation[0] * scale;
+        q[1] = rotation[1] * scale;
+        q[2] = rotation[2] * scale;
+        q[3] = Math.cos(angle / 2);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Draws the panorama on a cube around the viewer instead of a tessellated sphere. The
+ *         fragment shader casts the view ray through every pixel onto the sphere the panorama
+ *         belongs on, and works out the equirectangular texture coordinate from where it lands,
+ *         see {@link EquirectMath}. There are no per vertex texture coordinates to interpolate,
+ *         so no seams or pinched poles, and only 12 triangles to draw.
+ *         <p/>
+ *         Samples one texture for the whole panorama: a cube map, the texture of a single tile
+ *         panorama, or the base layer of a streamed one. Tiled panoramas without a base layer
+ *         draw black.
+ */
+public class ProxyCube implements PanoramaSurface {
+
+    /**
+     * Corners of the unit cube, and its 12 triangles.
+     */
+    private static final float[] CORNERS = {
+            -1, -1, -1, 1, -1, -1, 1, 1, -1, -1, 1, -1,
+            -1, -1, 1, 1, -1, 1, 1, 1, 1, -1, 1, 1};
+    private static final short[] TRIANGLES = {
+            0, 1, 2, 0, 2, 3,
+            4, 6, 5, 4, 7, 6,
+            0, 4, 5, 0, 5, 1,
+            3, 2, 6, 3, 6, 7,
+            0, 3, 7, 0, 7, 4,
+            1, 5, 6, 1, 6, 2};
+    private static final int NUM_FLOATS_PER_POSITION = 3;
+    private static final int VERTEX_STRIDE = NUM_FLOATS_PER_POSITION * SphereMesh.BYTES_PER_FLOAT;
+
+    /**
+     * Inputs of the shaders, in the order their locations are kept in the program.
+     */
+    private static final String[] ATTRIBUTES = {"a_Position"};
+    private static final String[] UNIFORMS = {"u_MVPMatrix", "u_EyePosition", "u_Radius", "u_Texture"};
+    private static final int POSITION = 0;
+    private static final int MVP_MATRIX = 0;
+    private static final int EYE_POSITION = 1;
+    private static final int RADIUS = 2;
+    private static final int TEXTURE = 3;
+
+    /**
+     * Texture unit the panorama is sampled from.
+     */
+    private static final int TEXTURE_UNIT = 0;
+
+    private final float mRadius;
+    private final RenderState mRenderState;
+    private final ShaderProgramCache mPrograms;
+
+    /**
+     * Programs sampling an equirectangular texture and a cube map, with the same inputs.
+     */
+    private ShaderProgram mProgram;
+    private ShaderProgram mCubeMapProgram;
+    private GeometryUploader mGeometryUploader;
+
+    /**
+     * Corners and triangles, only kept while the geometry is not resident in buffer objects.
+     */
+    private FloatBuffer mVertexBuffer;
+    private ShortBuffer mIndexBuffer;
+
+    /**
+     * Textures of the panorama currently shown, null until the first one is loaded.
+     */
+    private PanoramaTexture mTexture;
+
+    /**
+     * Texture the current frame samples, and whether it is a cube map.
+     */
+    private int mDrawTexture;
+    private boolean mDrawCubeMap;
+
+    /**
+     * @param radius      Radius of the sphere the panorama is projected on.
+     * @param renderState GL state shared with the rest of the renderer.
+     * @param programs    Programs shared with the rest of the renderer.
+     */
+    public ProxyCube(final float radius, final RenderState renderState, final ShaderProgramCache programs) {
+        this.mRadius = radius;
+        this.mRenderState = renderState;
+        this.mPrograms = programs;
+    }
+
+    @Override
+    public void onSurfaceCreated(final Context context, final boolean instancedStereo) {
+
+        // The texture went away with the previous context.
+        mTexture = null;
+
+        final List<ShaderProgramCache.Key> keys = getProgramKeys(context, instancedStereo);
+        mProgram = createProgram(keys.get(0));
+        mCubeMapProgram = createProgram(keys.get(1));
+
+        uploadGeometry();
+    }
+
+    @Override
+    public List<ShaderProgramCache.Key> getProgramKeys(final Context context, final boolean instancedStereo) {
+        final String vertexShader = ResourceAssets.readText(context, R.raw._vertex_shader_equirect);
+        return Arrays.asList(
+                new ShaderProgramCache.Key(vertexShader,
+                        ResourceAssets.readText(context, R.raw._fragment_shader_equirect),
+                        ATTRIBUTES),
+                new ShaderProgramCache.Key(vertexShader,
+                        ResourceAssets.readText(context, R.raw._fragment_shader_cubemap),
+                        ATTRIBUTES));
+    }
+
+    private ShaderProgram createProgram(final ShaderProgramCache.Key key) {
+        final ShaderProgram program = mPrograms.getProgram(key, UNIFORMS);
+
+        // The sampler and radius never change.
+        mRenderState.useProgram(program.getHandle());
+        GLES20.glUniform1i(program.getUniformLocation(TEXTURE), TEXTURE_UNIT);
+        GLES20.glUniform1f(program.getUniformLocation(RADIUS), mRadius);
+        return program;
+    }
+
+    /**
+     * Uploads the cube, inscribed in the sphere so it stays inside the depth range the sphere
+     * is drawn with. Falls back to client side arrays without buffer objects.
+     */
+    private void uploadGeometry() {
+        releaseBuffers();
+        final float halfSize = (float) (mRadius / Math.sqrt(3));
+        ByteBuffer byteBuffer = NativeMemoryTracker.get().allocate(NativeMemoryTracker.Owner.GEOMETRY,
+                CORNERS.length * SphereMesh.BYTES_PER_FLOAT);
+        mVertexBuffer = byteBuffer.asFloatBuffer();
+        for (float corner : CORNERS) {
+            mVertexBuffer.put(corner * halfSize);
+        }
+        mVertexBuffer.position(0);
+        byteBuffer = NativeMemoryTracker.get().allocate(NativeMemoryTracker.Owner.GEOMETRY,
+                TRIANGLES.length * SphereMesh.BYTES_PER_SHORT);
+        mIndexBuffer = byteBuffer.asShortBuffer();
+        mIndexBuffer.put(TRIANGLES);
+        mIndexBuffer.position(0);
+
+        mGeometryUploader = new BufferObjectGeometryUploader(mRenderState);
+        if (mGeometryUploader.upload(mVertexBuffer, mIndexBuffer)) {
+            releaseBuffers();
+        } else {
+            mGeometryUploader = new ClientArrayGeometryUploader(mRenderState);
+            mGeometryUploader.upload(mVertexBuffer, mIndexBuffer);
+        }
+    }
+
+    /**
+     * Drops the direct buffers, once the GL has its own copy or the cube is released.
+     */
+    private void releaseBuffers() {
+        if (mVertexBuffer != null) {
+            NativeMemoryTracker.get().release(NativeMemoryTracker.Owner.GEOMETRY,
+                    mVertexBuffer.capacity() * SphereMesh.BYTES_PER_FLOAT);
+            NativeMemoryTracker.get().release(NativeMemoryTracker.Owner.GEOMETRY,
+                    mIndexBuffer.capacity() * SphereMesh.BYTES_PER_SHORT);
+            mVertexBuffer = null;
+            mIndexBuffer = null;
+        }
+    }
+
+    /**
+     * @return False, the cube is cheap enough to draw once per eye.
+     */
+    @Override
+    public boolean isStereoSupported() {
+        return false;
+    }
+
+    @Override
+    public void setTexture(final PanoramaTexture texture) {
+        mTexture = texture;
+    }
+
+    @Override
+    public void prepareFrame() {
+        mDrawCubeMap = mTexture != null && mTexture.isCubeMap();
+        if (mTexture == null) {
+            mDrawTexture = 0;
+        } else if (mDrawCubeMap || mTexture.getGrid().getTileCount() == 1) {
+            mDrawTexture = mTexture.getTextureHandle(0);
+        } else {
+            mDrawTexture = mTexture.getBaseTextureHandle();
+        }
+    }
+
+    @Override
+    public void draw(final float[] mvpMatrix, final float[] eyePosition) {
+        final ShaderProgram program = mDrawCubeMap ? mCubeMapProgram : mProgram;
+        mRenderState.useProgram(program.getHandle());
+
+        // Seen from inside, every face is a back face for some eye.
+        mRenderState.setEnabled(GLES20.GL_CULL_FACE, false);
+
+        final int positionHandle = program.getAttributeLocation(POSITION);
+        mGeometryUploader.bindAttribute(positionHandle, NUM_FLOATS_PER_POSITION, VERTEX_STRIDE, 0);
+        mRenderState.setVertexAttribArrayEnabled(positionHandle, true);
+        if (mDrawCubeMap) {
+            mRenderState.bindCubeMap(TEXTURE_UNIT, mDrawTexture);
+        } else {
+            mRenderState.bindTexture(TEXTURE_UNIT, mDrawTexture);
+        }
+
+        GLES20.glUniformMatrix4fv(program.getUniformLocation(MVP_MATRIX), 1, false, mvpMatrix, 0);
+        GLES20.glUniform3f(program.getUniformLocation(EYE_POSITION), eyePosition[0], eyePosition[1],
+                eyePosition[2]);
+        mGeometryUploader.drawElements(GLES20.GL_TRIANGLES, 0, TRIANGLES.length);
+    }
+
+    @Override
+    public void drawStereo(final StereoBatch batch) {
+        throw new UnsupportedOperationException("The proxy cube draws every eye on its own");
+    }
+
+    @Override
+    public void release() {
+        if (mGeometryUploader != null) {
+            mGeometryUploader.release();
+            mGeometryUploader = null;
+        }
+        releaseBuffers();
+        mTexture = null;
+        // The programs belong to the cache.
+        mProgram = null;
+        mCubeMapProgram = null;
+    }
+}
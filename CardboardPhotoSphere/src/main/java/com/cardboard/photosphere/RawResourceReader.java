@@ -1,63 +0,0 @@
-/*
- * Copyright 2014 Google Inc. All Rights Reserved.
-
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.cardboard.photosphere;
-
-import android.content.Context;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-
-/**
- * @author  Sree Kumar A.V
- *
- * Load the resources
- *
- *
- */
-public class RawResourceReader
-{
-	public static String readTextFileFromRawResource(final Context context,
-			final int resourceId)
-	{
-		final InputStream inputStream = context.getResources().openRawResource(
-				resourceId);
-		final InputStreamReader inputStreamReader = new InputStreamReader(
-				inputStream);
-		final BufferedReader bufferedReader = new BufferedReader(
-				inputStreamReader);
-
-		String nextLine;
-		final StringBuilder body = new StringBuilder();
-
-		try
-		{
-			while ((nextLine = bufferedReader.readLine()) != null)
-			{
-				body.append(nextLine);
-				body.append('\n');
-			}
-		}
-		catch (IOException e)
-		{
-			return null;
-		}
-
-		return body.toString();
-	}
-}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Shadows the GL state the renderer changes, so calls that would not change anything are
+ *         skipped. Only used on the GL thread, and never allocates after construction.
+ *         <p/>
+ *         Anything that changes the tracked state without going through this class must say so:
+ *         {@link #invalidateTextures} after texture uploads and deletes, {@link #reset} for a new
+ *         GL context.
+ *         <p/>
+ *         The GL calls go through a {@link GLCalls}, which the geometry uploaders share through
+ *         {@link #getGL}.
+ */
+public class RenderState {
+
+    /**
+     * Texture units and vertex attributes tracked, the minimum OpenGL ES 2.0 guarantees.
+     */
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_VERTEX_ATTRIBS = 8;
+
+    /**
+     * Capabilities tracked by {@link #setEnabled}.
+     */
+    private static final int[] CAPABILITIES = {GLCalls.GL_CULL_FACE, GLCalls.GL_DEPTH_TEST, GLCalls.GL_BLEND,
+            GLCalls.GL_SCISSOR_TEST};
+
+    /**
+     * Uniform locations of the current program whose values are tracked.
+     */
+    private static final int MAX_TRACKED_UNIFORMS = 16;
+
+    private static final int UNKNOWN = -1;
+
+    private final GLCalls mGL;
+
+    private int mProgram;
+    private int mActiveTexture;
+    private final int[] mBoundTextures = new int[MAX_TEXTURE_UNITS];
+    private final int[] mBoundCubeMaps = new int[MAX_TEXTURE_UNITS];
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+    private final int[] mEnabled = new int[CAPABILITIES.length];
+    private int mCullFace;
+    private int mFrontFace;
+    private final int[] mAttribArrays = new int[MAX_VERTEX_ATTRIBS];
+    private final float[] mUniforms = new float[MAX_TRACKED_UNIFORMS * 4];
+    private final boolean[] mUniformKnown = new boolean[MAX_TRACKED_UNIFORMS];
+
+    /**
+     * @param gl Receives the calls that change state, {@link GLES20Calls} on the device.
+     */
+    public RenderState(final GLCalls gl) {
+        this.mGL = gl;
+        reset();
+    }
+
+    /**
+     * @return The GL the tracked state belongs to.
+     */
+    public GLCalls getGL() {
+        return mGL;
+    }
+
+    /**
+     * Forgets all tracked state, so the next call of each kind reaches the GL. Call for every new
+     * GL context.
+     */
+    public void reset() {
+        mProgram = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+        invalidateTextures();
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        for (int i = 0; i < mEnabled.length; i++) {
+            mEnabled[i] = UNKNOWN;
+        }
+        mCullFace = UNKNOWN;
+        mFrontFace = UNKNOWN;
+        for (int i = 0; i < mAttribArrays.length; i++) {
+            mAttribArrays[i] = UNKNOWN;
+        }
+        invalidateUniforms();
+    }
+
+    /**
+     * Forgets the texture bindings, after textures were bound or deleted behind this class' back,
+     * e.g. by a {@link TextureUploader}.
+     */
+    public void invalidateTextures() {
+        mActiveTexture = UNKNOWN;
+        for (int i = 0; i < mBoundTextures.length; i++) {
+            mBoundTextures[i] = UNKNOWN;
+            mBoundCubeMaps[i] = UNKNOWN;
+        }
+    }
+
+    public void useProgram(final int program) {
+        if (program != mProgram) {
+            mGL.glUseProgram(program);
+            mProgram = program;
+            // Uniform values belong to the program, the tracked ones are another program's.
+            invalidateUniforms();
+        }
+    }
+
+    /**
+     * Deletes a program, unbinding it first if it is current.
+     */
+    public void deleteProgram(final int program) {
+        if (program == mProgram) {
+            useProgram(0);
+        }
+        mGL.glDeleteProgram(program);
+    }
+
+    /**
+     * Binds a 2D texture to a texture unit.
+     *
+     * @param unit    Texture unit, 0 for GL_TEXTURE0.
+     * @param texture Texture handle.
+     */
+    public void bindTexture(final int unit, final int texture) {
+        bindTexture(GLCalls.GL_TEXTURE_2D, mBoundTextures, unit, texture);
+    }
+
+    /**
+     * Binds a cube map texture to a texture unit, next to the unit's 2D texture.
+     *
+     * @param unit    Texture unit, 0 for GL_TEXTURE0.
+     * @param texture Texture handle.
+     */
+    public void bindCubeMap(final int unit, final int texture) {
+        bindTexture(GLCalls.GL_TEXTURE_CUBE_MAP, mBoundCubeMaps, unit, texture);
+    }
+
+    private void bindTexture(final int target, final int[] bound, final int unit, final int texture) {
+        if (unit >= MAX_TEXTURE_UNITS) {
+            throw new IllegalArgumentException("Texture unit " + unit + " is not tracked");
+        }
+        if (texture == bound[unit]) {
+            return;
+        }
+        if (unit != mActiveTexture) {
+            mGL.glActiveTexture(GLCalls.GL_TEXTURE0 + unit);
+            mActiveTexture = unit;
+        }
+        mGL.glBindTexture(target, texture);
+        bound[unit] = texture;
+    }
+
+    /**
+     * @param target GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     */
+    public void bindBuffer(final int target, final int buffer) {
+        if (target == GLCalls.GL_ARRAY_BUFFER) {
+            if (buffer != mArrayBuffer) {
+                mGL.glBindBuffer(target, buffer);
+                mArrayBuffer = buffer;
+            }
+        } else if (target == GLCalls.GL_ELEMENT_ARRAY_BUFFER) {
+            if (buffer != mElementArrayBuffer) {
+                mGL.glBindBuffer(target, buffer);
+                mElementArrayBuffer = buffer;
+            }
+        } else {
+            mGL.glBindBuffer(target, buffer);
+        }
+    }
+
+    /**
+     * Deletes buffers, unbinding any that are bound first.
+     */
+    public void deleteBuffers(final int[] buffers) {
+        for (int buffer : buffers) {
+            if (buffer == mArrayBuffer) {
+                bindBuffer(GLCalls.GL_ARRAY_BUFFER, 0);
+            }
+            if (buffer == mElementArrayBuffer) {
+                bindBuffer(GLCalls.GL_ELEMENT_ARRAY_BUFFER, 0);
+            }
+        }
+        mGL.glDeleteBuffers(buffers.length, buffers, 0);
+    }
+
+    /**
+     * Enables or disables a capability, e.g. GL_CULL_FACE.
+     */
+    public void setEnabled(final int capability, final boolean enabled) {
+        for (int i = 0; i < CAPABILITIES.length; i++) {
+            if (CAPABILITIES[i] == capability) {
+                final int state = enabled ? 1 : 0;
+                if (mEnabled[i] != state) {
+                    apply(capability, enabled);
+                    mEnabled[i] = state;
+                }
+                return;
+            }
+        }
+        apply(capability, enabled);
+    }
+
+    public void cullFace(final int mode) {
+        if (mode != mCullFace) {
+            mGL.glCullFace(mode);
+            mCullFace = mode;
+        }
+    }
+
+    public void frontFace(final int mode) {
+        if (mode != mFrontFace) {
+            mGL.glFrontFace(mode);
+            mFrontFace = mode;
+        }
+    }
+
+    /**
+     * Enables or disables a vertex attribute array.
+     */
+    public void setVertexAttribArrayEnabled(final int index, final boolean enabled) {
+        final int state = enabled ? 1 : 0;
+        if (index < MAX_VERTEX_ATTRIBS && mAttribArrays[index] == state) {
+            return;
+        }
+        if (enabled) {
+            mGL.glEnableVertexAttribArray(index);
+        } else {
+            mGL.glDisableVertexAttribArray(index);
+        }
+        if (index < MAX_VERTEX_ATTRIBS) {
+            mAttribArrays[index] = state;
+        }
+    }
+
+    /**
+     * Sets a vec4 uniform of the current program.
+     */
+    public void uniform4f(final int location, final float x, final float y, final float z, final float w) {
+        if (location < 0) {
+            return;
+        }
+        if (location < MAX_TRACKED_UNIFORMS) {
+            final int i = location * 4;
+            if (mUniformKnown[location] && mUniforms[i] == x && mUniforms[i + 1] == y
+                    && mUniforms[i + 2] == z && mUniforms[i + 3] == w) {
+                return;
+            }
+            mUniforms[i] = x;
+            mUniforms[i + 1] = y;
+            mUniforms[i + 2] = z;
+            mUniforms[i + 3] = w;
+            mUniformKnown[location] = true;
+        }
+        mGL.glUniform4f(location, x, y, z, w);
+    }
+
+    private void invalidateUniforms() {
+        for (int i = 0; i < mUniformKnown.length; i++) {
+            mUniformKnown[i] = false;
+        }
+    }
+
+    private void apply(final int capability, final boolean enabled) {
+        if (enabled) {
+            mGL.glEnable(capability);
+        } else {
+            mGL.glDisable(capability);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Reads raw resources for an {@link AssetCache}. Resources stored uncompressed in the APK
+ *         are read straight from its file, memory mapped from {@link #MAP_MIN_BYTES} on, where
+ *         mapping costs less than copying. Compressed ones are inflated into a buffer of the
+ *         size the stream reports. Handles are closed before returning.
+ *         <p/>
+ *         The cache of the application's resources is shared by the whole process, see
+ *         {@link #getCache}.
+ */
+public class ResourceAssets implements AssetCache.Source {
+
+    /**
+     * Resources at least this large are mapped instead of read.
+     */
+    public static final int MAP_MIN_BYTES = 64 * 1024;
+
+    /**
+     * Memory the shared cache keeps resources in, a few hundred shaders.
+     */
+    private static final long CACHE_BYTES = 1024 * 1024;
+
+    private static AssetCache sCache;
+
+    private final Resources mResources;
+
+    public ResourceAssets(final Resources resources) {
+        this.mResources = resources;
+    }
+
+    /**
+     * @return The cache of the application's resources.
+     */
+    public static synchronized AssetCache getCache(final Context context) {
+        if (sCache == null) {
+            sCache = new AssetCache(new ResourceAssets(context.getApplicationContext().getResources()), CACHE_BYTES);
+        }
+        return sCache;
+    }
+
+    /**
+     * Reads a text resource through the shared cache, e.g. a shader.
+     *
+     * @param context    Any context of the application.
+     * @param resourceId Resource holding UTF-8 text.
+     * @return The text.
+     * @throws Resources.NotFoundException If there is no such resource.
+     * @throws RuntimeException            If the resource cannot be read.
+     */
+    public static String readText(final Context context, final int resourceId) {
+        try {
+            return getCache(context).getText(resourceId);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading resource " + resourceId, e);
+        }
+    }
+
+    @Override
+    public ByteBuffer open(final int resourceId) throws IOException {
+        final AssetFileDescriptor descriptor;
+        try {
+            descriptor = mResources.openRawResourceFd(resourceId);
+        } catch (Resources.NotFoundException e) {
+            // Compressed in the APK, there is no file to read it from.
+            return inflate(resourceId);
+        }
+        if (descriptor == null) {
+            return inflate(resourceId);
+        }
+
+        try {
+            final FileInputStream input = descriptor.createInputStream();
+            try {
+                final FileChannel channel = input.getChannel();
+                final long length = descriptor.getLength();
+                if (length >= MAP_MIN_BYTES) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), length);
+                }
+                final ByteBuffer bytes = ByteBuffer.allocate((int) length);
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes, descriptor.getStartOffset() + bytes.position()) < 0) {
+                        throw new IOException("Resource " + resourceId + " ends early");
+                    }
+                }
+                bytes.flip();
+                return bytes;
+            } finally {
+                input.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    private ByteBuffer inflate(final int resourceId) throws IOException {
+        final InputStream input = mResources.openRawResource(resourceId);
+        try {
+            return AssetCache.readFully(input, input.available());
+        } finally {
+            input.close();
+        }
+    }
+}
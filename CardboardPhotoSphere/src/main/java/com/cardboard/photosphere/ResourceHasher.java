@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.content.res.Resources;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Hashes the raw bytes of resources, so cached data is keyed by content and a changed
+ *         image never picks up stale pixels. Hashes are remembered for the life of the process.
+ */
+public class ResourceHasher {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Resources mResources;
+    private final SparseArray<String> mHashes = new SparseArray<String>();
+
+    public ResourceHasher(final Resources resources) {
+        this.mResources = resources;
+    }
+
+    /**
+     * @param resourceId Resource to hash.
+     * @return SHA-1 of the resource as lower case hex.
+     * @throws IOException If the resource cannot be read.
+     */
+    public synchronized String hash(final int resourceId) throws IOException {
+        String hash = mHashes.get(resourceId);
+        if (hash == null) {
+            hash = computeHash(resourceId);
+            mHashes.put(resourceId, hash);
+        }
+        return hash;
+    }
+
+    private String computeHash(final int resourceId) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 not available", e);
+        }
+
+        final InputStream inputStream = mResources.openRawResource(resourceId);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -17,6 +17,7 @@
 package com.cardboard.photosphere;
 
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.util.Log;
 
 /**
@@ -72,6 +73,21 @@ public class ShaderHelper {
      * @return An OpenGL handle to the program.
      */
     public static int createAndLinkProgram(final int vertexShaderHandle, final int fragmentShaderHandle, final String[] attributes) {
+        return createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, attributes, false);
+    }
+
+    /**
+     * Helper function to compile and link a program.
+     *
+     * @param vertexShaderHandle   An OpenGL handle to an already-compiled vertex shader.
+     * @param fragmentShaderHandle An OpenGL handle to an already-compiled fragment shader.
+     * @param attributes           Attributes that need to be bound to the program.
+     * @param binaryRetrievable    True to tell the driver the binary will be read back, OpenGL ES
+     *                             3.0 only.
+     * @return An OpenGL handle to the program.
+     */
+    public static int createAndLinkProgram(final int vertexShaderHandle, final int fragmentShaderHandle,
+                                           final String[] attributes, final boolean binaryRetrievable) {
         int programHandle = GLES20.glCreateProgram();
 
         if (programHandle != 0) {
@@ -89,6 +105,10 @@ public class ShaderHelper {
                 }
             }
 
+            if (binaryRetrievable) {
+                GLES30.glProgramParameteri(programHandle, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+            }
+
             // Link the two shaders together into a program.
             GLES20.glLinkProgram(programHandle);
 
@@ -110,4 +130,32 @@ public class ShaderHelper {
 
         return programHandle;
     }
+
+    /**
+     * Compiles and links a program and looks up its uniforms.
+     *
+     * @param vertexShader   Source of the vertex shader.
+     * @param fragmentShader Source of the fragment shader.
+     * @param attributes     Attributes, bound to their index in this list.
+     * @param uniforms       Uniforms to look up.
+     * @return The program, with uniform locations in the order of the list.
+     */
+    public static ShaderProgram createProgram(final String vertexShader, final String fragmentShader,
+                                              final String[] attributes, final String[] uniforms) {
+        final long start = System.nanoTime();
+        final int vertexShaderHandle = compileShader(GLES20.GL_VERTEX_SHADER, vertexShader);
+        final int fragmentShaderHandle = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentShader);
+        final int programHandle = createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle, attributes);
+
+        // The program keeps the compiled code, the shaders go away with it.
+        GLES20.glDeleteShader(vertexShaderHandle);
+        GLES20.glDeleteShader(fragmentShaderHandle);
+
+        final int[] uniformLocations = new int[uniforms.length];
+        for (int i = 0; i < uniforms.length; i++) {
+            uniformLocations[i] = GLES20.glGetUniformLocation(programHandle, uniforms[i]);
+        }
+        FrameMetrics.get().recordSince(FrameMetrics.Stage.SHADER_COMPILE, start);
+        return new ShaderProgram(programHandle, uniformLocations);
+    }
 }
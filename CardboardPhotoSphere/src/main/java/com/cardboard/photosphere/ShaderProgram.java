@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A linked program and the locations of its inputs, looked up once at link time instead
+ *         of on every draw. Attributes are bound to their index in the list they were linked
+ *         with, uniforms are found by their index in the list they were looked up with.
+ */
+public class ShaderProgram {
+
+    private final int mHandle;
+    private final int[] mUniformLocations;
+
+    ShaderProgram(final int handle, final int[] uniformLocations) {
+        this.mHandle = handle;
+        this.mUniformLocations = uniformLocations;
+    }
+
+    public int getHandle() {
+        return mHandle;
+    }
+
+    /**
+     * @param index Index of the attribute in the list the program was linked with.
+     * @return Its location, which is the index itself.
+     */
+    public int getAttributeLocation(final int index) {
+        return index;
+    }
+
+    /**
+     * @param index Index of the uniform in the list the program was linked with.
+     * @return Its location, -1 if the compiler optimised it away.
+     */
+    public int getUniformLocation(final int index) {
+        return mUniformLocations[index];
+    }
+}
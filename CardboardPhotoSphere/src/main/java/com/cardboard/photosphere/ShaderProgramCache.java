@@ -0,0 +1,497 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Shares linked programs between everything that draws, so a program is compiled once
+ *         per GL context however many meshes use it, and is linked from its binary instead of
+ *         compiled from source where the driver can hand binaries out.
+ *         <p/>
+ *         Programs are keyed by a hash of their sources and attribute bindings. Binaries are kept
+ *         in memory, so a lost context relinks from them, and in a directory, so the next launch
+ *         does. A binary the driver no longer accepts, e.g. after a driver update, is dropped and
+ *         the program compiled again. {@link #warmUp} links programs ahead of use on another
+ *         thread with a context of the same share group, a thread asking for a program being
+ *         linked there waits for it.
+ *         <p/>
+ *         The cache owns the programs, users must not delete them. Uniforms set once on a shared
+ *         program must have the same value for all its users. Pure Java, the GL is behind
+ *         {@link Compiler}.
+ */
+public class ShaderProgramCache {
+
+    /**
+     * Links programs in the context current on the calling thread.
+     */
+    public interface Compiler {
+
+        /**
+         * Compiles and links a program.
+         *
+         * @param attributes Attributes, bound to their index in this list.
+         * @return The program handle.
+         * @throws RuntimeException If the program does not compile or link.
+         */
+        int compile(String vertexShader, String fragmentShader, String[] attributes);
+
+        /**
+         * @return The binary of a linked program, null if the driver does not hand it out.
+         */
+        Binary getBinary(int program);
+
+        /**
+         * @return A program linked from a binary, 0 if the driver rejects it.
+         */
+        int loadBinary(Binary binary);
+
+        int getUniformLocation(int program, String name);
+
+        void deleteProgram(int program);
+
+        /**
+         * Waits until the programs linked so far can be used from other contexts of the share
+         * group.
+         */
+        void finish();
+
+        /**
+         * @return Identifies the driver, binaries stored by another are not loaded.
+         */
+        String getDriver();
+    }
+
+    /**
+     * A program binary in a driver specific format.
+     */
+    public static final class Binary {
+        private final int mFormat;
+        private final byte[] mData;
+
+        public Binary(final int format, final byte[] data) {
+            this.mFormat = format;
+            this.mData = data;
+        }
+
+        public int getFormat() {
+            return mFormat;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+    }
+
+    /**
+     * Sources and attribute bindings of a program, equal when their hashes are.
+     */
+    public static final class Key {
+        private final String mVertexShader;
+        private final String mFragmentShader;
+        private final String[] mAttributes;
+        private final String mHash;
+
+        /**
+         * @param attributes Attributes, bound to their index in this list.
+         */
+        public Key(final String vertexShader, final String fragmentShader, final String[] attributes) {
+            this.mVertexShader = vertexShader;
+            this.mFragmentShader = fragmentShader;
+            this.mAttributes = attributes.clone();
+            this.mHash = hash(vertexShader, fragmentShader, mAttributes);
+        }
+
+        /**
+         * @return SHA-1 of the sources and attribute bindings as lower case hex.
+         */
+        public String getHash() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && ((Key) o).mHash.equals(mHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash.hashCode();
+        }
+    }
+
+    /**
+     * "SPB1", marks a stored program binary.
+     */
+    private static final int MAGIC = 0x53504231;
+
+    /**
+     * Bumped whenever the layout changes, older entries are then discarded.
+     */
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".spb";
+
+    /**
+     * A program is being linked on some thread.
+     */
+    private static final int LINKING = -1;
+
+    private final Compiler mCompiler;
+    private final File mDirectory;
+
+    /**
+     * Programs of the current context by key, LINKING while one is linked.
+     */
+    private final Map<Key, Integer> mPrograms = new HashMap<Key, Integer>();
+
+    /**
+     * Binaries by key hash, kept across contexts.
+     */
+    private final Map<String, Binary> mBinaries = new HashMap<String, Binary>();
+
+    /**
+     * Bumped for every new context, so a link finishing for a previous one is not kept.
+     */
+    private int mGeneration;
+
+    private long mHits;
+    private long mCompiles;
+    private long mBinaryLoads;
+    private long mBinaryRejects;
+
+    /**
+     * @param compiler  Links the programs.
+     * @param directory Directory binaries are kept in across launches, created if missing, or
+     *                  null to only keep them in memory.
+     */
+    public ShaderProgramCache(final Compiler compiler, final File directory) {
+        this.mCompiler = compiler;
+        this.mDirectory = directory;
+    }
+
+    /**
+     * Forgets the programs of the previous context, they went away with it. Call for every new
+     * GL context before asking for programs. Binaries are kept.
+     */
+    public synchronized void onSurfaceCreated() {
+        mPrograms.clear();
+        mGeneration++;
+        notifyAll();
+    }
+
+    /**
+     * Links a program, or returns the one already linked in this context.
+     *
+     * @param key      Sources and attribute bindings.
+     * @param uniforms Uniforms to look up.
+     * @return The program, with uniform locations in the order of the list.
+     * @throws RuntimeException If the program does not compile or link.
+     */
+    public ShaderProgram getProgram(final Key key, final String[] uniforms) {
+        final int handle = link(key, false);
+        final int[] uniformLocations = new int[uniforms.length];
+        for (int i = 0; i < uniforms.length; i++) {
+            uniformLocations[i] = mCompiler.getUniformLocation(handle, uniforms[i]);
+        }
+        return new ShaderProgram(handle, uniformLocations);
+    }
+
+    /**
+     * Links the programs not yet linked or being linked, on a thread whose context shares
+     * objects with the one drawing. Stops early when a new context is created.
+     *
+     * @param keys Programs to link, in the order they are linked.
+     * @return The number of programs this call linked.
+     */
+    public int warmUp(final List<Key> keys) {
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+        int linked = 0;
+        for (Key key : keys) {
+            synchronized (this) {
+                if (generation != mGeneration) {
+                    break;
+                }
+                if (mPrograms.containsKey(key)) {
+                    continue;
+                }
+            }
+            try {
+                link(key, true);
+                linked++;
+            } catch (RuntimeException e) {
+                // Left for the drawing thread to fail on, where the error is reported.
+            }
+        }
+        return linked;
+    }
+
+    /**
+     * Deletes the programs. Call on the GL thread while the context is still current.
+     */
+    public synchronized void release() {
+        for (int program : mPrograms.values()) {
+            if (program != LINKING) {
+                mCompiler.deleteProgram(program);
+            }
+        }
+        onSurfaceCreated();
+    }
+
+    /**
+     * @return Programs asked for that were already linked in the context.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * @return Programs compiled from source.
+     */
+    public synchronized long getCompileCount() {
+        return mCompiles;
+    }
+
+    /**
+     * @return Programs linked from a binary.
+     */
+    public synchronized long getBinaryLoadCount() {
+        return mBinaryLoads;
+    }
+
+    /**
+     * @return Binaries the driver did not accept.
+     */
+    public synchronized long getBinaryRejectCount() {
+        return mBinaryRejects;
+    }
+
+    private int link(final Key key, final boolean warmUp) {
+        final int generation;
+        synchronized (this) {
+            Integer program = mPrograms.get(key);
+            while (program != null && program == LINKING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for a program", e);
+                }
+                program = mPrograms.get(key);
+            }
+            if (program != null) {
+                if (!warmUp) {
+                    mHits++;
+                }
+                return program;
+            }
+            mPrograms.put(key, LINKING);
+            generation = mGeneration;
+        }
+
+        final long start = System.nanoTime();
+        int program = 0;
+        try {
+            program = linkFromBinary(key);
+            if (program == 0) {
+                program = mCompiler.compile(key.mVertexShader, key.mFragmentShader, key.mAttributes);
+                synchronized (this) {
+                    mCompiles++;
+                }
+                storeBinary(key, mCompiler.getBinary(program));
+            }
+            if (warmUp) {
+                mCompiler.finish();
+            }
+        } finally {
+            synchronized (this) {
+                if (generation == mGeneration) {
+                    if (program != 0) {
+                        mPrograms.put(key, program);
+                    } else {
+                        mPrograms.remove(key);
+                    }
+                }
+                notifyAll();
+            }
+        }
+        FrameMetrics.get().recordSince(FrameMetrics.Stage.SHADER_COMPILE, start);
+        return program;
+    }
+
+    /**
+     * @return The program linked from the key's binary, 0 if there is none or it was rejected.
+     */
+    private int linkFromBinary(final Key key) {
+        Binary binary;
+        synchronized (this) {
+            binary = mBinaries.get(key.getHash());
+        }
+        if (binary == null) {
+            binary = readBinary(key.getHash());
+        }
+        if (binary == null) {
+            return 0;
+        }
+
+        final int program = mCompiler.loadBinary(binary);
+        synchronized (this) {
+            if (program != 0) {
+                mBinaryLoads++;
+                mBinaries.put(key.getHash(), binary);
+            } else {
+                mBinaryRejects++;
+                mBinaries.remove(key.getHash());
+            }
+        }
+        if (program == 0 && mDirectory != null) {
+            getFile(key.getHash()).delete();
+        }
+        return program;
+    }
+
+    private void storeBinary(final Key key, final Binary binary) {
+        if (binary == null) {
+            return;
+        }
+        synchronized (this) {
+            mBinaries.put(key.getHash(), binary);
+        }
+        if (mDirectory != null) {
+            try {
+                writeBinary(key.getHash(), binary);
+            } catch (IOException e) {
+                // Compiled again on the next launch.
+            }
+        }
+    }
+
+    private Binary readBinary(final String hash) {
+        if (mDirectory == null) {
+            return null;
+        }
+        final File file = getFile(hash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION
+                        || !input.readUTF().equals(mCompiler.getDriver())) {
+                    file.delete();
+                    return null;
+                }
+                final int format = input.readInt();
+                final int length = input.readInt();
+                if (length <= 0 || length > file.length()) {
+                    file.delete();
+                    return null;
+                }
+                final byte[] data = new byte[length];
+                input.readFully(data);
+                return new Binary(format, data);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            // Truncated or unreadable, compile instead.
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeBinary(final String hash, final Binary binary) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+
+        // Write next to the entry and rename, so readers never see half an entry.
+        final File temp = new File(mDirectory, hash + ".tmp");
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(mCompiler.getDriver());
+            output.writeInt(binary.getFormat());
+            output.writeInt(binary.getData().length);
+            output.write(binary.getData());
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(getFile(hash))) {
+            temp.delete();
+            throw new IOException("Unable to store " + hash);
+        }
+    }
+
+    private File getFile(final String hash) {
+        return new File(mDirectory, hash + SUFFIX);
+    }
+
+    private static String hash(final String vertexShader, final String fragmentShader, final String[] attributes) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+
+        // Every part is prefixed with its length, so no two lists of parts hash alike.
+        final List<String> parts = new ArrayList<String>();
+        parts.add(vertexShader);
+        parts.add(fragmentShader);
+        for (String attribute : attributes) {
+            parts.add(attribute);
+        }
+        try {
+            for (String part : parts) {
+                final byte[] bytes = part.getBytes("UTF-8");
+                digest.update(new byte[]{(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16),
+                        (byte) (bytes.length >>> 8), (byte) bytes.length});
+                digest.update(bytes);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not available", e);
+        }
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import android.annotation.TargetApi;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Links programs into a {@link ShaderProgramCache} on a background thread while the GL
+ *         thread sets up everything else. The thread makes a 1x1 pbuffer context in the share
+ *         group of the GL thread's, with the same config and client version, so the programs it
+ *         links can be drawn with there. Needs EGL14, from API 17. When no such context can be
+ *         made the GL thread links everything itself, as without a warm up.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+public class ShaderWarmUp implements Runnable {
+
+    private static final String TAG = "ShaderWarmUp";
+
+    private final ShaderProgramCache mCache;
+    private final List<ShaderProgramCache.Key> mKeys;
+    private final EGLDisplay mDisplay;
+    private final EGLContext mSharedContext;
+    private final int mConfigId;
+    private final int mClientVersion;
+    private final Thread mThread;
+
+    private ShaderWarmUp(final ShaderProgramCache cache, final List<ShaderProgramCache.Key> keys) {
+        this.mCache = cache;
+        this.mKeys = keys;
+        this.mDisplay = EGL14.eglGetCurrentDisplay();
+        this.mSharedContext = EGL14.eglGetCurrentContext();
+        final int[] value = new int[1];
+        EGL14.eglQueryContext(mDisplay, mSharedContext, EGL14.EGL_CONFIG_ID, value, 0);
+        this.mConfigId = value[0];
+        EGL14.eglQueryContext(mDisplay, mSharedContext, EGL14.EGL_CONTEXT_CLIENT_VERSION, value, 0);
+        this.mClientVersion = value[0];
+        this.mThread = new Thread(this, TAG);
+    }
+
+    /**
+     * Starts linking programs. Must be called on the GL thread, after
+     * {@link ShaderProgramCache#onSurfaceCreated}.
+     *
+     * @param cache Cache to link into.
+     * @param keys  Programs to link, best those the GL thread asks for last first.
+     * @return The running warm up, null before API 17.
+     */
+    public static ShaderWarmUp start(final ShaderProgramCache cache, final List<ShaderProgramCache.Key> keys) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            return null;
+        }
+        final ShaderWarmUp warmUp = new ShaderWarmUp(cache, keys);
+        warmUp.mThread.start();
+        return warmUp;
+    }
+
+    /**
+     * Waits for the warm up to finish, before the context it shares is destroyed or replaced.
+     */
+    public void join() {
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        final EGLConfig[] configs = new EGLConfig[1];
+        final int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(mDisplay, new int[]{EGL14.EGL_CONFIG_ID, mConfigId, EGL14.EGL_NONE}, 0,
+                configs, 0, 1, numConfigs, 0) || numConfigs[0] == 0) {
+            Log.w(TAG, "No config " + mConfigId + ", EGL error " + EGL14.eglGetError());
+            return;
+        }
+        final EGLContext context = EGL14.eglCreateContext(mDisplay, configs[0], mSharedContext,
+                new int[]{EGL14.EGL_CONTEXT_CLIENT_VERSION, mClientVersion, EGL14.EGL_NONE}, 0);
+        if (context == null || context.equals(EGL14.EGL_NO_CONTEXT)) {
+            Log.w(TAG, "No shared context, EGL error " + EGL14.eglGetError());
+            return;
+        }
+        final EGLSurface surface = EGL14.eglCreatePbufferSurface(mDisplay, configs[0],
+                new int[]{EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE}, 0);
+        if (surface == null || surface.equals(EGL14.EGL_NO_SURFACE)) {
+            Log.w(TAG, "No pbuffer, EGL error " + EGL14.eglGetError());
+            EGL14.eglDestroyContext(mDisplay, context);
+            return;
+        }
+
+        try {
+            if (!EGL14.eglMakeCurrent(mDisplay, surface, surface, context)) {
+                Log.w(TAG, "Unable to make the shared context current, EGL error " + EGL14.eglGetError());
+                return;
+            }
+            final long start = System.nanoTime();
+            final int linked = mCache.warmUp(mKeys);
+            Log.i(TAG, "Linked " + linked + " of " + mKeys.size() + " programs in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        } finally {
+            EGL14.eglMakeCurrent(mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroySurface(mDisplay, surface);
+            EGL14.eglDestroyContext(mDisplay, context);
+            EGL14.eglReleaseThread();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Keeps recycled buffers for reuse, sorted into size classes four to a power of two, so
+ *         finding one is a lookup instead of a search and a request is never served by a buffer
+ *         more than twice its size. Buffers below {@link #MIN_CLASS_BYTES} share the smallest
+ *         class. Thread safe.
+ *         <p/>
+ *         Idle buffers are kept up to a byte cap, buffers recycled past it are freed. Memory
+ *         pressure can trim the pool below the cap.
+ *         <p/>
+ *         With a {@link LeakListener}, e.g. in debug builds, every acquired buffer is watched
+ *         until it is recycled, and one the garbage collector takes first is reported with where
+ *         it was acquired. Recycling a buffer twice then throws.
+ *
+ * @param <T> Type of the pooled buffers.
+ */
+public abstract class SizeClassPool<T> {
+
+    /**
+     * Told about acquired buffers that were never recycled.
+     */
+    public interface LeakListener {
+        /**
+         * @param bytes      Size of the lost buffer.
+         * @param acquiredAt Where the buffer was acquired.
+         */
+        void onLeak(int bytes, Throwable acquiredAt);
+    }
+
+    /**
+     * Size of the smallest class.
+     */
+    public static final int MIN_CLASS_BYTES = 64 * 1024;
+    private static final int MIN_CLASS_SHIFT = 16;
+
+    /**
+     * Classes per power of two, and classes above a request's own still searched for it.
+     */
+    private static final int STEPS = 4;
+    private static final int MAX_OVERSIZE_CLASSES = STEPS;
+
+    /**
+     * Classes up to the largest int.
+     */
+    private static final int CLASSES = (31 - MIN_CLASS_SHIFT + 1) * STEPS;
+
+    private final long mMaxFreeBytes;
+    private final List<ArrayDeque<T>> mFree = new ArrayList<ArrayDeque<T>>(CLASSES);
+    private long mFreeBytes;
+
+    private long mAcquires;
+    private long mReuses;
+    private long mRequestedBytes;
+    private long mHandedOutBytes;
+    private long mDropped;
+
+    private final LeakListener mLeakListener;
+    private final ReferenceQueue<T> mCollected = new ReferenceQueue<T>();
+    private final List<Lease<T>> mLeases = new ArrayList<Lease<T>>();
+    private long mLeaks;
+
+    /**
+     * An acquired buffer and where it was acquired, until it is recycled or collected.
+     */
+    private static final class Lease<T> extends WeakReference<T> {
+        final int mBytes;
+        final Throwable mAcquiredAt;
+
+        Lease(final T buffer, final int bytes, final ReferenceQueue<T> queue) {
+            super(buffer, queue);
+            this.mBytes = bytes;
+            this.mAcquiredAt = new Throwable("Acquired " + bytes + " bytes here");
+        }
+    }
+
+    /**
+     * @param maxFreeBytes Bytes of idle buffers kept at most.
+     * @param leakListener Told about leaked buffers, null to not watch for leaks.
+     */
+    protected SizeClassPool(final long maxFreeBytes, final LeakListener leakListener) {
+        if (maxFreeBytes < 0) {
+            throw new IllegalArgumentException("Invalid cap " + maxFreeBytes);
+        }
+        this.mMaxFreeBytes = maxFreeBytes;
+        this.mLeakListener = leakListener;
+        for (int i = 0; i < CLASSES; i++) {
+            mFree.add(new ArrayDeque<T>());
+        }
+    }
+
+    /**
+     * Allocates a new buffer.
+     *
+     * @param bytes Size to allocate, the size of the class a request falls in.
+     */
+    protected abstract T allocate(int bytes);
+
+    /**
+     * @return Bytes the buffer holds.
+     */
+    protected abstract int sizeOf(T buffer);
+
+    /**
+     * Frees a buffer the pool does not keep.
+     */
+    protected abstract void free(T buffer);
+
+    /**
+     * Called for a buffer the garbage collector took before it was recycled, if leaks are watched.
+     *
+     * @param bytes Size of the buffer.
+     */
+    protected void onLeaked(final int bytes) {
+    }
+
+    /**
+     * Returns an idle buffer of at least the given size, or allocates one of the size's class.
+     *
+     * @param bytes Required size in bytes.
+     * @return The buffer, owned by the caller until it is recycled.
+     */
+    public synchronized T acquire(final int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Invalid size " + bytes);
+        }
+        pollLeaks();
+        mAcquires++;
+        mRequestedBytes += bytes;
+
+        final int sizeClass = ceilClass(bytes);
+        final int lastClass = Math.min(CLASSES - 1, sizeClass + MAX_OVERSIZE_CLASSES);
+        T buffer = null;
+        for (int i = sizeClass; i <= lastClass && buffer == null; i++) {
+            buffer = mFree.get(i).pollLast();
+        }
+        if (buffer != null) {
+            mReuses++;
+            mFreeBytes -= sizeOf(buffer);
+        } else {
+            buffer = allocate((int) Math.min(Integer.MAX_VALUE, classBytes(sizeClass)));
+        }
+
+        final int size = sizeOf(buffer);
+        mHandedOutBytes += size;
+        if (mLeakListener != null) {
+            mLeases.add(new Lease<T>(buffer, size, mCollected));
+        }
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool, which frees it if it keeps enough idle buffers.
+     *
+     * @param buffer A buffer obtained from {@link #acquire}, which the caller must no longer use.
+     */
+    public synchronized void recycle(final T buffer) {
+        pollLeaks();
+        if (mLeakListener != null) {
+            endLease(buffer);
+        }
+
+        final int size = sizeOf(buffer);
+        if (size < MIN_CLASS_BYTES || mFreeBytes + size > mMaxFreeBytes) {
+            mDropped++;
+            free(buffer);
+            return;
+        }
+        mFree.get(floorClass(size)).addLast(buffer);
+        mFreeBytes += size;
+    }
+
+    /**
+     * Frees idle buffers, largest first, until at most the given bytes are idle.
+     */
+    public final synchronized void trimToSize(final long maxFreeBytes) {
+        for (int i = CLASSES - 1; i >= 0 && mFreeBytes > maxFreeBytes; i--) {
+            final ArrayDeque<T> buffers = mFree.get(i);
+            while (!buffers.isEmpty() && mFreeBytes > maxFreeBytes) {
+                final T buffer = buffers.pollFirst();
+                mFreeBytes -= sizeOf(buffer);
+                free(buffer);
+            }
+        }
+    }
+
+    /**
+     * Frees all idle buffers.
+     */
+    public final void clear() {
+        trimToSize(0);
+    }
+
+    public long getMaxFreeBytes() {
+        return mMaxFreeBytes;
+    }
+
+    /**
+     * @return Bytes of idle buffers.
+     */
+    public final synchronized long getFreeBytes() {
+        return mFreeBytes;
+    }
+
+    /**
+     * @return Fraction of requests served by an idle buffer.
+     */
+    public final synchronized double getReuseRate() {
+        return mAcquires == 0 ? 0 : (double) mReuses / mAcquires;
+    }
+
+    /**
+     * @return Fraction of the bytes handed out beyond what was requested, lost to the classes.
+     */
+    public final synchronized double getWasteRatio() {
+        return mHandedOutBytes == 0 ? 0 : 1 - (double) mRequestedBytes / mHandedOutBytes;
+    }
+
+    /**
+     * @return Recycled buffers freed because the pool was full.
+     */
+    public final synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return Buffers acquired and not recycled yet, if leaks are watched.
+     */
+    public final synchronized int getOutstandingCount() {
+        pollLeaks();
+        return mLeases.size();
+    }
+
+    /**
+     * @return Buffers the garbage collector took before they were recycled, if leaks are watched.
+     */
+    public final synchronized long getLeakCount() {
+        pollLeaks();
+        return mLeaks;
+    }
+
+    private void endLease(final T buffer) {
+        for (int i = mLeases.size() - 1; i >= 0; i--) {
+            if (mLeases.get(i).get() == buffer) {
+                mLeases.remove(i).clear();
+                return;
+            }
+        }
+        throw new IllegalStateException("Recycled a buffer that is not acquired from this pool");
+    }
+
+    private void pollLeaks() {
+        if (mLeakListener == null) {
+            return;
+        }
+        Lease<?> lease;
+        while ((lease = (Lease<?>) mCollected.poll()) != null) {
+            mLeases.remove(lease);
+            mLeaks++;
+            onLeaked(lease.mBytes);
+            mLeakListener.onLeak(lease.mBytes, lease.mAcquiredAt);
+        }
+    }
+
+    /**
+     * @return The smallest class whose buffers hold the given bytes.
+     */
+    static int ceilClass(final int bytes) {
+        if (bytes <= MIN_CLASS_BYTES) {
+            return 0;
+        }
+        final int magnitude = 31 - Integer.numberOfLeadingZeros(bytes - 1);
+        final int step = ((bytes - 1) >>> (magnitude - 2)) & (STEPS - 1);
+        return (magnitude - MIN_CLASS_SHIFT) * STEPS + step + 1;
+    }
+
+    /**
+     * @return The largest class whose size a buffer of the given bytes holds.
+     */
+    static int floorClass(final int bytes) {
+        final int magnitude = 31 - Integer.numberOfLeadingZeros(bytes);
+        final int step = (bytes >>> (magnitude - 2)) & (STEPS - 1);
+        return (magnitude - MIN_CLASS_SHIFT) * STEPS + step;
+    }
+
+    /**
+     * @return Size of a class, up to twice the largest int for the last ones.
+     */
+    static long classBytes(final int sizeClass) {
+        return (long) (STEPS + sizeClass % STEPS) << (MIN_CLASS_SHIFT - 2 + sizeClass / STEPS);
+    }
+}
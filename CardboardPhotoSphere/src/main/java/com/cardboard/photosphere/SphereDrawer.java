@@ -0,0 +1,384 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The GL side of {@link Sphere}: owns the mesh, uploads it and draws it tile by tile with
+ *         the programs Sphere links. Makes its GL calls through the {@link RenderState}'s
+ *         {@link GLCalls} only, so whole frames can be run against a fake GL on the JVM.
+ */
+public class SphereDrawer {
+
+    /**
+     * Attribute and uniform indices of the programs, in the order Sphere links them.
+     */
+    public static final int POSITION = 0;
+    public static final int TEXTURE_COORDINATE = 1;
+    public static final int MVP_MATRIX = 0;
+    public static final int TEX_TRANSFORM = 1;
+    public static final int TEXTURE = 2;
+
+    /**
+     * Texture unit the panorama is sampled from.
+     */
+    private static final int TEXTURE_UNIT = 0;
+
+    /**
+     * Depth and radius the mesh is built with. Tiled meshes may be built at a lower depth, see
+     * {@link SphereMesh#fitTiledDepth}.
+     */
+    private int mDepth;
+    private final float mRadius;
+
+    /**
+     * Buffer holding the interleaved vertices and texture coordinates, only kept while the
+     * geometry is not resident in buffer objects.
+     */
+    private FloatBuffer mVertexBuffer;
+
+    /**
+     * Buffer holding the triangle indices, only kept while the geometry is not resident in
+     * buffer objects.
+     */
+    private ShortBuffer mIndexBuffer;
+
+    /**
+     * Tiles the geometry is laid out for, or null for the single texture sphere.
+     */
+    private TileGrid mTileGrid;
+
+    /**
+     * First index and index count of every tile's triangles.
+     */
+    private int[] mTileIndexStart;
+    private int[] mTileIndexCount;
+
+    private final RenderState mRenderState;
+    private final GLCalls mGL;
+    private ShaderProgram mProgram;
+    private int mMVPMatrixHandle;
+    private int mTexTransformHandle;
+    private int mPositionHandle;
+    private int mTextureCoordinateHandle;
+
+    /**
+     * Program drawing both eyes in one instanced call, null where instancing is not available.
+     * Has the same inputs as the single eye program, with one matrix per eye.
+     */
+    private ShaderProgram mStereoProgram;
+
+    /**
+     * What each tile's draw binds in the current frame: the texture and the texture coordinate
+     * transform. Built once per frame by {@link #prepareFrame} and replayed for every eye.
+     */
+    private int[] mDrawTextures;
+    private float[] mDrawTransforms;
+
+    /**
+     * Textures of the panorama currently shown, null until the first one is loaded.
+     */
+    private PanoramaTexture mTexture;
+
+    /**
+     * Uploads the geometry, either into buffer objects or as client side arrays.
+     */
+    private GeometryUploader mGeometryUploader;
+
+    /**
+     * @param depth       Subdivision depth of the mesh.
+     * @param radius      Radius of the sphere.
+     * @param renderState GL state shared with the rest of the renderer.
+     */
+    public SphereDrawer(final int depth, final float radius, final RenderState renderState) {
+        this.mDepth = depth;
+        this.mRadius = radius;
+        this.mRenderState = renderState;
+        this.mGL = renderState.getGL();
+        createBuffers();
+    }
+
+    /**
+     * Builds the mesh for the current tile layout into direct buffers. The heap arrays of the
+     * mesh are dropped on return.
+     */
+    private void createBuffers() {
+
+        // Build the whole sphere as one indexed mesh, split into one patch per tile if tiled.
+        final SphereMesh mesh = mTileGrid == null ? new SphereMesh(mDepth, mRadius)
+                : new SphereMesh(mTileGrid, SphereMesh.fitTiledDepth(mTileGrid, mDepth), mRadius);
+
+        mTileIndexStart = new int[mesh.getTileCount()];
+        mTileIndexCount = new int[mesh.getTileCount()];
+        mDrawTextures = new int[mesh.getTileCount()];
+        mDrawTransforms = new float[mesh.getTileCount() * 4];
+        for (int tile = 0; tile < mTileIndexStart.length; tile++) {
+            mTileIndexStart[tile] = mesh.getTileIndexStart(tile);
+            mTileIndexCount[tile] = mesh.getTileIndexCount(tile);
+        }
+
+        ByteBuffer byteBuffer = NativeMemoryTracker.get().allocate(NativeMemoryTracker.Owner.GEOMETRY,
+                mesh.getVertices().length * SphereMesh.BYTES_PER_FLOAT);
+        this.mVertexBuffer = byteBuffer.asFloatBuffer();
+        this.mVertexBuffer.put(mesh.getVertices());
+        this.mVertexBuffer.position(0);
+
+        // Setup indices.
+        byteBuffer = NativeMemoryTracker.get().allocate(NativeMemoryTracker.Owner.GEOMETRY,
+                mesh.getIndexCount() * SphereMesh.BYTES_PER_SHORT);
+        this.mIndexBuffer = byteBuffer.asShortBuffer();
+        this.mIndexBuffer.put(mesh.getIndices());
+        this.mIndexBuffer.position(0);
+    }
+
+    /**
+     * Drops the direct buffers, once the GL has its own copy or the sphere is released.
+     */
+    private void releaseBuffers() {
+        if (mVertexBuffer != null) {
+            NativeMemoryTracker.get().release(NativeMemoryTracker.Owner.GEOMETRY,
+                    mVertexBuffer.capacity() * SphereMesh.BYTES_PER_FLOAT);
+            NativeMemoryTracker.get().release(NativeMemoryTracker.Owner.GEOMETRY,
+                    mIndexBuffer.capacity() * SphereMesh.BYTES_PER_SHORT);
+            mVertexBuffer = null;
+            mIndexBuffer = null;
+        }
+    }
+
+    /**
+     * Takes the programs of a new GL context and uploads the geometry into it.
+     *
+     * @param program       Program drawing one eye, linked with the inputs in index order.
+     * @param stereoProgram Program drawing both eyes instanced, null if not available.
+     */
+    public void onSurfaceCreated(final ShaderProgram program, final ShaderProgram stereoProgram) {
+
+        // The texture went away with the previous context.
+        mTexture = null;
+
+        mProgram = program;
+        mMVPMatrixHandle = mProgram.getUniformLocation(MVP_MATRIX);
+        mTexTransformHandle = mProgram.getUniformLocation(TEX_TRANSFORM);
+        mPositionHandle = mProgram.getAttributeLocation(POSITION);
+        mTextureCoordinateHandle = mProgram.getAttributeLocation(TEXTURE_COORDINATE);
+
+        // The sampler never changes.
+        mRenderState.useProgram(mProgram.getHandle());
+        mGL.glUniform1i(mProgram.getUniformLocation(TEXTURE), TEXTURE_UNIT);
+
+        mStereoProgram = stereoProgram;
+        if (mStereoProgram != null) {
+            mRenderState.useProgram(mStereoProgram.getHandle());
+            mGL.glUniform1i(mStereoProgram.getUniformLocation(TEXTURE), TEXTURE_UNIT);
+        }
+
+        uploadGeometry();
+    }
+
+    /**
+     * @return True if {@link #drawStereo} can be used in this GL context.
+     */
+    public boolean isStereoSupported() {
+        return mStereoProgram != null;
+    }
+
+    /**
+     * Uploads the geometry once, falling back to client side arrays without buffer objects.
+     */
+    private void uploadGeometry() {
+        if (mVertexBuffer == null) {
+            createBuffers();
+        }
+        mGeometryUploader = new BufferObjectGeometryUploader(mRenderState);
+        if (mGeometryUploader.upload(mVertexBuffer, mIndexBuffer)) {
+            releaseBuffers();
+        } else {
+            mGeometryUploader = new ClientArrayGeometryUploader(mRenderState);
+            mGeometryUploader.upload(mVertexBuffer, mIndexBuffer);
+        }
+    }
+
+    /**
+     * Releases the GL objects of the sphere.
+     */
+    public void release() {
+        if (mGeometryUploader != null) {
+            mGeometryUploader.release();
+            mGeometryUploader = null;
+        }
+        releaseBuffers();
+        mTexture = null;
+
+        // The programs belong to the cache.
+        mProgram = null;
+        mStereoProgram = null;
+    }
+
+    /**
+     * Switches to a new panorama. The geometry is rebuilt when the new panorama is split into
+     * different tiles.
+     *
+     * @param texture Textures to render with, still owned by the caller.
+     */
+    public void setTexture(final PanoramaTexture texture) {
+        mTexture = texture;
+
+        final TileGrid grid = texture.getGrid().getTileCount() == 1 ? null : texture.getGrid();
+        if (grid == null ? mTileGrid != null : !grid.equals(mTileGrid)) {
+            mTileGrid = grid;
+            mGeometryUploader.release();
+            releaseBuffers();
+            uploadGeometry();
+        }
+    }
+
+    /**
+     * Rebuilds the geometry at another depth, e.g. when the viewport changed. Must be called on
+     * the GL thread.
+     *
+     * @param depth Subdivision depth of the mesh.
+     */
+    public void setDepth(final int depth) {
+        if (depth == mDepth) {
+            return;
+        }
+        mDepth = depth;
+        releaseBuffers();
+        if (mGeometryUploader != null) {
+            mGeometryUploader.release();
+            uploadGeometry();
+        }
+    }
+
+    /**
+     * @return Number of draws per eye, one per tile.
+     */
+    public int getTileCount() {
+        return mTileIndexStart.length;
+    }
+
+    /**
+     * Works out what every tile draws with in this frame. Call once per frame, before drawing the
+     * eyes.
+     */
+    public void prepareFrame() {
+        for (int tile = 0; tile < mDrawTextures.length; tile++) {
+            prepareTile(tile);
+        }
+    }
+
+    /**
+     * Draws the sphere for one eye, as prepared by {@link #prepareFrame}. Issues only the GL
+     * calls whose state is not already set, and does not allocate.
+     *
+     * @param mvpMatrix Model view projection matrix.
+     */
+    public void draw(final float[] mvpMatrix) {
+        bindProgram(mProgram);
+
+        // Pass the projection and view transformation to the shader
+        mGL.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+
+        // Draw the whole sphere in one call, or one call per tile with its own texture
+        for (int tile = 0; tile < mTileIndexStart.length; tile++) {
+            bindTileTexture(tile, mTexTransformHandle);
+            mGeometryUploader.drawElements(GLCalls.GL_TRIANGLES, mTileIndexStart[tile], mTileIndexCount[tile]);
+        }
+
+        // The state is left as it is, the next eye draws with the same.
+    }
+
+    /**
+     * Draws the sphere for both eyes at once, as prepared by {@link #prepareFrame}. The viewport
+     * must cover both eyes, see {@link StereoBatch}.
+     *
+     * @param batch Matrices of both eyes.
+     */
+    public void drawStereo(final StereoBatch batch) {
+        bindProgram(mStereoProgram);
+
+        mGL.glUniformMatrix4fv(mStereoProgram.getUniformLocation(MVP_MATRIX), StereoBatch.EYES, false,
+                batch.getMatrices(), 0);
+
+        final int texTransformHandle = mStereoProgram.getUniformLocation(TEX_TRANSFORM);
+        for (int tile = 0; tile < mTileIndexStart.length; tile++) {
+            bindTileTexture(tile, texTransformHandle);
+            mGeometryUploader.drawElementsInstanced(GLCalls.GL_TRIANGLES, mTileIndexStart[tile],
+                    mTileIndexCount[tile], StereoBatch.EYES);
+        }
+    }
+
+    private void bindProgram(final ShaderProgram program) {
+        mRenderState.useProgram(program.getHandle());
+
+        mRenderState.setEnabled(GLCalls.GL_CULL_FACE, true);
+        mRenderState.cullFace(GLCalls.GL_FRONT);
+        mRenderState.frontFace(GLCalls.GL_CW);
+
+        // Prepare the interleaved position and texture coordinate data
+        mGeometryUploader.bindAttribute(mPositionHandle, SphereMesh.NUM_FLOATS_PER_POSITION,
+                SphereMesh.VERTEX_STRIDE, 0);
+        mGeometryUploader.bindAttribute(mTextureCoordinateHandle, SphereMesh.NUM_FLOATS_PER_TEXTURE,
+                SphereMesh.VERTEX_STRIDE, SphereMesh.TEXTURE_OFFSET);
+        mRenderState.setVertexAttribArrayEnabled(mPositionHandle, true);
+        mRenderState.setVertexAttribArrayEnabled(mTextureCoordinateHandle, true);
+    }
+
+    private void bindTileTexture(final int tile, final int texTransformHandle) {
+        final int i = tile * 4;
+        mRenderState.bindTexture(TEXTURE_UNIT, mDrawTextures[tile]);
+        mRenderState.uniform4f(texTransformHandle, mDrawTransforms[i], mDrawTransforms[i + 1],
+                mDrawTransforms[i + 2], mDrawTransforms[i + 3]);
+    }
+
+    /**
+     * Picks the tile's own texture, or the base layer scaled down to the tile's part of the
+     * image while a streamed tile is not loaded. Cube maps cannot be drawn on the sphere.
+     */
+    private void prepareTile(final int tile) {
+        final int i = tile * 4;
+        final int texture = mTexture == null || mTexture.isCubeMap() ? 0 : mTexture.getTextureHandle(tile);
+        if (texture != 0 || mTexture == null || mTexture.getBaseTextureHandle() == 0) {
+            mDrawTextures[tile] = texture;
+            mDrawTransforms[i] = 1f;
+            mDrawTransforms[i + 1] = 1f;
+            mDrawTransforms[i + 2] = 0f;
+            mDrawTransforms[i + 3] = 0f;
+            return;
+        }
+
+        // Tile coordinates have s mirrored, which the fragment shader undoes after the transform.
+        final TileGrid grid = mTexture.getGrid();
+        final int column = tile % grid.getColumns();
+        final int row = tile / grid.getColumns();
+        final float u0 = grid.getU0(column);
+        final float u1 = grid.getU1(column);
+        final float v0 = grid.getV0(row);
+        final float v1 = grid.getV1(row);
+        mDrawTextures[tile] = mTexture.getBaseTextureHandle();
+        mDrawTransforms[i] = u1 - u0;
+        mDrawTransforms[i + 1] = v1 - v0;
+        mDrawTransforms[i + 2] = 1f - u1;
+        mDrawTransforms[i + 3] = v0;
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Builds the sphere geometry as one indexed triangle list.
+ *         <p/>
+ *         The layout follows the icosahedron based strips the sphere has always used, but every
+ *         strip is folded into a single interleaved position + texture buffer, and vertices shared
+ *         by neighbouring strips are emitted only once. The whole sphere can then be drawn with a
+ *         single GL_TRIANGLES call. This class has no Android dependencies.
+ *         <p/>
+ *         Sines and cosines are computed once per ring and azimuth step, not per vertex, and the
+ *         strips can be built in parallel by a {@link ParallelRange}.
+ */
+public final class SphereMesh {
+
+    /**
+     * Maximum allowed depth, the deepest untiled mesh unsigned short indices can address. See
+     * {@link TessellationSelector} for the depth a viewport needs.
+     */
+    public static final int MAXIMUM_ALLOWED_DEPTH = 7;
+
+    /**
+     * Used in vertex strip calculations, related to properties of a icosahedron.
+     */
+    private static final int VERTEX_MAGIC_NUMBER = 5;
+
+    /**
+     * Each vertex is made up of 3 points, x, y, z.
+     */
+    public static final int NUM_FLOATS_PER_POSITION = 3;
+
+    /**
+     * Each texture point is made up of 2 points, x, y (in reference to the texture being a 2D image).
+     */
+    public static final int NUM_FLOATS_PER_TEXTURE = 2;
+
+    /**
+     * Floats per interleaved vertex, position followed by texture coordinate.
+     */
+    public static final int NUM_FLOATS_PER_VERTEX = NUM_FLOATS_PER_POSITION + NUM_FLOATS_PER_TEXTURE;
+
+    /**
+     * Offset of the texture coordinate inside an interleaved vertex, in floats.
+     */
+    public static final int TEXTURE_OFFSET = NUM_FLOATS_PER_POSITION;
+
+    /**
+     * Size of a float in bytes.
+     */
+    public static final int BYTES_PER_FLOAT = 4;
+
+    /**
+     * Size of a short index in bytes.
+     */
+    public static final int BYTES_PER_SHORT = 2;
+
+    /**
+     * Distance in bytes between two interleaved vertices.
+     */
+    public static final int VERTEX_STRIDE = NUM_FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+    /**
+     * Largest vertex count addressable with unsigned short indices.
+     */
+    public static final int MAXIMUM_VERTEX_COUNT = 0x10000;
+
+    /**
+     * Interleaved x, y, z, s, t for every unique vertex.
+     */
+    private final float[] mVertices;
+
+    /**
+     * Triangle list indices into {@link #mVertices}.
+     */
+    private final short[] mIndices;
+
+    /**
+     * Total number of strips for the given depth.
+     */
+    private final int mTotalNumStrips;
+
+    /**
+     * Number of unique vertices.
+     */
+    private final int mVertexCount;
+
+    /**
+     * First index of every tile's triangles, followed by the total index count.
+     */
+    private final int[] mTileIndexStart;
+
+    /**
+     * Vertices from which the strips are built in parallel, below that forking costs more than
+     * it saves, and the fewest strips built on their own.
+     */
+    private static final int PARALLEL_MIN_VERTICES = 16384;
+    private static final int STRIPS_PER_TASK = 8;
+
+    public SphereMesh(final int depth, final float radius) {
+        this(depth, radius, null);
+    }
+
+    /**
+     * Builds the untiled sphere.
+     *
+     * @param depth    Requested depth.
+     * @param radius   Sphere radius.
+     * @param parallel Builds the strips in parallel at high depths, or null to build them on the
+     *                 calling thread.
+     */
+    public SphereMesh(final int depth, final float radius, final ParallelRange parallel) {
+
+        // Clamp depth to the range 1 to MAXIMUM_ALLOWED_DEPTH;
+        final int d = clampDepth(depth);
+
+        this.mTotalNumStrips = numStrips(d);
+        this.mVertexCount = vertexCount(d);
+        this.mVertices = new float[mVertexCount * NUM_FLOATS_PER_VERTEX];
+        this.mIndices = new short[indexCount(d)];
+        this.mTileIndexStart = new int[]{0, mIndices.length};
+
+        final Strips strips = new Strips(d, radius, mVertices, mIndices);
+        if (parallel != null && mVertexCount >= PARALLEL_MIN_VERTICES) {
+            parallel.run(strips, 0, mTotalNumStrips, STRIPS_PER_TASK);
+        } else {
+            strips.run(0, mTotalNumStrips);
+        }
+    }
+
+    /**
+     * Builds the sphere as one latitude / longitude patch per tile of the grid. Each patch
+     * covers exactly the part of the sphere its tile maps to, with texture coordinates local to
+     * the tile's own texture. Patches are about as dense as the strips of the given depth.
+     *
+     * @param grid   Tiles of the panorama.
+     * @param depth  Requested depth.
+     * @param radius Sphere radius.
+     */
+    public SphereMesh(final TileGrid grid, final int depth, final float radius) {
+        final int d = clampDepth(depth);
+        this.mTotalNumStrips = numStrips(d);
+
+        final int[] azimuthSegments = azimuthSegments(grid, d);
+        final int[] polarSegments = polarSegments(grid, d);
+
+        int vertexCount = 0;
+        int indexCount = 0;
+        for (int row = 0; row < polarSegments.length; row++) {
+            for (int column = 0; column < azimuthSegments.length; column++) {
+                vertexCount += (azimuthSegments[column] + 1) * (polarSegments[row] + 1);
+                indexCount += azimuthSegments[column] * polarSegments[row] * 6;
+            }
+        }
+        if (vertexCount > MAXIMUM_VERTEX_COUNT) {
+            throw new IllegalArgumentException("Too many vertices for " + grid.getColumns() + "x"
+                    + grid.getRows() + " tiles at depth " + d + ": " + vertexCount);
+        }
+
+        this.mVertexCount = vertexCount;
+        this.mVertices = new float[vertexCount * NUM_FLOATS_PER_VERTEX];
+        this.mIndices = new short[indexCount];
+        this.mTileIndexStart = new int[grid.getTileCount() + 1];
+
+        // Every tile column shares its azimuths, every tile row its altitudes.
+        final double[][] azimuthSin = new double[azimuthSegments.length][];
+        final double[][] azimuthCos = new double[azimuthSegments.length][];
+        for (int column = 0; column < azimuthSegments.length; column++) {
+            final double azimuthStart = grid.getAzimuthStart(column);
+            final double azimuthStep = (grid.getAzimuthEnd(column) - azimuthStart) / azimuthSegments[column];
+            azimuthSin[column] = new double[azimuthSegments[column] + 1];
+            azimuthCos[column] = new double[azimuthSegments[column] + 1];
+            for (int j = 0; j <= azimuthSegments[column]; j++) {
+                final double azimuth = azimuthStart + j * azimuthStep;
+                azimuthSin[column][j] = Math.sin(azimuth);
+                azimuthCos[column][j] = Math.cos(azimuth);
+            }
+        }
+
+        int vertex = 0;
+        int indexPos = 0;
+        for (int row = 0; row < polarSegments.length; row++) {
+            final double polarStart = grid.getPolarStart(row);
+            final double polarStep = (grid.getPolarEnd(row) - polarStart) / polarSegments[row];
+            final double[] altitudeSin = new double[polarSegments[row] + 1];
+            final double[] altitudeCos = new double[polarSegments[row] + 1];
+            for (int i = 0; i <= polarSegments[row]; i++) {
+                final double altitude = Maths.NINETY_DEGREES - (polarStart + i * polarStep);
+                altitudeSin[i] = Math.sin(altitude);
+                altitudeCos[i] = Math.cos(altitude);
+            }
+
+            for (int column = 0; column < azimuthSegments.length; column++) {
+                final int columnsInPatch = azimuthSegments[column] + 1;
+                final int firstVertex = vertex;
+                mTileIndexStart[grid.getTileIndex(column, row)] = indexPos;
+
+                for (int i = 0; i <= polarSegments[row]; i++) {
+                    final double h = radius * altitudeCos[i];
+                    for (int j = 0; j <= azimuthSegments[column]; j++) {
+                        // The fragment shader mirrors s, so store it mirrored as well.
+                        putVertex(mVertices, vertex++, h * azimuthCos[column][j], radius * altitudeSin[i],
+                                h * azimuthSin[column][j], 1f - (float) j / azimuthSegments[column],
+                                (float) i / polarSegments[row]);
+                    }
+                }
+
+                // Two triangles per quad, wound like the strips so culling keeps the inside.
+                for (int i = 0; i < polarSegments[row]; i++) {
+                    for (int j = 0; j < azimuthSegments[column]; j++) {
+                        final int a = firstVertex + i * columnsInPatch + j;
+                        final int b = a + columnsInPatch;
+                        mIndices[indexPos++] = (short) a;
+                        mIndices[indexPos++] = (short) b;
+                        mIndices[indexPos++] = (short) (a + 1);
+                        mIndices[indexPos++] = (short) (a + 1);
+                        mIndices[indexPos++] = (short) b;
+                        mIndices[indexPos++] = (short) (b + 1);
+                    }
+                }
+            }
+        }
+        mTileIndexStart[grid.getTileCount()] = indexPos;
+    }
+
+    /**
+     * @param grid  Tiles of the panorama.
+     * @param depth Requested depth.
+     * @return Number of unique vertices of the tiled mesh, which may be more than unsigned short
+     * indices can address.
+     */
+    public static int tiledVertexCount(final TileGrid grid, final int depth) {
+        final int d = clampDepth(depth);
+        final int[] azimuthSegments = azimuthSegments(grid, d);
+        final int[] polarSegments = polarSegments(grid, d);
+        int vertexCount = 0;
+        for (int row = 0; row < polarSegments.length; row++) {
+            for (int column = 0; column < azimuthSegments.length; column++) {
+                vertexCount += (azimuthSegments[column] + 1) * (polarSegments[row] + 1);
+            }
+        }
+        return vertexCount;
+    }
+
+    /**
+     * @param grid  Tiles of the panorama.
+     * @param depth Requested depth.
+     * @return The requested depth, clamped and lowered until the tiled mesh fits unsigned short
+     * indices. Many small tiles need more vertices than the strips, for the patch edges.
+     */
+    public static int fitTiledDepth(final TileGrid grid, final int depth) {
+        int d = clampDepth(depth);
+        while (d > 1 && tiledVertexCount(grid, d) > MAXIMUM_VERTEX_COUNT) {
+            d--;
+        }
+        return d;
+    }
+
+    private static int[] azimuthSegments(final TileGrid grid, final int depth) {
+        final int[] segments = new int[grid.getColumns()];
+        for (int column = 0; column < segments.length; column++) {
+            segments[column] = segments(numStrips(depth),
+                    (grid.getAzimuthEnd(column) - grid.getAzimuthStart(column)) / Maths.THREE_SIXTY_DEGREES);
+        }
+        return segments;
+    }
+
+    private static int[] polarSegments(final TileGrid grid, final int depth) {
+        final int[] segments = new int[grid.getRows()];
+        for (int row = 0; row < segments.length; row++) {
+            segments[row] = segments(numRings(depth),
+                    (grid.getPolarEnd(row) - grid.getPolarStart(row)) / Maths.ONE_EIGHTY_DEGREES);
+        }
+        return segments;
+    }
+
+    /**
+     * @return Segments needed to cover a fraction of a full turn at the given full turn density.
+     */
+    private static int segments(final int fullTurnSegments, final double fraction) {
+        return Math.max(1, (int) Math.ceil(fullTurnSegments * fraction - 1e-9));
+    }
+
+    /**
+     * Writes one interleaved vertex.
+     */
+    private static void putVertex(final float[] vertices, final int vertex, final double x, final double y,
+                                  final double z, final float s, final float t) {
+        int pos = vertex * NUM_FLOATS_PER_VERTEX;
+        vertices[pos++] = (float) x;
+        vertices[pos++] = (float) y;
+        vertices[pos++] = (float) z;
+        vertices[pos++] = s;
+        vertices[pos] = t;
+    }
+
+    /**
+     * @param depth Requested depth.
+     * @return Depth clamped to the range 1 to MAXIMUM_ALLOWED_DEPTH.
+     */
+    public static int clampDepth(final int depth) {
+        return Math.max(1, Math.min(MAXIMUM_ALLOWED_DEPTH, depth));
+    }
+
+    /**
+     * @param depth Clamped depth.
+     * @return Number of strips the sphere is split into.
+     */
+    public static int numStrips(final int depth) {
+        return Maths.power(2, depth - 1) * VERTEX_MAGIC_NUMBER;
+    }
+
+    /**
+     * @param depth Clamped depth.
+     * @return Number of altitude steps from the north pole to the south pole.
+     */
+    public static int numRings(final int depth) {
+        return Maths.power(2, depth - 1) * 3;
+    }
+
+    /**
+     * @param depth Clamped depth.
+     * @return Number of unique vertices: one vertex per strip on each pole ring, plus one vertex
+     * per strip and a seam vertex on every ring in between.
+     */
+    public static int vertexCount(final int depth) {
+        final int strips = numStrips(depth);
+        return 2 * strips + (numRings(depth) - 1) * (strips + 1);
+    }
+
+    /**
+     * @param depth Clamped depth.
+     * @return Number of triangle list indices.
+     */
+    public static int indexCount(final int depth) {
+        return numStrips(depth) * (numRings(depth) * 2 - 2) * 3;
+    }
+
+    /**
+     * @param depth Clamped depth.
+     * @return Bytes needed to hold the interleaved vertices and the indices of a mesh.
+     */
+    public static int byteSize(final int depth) {
+        return vertexCount(depth) * VERTEX_STRIDE + indexCount(depth) * BYTES_PER_SHORT;
+    }
+
+    public float[] getVertices() {
+        return mVertices;
+    }
+
+    public short[] getIndices() {
+        return mIndices;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    public int getIndexCount() {
+        return mIndices.length;
+    }
+
+    public int getNumStrips() {
+        return mTotalNumStrips;
+    }
+
+    /**
+     * @return Number of tiles the indices are grouped by, 1 for the untiled sphere.
+     */
+    public int getTileCount() {
+        return mTileIndexStart.length - 1;
+    }
+
+    /**
+     * @return First index of the tile's triangles.
+     */
+    public int getTileIndexStart(final int tile) {
+        return mTileIndexStart[tile];
+    }
+
+    /**
+     * @return Number of indices of the tile's triangles.
+     */
+    public int getTileIndexCount(final int tile) {
+        return mTileIndexStart[tile + 1] - mTileIndexStart[tile];
+    }
+
+    /**
+     * Builds the strips of the untiled sphere from sines and cosines of its ring altitudes and
+     * half step azimuths, looked up instead of computed per vertex.
+     * <p/>
+     * Every strip walks the rings from the north pole to the south pole, zig-zagging between
+     * column c + 1 of ring k and column c of ring k + 1, where column c of ring k lies at half
+     * azimuth step 2c + k - 2. Vertices are numbered ring by ring, so neighbouring strips share
+     * them and any range of strips can be built on its own: strip c writes column c + 1 of the
+     * north pole and column c of every other ring, and the last strip also the seam column of
+     * the rings in between.
+     */
+    private static final class Strips implements ParallelRange.Body {
+        private final int mNumStrips;
+        private final int mNumRings;
+        private final float mRadius;
+        private final float[] mVertices;
+        private final short[] mIndices;
+
+        /**
+         * Per ring from the north pole.
+         */
+        private final double[] mAltitudeSin;
+        private final double[] mAltitudeCos;
+        private final float[] mT;
+
+        /**
+         * Per half azimuth step from -1, the azimuths are not wrapped so strips stay continuous
+         * in texture space.
+         */
+        private final double[] mAzimuthSin;
+        private final double[] mAzimuthCos;
+        private final float[] mS;
+
+        Strips(final int depth, final float radius, final float[] vertices, final short[] indices) {
+            this.mNumStrips = numStrips(depth);
+            this.mNumRings = numRings(depth);
+            this.mRadius = radius;
+            this.mVertices = vertices;
+            this.mIndices = indices;
+
+            final double altitudeStepAngle = Maths.ONE_TWENTY_DEGREES / Maths.power(2, depth);
+            mAltitudeSin = new double[mNumRings + 1];
+            mAltitudeCos = new double[mNumRings + 1];
+            mT = new float[mNumRings + 1];
+            for (int ring = 0; ring <= mNumRings; ring++) {
+                final double altitude = Maths.NINETY_DEGREES - ring * altitudeStepAngle;
+                mAltitudeSin[ring] = Math.sin(altitude);
+                mAltitudeCos[ring] = Math.cos(altitude);
+                mT[ring] = (float) (1 - (altitude + Maths.NINETY_DEGREES) / Maths.ONE_EIGHTY_DEGREES);
+            }
+
+            final double azimuthStepAngle = Maths.THREE_SIXTY_DEGREES / mNumStrips;
+            final int halfSteps = 2 * mNumStrips + mNumRings - 1;
+            mAzimuthSin = new double[halfSteps];
+            mAzimuthCos = new double[halfSteps];
+            mS = new float[halfSteps];
+            for (int i = 0; i < halfSteps; i++) {
+                final double azimuth = (i - 1) * azimuthStepAngle / 2.0;
+                mAzimuthSin[i] = Math.sin(azimuth);
+                mAzimuthCos[i] = Math.cos(azimuth);
+                mS[i] = (float) (1 - azimuth / Maths.THREE_SIXTY_DEGREES);
+            }
+        }
+
+        @Override
+        public void run(final int firstStrip, final int endStrip) {
+            for (int strip = firstStrip; strip < endStrip; strip++) {
+                putRingVertex(0, strip + 1);
+                for (int ring = 1; ring <= mNumRings; ring++) {
+                    putRingVertex(ring, strip);
+                }
+                if (strip == mNumStrips - 1) {
+                    for (int ring = 1; ring < mNumRings; ring++) {
+                        putRingVertex(ring, strip + 1);
+                    }
+                }
+
+                // Unroll the strip into a triangle list, keeping the strip's alternating winding.
+                final int numVerticesPerStrip = mNumRings * 2;
+                int indexPos = strip * (numVerticesPerStrip - 2) * 3;
+                for (int i = 0; i < numVerticesPerStrip - 2; i++) {
+                    if ((i & 1) == 0) {
+                        mIndices[indexPos++] = (short) stripVertex(strip, i);
+                        mIndices[indexPos++] = (short) stripVertex(strip, i + 1);
+                    } else {
+                        mIndices[indexPos++] = (short) stripVertex(strip, i + 1);
+                        mIndices[indexPos++] = (short) stripVertex(strip, i);
+                    }
+                    mIndices[indexPos++] = (short) stripVertex(strip, i + 2);
+                }
+            }
+        }
+
+        /**
+         * @return Vertex of a ring and column: the north pole holds columns 1 to strips, the
+         * south pole 0 to strips - 1 and the rings in between 0 to strips.
+         */
+        private int vertexIndex(final int ring, final int column) {
+            return ring == 0 ? column - 1 : mNumStrips + (ring - 1) * (mNumStrips + 1) + column;
+        }
+
+        /**
+         * @return The i-th vertex along a strip.
+         */
+        private int stripVertex(final int strip, final int i) {
+            return (i & 1) == 0 ? vertexIndex(i / 2, strip + 1) : vertexIndex(i / 2 + 1, strip);
+        }
+
+        private void putRingVertex(final int ring, final int column) {
+            final int halfStep = 2 * column + ring - 1;
+            final double h = mRadius * mAltitudeCos[ring];
+            putVertex(mVertices, vertexIndex(ring, column), h * mAzimuthCos[halfStep], mRadius * mAltitudeSin[ring],
+                    h * mAzimuthSin[halfStep], mS[halfStep], mT[ring]);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Keeps the direct buffers that decoded pixels are staged in between decode and upload,
+ *         so loading another panorama reuses them instead of allocating again. Thread safe.
+ */
+public class StagingBufferPool extends SizeClassPool<ByteBuffer> {
+
+    private final NativeMemoryTracker mTracker;
+
+    /**
+     * @param tracker      Counts the buffers as staging memory.
+     * @param maxFreeBytes Bytes of idle buffers kept at most.
+     * @param leakListener Told about leaked buffers, null to not watch for leaks.
+     */
+    public StagingBufferPool(final NativeMemoryTracker tracker, final long maxFreeBytes,
+                             final LeakListener leakListener) {
+        super(maxFreeBytes, leakListener);
+        this.mTracker = tracker;
+    }
+
+    /**
+     * Returns a free buffer that holds at least the given size, or allocates a new one.
+     *
+     * @param bytes Required size in bytes.
+     * @return A cleared buffer, with its limit set to the requested size.
+     */
+    @Override
+    public ByteBuffer acquire(final int bytes) {
+        final ByteBuffer buffer = super.acquire(bytes);
+        buffer.clear();
+        buffer.limit(bytes);
+        return buffer;
+    }
+
+    @Override
+    protected ByteBuffer allocate(final int bytes) {
+        return mTracker.allocate(NativeMemoryTracker.Owner.STAGING, bytes);
+    }
+
+    @Override
+    protected int sizeOf(final ByteBuffer buffer) {
+        return buffer.capacity();
+    }
+
+    @Override
+    protected void free(final ByteBuffer buffer) {
+        mTracker.release(NativeMemoryTracker.Owner.STAGING, buffer.capacity());
+    }
+
+    @Override
+    protected void onLeaked(final int bytes) {
+        mTracker.release(NativeMemoryTracker.Owner.STAGING, bytes);
+    }
+}
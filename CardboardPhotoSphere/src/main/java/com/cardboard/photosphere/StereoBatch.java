@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Batches both eyes of a frame into one draw. Pure Java and allocation free after
+ *         construction.
+ *         <p/>
+ *         The view projections of both eyes are packed into one uniform array, and when the eyes'
+ *         viewports sit side by side with the same size, one viewport covers both. An instanced
+ *         draw then squeezes instance i into the half of eye i, see
+ *         {@link #toSharedClipX}, and discards what falls outside of that eye's own clip space.
+ */
+public class StereoBatch {
+
+    public static final int EYES = 2;
+
+    private final float[] mMatrices = new float[EYES * 16];
+    private final int[] mViewport = new int[4];
+    private boolean mSideBySide;
+
+    /**
+     * Lays out the eyes' viewports.
+     *
+     * @param left  Viewport of the left eye as x, y, width, height.
+     * @param right Viewport of the right eye as x, y, width, height.
+     * @return True if the eyes sit side by side with equal size, so both can be drawn in one
+     * viewport.
+     */
+    public boolean setViewports(final int[] left, final int[] right) {
+        mSideBySide = left[2] == right[2] && left[3] == right[3] && left[1] == right[1]
+                && left[0] + left[2] == right[0];
+        mViewport[0] = left[0];
+        mViewport[1] = left[1];
+        mViewport[2] = left[2] * EYES;
+        mViewport[3] = left[3];
+        return mSideBySide;
+    }
+
+    /**
+     * @param eye            0 for the left eye, 1 for the right.
+     * @param viewProjection View projection matrix of the eye.
+     */
+    public void setMatrix(final int eye, final float[] viewProjection) {
+        System.arraycopy(viewProjection, 0, mMatrices, eye * 16, 16);
+    }
+
+    /**
+     * @return True if the last viewports can be drawn as one.
+     */
+    public boolean isSideBySide() {
+        return mSideBySide;
+    }
+
+    /**
+     * @return Matrices of both eyes, left first, for a uniform mat4[2].
+     */
+    public float[] getMatrices() {
+        return mMatrices;
+    }
+
+    /**
+     * @return The viewport covering both eyes, as x, y, width, height.
+     */
+    public int[] getViewport() {
+        return mViewport;
+    }
+
+    /**
+     * Maps an eye's clip space x into the shared viewport, as the stereo vertex shader does.
+     *
+     * @param eye 0 for the left eye, 1 for the right.
+     * @param x   Clip space x in the eye's own viewport.
+     * @param w   Clip space w.
+     * @return Clip space x in the viewport covering both eyes.
+     */
+    public static float toSharedClipX(final int eye, final float x, final float w) {
+        return x * 0.5f + (eye == 0 ? -0.5f : 0.5f) * w;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         How the two eyes of a frame are submitted to the GL.
+ */
+public enum StereoMode {
+
+    /**
+     * Every eye clears its viewport and draws everything on its own, as a StereoRenderer does.
+     */
+    PER_EYE,
+
+    /**
+     * The frame is cleared once and its draws are worked out once, then replayed for every eye
+     * with its own viewport and matrix.
+     */
+    SHARED,
+
+    /**
+     * Both eyes are drawn by one instanced draw per tile into a viewport covering both. Needs
+     * OpenGL ES 3.0 and side by side eyes, falls back to {@link #SHARED} otherwise.
+     */
+    INSTANCED
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Picks the depth the sphere is tessellated at, the lowest one whose geometric error
+ *         stays within a number of screen pixels.
+ *         <p/>
+ *         The viewer sits at the centre of the sphere, so a flat triangle covers the same part of
+ *         the view as the patch of sphere it stands for, but not with the same texels: the GL
+ *         interpolates texture coordinates linearly across the triangle, while the direction a
+ *         point of the triangle is seen in moves along the sphere. The error is the largest angle
+ *         between the two, mostly where edges along a parallel cut under the curve, and shrinks
+ *         by about four times per depth. The screen covers a fixed number of pixels per radian,
+ *         see {@link LodSelector}, which turns it into pixels.
+ */
+public class TessellationSelector {
+
+    /**
+     * Screen pixels a texel may be drawn away from where it belongs.
+     */
+    public static final float DEFAULT_MAX_ERROR_PIXELS = 0.5f;
+
+    /**
+     * Depth used until the viewport is known, the one the app always used before.
+     */
+    public static final int DEFAULT_DEPTH = 5;
+
+    /**
+     * Every triangle edge is split this many times to look for the largest error.
+     */
+    private static final int SAMPLES_PER_EDGE = 8;
+
+    private final float mMaxErrorPixels;
+
+    /**
+     * Angular error of every depth, index 0 unused.
+     */
+    private final double[] mAngularErrors = new double[SphereMesh.MAXIMUM_ALLOWED_DEPTH + 1];
+
+    /**
+     * Screen pixels per radian at the centre of the view, 0 until the viewport is known.
+     */
+    private double mPixelsPerRadian;
+
+    public TessellationSelector() {
+        this(DEFAULT_MAX_ERROR_PIXELS);
+    }
+
+    /**
+     * @param maxErrorPixels Screen pixels a texel may be drawn away from where it belongs.
+     */
+    public TessellationSelector(final float maxErrorPixels) {
+        if (maxErrorPixels <= 0) {
+            throw new IllegalArgumentException("maxErrorPixels must be positive, was " + maxErrorPixels);
+        }
+        this.mMaxErrorPixels = maxErrorPixels;
+        for (int depth = 1; depth < mAngularErrors.length; depth++) {
+            mAngularErrors[depth] = angularError(depth);
+        }
+    }
+
+    /**
+     * Sets the viewport an eye is rendered to.
+     *
+     * @param viewportHeight Height of an eye's viewport in pixels.
+     * @param yFovInDegrees  Vertical field of view of the projection.
+     */
+    public void setViewport(final int viewportHeight, final float yFovInDegrees) {
+        mPixelsPerRadian = viewportHeight / 2.0 / Math.tan(Math.toRadians(yFovInDegrees) / 2);
+    }
+
+    /**
+     * @return Screen pixels per radian at the centre of the view, 0 until the viewport is set.
+     */
+    public double getPixelsPerRadian() {
+        return mPixelsPerRadian;
+    }
+
+    /**
+     * @param depth Depth, clamped like the mesh does.
+     * @return Error of the depth in screen pixels, 0 until the viewport is set.
+     */
+    public double screenError(final int depth) {
+        return mAngularErrors[SphereMesh.clampDepth(depth)] * mPixelsPerRadian;
+    }
+
+    /**
+     * @return The lowest depth within the error, MAXIMUM_ALLOWED_DEPTH if none is, DEFAULT_DEPTH
+     * until the viewport is set.
+     */
+    public int selectDepth() {
+        if (mPixelsPerRadian <= 0) {
+            return DEFAULT_DEPTH;
+        }
+        for (int depth = 1; depth < SphereMesh.MAXIMUM_ALLOWED_DEPTH; depth++) {
+            if (screenError(depth) <= mMaxErrorPixels) {
+                return depth;
+            }
+        }
+        return SphereMesh.MAXIMUM_ALLOWED_DEPTH;
+    }
+
+    /**
+     * Measures the error of the untiled mesh over its first strip, every other strip is the same
+     * one turned about the poles.
+     *
+     * @param depth Depth, clamped like the mesh does.
+     * @return Largest angle in radians between where a point of the mesh is seen and where its
+     * interpolated texture coordinate belongs.
+     */
+    public static double angularError(final int depth) {
+        final int d = SphereMesh.clampDepth(depth);
+        final int numRings = SphereMesh.numRings(d);
+        final double altitudeStepAngle = Maths.ONE_TWENTY_DEGREES / Maths.power(2, d);
+        final double azimuthStepAngle = Maths.THREE_SIXTY_DEGREES / SphereMesh.numStrips(d);
+
+        // The strip zig-zags between column 1 of ring k and column 0 of ring k + 1, that is half
+        // azimuth step k and k - 1.
+        final int numVerticesPerStrip = numRings * 2;
+        final double[] polar = new double[numVerticesPerStrip];
+        final double[] azimuth = new double[numVerticesPerStrip];
+        for (int i = 0; i < numVerticesPerStrip; i++) {
+            final int ring = (i & 1) == 0 ? i / 2 : i / 2 + 1;
+            polar[i] = ring * altitudeStepAngle;
+            azimuth[i] = (ring - 2 * (i & 1)) * azimuthStepAngle / 2.0;
+        }
+
+        double error = 0;
+        for (int i = 0; i < numVerticesPerStrip - 2; i++) {
+            error = Math.max(error, triangleError(polar[i], azimuth[i], polar[i + 1], azimuth[i + 1],
+                    polar[i + 2], azimuth[i + 2]));
+        }
+        return error;
+    }
+
+    /**
+     * @return Largest error over a grid of points of a triangle, corners given as polar angle
+     * and azimuth.
+     */
+    static double triangleError(final double polarA, final double azimuthA, final double polarB,
+                                final double azimuthB, final double polarC, final double azimuthC) {
+        final double[] a = direction(polarA, azimuthA);
+        final double[] b = direction(polarB, azimuthB);
+        final double[] c = direction(polarC, azimuthC);
+
+        double error = 0;
+        for (int i = 0; i <= SAMPLES_PER_EDGE; i++) {
+            for (int j = 0; i + j <= SAMPLES_PER_EDGE; j++) {
+                final double u = (double) i / SAMPLES_PER_EDGE;
+                final double v = (double) j / SAMPLES_PER_EDGE;
+                final double w = 1 - u - v;
+
+                // Where the point is seen, and where its texture coordinate puts it.
+                final double x = u * a[0] + v * b[0] + w * c[0];
+                final double y = u * a[1] + v * b[1] + w * c[1];
+                final double z = u * a[2] + v * b[2] + w * c[2];
+                final double[] textured = direction(u * polarA + v * polarB + w * polarC,
+                        u * azimuthA + v * azimuthB + w * azimuthC);
+
+                final double crossX = y * textured[2] - z * textured[1];
+                final double crossY = z * textured[0] - x * textured[2];
+                final double crossZ = x * textured[1] - y * textured[0];
+                final double cross = Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ);
+                final double dot = x * textured[0] + y * textured[1] + z * textured[2];
+                error = Math.max(error, Math.atan2(cross, dot));
+            }
+        }
+        return error;
+    }
+
+    /**
+     * @return Unit vector of a polar angle and azimuth, laid out like the mesh's positions.
+     */
+    private static double[] direction(final double polar, final double azimuth) {
+        final double h = Math.sin(polar);
+        return new double[]{h * Math.cos(azimuth), Math.cos(polar), h * Math.sin(azimuth)};
+    }
+}
@@ -16,52 +16,241 @@
 
 package com.cardboard.photosphere;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
+
+import java.nio.Buffer;
 
 /**
  * @author Sree Kumar A.V
  *         <p/>
- *         Creating the texture from the Bitmap
+ *         Creating textures and reading the texture limits of the current GL context
  */
 
 public class TextureHelper {
-    public static int[] loadTexture(final Context context, final int resourceId) {
+
+    /**
+     * From GL_EXT_texture_filter_anisotropic.
+     */
+    public static final int GL_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FE;
+    public static final int GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT = 0x84FF;
+
+    /**
+     * Reads the largest texture edge the current GL context supports.
+     *
+     * @return GL_MAX_TEXTURE_SIZE.
+     */
+    public static int getMaxTextureSize() {
+        final int[] maxSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+        return maxSize[0];
+    }
+
+    /**
+     * Reads the largest cube map face edge the current GL context supports.
+     *
+     * @return GL_MAX_CUBE_MAP_TEXTURE_SIZE.
+     */
+    public static int getMaxCubeMapTextureSize() {
+        final int[] maxSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_CUBE_MAP_TEXTURE_SIZE, maxSize, 0);
+        return maxSize[0];
+    }
+
+    /**
+     * Picks the compressed format ETC1 blocks are uploaded as in the current GL context.
+     *
+     * @return GL_ETC1_RGB8_OES if the extension is there, else GL_COMPRESSED_RGB8_ETC2 on
+     * OpenGL ES 3.0 and later, whose ETC2 decoders read ETC1 blocks as they are, else 0.
+     */
+    public static int getEtcTextureFormat() {
+        if (hasExtension("GL_OES_compressed_ETC1_RGB8_texture")) {
+            return EtcContainer.GL_ETC1_RGB8_OES;
+        }
+        return isOpenGLES3() ? EtcContainer.GL_COMPRESSED_RGB8_ETC2 : 0;
+    }
+
+    /**
+     * @return True if non power of two textures can have mip levels, i.e. on OpenGL ES 3.0 and
+     * later or with GL_OES_texture_npot.
+     */
+    public static boolean isNpotMipmapSupported() {
+        return isOpenGLES3() || hasExtension("GL_OES_texture_npot");
+    }
+
+    /**
+     * @return Largest anisotropy textures can be sampled with, 1 without
+     * GL_EXT_texture_filter_anisotropic.
+     */
+    public static float getMaxAnisotropy() {
+        if (!hasExtension("GL_EXT_texture_filter_anisotropic")) {
+            return 1f;
+        }
+        final float[] maxAnisotropy = new float[1];
+        GLES20.glGetFloatv(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT, maxAnisotropy, 0);
+        return Math.max(1f, maxAnisotropy[0]);
+    }
+
+    private static boolean hasExtension(final String extension) {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(extension);
+    }
+
+    /**
+     * @return True if the context is OpenGL ES 3.0 or later.
+     */
+    public static boolean isOpenGLES3() {
+        final String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES ") && version.length() > 10
+                && Character.isDigit(version.charAt(10)) && version.charAt(10) >= '3';
+    }
+
+    /**
+     * Creates a texture with uninitialised storage, to be filled with glTexSubImage2D.
+     *
+     * @param width    Width in pixels.
+     * @param height   Height in pixels.
+     * @param format   GL pixel format.
+     * @param type     GL pixel type.
+     * @param wrap     GL wrap mode for both directions.
+     * @param sampling Filtering, without mip levels until {@link #setFilters} is called again.
+     * @return The texture handle.
+     */
+    public static int createTexture(final int width, final int height, final int format, final int type,
+                                    final int wrap, final TextureSampling sampling) {
         final int[] textureHandle = new int[1];
 
         GLES20.glGenTextures(1, textureHandle, 0);
 
-        if (textureHandle[0] != 0) {
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inScaled = false;    // No pre-scaling
-
-            // Read in the resource
-            final Bitmap bitmap = BitmapFactory.decodeResource(context.getResources(), resourceId, options);
+        if (textureHandle[0] == 0) {
+            throw new RuntimeException("Error creating texture.");
+        }
 
-            // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        // Bind to the texture in OpenGL
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
 
-            // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        // Set filtering
+        setFilters(sampling.getMinFilter(false), sampling.getMagFilter());
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrap);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrap);
 
+        // Allocate the storage only.
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, type, null);
 
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+        return textureHandle[0];
+    }
 
-            // Recycle the bitmap, since its data has been loaded into OpenGL.
-            bitmap.recycle();
+    /**
+     * Creates a texture from compressed blocks with glCompressedTexImage2D.
+     *
+     * @param width     Width in pixels.
+     * @param height    Height in pixels.
+     * @param format    GL compressed internal format.
+     * @param data      Compressed blocks.
+     * @param byteCount Size of the compressed blocks in bytes.
+     * @param wrap      GL wrap mode for both directions.
+     * @param sampling  Filtering, without mip levels.
+     * @return The texture handle.
+     */
+    public static int createCompressedTexture(final int width, final int height, final int format,
+                                              final Buffer data, final int byteCount, final int wrap,
+                                              final TextureSampling sampling) {
+        final int[] textureHandle = new int[1];
 
+        GLES20.glGenTextures(1, textureHandle, 0);
 
+        if (textureHandle[0] == 0) {
+            throw new RuntimeException("Error creating texture.");
         }
 
+        // Bind to the texture in OpenGL
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+
+        // Set filtering
+        setFilters(sampling.getMinFilter(false), sampling.getMagFilter());
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrap);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrap);
+
+        // Compressed textures cannot be filled in slices on OpenGL ES 2.0, upload all blocks.
+        GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, byteCount, data);
+
+        return textureHandle[0];
+    }
+
+    /**
+     * Creates a cube map with uninitialised storage for all six faces, to be filled with
+     * glTexSubImage2D. Cube maps always clamp at the face edges.
+     *
+     * @param size     Face edge in pixels.
+     * @param format   GL pixel format.
+     * @param type     GL pixel type.
+     * @param sampling Filtering, without mip levels until {@link #setFilters} is called again.
+     * @return The texture handle.
+     */
+    public static int createCubeMapTexture(final int size, final int format, final int type,
+                                           final TextureSampling sampling) {
+        final int[] textureHandle = new int[1];
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+
         if (textureHandle[0] == 0) {
-            throw new RuntimeException("Error loading texture.");
+            throw new RuntimeException("Error creating texture.");
         }
 
-        return textureHandle;
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_CUBE_MAP, textureHandle[0]);
+
+        setFilters(GLES20.GL_TEXTURE_CUBE_MAP, sampling.getMinFilter(false), sampling.getMagFilter());
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_CUBE_MAP, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_CUBE_MAP, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+
+        // Allocate the storage only, faces are numbered consecutively from positive x.
+        for (int face = 0; face < CubemapConverter.FACES; face++) {
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_CUBE_MAP_POSITIVE_X + face, 0, format, size, size, 0,
+                    format, type, null);
+        }
+
+        return textureHandle[0];
+    }
+
+    /**
+     * Sets the filters of the bound 2D texture.
+     *
+     * @param minFilter GL minification filter.
+     * @param magFilter GL magnification filter.
+     */
+    public static void setFilters(final int minFilter, final int magFilter) {
+        setFilters(GLES20.GL_TEXTURE_2D, minFilter, magFilter);
+    }
+
+    /**
+     * Sets the filters of the texture bound to a target.
+     *
+     * @param target    GL_TEXTURE_2D or GL_TEXTURE_CUBE_MAP.
+     * @param minFilter GL minification filter.
+     * @param magFilter GL magnification filter.
+     */
+    public static void setFilters(final int target, final int minFilter, final int magFilter) {
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, minFilter);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, magFilter);
+    }
+
+    /**
+     * Sets the anisotropy of the bound 2D texture. Only call when {@link #getMaxAnisotropy} is
+     * above 1.
+     *
+     * @param anisotropy Anisotropy, up to {@link #getMaxAnisotropy}.
+     */
+    public static void setAnisotropy(final float anisotropy) {
+        setAnisotropy(GLES20.GL_TEXTURE_2D, anisotropy);
+    }
+
+    /**
+     * Sets the anisotropy of the texture bound to a target. Only call when
+     * {@link #getMaxAnisotropy} is above 1.
+     *
+     * @param target     GL_TEXTURE_2D or GL_TEXTURE_CUBE_MAP.
+     * @param anisotropy Anisotropy, up to {@link #getMaxAnisotropy}.
+     */
+    public static void setAnisotropy(final int target, final float anisotropy) {
+        GLES20.glTexParameterf(target, GL_TEXTURE_MAX_ANISOTROPY_EXT, anisotropy);
     }
 }
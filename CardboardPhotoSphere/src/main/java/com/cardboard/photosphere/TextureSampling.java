@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import android.opengl.GLES20;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         How panorama textures are filtered when sampled.
+ *         <p/>
+ *         When a texture is larger on screen than the source, neighbouring fragments read texels
+ *         far apart, which thrashes the GPU texture cache and shimmers. Trilinear sampling reads
+ *         from the mip level matching the screen footprint instead.
+ */
+public enum TextureSampling {
+
+    /**
+     * Nearest texel, no mip levels.
+     */
+    NEAREST(GLES20.GL_NEAREST, GLES20.GL_NEAREST, false),
+
+    /**
+     * Bilinear between texels, no mip levels.
+     */
+    BILINEAR(GLES20.GL_LINEAR, GLES20.GL_LINEAR, false),
+
+    /**
+     * Bilinear within and linear between mip levels.
+     */
+    TRILINEAR(GLES20.GL_LINEAR_MIPMAP_LINEAR, GLES20.GL_LINEAR, true);
+
+    private final int mMinFilter;
+    private final int mMagFilter;
+    private final boolean mMipmapped;
+
+    TextureSampling(final int minFilter, final int magFilter, final boolean mipmapped) {
+        this.mMinFilter = minFilter;
+        this.mMagFilter = magFilter;
+        this.mMipmapped = mipmapped;
+    }
+
+    /**
+     * @return True if textures need mip levels for this sampling.
+     */
+    public boolean isMipmapped() {
+        return mMipmapped;
+    }
+
+    /**
+     * @param hasMipmaps True if the texture has all its mip levels.
+     * @return GL minification filter, falling back to bilinear without mip levels.
+     */
+    public int getMinFilter(final boolean hasMipmaps) {
+        return mMipmapped && !hasMipmaps ? GLES20.GL_LINEAR : mMinFilter;
+    }
+
+    public int getMagFilter() {
+        return mMagFilter;
+    }
+}
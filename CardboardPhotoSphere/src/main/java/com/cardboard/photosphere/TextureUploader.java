@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Moves staged pixels into a GL texture. Only called on the GL thread, except for
+ *         {@link #prepare} which runs where the pixels are decoded.
+ */
+public interface TextureUploader {
+
+    /**
+     * Readies a decoded image for upload off the GL thread, e.g. by building its mip levels.
+     * Safe to call from any thread.
+     *
+     * @param image   Decoded image, now owned by the uploader.
+     * @param buffers Pool the image's buffers came from, for any new ones.
+     * @return The image to upload, possibly a different one. The old one is recycled then.
+     */
+    PixelImage prepare(PixelImage image, StagingBufferPool buffers);
+
+    /**
+     * Creates a texture with storage for the image, without uploading any pixels yet. Compressed
+     * images are uploaded right away.
+     *
+     * @param image Image the texture is sized for.
+     * @param wrap  True if the texture wraps around horizontally, false to clamp at the edges.
+     * @return Texture handle.
+     */
+    int createTexture(PixelImage image, boolean wrap);
+
+    /**
+     * Uploads a band of rows of the image into the texture. Does nothing for compressed images.
+     *
+     * @param texture  Texture created by {@link #createTexture}.
+     * @param image    Image to upload from.
+     * @param firstRow First row to upload.
+     * @param rowCount Number of rows to upload.
+     */
+    void uploadRows(int texture, PixelImage image, int firstRow, int rowCount);
+
+    /**
+     * Completes a texture once all its rows are uploaded, adding its mip levels if the sampling
+     * wants them. Textures that are not finished are sampled without mip levels.
+     *
+     * @param texture Texture created by {@link #createTexture}.
+     * @param image   Image the texture was uploaded from.
+     */
+    void finishTexture(int texture, PixelImage image);
+
+    /**
+     * @return Bytes the finished texture of the image takes, mip levels included.
+     */
+    int getTextureByteCount(PixelImage image);
+
+    /**
+     * Creates a cube map with storage for six faces like the given one, without uploading any
+     * pixels yet.
+     *
+     * @param face Uncompressed face the texture is sized for, square.
+     * @return Texture handle.
+     */
+    int createCubeMap(PixelImage face);
+
+    /**
+     * Uploads a band of rows of a face into the cube map.
+     *
+     * @param texture  Texture created by {@link #createCubeMap}.
+     * @param face     Face, 0 for GL_TEXTURE_CUBE_MAP_POSITIVE_X.
+     * @param image    Face image to upload from.
+     * @param firstRow First row to upload.
+     * @param rowCount Number of rows to upload.
+     */
+    void uploadFaceRows(int texture, int face, PixelImage image, int firstRow, int rowCount);
+
+    /**
+     * Completes a cube map once all rows of all faces are uploaded, as {@link #finishTexture}.
+     *
+     * @param texture Texture created by {@link #createCubeMap}.
+     * @param face    Any face the texture was uploaded from.
+     */
+    void finishCubeMap(int texture, PixelImage face);
+
+    /**
+     * @return Bytes the finished cube map of faces like the given one takes, all faces and mip
+     * levels included.
+     */
+    int getCubeMapByteCount(PixelImage face);
+
+    /**
+     * @param texture Texture to delete.
+     */
+    void deleteTexture(int texture);
+}
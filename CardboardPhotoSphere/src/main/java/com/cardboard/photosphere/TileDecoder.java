@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decodes rectangular regions of one panorama at a time, so a huge image never has to be
+ *         decoded as a whole. Called on a single background thread.
+ */
+public interface TileDecoder {
+
+    /**
+     * Opens a panorama for region decoding, closing the previous one.
+     *
+     * @param resourceId Resource to open.
+     * @throws IOException If the resource cannot be opened.
+     */
+    void open(int resourceId) throws IOException;
+
+    /**
+     * @return Width of the open panorama in pixels.
+     */
+    int getWidth();
+
+    /**
+     * @return Height of the open panorama in pixels.
+     */
+    int getHeight();
+
+    /**
+     * Decodes a region of the open panorama.
+     *
+     * @param left       Left edge in full resolution pixels.
+     * @param top        Top edge in full resolution pixels.
+     * @param width      Width in full resolution pixels.
+     * @param height     Height in full resolution pixels.
+     * @param sampleSize Power of two to scale the region down by.
+     * @param buffers    Pool to take the pixel buffer of the result from.
+     * @return The decoded pixels.
+     * @throws IOException If the region cannot be decoded.
+     */
+    PixelImage decodeRegion(int left, int top, int width, int height, int sampleSize,
+                            StagingBufferPool buffers) throws IOException;
+
+    /**
+     * Closes the open panorama.
+     */
+    void close();
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Splits an equirectangular image into a grid of tiles that each fit in one texture, and
+ *         maps every tile to the part of the sphere it covers.
+ *         <p/>
+ *         Columns run along the azimuth, 0 to 360 degrees from the left edge of the image. Rows
+ *         run from the north pole at the top of the image to the south pole at the bottom.
+ */
+public final class TileGrid {
+
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final int mMaxTileSize;
+    private final int mColumns;
+    private final int mRows;
+    private final int mTileWidth;
+    private final int mTileHeight;
+
+    /**
+     * @param imageWidth  Width of the whole image in pixels.
+     * @param imageHeight Height of the whole image in pixels.
+     * @param maxTileSize Largest allowed tile edge, usually GL_MAX_TEXTURE_SIZE.
+     */
+    public TileGrid(final int imageWidth, final int imageHeight, final int maxTileSize) {
+        if (imageWidth <= 0 || imageHeight <= 0 || maxTileSize <= 0) {
+            throw new IllegalArgumentException("Invalid tile grid " + imageWidth + "x" + imageHeight
+                    + " max " + maxTileSize);
+        }
+        this.mImageWidth = imageWidth;
+        this.mImageHeight = imageHeight;
+        this.mMaxTileSize = maxTileSize;
+        this.mColumns = (imageWidth + maxTileSize - 1) / maxTileSize;
+        this.mRows = (imageHeight + maxTileSize - 1) / maxTileSize;
+
+        // Spread the pixels evenly, only the last column and row may be smaller.
+        this.mTileWidth = (imageWidth + mColumns - 1) / mColumns;
+        this.mTileHeight = (imageHeight + mRows - 1) / mRows;
+    }
+
+    public int getImageWidth() {
+        return mImageWidth;
+    }
+
+    public int getImageHeight() {
+        return mImageHeight;
+    }
+
+    /**
+     * @return Largest allowed tile edge the grid was laid out for.
+     */
+    public int getMaxTileSize() {
+        return mMaxTileSize;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getTileCount() {
+        return mColumns * mRows;
+    }
+
+    /**
+     * @return Tile index of a column and row, tiles are stored row by row.
+     */
+    public int getTileIndex(final int column, final int row) {
+        return row * mColumns + column;
+    }
+
+    /**
+     * @return Left edge of the column in image pixels.
+     */
+    public int getTileX(final int column) {
+        return column * mTileWidth;
+    }
+
+    /**
+     * @return Top edge of the row in image pixels.
+     */
+    public int getTileY(final int row) {
+        return row * mTileHeight;
+    }
+
+    /**
+     * @return Width of the column in pixels.
+     */
+    public int getTileWidth(final int column) {
+        return Math.min(mTileWidth, mImageWidth - getTileX(column));
+    }
+
+    /**
+     * @return Height of the row in pixels.
+     */
+    public int getTileHeight(final int row) {
+        return Math.min(mTileHeight, mImageHeight - getTileY(row));
+    }
+
+    /**
+     * @return Horizontal texture coordinate of the column's left edge in the whole image, 0 to 1.
+     */
+    public float getU0(final int column) {
+        return (float) getTileX(column) / mImageWidth;
+    }
+
+    /**
+     * @return Horizontal texture coordinate of the column's right edge in the whole image, 0 to 1.
+     */
+    public float getU1(final int column) {
+        return (float) (getTileX(column) + getTileWidth(column)) / mImageWidth;
+    }
+
+    /**
+     * @return Vertical texture coordinate of the row's top edge in the whole image, 0 to 1.
+     */
+    public float getV0(final int row) {
+        return (float) getTileY(row) / mImageHeight;
+    }
+
+    /**
+     * @return Vertical texture coordinate of the row's bottom edge in the whole image, 0 to 1.
+     */
+    public float getV1(final int row) {
+        return (float) (getTileY(row) + getTileHeight(row)) / mImageHeight;
+    }
+
+    /**
+     * @return Azimuth of the column's left edge, in radians. The fraction of the image is taken
+     * first, so the last column ends at exactly 360 degrees.
+     */
+    public double getAzimuthStart(final int column) {
+        return Maths.THREE_SIXTY_DEGREES * ((double) getTileX(column) / mImageWidth);
+    }
+
+    /**
+     * @return Azimuth of the column's right edge, in radians.
+     */
+    public double getAzimuthEnd(final int column) {
+        return Maths.THREE_SIXTY_DEGREES * ((double) (getTileX(column) + getTileWidth(column)) / mImageWidth);
+    }
+
+    /**
+     * @return Angle down from the north pole to the row's top edge, in radians. The fraction of
+     * the image is taken first, so the last row ends at exactly 180 degrees.
+     */
+    public double getPolarStart(final int row) {
+        return Maths.ONE_EIGHTY_DEGREES * ((double) getTileY(row) / mImageHeight);
+    }
+
+    /**
+     * @return Angle down from the north pole to the row's bottom edge, in radians.
+     */
+    public double getPolarEnd(final int row) {
+        return Maths.ONE_EIGHTY_DEGREES * ((double) (getTileY(row) + getTileHeight(row)) / mImageHeight);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TileGrid)) {
+            return false;
+        }
+        final TileGrid other = (TileGrid) o;
+        return mImageWidth == other.mImageWidth && mImageHeight == other.mImageHeight
+                && mTileWidth == other.mTileWidth && mTileHeight == other.mTileHeight;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mImageWidth;
+        result = 31 * result + mImageHeight;
+        result = 31 * result + mTileWidth;
+        result = 31 * result + mTileHeight;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return mImageWidth + "x" + mImageHeight + " in " + mColumns + "x" + mRows + " tiles";
+    }
+}
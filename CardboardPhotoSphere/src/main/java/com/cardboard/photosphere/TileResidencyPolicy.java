@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decides which tiles of a streamed panorama to load and which to evict as the head
+ *         moves.
+ *         <p/>
+ *         Tiles within the load radius of the view direction are requested nearest first. Tiles
+ *         are only evicted once they fall outside the larger evict radius, so small head
+ *         movements do not make tiles flicker in and out. When more than the allowed number of
+ *         tiles would be resident, the farthest ones are evicted. {@link #update} does not
+ *         allocate.
+ */
+public class TileResidencyPolicy {
+
+    private final TileGrid mGrid;
+    private final double mLoadRadius;
+    private final double mEvictRadius;
+    private final int mMaxResident;
+
+    private final boolean[] mResident;
+    private final boolean[] mRequested;
+    private final boolean[] mSkipped;
+    private final double[] mDistance;
+
+    private final int[] mLoad;
+    private int mLoadCount;
+    private final int[] mEvict;
+    private int mEvictCount;
+
+    /**
+     * @param grid        Tile layout of the panorama.
+     * @param loadRadius  Tiles closer than this angle to the view direction are loaded, in radians.
+     * @param evictRadius Tiles farther than this angle are evicted, at least the load radius.
+     * @param maxResident Largest number of tiles resident or requested at once.
+     */
+    public TileResidencyPolicy(final TileGrid grid, final double loadRadius, final double evictRadius,
+                               final int maxResident) {
+        if (evictRadius < loadRadius || maxResident <= 0) {
+            throw new IllegalArgumentException("Invalid residency " + loadRadius + ", " + evictRadius
+                    + ", " + maxResident);
+        }
+        this.mGrid = grid;
+        this.mLoadRadius = loadRadius;
+        this.mEvictRadius = evictRadius;
+        this.mMaxResident = maxResident;
+
+        final int tiles = grid.getTileCount();
+        this.mResident = new boolean[tiles];
+        this.mRequested = new boolean[tiles];
+        this.mSkipped = new boolean[tiles];
+        this.mDistance = new double[tiles];
+        this.mLoad = new int[tiles];
+        this.mEvict = new int[tiles];
+    }
+
+    /**
+     * Recomputes the tiles to load and to evict for a view direction.
+     *
+     * @param x Unit view direction, x.
+     * @param y Unit view direction, y.
+     * @param z Unit view direction, z.
+     */
+    public void update(final double x, final double y, final double z) {
+        mLoadCount = 0;
+        mEvictCount = 0;
+        int held = 0;
+
+        for (int row = 0; row < mGrid.getRows(); row++) {
+            for (int column = 0; column < mGrid.getColumns(); column++) {
+                final int tile = mGrid.getTileIndex(column, row);
+                final double distance = TileVisibility.angularDistance(mGrid, column, row, x, y, z);
+                mDistance[tile] = distance;
+
+                if (mSkipped[tile]) {
+                    continue;
+                }
+                if (mResident[tile] || mRequested[tile]) {
+                    if (mResident[tile] && distance > mEvictRadius) {
+                        mEvict[mEvictCount++] = tile;
+                    } else {
+                        held++;
+                    }
+                } else if (distance <= mLoadRadius) {
+                    mLoad[mLoadCount++] = tile;
+                }
+            }
+        }
+
+        sortByDistance(mLoad, mLoadCount);
+
+        // Make room for the nearest wanted tiles by evicting the farthest resident ones.
+        int room = mMaxResident - held;
+        while (room < mLoadCount) {
+            final int farthest = farthestResident();
+            if (farthest < 0 || room >= 0 && mDistance[farthest] <= mDistance[mLoad[room]]) {
+                break;
+            }
+            mEvict[mEvictCount++] = farthest;
+            room++;
+        }
+        mLoadCount = Math.max(0, Math.min(mLoadCount, room));
+    }
+
+    /**
+     * @return Number of tiles to load after the last update.
+     */
+    public int getLoadCount() {
+        return mLoadCount;
+    }
+
+    /**
+     * @return Tile to load, nearest first.
+     */
+    public int getLoad(final int i) {
+        return mLoad[i];
+    }
+
+    /**
+     * @return Number of tiles to evict after the last update.
+     */
+    public int getEvictCount() {
+        return mEvictCount;
+    }
+
+    /**
+     * @return Tile to evict.
+     */
+    public int getEvict(final int i) {
+        return mEvict[i];
+    }
+
+    /**
+     * @return True if the tile is still worth loading, i.e. within the evict radius at the last
+     * update.
+     */
+    public boolean isWanted(final int tile) {
+        return mDistance[tile] <= mEvictRadius;
+    }
+
+    /**
+     * Excludes a tile from loading and from the resident count, e.g. because a coarser layer
+     * already has all the detail it can show.
+     */
+    public void skip(final int tile) {
+        mSkipped[tile] = true;
+    }
+
+    /**
+     * Records that a load of the tile was started.
+     */
+    public void markRequested(final int tile) {
+        mRequested[tile] = true;
+    }
+
+    /**
+     * Records that the tile finished loading, or that its load was dropped.
+     *
+     * @param resident True if the tile now has a texture.
+     */
+    public void markLoaded(final int tile, final boolean resident) {
+        mRequested[tile] = false;
+        mResident[tile] = resident;
+    }
+
+    /**
+     * Records that the tile's texture was deleted.
+     */
+    public void markEvicted(final int tile) {
+        mResident[tile] = false;
+    }
+
+    public boolean isResident(final int tile) {
+        return mResident[tile];
+    }
+
+    /**
+     * @return The resident tile farthest from the view direction that is not already being
+     * evicted, or -1.
+     */
+    private int farthestResident() {
+        int farthest = -1;
+        for (int tile = 0; tile < mResident.length; tile++) {
+            if (mResident[tile] && !isEvicted(tile)
+                    && (farthest < 0 || mDistance[tile] > mDistance[farthest])) {
+                farthest = tile;
+            }
+        }
+        return farthest;
+    }
+
+    private boolean isEvicted(final int tile) {
+        for (int i = 0; i < mEvictCount; i++) {
+            if (mEvict[i] == tile) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Insertion sort by distance, the lists are short.
+     */
+    private void sortByDistance(final int[] tiles, final int count) {
+        for (int i = 1; i < count; i++) {
+            final int tile = tiles[i];
+            int j = i - 1;
+            while (j >= 0 && mDistance[tiles[j]] > mDistance[tile]) {
+                tiles[j + 1] = tiles[j];
+                j--;
+            }
+            tiles[j + 1] = tile;
+        }
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Streams the tiles of a panorama around the view direction.
+ *         <p/>
+ *         A request first decodes the whole panorama at low resolution as a base layer and builds
+ *         a {@link PanoramaPyramid} of it. The coarsest level is uploaded in one frame and handed
+ *         out, then the finer levels replace it as they are uploaded. From then on every frame
+ *         asks the {@link TileResidencyPolicy} which tiles the head is looking at. Those are
+ *         decoded region by region at the level the {@link LodSelector} picks, and tiles that fell
+ *         far out of view are evicted. Tiles without a texture are drawn from the base layer.
+ *         <p/>
+ *         Prefetched panoramas only get their base layer, uploaded while no requested base layer
+ *         is waiting. Their tiles are streamed once they are resumed. They are decoded on a
+ *         decoder of their own, so the streamed panorama stays open on the other.
+ *         <p/>
+ *         The executor must run tasks one at a time, in order, since the {@link TileDecoder}
+ *         keeps the open panorama between tasks.
+ */
+public class TileStreamer implements PanoramaSource {
+
+    /**
+     * Rows of the base layer uploaded per glTexSubImage2D call.
+     */
+    private static final int ROWS_PER_SLICE = 64;
+
+    /**
+     * Tile decodes queued on the executor at once, so a fast head turn does not queue stale work.
+     */
+    private static final int MAX_IN_FLIGHT = 2;
+
+    /**
+     * Largest edge of the coarsest base level, small enough to upload within any frame.
+     */
+    private static final int COARSEST_LEVEL_SIZE = 256;
+
+    private final Executor mExecutor;
+    private final TileDecoder mDecoder;
+    private final TileDecoder mPrefetchDecoder;
+    private final TextureUploader mUploader;
+    private final StagingBufferPool mBuffers;
+
+    private final int mTileSize;
+    private final int mBaseLayerSize;
+    private final double mPrefetchMargin;
+    private final double mEvictMargin;
+    private final int mMaxResident;
+    private final LodSelector mLodSelector;
+
+    /**
+     * Incremented on every request, anything decoded for an older value is stale.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private final AtomicReference<Decoded> mDecodedBase = new AtomicReference<Decoded>();
+    private final Queue<Decoded> mDecodedPrefetches = new ConcurrentLinkedQueue<Decoded>();
+    private final Queue<Decoded> mDecodedTiles = new ConcurrentLinkedQueue<Decoded>();
+    private final AtomicReference<IOException> mFailure = new AtomicReference<IOException>();
+
+    private volatile int mMaxTextureSize;
+    private volatile double mConeHalfAngle = Maths.NINETY_DEGREES / 2;
+    private volatile PrefetchFailureListener mPrefetchFailureListener;
+
+    /**
+     * Resource the decoder has open, only touched on the executor.
+     */
+    private int mOpenResourceId;
+
+    // Streaming state, only touched on the GL thread.
+    private Decoded mUploadingBase;
+    private int mBaseLevel;
+    private int mBaseTexture;
+    private int mNextRow;
+    private Decoded mUploadingPrefetch;
+    private int mPrefetchTexture;
+    private int mPrefetchRow;
+    private final Queue<PanoramaTexture> mPrefetched = new ArrayDeque<PanoramaTexture>();
+    private PanoramaTexture mCurrent;
+    private int mCurrentGeneration;
+    private TileResidencyPolicy mPolicy;
+    private int[] mTileLevels;
+    private int mInFlight;
+
+    /**
+     * @param executor       Single threaded executor for decoding.
+     * @param decoder        Region decoder of requested panoramas, only used on the executor.
+     * @param prefetchDecoder Region decoder of prefetched panoramas, only used on the executor
+     *                       and closed after every prefetch.
+     * @param uploader       Texture uploader, prepares tiles on the executor and uploads on the GL thread.
+     * @param buffers        Pool for the decoded pixels.
+     * @param tileSize       Edge of a streamed tile in pixels.
+     * @param baseLayerSize  Largest edge of the base layer in pixels.
+     * @param prefetchMargin Angle beyond the view cone to load tiles in, in radians.
+     * @param evictMargin    Angle beyond the view cone to keep tiles in, in radians.
+     * @param maxResident    Largest number of tiles with a texture at once.
+     * @param lodSelector    Picks the level to decode each tile at, only used on the GL thread.
+     */
+    public TileStreamer(final Executor executor, final TileDecoder decoder, final TileDecoder prefetchDecoder,
+                        final TextureUploader uploader, final StagingBufferPool buffers, final int tileSize,
+                        final int baseLayerSize, final double prefetchMargin, final double evictMargin,
+                        final int maxResident, final LodSelector lodSelector) {
+        this.mExecutor = executor;
+        this.mDecoder = decoder;
+        this.mPrefetchDecoder = prefetchDecoder;
+        this.mUploader = uploader;
+        this.mBuffers = buffers;
+        this.mTileSize = tileSize;
+        this.mBaseLayerSize = baseLayerSize;
+        this.mPrefetchMargin = prefetchMargin;
+        this.mEvictMargin = evictMargin;
+        this.mMaxResident = maxResident;
+        this.mLodSelector = lodSelector;
+    }
+
+    /**
+     * Sets the half angle of the cone enclosing the view frustum, see
+     * {@link TileVisibility#coneHalfAngle}. Applies from the next panorama on.
+     */
+    public void setViewCone(final double halfAngle) {
+        mConeHalfAngle = halfAngle;
+    }
+
+    @Override
+    public void request(final int resourceId) {
+        final int generation = mGeneration.incrementAndGet();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get()) {
+                    return;
+                }
+
+                try {
+                    open(resourceId);
+                    recycle(mDecodedBase.getAndSet(decodeBase(mDecoder, generation, resourceId, true)));
+                } catch (IOException e) {
+                    // A superseded request fails nobody.
+                    if (generation == mGeneration.get()) {
+                        mFailure.set(e);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void prefetch(final int resourceId) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mPrefetchDecoder.open(resourceId);
+                    mDecodedPrefetches.add(decodeBase(mPrefetchDecoder, 0, resourceId, false));
+                } catch (IOException e) {
+                    final PrefetchFailureListener listener = mPrefetchFailureListener;
+                    if (listener != null) {
+                        listener.onPrefetchFailed(resourceId, e);
+                    }
+                } finally {
+                    mPrefetchDecoder.close();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setPrefetchFailureListener(final PrefetchFailureListener listener) {
+        mPrefetchFailureListener = listener;
+    }
+
+    /**
+     * Streams the tiles of a panorama handed out earlier, cancelling any pending request.
+     */
+    @Override
+    public void resume(final PanoramaTexture texture) {
+        mGeneration.incrementAndGet();
+        final TileGrid grid = texture.getGrid();
+        startStreaming(texture, baseLevel(grid.getImageWidth(), grid.getImageHeight()));
+    }
+
+    /**
+     * Advances the streaming. At least one slice or tile is uploaded per frame.
+     *
+     * @return The textures of a newly requested panorama once its coarsest base level is
+     * uploaded, now owned by the caller, or null. Tiles and the base texture of the returned
+     * textures keep changing on later frames.
+     */
+    @Override
+    public PanoramaTexture onGlFrame(final float x, final float y, final float z, final long budgetNanos) {
+        final long start = System.nanoTime();
+
+        final IOException failure = mFailure.getAndSet(null);
+        if (failure != null) {
+            throw new RuntimeException("Error loading texture.", failure);
+        }
+
+        final PanoramaTexture handoff = uploadBase(start, budgetNanos);
+        if (mUploadingBase == null) {
+            uploadPrefetch(start, budgetNanos);
+        }
+        if (mCurrent == null) {
+            return handoff;
+        }
+
+        uploadTiles(start, budgetNanos);
+
+        // Tiles of a panorama that is being replaced would only be skipped by the executor.
+        if (mCurrentGeneration != mGeneration.get()) {
+            return handoff;
+        }
+
+        // Evict what the head turned away from and request what it turned towards.
+        mPolicy.update(x, y, z);
+        for (int i = 0; i < mPolicy.getEvictCount(); i++) {
+            final int tile = mPolicy.getEvict(i);
+            mUploader.deleteTexture(mCurrent.getTextureHandle(tile));
+            mCurrent.setTextureHandle(tile, 0, 0);
+            mPolicy.markEvicted(tile);
+        }
+        for (int i = 0; i < mPolicy.getLoadCount() && mInFlight < MAX_IN_FLIGHT; i++) {
+            final int tile = mPolicy.getLoad(i);
+            mPolicy.markRequested(tile);
+            mInFlight++;
+            requestTile(mCurrentGeneration, mCurrent.getResourceId(), mCurrent.getGrid(), tile, mTileLevels[tile]);
+        }
+
+        return handoff;
+    }
+
+    @Override
+    public PanoramaTexture pollPrefetched() {
+        return mPrefetched.poll();
+    }
+
+    @Override
+    public void onSurfaceCreated(final int maxTextureSize) {
+        // Decodes for the lost context are skipped, callers request the panorama again.
+        mGeneration.incrementAndGet();
+        mMaxTextureSize = maxTextureSize;
+        if (mUploadingBase != null) {
+            recycle(mUploadingBase);
+            mUploadingBase = null;
+        }
+        if (mUploadingPrefetch != null) {
+            recycle(mUploadingPrefetch);
+            mUploadingPrefetch = null;
+        }
+        mBaseTexture = 0;
+        mPrefetchTexture = 0;
+        mPrefetched.clear();
+        mCurrent = null;
+        mPolicy = null;
+        mCurrentGeneration = 0;
+    }
+
+    @Override
+    public void release() {
+        mGeneration.incrementAndGet();
+        if (mUploadingBase != null) {
+            mUploader.deleteTexture(mBaseTexture);
+            recycle(mUploadingBase);
+            mUploadingBase = null;
+            mBaseTexture = 0;
+        }
+        if (mUploadingPrefetch != null) {
+            mUploader.deleteTexture(mPrefetchTexture);
+            recycle(mUploadingPrefetch);
+            mUploadingPrefetch = null;
+            mPrefetchTexture = 0;
+        }
+        recycle(mDecodedBase.getAndSet(null));
+        Decoded decoded;
+        while ((decoded = mDecodedPrefetches.poll()) != null) {
+            recycle(decoded);
+        }
+        while ((decoded = mDecodedTiles.poll()) != null) {
+            recycle(decoded);
+        }
+        mPrefetched.clear();
+        mCurrent = null;
+        mPolicy = null;
+        mInFlight = 0;
+        mBuffers.clear();
+
+        // The decoder belongs to the executor's thread.
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDecoder.close();
+                mOpenResourceId = 0;
+            }
+        });
+    }
+
+    /**
+     * @return Level of the full resolution image the base layer is decoded at.
+     */
+    private int baseLevel(final int width, final int height) {
+        final int maxBase = Math.min(mBaseLayerSize, mMaxTextureSize);
+        int level = 0;
+        while (width >> level > maxBase || height >> level > maxBase) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Opens a panorama on the decoder unless it already is. Called on the executor.
+     */
+    private void open(final int resourceId) throws IOException {
+        if (resourceId != mOpenResourceId) {
+            mOpenResourceId = 0;
+            mDecoder.open(resourceId);
+            mOpenResourceId = resourceId;
+        }
+    }
+
+    /**
+     * Decodes the base layer of a panorama. Called on the executor.
+     *
+     * @param decoder Decoder the panorama is open on.
+     * @param pyramid True to build the coarser levels as well, for showing the panorama quickly.
+     */
+    private Decoded decodeBase(final TileDecoder decoder, final int generation, final int resourceId,
+                               final boolean pyramid) throws IOException {
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final TileGrid grid = new TileGrid(width, height, Math.min(mTileSize, mMaxTextureSize));
+        final int level = baseLevel(width, height);
+
+        final PixelImage base = decoder.decodeRegion(0, 0, width, height, 1 << level, mBuffers);
+        if (!pyramid) {
+            return new Decoded(generation, resourceId, grid, 0, level, base, null);
+        }
+        return new Decoded(generation, resourceId, grid, 0, level, null,
+                PanoramaPyramid.build(base, COARSEST_LEVEL_SIZE, mBuffers));
+    }
+
+    /**
+     * Continues uploading the base layer of the latest request, coarsest level first.
+     *
+     * @return The new panorama once its coarsest base level is uploaded, or null.
+     */
+    private PanoramaTexture uploadBase(final long start, final long budgetNanos) {
+        // Drop a base layer that a newer request superseded.
+        if (mUploadingBase != null && mUploadingBase.mGeneration != mGeneration.get()) {
+            mUploader.deleteTexture(mBaseTexture);
+            recycle(mUploadingBase);
+            mUploadingBase = null;
+            mBaseTexture = 0;
+        }
+
+        if (mUploadingBase == null) {
+            final Decoded decoded = mDecodedBase.getAndSet(null);
+            if (decoded == null) {
+                return null;
+            }
+            if (decoded.mGeneration != mGeneration.get()) {
+                recycle(decoded);
+                return null;
+            }
+            mUploadingBase = decoded;
+            startBaseLevel(decoded.mPyramid.getLevelCount() - 1);
+        }
+
+        PanoramaTexture handoff = null;
+        PixelImage image = mUploadingBase.mPyramid.getLevel(mBaseLevel);
+        boolean handedOff = mCurrent != null && mCurrentGeneration == mUploadingBase.mGeneration;
+
+        // The coarsest level is not bound by the budget, so the panorama shows up in this frame.
+        do {
+            final int rows = Math.min(ROWS_PER_SLICE, image.getHeight() - mNextRow);
+            mUploader.uploadRows(mBaseTexture, image, mNextRow, rows);
+            mNextRow += rows;
+
+            if (mNextRow == image.getHeight()) {
+                if (handedOff) {
+                    // Replace the coarser base level the caller draws with.
+                    mUploader.deleteTexture(mCurrent.getBaseTextureHandle());
+                    mCurrent.setBaseTextureHandle(mBaseTexture, image.getByteCount());
+                } else {
+                    handoff = new PanoramaTexture(mUploadingBase.mResourceId, mUploadingBase.mGrid);
+                    handoff.setBaseTextureHandle(mBaseTexture, image.getByteCount());
+                    startStreaming(handoff, mUploadingBase.mLevel);
+                    handedOff = true;
+                }
+
+                if (mBaseLevel == 0) {
+                    recycle(mUploadingBase);
+                    mUploadingBase = null;
+                    mBaseTexture = 0;
+                    break;
+                }
+                startBaseLevel(mBaseLevel - 1);
+                image = mUploadingBase.mPyramid.getLevel(mBaseLevel);
+            }
+        } while (!handedOff || System.nanoTime() - start < budgetNanos);
+
+        return handoff;
+    }
+
+    private void startBaseLevel(final int level) {
+        // The base layer is magnified rather than minified, it goes without mip levels.
+        final PixelImage image = mUploadingBase.mPyramid.getLevel(level);
+        mBaseLevel = level;
+        mBaseTexture = mUploader.createTexture(image, true);
+        mNextRow = 0;
+    }
+
+    /**
+     * Continues uploading the base layer of the oldest prefetched panorama.
+     */
+    private void uploadPrefetch(final long start, final long budgetNanos) {
+        if (mUploadingPrefetch == null) {
+            mUploadingPrefetch = mDecodedPrefetches.poll();
+            if (mUploadingPrefetch == null) {
+                return;
+            }
+            mPrefetchTexture = mUploader.createTexture(mUploadingPrefetch.mImage, true);
+            mPrefetchRow = 0;
+        }
+
+        final PixelImage image = mUploadingPrefetch.mImage;
+        while (mPrefetchRow < image.getHeight() && System.nanoTime() - start < budgetNanos) {
+            final int rows = Math.min(ROWS_PER_SLICE, image.getHeight() - mPrefetchRow);
+            mUploader.uploadRows(mPrefetchTexture, image, mPrefetchRow, rows);
+            mPrefetchRow += rows;
+        }
+
+        if (mPrefetchRow == image.getHeight()) {
+            final PanoramaTexture texture = new PanoramaTexture(mUploadingPrefetch.mResourceId,
+                    mUploadingPrefetch.mGrid);
+            texture.setBaseTextureHandle(mPrefetchTexture, image.getByteCount());
+            mPrefetched.add(texture);
+            recycle(mUploadingPrefetch);
+            mUploadingPrefetch = null;
+            mPrefetchTexture = 0;
+        }
+    }
+
+    /**
+     * Switches tile streaming over to a panorama. The previous one now belongs to the caller.
+     *
+     * @param texture   Textures of the panorama, tiles that have one count as resident.
+     * @param baseLevel Level of the full resolution image its base layer was decoded at.
+     */
+    private void startStreaming(final PanoramaTexture texture, final int baseLevel) {
+        final TileGrid grid = texture.getGrid();
+        mCurrent = texture;
+        mCurrentGeneration = mGeneration.get();
+        mPolicy = new TileResidencyPolicy(grid, mConeHalfAngle + mPrefetchMargin,
+                mConeHalfAngle + mEvictMargin, mMaxResident);
+
+        // Tiles whose level is no finer than the base layer are drawn from the base layer only.
+        // Rows with resident tiles stay at their level unless the viewport moved well past it.
+        mTileLevels = new int[grid.getTileCount()];
+        for (int row = 0; row < grid.getRows(); row++) {
+            int currentLevel = -1;
+            for (int column = 0; column < grid.getColumns() && currentLevel < 0; column++) {
+                final int tile = grid.getTileIndex(column, row);
+                if (texture.getTextureHandle(tile) != 0) {
+                    currentLevel = texture.getTileLevel(tile);
+                }
+            }
+            final int level = mLodSelector.selectLevel(grid, row, baseLevel, currentLevel);
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final int tile = grid.getTileIndex(column, row);
+                mTileLevels[tile] = level;
+                if (level >= baseLevel) {
+                    mPolicy.skip(tile);
+                } else if (texture.getTextureHandle(tile) != 0) {
+                    mPolicy.markLoaded(tile, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uploads decoded tiles that are still wanted, while the frame's budget lasts.
+     */
+    private void uploadTiles(final long start, final long budgetNanos) {
+        final boolean wrap = mCurrent.getGrid().getTileCount() == 1;
+        boolean first = true;
+        Decoded decoded;
+        while ((first || System.nanoTime() - start < budgetNanos) && (decoded = mDecodedTiles.poll()) != null) {
+            mInFlight--;
+
+            // Tiles of a superseded request were skipped, asking for them again is pointless.
+            if (decoded.mGeneration != mCurrentGeneration || decoded.mGeneration != mGeneration.get()) {
+                recycle(decoded);
+                continue;
+            }
+            if (decoded.mImage == null || !mPolicy.isWanted(decoded.mTile)) {
+                recycle(decoded);
+                mPolicy.markLoaded(decoded.mTile, false);
+                continue;
+            }
+
+            final PixelImage image = decoded.mImage;
+            final int texture = mUploader.createTexture(image, wrap);
+            mUploader.uploadRows(texture, image, 0, image.getHeight());
+            mUploader.finishTexture(texture, image);
+            mCurrent.setTextureHandle(decoded.mTile, texture, mUploader.getTextureByteCount(image));
+            mCurrent.setTileLevel(decoded.mTile, decoded.mLevel);
+            mPolicy.markLoaded(decoded.mTile, true);
+            recycle(decoded);
+            first = false;
+        }
+    }
+
+    private void requestTile(final int generation, final int resourceId, final TileGrid grid, final int tile,
+                             final int level) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PixelImage image = null;
+                if (generation == mGeneration.get()) {
+                    final int column = tile % grid.getColumns();
+                    final int row = tile / grid.getColumns();
+                    try {
+                        final long start = System.nanoTime();
+                        open(resourceId);
+                        image = mUploader.prepare(mDecoder.decodeRegion(grid.getTileX(column),
+                                grid.getTileY(row), grid.getTileWidth(column), grid.getTileHeight(row), 1 << level,
+                                mBuffers), mBuffers);
+                        FrameMetrics.get().recordSince(FrameMetrics.Stage.DECODE, start);
+                    } catch (IOException e) {
+                        if (generation == mGeneration.get()) {
+                            mFailure.set(e);
+                        }
+                    }
+                }
+                mDecodedTiles.add(new Decoded(generation, resourceId, grid, tile, level, image, null));
+            }
+        });
+    }
+
+    private void recycle(final Decoded decoded) {
+        if (decoded != null && decoded.mImage != null) {
+            decoded.mImage.recycle(mBuffers);
+        }
+        if (decoded != null && decoded.mPyramid != null) {
+            decoded.mPyramid.recycle(mBuffers);
+        }
+    }
+
+    /**
+     * A decoded base layer or tile and the request it belongs to.
+     */
+    private static final class Decoded {
+        final int mGeneration;
+        final int mResourceId;
+        final TileGrid mGrid;
+        final int mTile;
+        /**
+         * Level of the full resolution image the pixels were decoded at.
+         */
+        final int mLevel;
+        final PixelImage mImage;
+        final PanoramaPyramid mPyramid;
+
+        Decoded(final int generation, final int resourceId, final TileGrid grid, final int tile, final int level,
+                final PixelImage image, final PanoramaPyramid pyramid) {
+            this.mGeneration = generation;
+            this.mResourceId = resourceId;
+            this.mGrid = grid;
+            this.mTile = tile;
+            this.mLevel = level;
+            this.mImage = image;
+            this.mPyramid = pyramid;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Works out which tiles of a panorama the viewer can see.
+ *         <p/>
+ *         The view frustum is approximated by a cone around the forward vector whose half angle
+ *         reaches the frustum's corners. Tiles are compared by the exact angle between the
+ *         forward vector and the closest point of the tile's latitude / longitude rectangle on
+ *         the sphere. Directions use the sphere's frame: y up, azimuth from +x towards +z.
+ */
+public final class TileVisibility {
+
+    private TileVisibility() {
+    }
+
+    /**
+     * Half angle of the cone that encloses a symmetric perspective frustum.
+     *
+     * @param yFovInDegrees Vertical field of view.
+     * @param aspect        Width over height.
+     * @return Half angle in radians.
+     */
+    public static double coneHalfAngle(final float yFovInDegrees, final float aspect) {
+        final double tanY = Math.tan(Math.toRadians(yFovInDegrees) / 2.0);
+        final double tanX = tanY * aspect;
+        return Math.atan(Math.sqrt(tanX * tanX + tanY * tanY));
+    }
+
+    /**
+     * Angle between a direction and the closest point of a tile.
+     *
+     * @param grid   Tile layout.
+     * @param column Tile column.
+     * @param row    Tile row.
+     * @param x      Unit direction, x.
+     * @param y      Unit direction, y.
+     * @param z      Unit direction, z.
+     * @return Angle in radians, 0 if the direction points into the tile.
+     */
+    public static double angularDistance(final TileGrid grid, final int column, final int row,
+                                         final double x, final double y, final double z) {
+        final double polar = Math.acos(Math.max(-1.0, Math.min(1.0, y)));
+        final double azimuth = wrap(Math.atan2(z, x));
+
+        final double polarStart = grid.getPolarStart(row);
+        final double polarEnd = grid.getPolarEnd(row);
+        final double azimuthStart = grid.getAzimuthStart(column);
+        final double azimuthEnd = grid.getAzimuthEnd(column);
+
+        final boolean insideAzimuth = wrap(azimuth - azimuthStart) <= azimuthEnd - azimuthStart;
+        if (insideAzimuth && polar >= polarStart && polar <= polarEnd) {
+            return 0.0;
+        }
+
+        double best = Math.min(distanceToMeridian(x, y, z, polar, azimuth, azimuthStart, polarStart, polarEnd),
+                distanceToMeridian(x, y, z, polar, azimuth, azimuthEnd, polarStart, polarEnd));
+
+        // Along a parallel, the closest point shares the direction's azimuth.
+        if (insideAzimuth) {
+            best = Math.min(best, Math.abs(polar - (polar < polarStart ? polarStart : polarEnd)));
+        }
+        return best;
+    }
+
+    /**
+     * Marks every tile within the given angle of a direction.
+     *
+     * @param grid    Tile layout.
+     * @param x       Unit direction, x.
+     * @param y       Unit direction, y.
+     * @param z       Unit direction, z.
+     * @param radius  Angle in radians, usually the cone half angle plus a prefetch margin.
+     * @param visible Receives one flag per tile, in {@link TileGrid#getTileIndex} order.
+     * @return Number of visible tiles.
+     */
+    public static int computeVisible(final TileGrid grid, final double x, final double y, final double z,
+                                     final double radius, final boolean[] visible) {
+        int count = 0;
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final boolean inside = angularDistance(grid, column, row, x, y, z) <= radius;
+                visible[grid.getTileIndex(column, row)] = inside;
+                if (inside) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Angle to the closest point of a meridian segment, which is a great circle arc.
+     */
+    private static double distanceToMeridian(final double x, final double y, final double z,
+                                             final double polar, final double azimuth,
+                                             final double meridian, final double polarStart,
+                                             final double polarEnd) {
+        // Closest polar angle on the full great circle, negative values lie past the pole.
+        final double closest = Math.atan2(Math.sin(polar) * Math.cos(azimuth - meridian), Math.cos(polar));
+        if (closest >= polarStart && closest <= polarEnd) {
+            return angleTo(x, y, z, closest, meridian);
+        }
+
+        // Otherwise one of the segment's ends is closest.
+        return Math.min(angleTo(x, y, z, polarStart, meridian), angleTo(x, y, z, polarEnd, meridian));
+    }
+
+    /**
+     * Angle between a unit direction and a point on the unit sphere.
+     */
+    private static double angleTo(final double x, final double y, final double z,
+                                  final double polar, final double azimuth) {
+        final double h = Math.sin(polar);
+        final double dot = x * h * Math.cos(azimuth) + y * Math.cos(polar) + z * h * Math.sin(azimuth);
+        return Math.acos(Math.max(-1.0, Math.min(1.0, dot)));
+    }
+
+    /**
+     * @return Angle wrapped into 0 to 360 degrees.
+     */
+    private static double wrap(final double angle) {
+        final double wrapped = angle % Maths.THREE_SIXTY_DEGREES;
+        return wrapped < 0 ? wrapped + Maths.THREE_SIXTY_DEGREES : wrapped;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Decoded panorama, as one staged image per tile of its grid.
+ */
+public class TiledImage {
+
+    private final TileGrid mGrid;
+    private final PixelImage[] mTiles;
+
+    /**
+     * @param grid  Tile layout of the panorama.
+     * @param tiles One image per tile, in {@link TileGrid#getTileIndex} order.
+     */
+    public TiledImage(final TileGrid grid, final PixelImage[] tiles) {
+        if (tiles.length != grid.getTileCount()) {
+            throw new IllegalArgumentException("Expected " + grid.getTileCount() + " tiles, got " + tiles.length);
+        }
+        this.mGrid = grid;
+        this.mTiles = tiles;
+    }
+
+    public TileGrid getGrid() {
+        return mGrid;
+    }
+
+    public PixelImage getTile(final int tile) {
+        return mTiles[tile];
+    }
+
+    public int getTileCount() {
+        return mTiles.length;
+    }
+}
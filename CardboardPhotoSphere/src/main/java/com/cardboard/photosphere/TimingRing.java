@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The most recent durations of a stage in nanoseconds, in a ring allocated up front.
+ *         Every sample gets a sequence number, so a reader can pick up where it stopped and tell
+ *         how many samples were overwritten before it got to them.
+ *         <p/>
+ *         Recording claims a slot with one atomic increment and never blocks or allocates, so
+ *         any number of threads may record while another reads. A reader racing a writer for the
+ *         same slot may see the value of the previous lap.
+ */
+public final class TimingRing {
+
+    private final AtomicLongArray mSamples;
+    private final int mMask;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * @param capacity Samples kept, rounded up to a power of two.
+     */
+    public TimingRing(final int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        mSamples = new AtomicLongArray(size);
+        mMask = size - 1;
+    }
+
+    public void record(final long nanos) {
+        mSamples.lazySet((int) (mSequence.getAndIncrement() & mMask), nanos);
+    }
+
+    /**
+     * @return The number of samples kept.
+     */
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return The sequence number the next sample gets, the number of samples recorded so far.
+     */
+    public long getSequence() {
+        return mSequence.get();
+    }
+
+    /**
+     * Copies the samples between two sequence numbers that are still in the ring, oldest first.
+     *
+     * @param from    Sequence number of the first sample wanted.
+     * @param to      Sequence number past the last sample wanted, at most {@link #getSequence()}.
+     * @param samples Receives the samples from index 0. Only the newest ones fit if it is short.
+     * @return The number of samples copied. Less than to - from if samples were overwritten.
+     */
+    public int copy(final long from, final long to, final long[] samples) {
+        final long first = Math.max(from, to - Math.min(getCapacity(), samples.length));
+        int count = 0;
+        for (long sequence = first; sequence < to; sequence++) {
+            samples[count++] = mSamples.get((int) (sequence & mMask));
+        }
+        return count;
+    }
+}
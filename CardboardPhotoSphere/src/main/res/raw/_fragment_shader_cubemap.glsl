@@ -0,0 +1,21 @@
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+precision highp float;
+#else
+precision mediump float;
+#endif
+
+// Samples a cube map panorama per pixel, for the ray from the eye through the proxy geometry.
+
+uniform samplerCube u_Texture;
+uniform vec3 u_EyePosition;	// Eye in model space, off the centre by the camera and eye offsets.
+uniform float u_Radius;		// Radius of the sphere the panorama is projected on.
+varying vec3 v_Position;
+
+void main()
+{
+    // Where the view ray leaves the sphere, the cube map is looked up in that direction.
+    vec3 d = normalize(v_Position - u_EyePosition);
+    float b = dot(u_EyePosition, d);
+    float c = dot(u_EyePosition, u_EyePosition) - u_Radius * u_Radius;
+    gl_FragColor = textureCube(u_Texture, u_EyePosition + (-b + sqrt(b * b - c)) * d);
+}
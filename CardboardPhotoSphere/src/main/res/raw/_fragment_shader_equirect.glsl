@@ -0,0 +1,41 @@
+#ifdef GL_OES_standard_derivatives
+#extension GL_OES_standard_derivatives : enable
+#endif
+#ifdef GL_FRAGMENT_PRECISION_HIGH
+precision highp float;
+#else
+precision mediump float;
+#endif
+
+// Samples an equirectangular panorama per pixel, for the ray from the eye through the proxy
+// geometry. Mirrored by EquirectMath, keep both in step.
+
+uniform sampler2D u_Texture;
+uniform vec3 u_EyePosition;	// Eye in model space, off the centre by the camera and eye offsets.
+uniform float u_Radius;		// Radius of the sphere the panorama is projected on.
+varying vec3 v_Position;
+
+const float PI = 3.14159265358979;
+
+void main()
+{
+    // Where the view ray leaves the sphere, as a direction from its centre.
+    vec3 d = normalize(v_Position - u_EyePosition);
+    float b = dot(u_EyePosition, d);
+    float c = dot(u_EyePosition, u_EyePosition) - u_Radius * u_Radius;
+    vec3 p = (u_EyePosition + (-b + sqrt(b * b - c)) * d) / u_Radius;
+
+    float u = fract(atan(p.z, p.x) / (2.0 * PI));
+    float v = acos(clamp(p.y, -1.0, 1.0)) / PI;
+
+#ifdef GL_OES_standard_derivatives
+    // u jumps from 1 to 0 at the seam, which would pick the smallest mip level along it. The
+    // same u shifted by half a turn is continuous there, and wraps the same with GL_REPEAT.
+    float shifted = fract(u + 0.5) - 0.5;
+    if (fwidth(shifted) < fwidth(u)) {
+        u = shifted;
+    }
+#endif
+
+    gl_FragColor = texture2D(u_Texture, vec2(u, v));
+}
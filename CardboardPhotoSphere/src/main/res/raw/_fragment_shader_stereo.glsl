@@ -0,0 +1,17 @@
+#version 300 es
+precision mediump float;
+uniform sampler2D u_Texture;
+in vec2 v_TexCoordinate;
+in vec2 v_EyeClip;
+out vec4 fragColor;
+
+void main()
+{
+    // Outside the eye's own viewport, i.e. spilled into the other eye's half.
+    if (abs(v_EyeClip.x) > v_EyeClip.y) {
+        discard;
+    }
+    vec2 st = v_TexCoordinate.st;
+    st.s = 1. - st.s;
+    fragColor = texture(u_Texture, st);
+}
@@ -1,4 +1,5 @@
 uniform mat4 u_MVPMatrix;		// A constant representing the combined model/view/projection matrix.      		             		
+uniform vec4 u_TexTransform;	// Scale (xy) and offset (zw) of the texture coordinate, to draw a tile from the base layer.
 		  			
 attribute vec4 a_Position;		// Per-vertex position information we will pass in.   							     
 attribute vec2 a_TexCoordinate; // Per-vertex texture coordinate information we will pass in. 		
@@ -9,7 +10,7 @@ varying vec2 v_TexCoordinate;   // This will be passed into the fragment shader.
 void main()                                                 	
 {                                                         
 	// Pass through the texture coordinate.
-	v_TexCoordinate = a_TexCoordinate;                                      
+	v_TexCoordinate = a_TexCoordinate * u_TexTransform.xy + u_TexTransform.zw;                                      
           
 	// gl_Position is a special variable used to store the final position.
 	// Multiply the vertex by the matrix to get the final point in normalized screen coordinates.
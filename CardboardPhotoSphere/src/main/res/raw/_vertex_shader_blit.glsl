@@ -0,0 +1,9 @@
+attribute vec2 a_Position;		// Corner of a quad covering the viewport, in clip space.
+
+varying vec2 v_TexCoordinate;
+
+void main()
+{
+	v_TexCoordinate = a_Position * 0.5 + 0.5;
+	gl_Position = vec4(a_Position, 0.0, 1.0);
+}
@@ -0,0 +1,11 @@
+uniform mat4 u_MVPMatrix;		// A constant representing the combined model/view/projection matrix.
+
+attribute vec4 a_Position;		// Corner of the proxy cube around the viewer.
+
+varying vec3 v_Position;		// Position on the cube, the fragment shader casts the view ray through it.
+
+void main()
+{
+	v_Position = a_Position.xyz;
+	gl_Position = u_MVPMatrix * a_Position;
+}
@@ -0,0 +1,25 @@
+#version 300 es
+// Draws both eyes in one instanced call, instance 0 into the left half of the viewport and
+// instance 1 into the right half.
+
+uniform mat4 u_MVPMatrix[2];	// The combined model/view/projection matrix of each eye.
+uniform vec4 u_TexTransform;	// Scale (xy) and offset (zw) of the texture coordinate, to draw a tile from the base layer.
+
+in vec4 a_Position;			// Per-vertex position information we will pass in.
+in vec2 a_TexCoordinate;		// Per-vertex texture coordinate information we will pass in.
+
+out vec2 v_TexCoordinate;		// This will be passed into the fragment shader.
+out vec2 v_EyeClip;			// Clip space x and w in the eye's own viewport, to cut off the other half.
+
+void main()
+{
+	// Pass through the texture coordinate.
+	v_TexCoordinate = a_TexCoordinate * u_TexTransform.xy + u_TexTransform.zw;
+
+	vec4 position = u_MVPMatrix[gl_InstanceID] * a_Position;
+	v_EyeClip = vec2(position.x, position.w);
+
+	// Squeeze the eye's clip space into its half of the shared viewport.
+	float offset = gl_InstanceID == 0 ? -0.5 : 0.5;
+	gl_Position = vec4(position.x * 0.5 + offset * position.w, position.yzw);
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.AssetCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Reading a text resource with the line by line reader the asset cache replaced, against
+ *         reading it whole and decoding it in one pass, from a stream or a mapped file, and against
+ *         a cache hit. The text is shader source repeated up to the size, so the line lengths are
+ *         those of the app's resources. Run with -prof gc for the garbage each read leaves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssetReaderBenchmark {
+
+    private static final String SHADER = "precision mediump float;\n"
+            + "uniform sampler2D u_Texture;\n"
+            + "uniform vec4 u_Tint;\n"
+            + "varying vec2 v_TexCoordinate;\n"
+            + "\n"
+            + "void main() {\n"
+            + "    // Sample the panorama and tint it, e.g. to fade it in.\n"
+            + "    gl_FragColor = texture2D(u_Texture, v_TexCoordinate) * u_Tint;\n"
+            + "}\n";
+
+    private static final int RESOURCE_ID = 1;
+
+    @Param({"4096", "262144", "4194304"})
+    public int bytes;
+
+    private byte[] mText;
+    private File mFile;
+    private FileInputStream mFileStream;
+    private MappedByteBuffer mMapped;
+    private AssetCache mCache;
+
+    @Setup
+    public void setUp() throws IOException {
+        final StringBuilder text = new StringBuilder(bytes + SHADER.length());
+        while (text.length() < bytes) {
+            text.append(SHADER);
+        }
+        mText = text.toString().getBytes(AssetCache.UTF_8);
+
+        mFile = File.createTempFile("asset", ".glsl");
+        final FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(mText);
+        } finally {
+            output.close();
+        }
+        mFileStream = new FileInputStream(mFile);
+        mMapped = mFileStream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, mText.length);
+
+        mCache = new AssetCache(new AssetCache.Source() {
+            @Override
+            public ByteBuffer open(final int resourceId) {
+                return ByteBuffer.wrap(mText);
+            }
+        }, 2L * mText.length);
+        mCache.getText(RESOURCE_ID);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mFileStream.close();
+        mFile.delete();
+    }
+
+    /**
+     * The old reader, from a stream that costs nothing to read.
+     */
+    @Benchmark
+    public String legacy() {
+        return LegacyResourceReader.readText(new ByteArrayInputStream(mText));
+    }
+
+    /**
+     * Read whole and decoded once, from the same stream: what a compressed resource costs.
+     */
+    @Benchmark
+    public String stream() throws IOException {
+        final InputStream input = new ByteArrayInputStream(mText);
+        return AssetCache.decodeText(AssetCache.readFully(input, input.available()));
+    }
+
+    /**
+     * Decoded straight from a mapping, what a large stored resource costs.
+     */
+    @Benchmark
+    public String mapped() {
+        return AssetCache.decodeText(mMapped);
+    }
+
+    @Benchmark
+    public String cached() throws IOException {
+        return mCache.getText(RESOURCE_ID);
+    }
+}
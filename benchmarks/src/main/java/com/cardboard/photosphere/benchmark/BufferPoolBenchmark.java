@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.SizeClassPool;
+import com.cardboard.photosphere.StagingBufferPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Cost of getting a staging buffer from {@link StagingBufferPool} and giving it back,
+ *         with and without watching for leaks, against allocating a new direct buffer as loads
+ *         did before the pool. Run with the GC profiler to compare the allocation rates:
+ *         <p/>
+ *         ./gradlew :benchmarks:jmh -Pargs="BufferPoolBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BufferPoolBenchmark {
+
+    /**
+     * A small mip level, a 512 pixel tile and a 2048x1024 panorama.
+     */
+    @Param({"65536", "1048576", "8388608"})
+    public int bytes;
+
+    private StagingBufferPool mPool;
+    private StagingBufferPool mWatchedPool;
+
+    @Setup
+    public void setUp() {
+        mPool = new StagingBufferPool(new NativeMemoryTracker(), 64L * 1024 * 1024, null);
+        mWatchedPool = new StagingBufferPool(new NativeMemoryTracker(), 64L * 1024 * 1024,
+                new SizeClassPool.LeakListener() {
+                    @Override
+                    public void onLeak(final int bytes, final Throwable acquiredAt) {
+                        throw new AssertionError("Leaked " + bytes + " bytes", acquiredAt);
+                    }
+                });
+    }
+
+    @Benchmark
+    public ByteBuffer pooled() {
+        final ByteBuffer buffer = mPool.acquire(bytes);
+        mPool.recycle(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer pooledWatchingLeaks() {
+        final ByteBuffer buffer = mWatchedPool.acquire(bytes);
+        mWatchedPool.recycle(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer allocateDirect() {
+        return ByteBuffer.allocateDirect(bytes);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.SizeClassPool;
+import com.cardboard.photosphere.StagingBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the behaviour of {@link StagingBufferPool}: how often loading panoramas again
+ *         reuses buffers, how many bytes the size classes waste, that idle buffers stay within
+ *         the cap and trims, and that a buffer dropped without being recycled is reported.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: bufferPoolCheck
+ */
+public final class BufferPoolCheck {
+
+    private static final int MB = 1024 * 1024;
+
+    private BufferPoolCheck() {
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        boolean failed = false;
+        failed |= !checkReuse();
+        failed |= !checkWaste();
+        failed |= !checkCap();
+        failed |= !checkLeak();
+        failed |= !checkDoubleRecycle();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Loads the same tiled panorama twenty times, as switching back and forth does: a 4096x2048
+     * one in 512 pixel tiles with their mip levels, and a base layer.
+     */
+    private static boolean checkReuse() {
+        final NativeMemoryTracker tracker = new NativeMemoryTracker();
+        final StagingBufferPool pool = new StagingBufferPool(tracker, 64L * MB, null);
+        final List<ByteBuffer> acquired = new ArrayList<ByteBuffer>();
+        for (int load = 0; load < 20; load++) {
+            acquired.add(pool.acquire(1024 * 512 * 4));
+            for (int tile = 0; tile < 32; tile++) {
+                for (int size = 512; size >= 64; size /= 2) {
+                    acquired.add(pool.acquire(size * size * 4));
+                }
+            }
+            for (ByteBuffer buffer : acquired) {
+                pool.recycle(buffer);
+            }
+            acquired.clear();
+        }
+        return report(String.format("reuse: %.1f%% of requests served from the pool", 100 * pool.getReuseRate()),
+                pool.getReuseRate() >= 0.95);
+    }
+
+    /**
+     * Requests random sizes between 64 KB and 32 MB, the bytes handed out beyond them are waste.
+     */
+    private static boolean checkWaste() {
+        final NativeMemoryTracker tracker = new NativeMemoryTracker();
+        final StagingBufferPool pool = new StagingBufferPool(tracker, 256L * MB, null);
+        final Random random = new Random(42);
+        final List<ByteBuffer> acquired = new ArrayList<ByteBuffer>();
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 8; i++) {
+                acquired.add(pool.acquire(SizeClassPool.MIN_CLASS_BYTES + random.nextInt(32 * MB)));
+            }
+            for (ByteBuffer buffer : acquired) {
+                pool.recycle(buffer);
+            }
+            acquired.clear();
+        }
+        return report(String.format("waste: %.1f%% of handed out bytes unused, %.1f%% reused",
+                100 * pool.getWasteRatio(), 100 * pool.getReuseRate()), pool.getWasteRatio() <= 0.25);
+    }
+
+    /**
+     * Recycles more than the cap holds, then trims.
+     */
+    private static boolean checkCap() {
+        final NativeMemoryTracker tracker = new NativeMemoryTracker();
+        final StagingBufferPool pool = new StagingBufferPool(tracker, 8L * MB, null);
+        final List<ByteBuffer> acquired = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 16; i++) {
+            acquired.add(pool.acquire(MB));
+        }
+        for (ByteBuffer buffer : acquired) {
+            pool.recycle(buffer);
+        }
+        final long capped = pool.getFreeBytes();
+        final boolean cappedOk = capped == 8L * MB && pool.getDroppedCount() == 8
+                && tracker.getLiveBytes(NativeMemoryTracker.Owner.STAGING) == capped;
+        pool.trimToSize(2L * MB);
+        final long trimmed = pool.getFreeBytes();
+        pool.clear();
+        final long cleared = tracker.getLiveBytes(NativeMemoryTracker.Owner.STAGING);
+        return report("cap: " + capped / MB + " MB idle after recycling 16 MB into 8, " + trimmed / MB
+                        + " MB after trimming to 2, " + cleared + " bytes live after clearing",
+                cappedOk && trimmed == 2L * MB && cleared == 0);
+    }
+
+    /**
+     * Drops an acquired buffer, the pool hears of it once the garbage collector has taken it.
+     */
+    private static boolean checkLeak() throws InterruptedException {
+        final NativeMemoryTracker tracker = new NativeMemoryTracker();
+        final Throwable[] leakedAt = new Throwable[1];
+        final StagingBufferPool pool = new StagingBufferPool(tracker, 8L * MB, new SizeClassPool.LeakListener() {
+            @Override
+            public void onLeak(final int bytes, final Throwable acquiredAt) {
+                leakedAt[0] = acquiredAt;
+            }
+        });
+        pool.recycle(pool.acquire(MB));
+        pool.acquire(MB);
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return report("leak: " + pool.getLeakCount() + " reported, acquired at "
+                        + (leakedAt[0] != null ? leakedAt[0].getStackTrace()[3] : null),
+                pool.getLeakCount() == 1 && pool.getOutstandingCount() == 0
+                        && tracker.getLiveBytes(NativeMemoryTracker.Owner.STAGING) == pool.getFreeBytes());
+    }
+
+    private static boolean checkDoubleRecycle() {
+        final StagingBufferPool pool = new StagingBufferPool(new NativeMemoryTracker(), 8L * MB,
+                new SizeClassPool.LeakListener() {
+                    @Override
+                    public void onLeak(final int bytes, final Throwable acquiredAt) {
+                    }
+                });
+        final ByteBuffer buffer = pool.acquire(MB);
+        pool.recycle(buffer);
+        try {
+            pool.recycle(buffer);
+        } catch (IllegalStateException e) {
+            return report("double recycle: threw \"" + e.getMessage() + "\"", true);
+        }
+        return report("double recycle: did not throw", false);
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
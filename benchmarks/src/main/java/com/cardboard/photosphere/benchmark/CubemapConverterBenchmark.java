@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.CubemapConverter;
+import com.cardboard.photosphere.ForkJoinRange;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Conversion throughput of {@link CubemapConverter} against the number of threads. One
+ *         operation is one face pixel written, so the score in operations per microsecond is
+ *         megapixels per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CubemapConverterBenchmark {
+
+    /**
+     * A 2:1 panorama and the face size the app picks for it.
+     */
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 1024;
+    private static final int FACE_SIZE = 512;
+    private static final int FACE_PIXELS = CubemapConverter.FACES * FACE_SIZE * FACE_SIZE;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"BILINEAR", "BICUBIC"})
+    public CubemapConverter.Filter filter;
+
+    private ForkJoinPool mPool;
+    private CubemapConverter mConverter;
+    private ByteBuffer mSource;
+    private final ByteBuffer[] mFaces = new ByteBuffer[CubemapConverter.FACES];
+
+    @Setup
+    public void setUp() {
+        mPool = new ForkJoinPool(threads);
+        mConverter = new CubemapConverter(filter, new ForkJoinRange(mPool));
+
+        // Noise, so no sampling pattern is cheaper than on a photo.
+        final byte[] pixels = new byte[WIDTH * HEIGHT * CubemapConverter.BYTES_PER_PIXEL];
+        new Random(42).nextBytes(pixels);
+        mSource = ByteBuffer.allocateDirect(pixels.length);
+        mSource.put(pixels).position(0);
+        for (int face = 0; face < mFaces.length; face++) {
+            mFaces[face] = ByteBuffer.allocateDirect(FACE_SIZE * FACE_SIZE * CubemapConverter.BYTES_PER_PIXEL);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FACE_PIXELS)
+    public ByteBuffer[] convert() {
+        mConverter.convert(mSource, WIDTH, HEIGHT, mFaces, FACE_SIZE);
+        return mFaces;
+    }
+}
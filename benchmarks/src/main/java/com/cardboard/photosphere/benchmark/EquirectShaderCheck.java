@@ -0,0 +1,435 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.EquirectMath;
+import com.cardboard.photosphere.SphereMesh;
+import com.cardboard.photosphere.TileGrid;
+
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks {@link EquirectMath} against a line by line mirror of
+ *         {@code _fragment_shader_equirect.glsl} in float precision. Both have to agree on the
+ *         texture coordinate of directions on either side of the seam, on it and on the
+ *         opposite meridian, at and around both poles, including directions a little over unit
+ *         length, and of random directions; and on where rays from eyes off the centre leave the
+ *         sphere. Where the shader shifts u to stay continuous across the seam, the shifted u has
+ *         to wrap to the same texel, and u has to be continuous across every quad of pixels, on
+ *         the opposite meridian too. Both also have to match what the sphere samples at its
+ *         vertices, whole at every depth and tiled.
+ *         <p/>
+ *         Tolerances are an eighth of a texel of an 8192x4096 panorama.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: equirectShaderCheck
+ */
+public final class EquirectShaderCheck {
+
+    private static final double U_TOLERANCE = 1.0 / 8192 / 8;
+    private static final double V_TOLERANCE = 1.0 / 4096 / 8;
+
+    /**
+     * Radius of the sphere, with the proxy cube inscribed in it, and the eye offsets of
+     * {@link com.cardboard.photosphere.EyeMatrices}' callers, well inside it.
+     */
+    private static final float RADIUS = 50f;
+    private static final float HALF_SIZE = (float) (RADIUS / Math.sqrt(3));
+    private static final float[][] EYES = {
+            {0, 0, 0}, {0.032f, 0, 0}, {-0.032f, 0.08f, 0}, {0.032f, 0.08f, -0.1f}, {1.5f, -2f, 3f}
+    };
+
+    private static final int RANDOM_DIRECTIONS = 200000;
+
+    private static final TileGrid[] GRIDS = {
+            new TileGrid(8192, 4096, 2048),
+            new TileGrid(5000, 2500, 2048),
+            new TileGrid(1030, 515, 256)
+    };
+
+    /**
+     * Offsets of the neighbouring pixels of a quad, in radians of azimuth and polar angle.
+     */
+    private static final double[] PIXEL_ANGLES = {1e-2, 1e-3, 1e-4, 1e-5};
+
+    /**
+     * The shader's PI, as the literal rounds in float.
+     */
+    private static final float PI = 3.14159265358979f;
+
+    private EquirectShaderCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkSeam();
+        failed |= !checkPoles();
+        failed |= !checkRandom();
+        failed |= !checkExit();
+        failed |= !checkSeamDerivatives();
+        failed |= !checkSphereMesh();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Directions towards +x, a little either side of the seam, exactly on it with both signs of
+     * zero, and on the opposite meridian at u 0.5.
+     */
+    private static boolean checkSeam() {
+        final double[] azimuths = {0, 1e-9, -1e-9, 1e-6, -1e-6, 1e-4, -1e-4, 1e-2, -1e-2};
+        final double[] polars = {0.05, Math.PI / 4, Math.PI / 2, 3 * Math.PI / 4, Math.PI - 0.05};
+        final float[] shader = new float[2];
+        final float[] java = new float[2];
+        double worst = 0;
+        boolean sides = true;
+        for (final double polar : polars) {
+            for (final double azimuth : azimuths) {
+                final float x = (float) (Math.sin(polar) * Math.cos(azimuth));
+                final float y = (float) Math.cos(polar);
+                final float z = (float) (Math.sin(polar) * Math.sin(azimuth));
+                shaderUv(x, y, z, shader);
+                EquirectMath.directionToUv(x, y, z, java);
+                worst = Math.max(worst, distance(shader, java));
+                sides &= inRange(shader) && inRange(java) && side(shader[0]) == side(java[0])
+                        && (azimuth == 0 || side(java[0]) == (azimuth > 0));
+            }
+        }
+
+        // Exactly on the seam and on the opposite meridian, with either zero.
+        final float[][] exact = {{1, 0, 0, 0}, {1, -0f, 0, 0}, {-1, 0, 0, 0.5f}, {-1, -0f, 0, 0.5f}};
+        for (final float[] direction : exact) {
+            shaderUv(direction[0], 0, direction[1], shader);
+            EquirectMath.directionToUv(direction[0], 0, direction[1], java);
+            sides &= shader[0] == direction[3] && java[0] == direction[3] && shader[1] == 0.5f && java[1] == 0.5f;
+        }
+        return report("seam and opposite meridian within " + worst + ", u on the side of its azimuth",
+                worst <= U_TOLERANCE && sides);
+    }
+
+    /**
+     * At the poles only v is defined, GLSL leaves atan(0, 0) undefined. Around them u has to
+     * follow the azimuth however close the direction gets, and directions normalized to a
+     * little over 1 must not give NaN.
+     */
+    private static boolean checkPoles() {
+        final float[] shader = new float[2];
+        final float[] java = new float[2];
+        boolean passed = true;
+
+        final float[][] poles = {{1, 0}, {-1, 1}, {Math.nextUp(1f), 0}, {-Math.nextUp(1f), 1}, {1.0001f, 0}};
+        for (final float[] pole : poles) {
+            shaderUv(0, pole[0], 0, shader);
+            EquirectMath.directionToUv(0, pole[0], 0, java);
+            passed &= report("pole at y " + pole[0] + ": v " + shader[1] + ", EquirectMath " + java[1]
+                    + ", expected " + pole[1], shader[1] == pole[1] && java[1] == pole[1]
+                    && !Float.isNaN(shader[0]) && !Float.isNaN(java[0]));
+        }
+
+        double worstU = 0;
+        double worstV = 0;
+        for (final double polar : new double[]{1e-2, 1e-3, 1e-4, 1e-5}) {
+            for (int step = 0; step < 64; step++) {
+                final double azimuth = 2 * Math.PI * step / 64;
+                for (final double angle : new double[]{polar, Math.PI - polar}) {
+                    final float x = (float) (Math.sin(angle) * Math.cos(azimuth));
+                    final float y = (float) Math.cos(angle);
+                    final float z = (float) (Math.sin(angle) * Math.sin(azimuth));
+                    shaderUv(x, y, z, shader);
+                    EquirectMath.directionToUv(x, y, z, java);
+                    worstU = Math.max(worstU, wrapped(shader[0] - java[0]));
+                    worstV = Math.max(worstV, Math.abs(shader[1] - java[1]));
+                    // The azimuth survives rounding the direction to float this close to the pole.
+                    worstU = Math.max(worstU, wrapped(java[0] - (float) (step / 64.0)));
+                }
+            }
+        }
+        return passed & report("around the poles within " + worstU + " in u and " + worstV + " in v",
+                worstU <= U_TOLERANCE && worstV <= V_TOLERANCE);
+    }
+
+    private static boolean checkRandom() {
+        final Random random = new Random(14);
+        final float[] shader = new float[2];
+        final float[] java = new float[2];
+        double worstU = 0;
+        double worstV = 0;
+        for (int i = 0; i < RANDOM_DIRECTIONS; i++) {
+            final double x = random.nextGaussian();
+            final double y = random.nextGaussian();
+            final double z = random.nextGaussian();
+            final double length = Math.sqrt(x * x + y * y + z * z);
+            final float dx = (float) (x / length);
+            final float dy = (float) (y / length);
+            final float dz = (float) (z / length);
+            shaderUv(dx, dy, dz, shader);
+            EquirectMath.directionToUv(dx, dy, dz, java);
+            worstU = Math.max(worstU, wrapped(shader[0] - java[0]));
+            worstV = Math.max(worstV, Math.abs(shader[1] - java[1]));
+        }
+        return report(RANDOM_DIRECTIONS + " random directions within " + worstU + " in u and " + worstV + " in v",
+                worstU <= U_TOLERANCE && worstV <= V_TOLERANCE);
+    }
+
+    /**
+     * Rays from every eye through points all over the proxy cube, where the shader's v_Position
+     * lands. The shader's whole path, exit point included, against EquirectMath's.
+     */
+    private static boolean checkExit() {
+        final Random random = new Random(41);
+        final float[] shader = new float[2];
+        final float[] java = new float[2];
+        final float[] direction = new float[3];
+        double worst = 0;
+        for (final float[] eye : EYES) {
+            for (int i = 0; i < RANDOM_DIRECTIONS / EYES.length; i++) {
+                final float[] position = cubePoint(random);
+                shaderUv(eye, position, RADIUS, shader);
+                EquirectMath.exitDirection(eye, position[0] - eye[0], position[1] - eye[1], position[2] - eye[2],
+                        RADIUS, direction);
+                EquirectMath.directionToUv(direction[0], direction[1], direction[2], java);
+                worst = Math.max(worst, distance(shader, java));
+            }
+        }
+        return report("rays from " + EYES.length + " eyes through the proxy cube within " + worst,
+                worst <= U_TOLERANCE);
+    }
+
+    /**
+     * Quads of pixels straddling the seam, the opposite meridian and neither, as the shader's
+     * derivatives see them: the right and lower neighbour of each pixel.
+     */
+    private static boolean checkSeamDerivatives() {
+        boolean passed = true;
+        for (final double pixel : PIXEL_ANGLES) {
+            passed &= checkQuads(pixel);
+        }
+        return passed;
+    }
+
+    private static boolean checkQuads(final double pixel) {
+        final float[] uv = new float[2];
+        final float[] java = new float[2];
+        final float[] direction = new float[3];
+        final float[] right = new float[2];
+        final float[] below = new float[2];
+        int seams = 0;
+        String failure = null;
+        for (int step = -4; step < 4 && failure == null; step++) {
+            for (final double meridian : new double[]{0, Math.PI, 1, -2}) {
+                final double azimuth = meridian + (step + 0.5) * pixel / 2;
+                for (final double polar : new double[]{0.3, Math.PI / 2, 2.5}) {
+                    final float[] u = quad(azimuth, polar, pixel, uv, right, below);
+                    direction(azimuth, polar, direction);
+                    EquirectMath.directionToUv(direction[0], direction[1], direction[2], java);
+
+                    // What the shader samples wraps to EquirectMath's texel, shifted wherever u
+                    // jumps within the quad.
+                    final boolean shifted = u[0] != uv[0];
+                    if (wrapped(u[0] - java[0]) > U_TOLERANCE || u[3] > 0 && !shifted) {
+                        failure = "pixel " + pixel + " at azimuth " + azimuth + ": u " + u[0] + " for "
+                                + java[0] + (shifted ? ", shifted" : "");
+                    } else if (u[2] > 2 * pixel / (2 * Math.PI) + U_TOLERANCE) {
+                        failure = "pixel " + pixel + " at azimuth " + azimuth + ": u changes by " + u[2]
+                                + " to the next pixel";
+                    }
+                    seams += u[3] > 0 ? 1 : 0;
+                }
+            }
+        }
+        return report(failure != null ? failure : "pixels of " + pixel + " radians: " + seams
+                + " quads across the seam shifted, every quad continuous", failure == null && seams > 0);
+    }
+
+    /**
+     * @return u the shader samples with, the unshifted u, the u fwidth of the quad after the
+     * choice, and 1 where the unshifted u jumps within the quad.
+     */
+    private static float[] quad(final double azimuth, final double polar, final double pixel, final float[] uv,
+                                final float[] right, final float[] below) {
+        final float[] direction = new float[3];
+        direction(azimuth, polar, direction);
+        shaderUv(direction[0], direction[1], direction[2], uv);
+        direction(azimuth + pixel, polar, direction);
+        shaderUv(direction[0], direction[1], direction[2], right);
+        direction(azimuth, polar + pixel, direction);
+        shaderUv(direction[0], direction[1], direction[2], below);
+
+        final float width = fwidth(uv[0], right[0], below[0]);
+        final float shiftedWidth = fwidth(shift(uv[0]), shift(right[0]), shift(below[0]));
+        final boolean shifted = shiftedWidth < width;
+        return new float[]{shifted ? shift(uv[0]) : uv[0], uv[0], shifted ? shiftedWidth : width,
+                width > 0.5f ? 1 : 0};
+    }
+
+    /**
+     * Every vertex of the sphere off the poles, where its u is arbitrary. The sphere's fragment
+     * shader samples at 1 - s, and a tile's s and t span the tile's part of the panorama.
+     */
+    private static boolean checkSphereMesh() {
+        final double[] worst = new double[1];
+        int vertices = 0;
+        for (int depth = 1; depth <= SphereMesh.MAXIMUM_ALLOWED_DEPTH; depth++) {
+            vertices += checkVertices(new SphereMesh(depth, RADIUS), null, worst);
+        }
+        for (final TileGrid grid : GRIDS) {
+            vertices += checkVertices(new SphereMesh(grid, SphereMesh.MAXIMUM_ALLOWED_DEPTH, RADIUS), grid, worst);
+        }
+        return report(vertices + " triangle corners of spheres at depths 1 to " + SphereMesh.MAXIMUM_ALLOWED_DEPTH
+                + " and " + GRIDS.length + " tiled within " + worst[0], worst[0] <= U_TOLERANCE && vertices > 0);
+    }
+
+    /**
+     * @param grid  Tiles of the mesh, or null for the whole sphere.
+     * @param worst Receives the largest difference so far.
+     * @return Vertices checked.
+     */
+    private static int checkVertices(final SphereMesh mesh, final TileGrid grid, final double[] worst) {
+        final float[] vertices = mesh.getVertices();
+        final short[] indices = mesh.getIndices();
+        final float[] shader = new float[2];
+        final float[] java = new float[2];
+        final float[] sampled = new float[2];
+        int checked = 0;
+        for (int tile = 0; tile < mesh.getTileCount(); tile++) {
+            final int column = grid == null ? 0 : tile % grid.getColumns();
+            final int row = grid == null ? 0 : tile / grid.getColumns();
+            final float u0 = grid == null ? 0 : grid.getU0(column);
+            final float u1 = grid == null ? 1 : grid.getU1(column);
+            final float v0 = grid == null ? 0 : grid.getV0(row);
+            final float v1 = grid == null ? 1 : grid.getV1(row);
+            final int end = mesh.getTileIndexStart(tile) + mesh.getTileIndexCount(tile);
+            for (int index = mesh.getTileIndexStart(tile); index < end; index++) {
+                final int i = (indices[index] & 0xffff) * SphereMesh.NUM_FLOATS_PER_VERTEX;
+                sampled[0] = u0 + (1 - vertices[i + SphereMesh.TEXTURE_OFFSET]) * (u1 - u0);
+                sampled[1] = v0 + vertices[i + SphereMesh.TEXTURE_OFFSET + 1] * (v1 - v0);
+                if (sampled[1] == 0 || sampled[1] == 1) {
+                    continue;
+                }
+                final float x = vertices[i] / RADIUS;
+                final float y = vertices[i + 1] / RADIUS;
+                final float z = vertices[i + 2] / RADIUS;
+                shaderUv(x, y, z, shader);
+                EquirectMath.directionToUv(x, y, z, java);
+                worst[0] = Math.max(worst[0], Math.max(distance(shader, sampled), distance(java, sampled)));
+                checked++;
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * The fragment shader, from v_Position, in float as the GPU computes it.
+     */
+    private static void shaderUv(final float[] eye, final float[] position, final float radius, final float[] uv) {
+        // vec3 d = normalize(v_Position - u_EyePosition);
+        float dx = position[0] - eye[0];
+        float dy = position[1] - eye[1];
+        float dz = position[2] - eye[2];
+        final float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        dx /= length;
+        dy /= length;
+        dz /= length;
+        // float b = dot(u_EyePosition, d);
+        final float b = eye[0] * dx + eye[1] * dy + eye[2] * dz;
+        // float c = dot(u_EyePosition, u_EyePosition) - u_Radius * u_Radius;
+        final float c = eye[0] * eye[0] + eye[1] * eye[1] + eye[2] * eye[2] - radius * radius;
+        // vec3 p = (u_EyePosition + (-b + sqrt(b * b - c)) * d) / u_Radius;
+        final float t = -b + (float) Math.sqrt(b * b - c);
+        shaderUv((eye[0] + t * dx) / radius, (eye[1] + t * dy) / radius, (eye[2] + t * dz) / radius, uv);
+    }
+
+    /**
+     * The fragment shader's texture coordinate of p, before the seam shift.
+     */
+    private static void shaderUv(final float x, final float y, final float z, final float[] uv) {
+        // float u = fract(atan(p.z, p.x) / (2.0 * PI));
+        uv[0] = fract((float) Math.atan2(z, x) / (2.0f * PI));
+        // float v = acos(clamp(p.y, -1.0, 1.0)) / PI;
+        uv[1] = (float) Math.acos(Math.max(-1f, Math.min(1f, y))) / PI;
+    }
+
+    /**
+     * float shifted = fract(u + 0.5) - 0.5;
+     */
+    private static float shift(final float u) {
+        return fract(u + 0.5f) - 0.5f;
+    }
+
+    private static float fract(final float x) {
+        return x - (float) Math.floor(x);
+    }
+
+    /**
+     * fwidth of a pixel, from its right and lower neighbours.
+     */
+    private static float fwidth(final float value, final float right, final float below) {
+        return Math.abs(right - value) + Math.abs(below - value);
+    }
+
+    private static void direction(final double azimuth, final double polar, final float[] direction) {
+        direction[0] = (float) (Math.sin(polar) * Math.cos(azimuth));
+        direction[1] = (float) Math.cos(polar);
+        direction[2] = (float) (Math.sin(polar) * Math.sin(azimuth));
+    }
+
+    /**
+     * A random point on a random face of the proxy cube.
+     */
+    private static float[] cubePoint(final Random random) {
+        final float[] point = new float[3];
+        final int face = random.nextInt(3);
+        for (int axis = 0; axis < 3; axis++) {
+            point[axis] = axis == face ? (random.nextBoolean() ? HALF_SIZE : -HALF_SIZE)
+                    : (2 * random.nextFloat() - 1) * HALF_SIZE;
+        }
+        return point;
+    }
+
+    /**
+     * @return True if u is on the + z side of the seam.
+     */
+    private static boolean side(final float u) {
+        return u < 0.5f;
+    }
+
+    private static boolean inRange(final float[] uv) {
+        return uv[0] >= 0 && uv[0] <= 1 && uv[1] >= 0 && uv[1] <= 1;
+    }
+
+    /**
+     * Largest difference in u, where u 0 and 1 are the same, or v.
+     */
+    private static double distance(final float[] uv, final float[] other) {
+        return Math.max(wrapped(uv[0] - other[0]), Math.abs(uv[1] - other[1]));
+    }
+
+    private static double wrapped(final double difference) {
+        final double d = Math.abs(difference) % 1;
+        return Math.min(d, 1 - d);
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.GLCalls;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A {@link GLCalls} without a GL. Counts every call by kind and logs the arguments that
+ *         matter, together with the buffer bound at the time, so the geometry path can be
+ *         checked call by call on the JVM.
+ *         <p/>
+ *         Recording never allocates: the log is a fixed array, and calls past its end are only
+ *         counted.
+ */
+final class FakeGL implements GLCalls {
+
+    static final int USE_PROGRAM = 0;
+    static final int DELETE_PROGRAM = 1;
+    static final int ACTIVE_TEXTURE = 2;
+    static final int BIND_TEXTURE = 3;
+    static final int GEN_BUFFERS = 4;
+    static final int BIND_BUFFER = 5;
+    /**
+     * Args: target, size in bytes, buffer bound to the target, data position.
+     */
+    static final int BUFFER_DATA = 6;
+    static final int DELETE_BUFFERS = 7;
+    static final int ENABLE = 8;
+    static final int DISABLE = 9;
+    static final int CULL_FACE = 10;
+    static final int FRONT_FACE = 11;
+    static final int ENABLE_ATTRIB = 12;
+    static final int DISABLE_ATTRIB = 13;
+    /**
+     * Args: index, size, stride, byte offset or client buffer position, bound GL_ARRAY_BUFFER.
+     */
+    static final int ATTRIB_POINTER = 14;
+    static final int ATTRIB_POINTER_CLIENT = 15;
+    /**
+     * Args: mode, count, byte offset or client buffer position, bound GL_ELEMENT_ARRAY_BUFFER,
+     * instances.
+     */
+    static final int DRAW_ELEMENTS = 16;
+    static final int DRAW_ELEMENTS_CLIENT = 17;
+    static final int DRAW_INSTANCED = 18;
+    static final int DRAW_INSTANCED_CLIENT = 19;
+    static final int UNIFORM_1I = 20;
+    static final int UNIFORM_4F = 21;
+    static final int UNIFORM_MATRIX = 22;
+
+    private static final int CALL_KINDS = 23;
+
+    private static final int LOG_SIZE = 4096;
+    private static final int ARGS = 5;
+
+    private final int[] mCounts = new int[CALL_KINDS];
+    private final int[] mLog = new int[LOG_SIZE * (1 + ARGS)];
+    private int mCallCount;
+
+    private int mNextBuffer = 1;
+    private boolean mBuffersAvailable = true;
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+
+    /**
+     * @param available false to make glGenBuffers hand out 0, as on a context without buffer
+     *                  objects.
+     */
+    void setBuffersAvailable(final boolean available) {
+        mBuffersAvailable = available;
+    }
+
+    /**
+     * Forgets the calls so far. Bindings and buffer handles are kept.
+     */
+    void clear() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mCallCount = 0;
+    }
+
+    int getCallCount() {
+        return mCallCount;
+    }
+
+    int getCount(final int kind) {
+        return mCounts[kind];
+    }
+
+    /**
+     * @return Calls in the log, at most its size.
+     */
+    int getLoggedCount() {
+        return Math.min(mCallCount, LOG_SIZE);
+    }
+
+    int getKind(final int call) {
+        return mLog[call * (1 + ARGS)];
+    }
+
+    int getArg(final int call, final int arg) {
+        return mLog[call * (1 + ARGS) + 1 + arg];
+    }
+
+    int getArrayBuffer() {
+        return mArrayBuffer;
+    }
+
+    int getElementArrayBuffer() {
+        return mElementArrayBuffer;
+    }
+
+    private void record(final int kind, final int a0, final int a1, final int a2, final int a3, final int a4) {
+        if (mCallCount < LOG_SIZE) {
+            final int i = mCallCount * (1 + ARGS);
+            mLog[i] = kind;
+            mLog[i + 1] = a0;
+            mLog[i + 2] = a1;
+            mLog[i + 3] = a2;
+            mLog[i + 4] = a3;
+            mLog[i + 5] = a4;
+        }
+        mCounts[kind]++;
+        mCallCount++;
+    }
+
+    private int boundTo(final int target) {
+        return target == GL_ARRAY_BUFFER ? mArrayBuffer : target == GL_ELEMENT_ARRAY_BUFFER ? mElementArrayBuffer : 0;
+    }
+
+    @Override
+    public void glUseProgram(final int program) {
+        record(USE_PROGRAM, program, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glDeleteProgram(final int program) {
+        record(DELETE_PROGRAM, program, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glActiveTexture(final int texture) {
+        record(ACTIVE_TEXTURE, texture, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glBindTexture(final int target, final int texture) {
+        record(BIND_TEXTURE, target, texture, 0, 0, 0);
+    }
+
+    @Override
+    public void glGenBuffers(final int n, final int[] buffers, final int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = mBuffersAvailable ? mNextBuffer++ : 0;
+        }
+        record(GEN_BUFFERS, n, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glBindBuffer(final int target, final int buffer) {
+        if (target == GL_ARRAY_BUFFER) {
+            mArrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            mElementArrayBuffer = buffer;
+        }
+        record(BIND_BUFFER, target, buffer, 0, 0, 0);
+    }
+
+    @Override
+    public void glBufferData(final int target, final int size, final Buffer data, final int usage) {
+        record(BUFFER_DATA, target, size, boundTo(target), data.position(), 0);
+    }
+
+    @Override
+    public void glDeleteBuffers(final int n, final int[] buffers, final int offset) {
+        for (int i = 0; i < n; i++) {
+            final int buffer = buffers[offset + i];
+            if (buffer != 0 && (buffer == mArrayBuffer || buffer == mElementArrayBuffer)) {
+                throw new IllegalStateException("Buffer " + buffer + " deleted while bound");
+            }
+        }
+        record(DELETE_BUFFERS, n, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glEnable(final int capability) {
+        record(ENABLE, capability, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glDisable(final int capability) {
+        record(DISABLE, capability, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glCullFace(final int mode) {
+        record(CULL_FACE, mode, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glFrontFace(final int mode) {
+        record(FRONT_FACE, mode, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(final int index) {
+        record(ENABLE_ATTRIB, index, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(final int index) {
+        record(DISABLE_ATTRIB, index, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glVertexAttribPointer(final int index, final int size, final int type, final boolean normalized,
+                                      final int stride, final int offset) {
+        record(ATTRIB_POINTER, index, size, stride, offset, mArrayBuffer);
+    }
+
+    @Override
+    public void glVertexAttribPointer(final int index, final int size, final int type, final boolean normalized,
+                                      final int stride, final FloatBuffer data) {
+        record(ATTRIB_POINTER_CLIENT, index, size, stride, data.position(), mArrayBuffer);
+    }
+
+    @Override
+    public void glDrawElements(final int mode, final int count, final int type, final int offset) {
+        record(DRAW_ELEMENTS, mode, count, offset, mElementArrayBuffer, 1);
+    }
+
+    @Override
+    public void glDrawElements(final int mode, final int count, final int type, final Buffer indices) {
+        record(DRAW_ELEMENTS_CLIENT, mode, count, indices.position(), mElementArrayBuffer, 1);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(final int mode, final int count, final int type, final int offset,
+                                        final int instances) {
+        record(DRAW_INSTANCED, mode, count, offset, mElementArrayBuffer, instances);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(final int mode, final int count, final int type, final Buffer indices,
+                                        final int instances) {
+        record(DRAW_INSTANCED_CLIENT, mode, count, indices.position(), mElementArrayBuffer, instances);
+    }
+
+    @Override
+    public void glUniform1i(final int location, final int x) {
+        record(UNIFORM_1I, location, x, 0, 0, 0);
+    }
+
+    @Override
+    public void glUniform4f(final int location, final float x, final float y, final float z, final float w) {
+        record(UNIFORM_4F, location, 0, 0, 0, 0);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(final int location, final int count, final boolean transpose,
+                                   final float[] value, final int offset) {
+        record(UNIFORM_MATRIX, location, count, 0, 0, 0);
+    }
+}
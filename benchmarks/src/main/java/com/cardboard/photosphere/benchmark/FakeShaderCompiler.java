@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.ShaderProgram;
+import com.cardboard.photosphere.ShaderProgramCache;
+
+import java.util.Arrays;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A {@link ShaderProgramCache.Compiler} without a GL, linking programs by numbering them
+ *         with the sphere's uniforms at their index, so a SphereDrawer can be given programs on
+ *         the JVM.
+ */
+final class FakeShaderCompiler implements ShaderProgramCache.Compiler {
+
+    static final String[] UNIFORMS = {"u_MVPMatrix", "u_TexTransform", "u_Texture"};
+    static final String[] ATTRIBUTES = {"a_Position", "a_TexCoordinate"};
+
+    private int mNextProgram = 1;
+
+    /**
+     * @return A cache linking with a new fake compiler, persisting nothing.
+     */
+    static ShaderProgramCache newCache() {
+        return new ShaderProgramCache(new FakeShaderCompiler(), null);
+    }
+
+    /**
+     * @return The program of that name in the cache, with the sphere's inputs.
+     */
+    static ShaderProgram link(final ShaderProgramCache cache, final String name) {
+        return cache.getProgram(new ShaderProgramCache.Key("vertex " + name, "fragment " + name, ATTRIBUTES),
+                UNIFORMS);
+    }
+
+    @Override
+    public int compile(final String vertexShader, final String fragmentShader, final String[] attributes) {
+        return mNextProgram++;
+    }
+
+    @Override
+    public ShaderProgramCache.Binary getBinary(final int program) {
+        return null;
+    }
+
+    @Override
+    public int loadBinary(final ShaderProgramCache.Binary binary) {
+        return 0;
+    }
+
+    @Override
+    public int getUniformLocation(final int program, final String name) {
+        return Arrays.asList(UNIFORMS).indexOf(name);
+    }
+
+    @Override
+    public void deleteProgram(final int program) {
+    }
+
+    @Override
+    public void finish() {
+    }
+
+    @Override
+    public String getDriver() {
+        return "fake";
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.PixelImage;
+import com.cardboard.photosphere.StagingBufferPool;
+import com.cardboard.photosphere.TextureUploader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         A {@link TextureUploader} without a GL. Hands out increasing texture handles and
+ *         records what is uploaded into each and the texture memory it is charged, so loaders and
+ *         caches can be driven frame by frame on the JVM.
+ */
+final class FakeTextureUploader implements TextureUploader {
+
+    private int mNextTexture = 1;
+    private int mSliceCount;
+    private int mDeleteCount;
+
+    /**
+     * Rows uploaded into every live texture.
+     */
+    private final Map<Integer, Integer> mRows = new HashMap<Integer, Integer>();
+
+    /**
+     * Texture memory of every live texture, as {@link #getTextureByteCount} and
+     * {@link #getCubeMapByteCount} report it.
+     */
+    private final Map<Integer, Integer> mBytes = new HashMap<Integer, Integer>();
+
+    @Override
+    public PixelImage prepare(final PixelImage image, final StagingBufferPool buffers) {
+        return image;
+    }
+
+    @Override
+    public int createTexture(final PixelImage image, final boolean wrap) {
+        return create(getTextureByteCount(image));
+    }
+
+    @Override
+    public void uploadRows(final int texture, final PixelImage image, final int firstRow, final int rowCount) {
+        check(texture);
+        mRows.put(texture, mRows.get(texture) + rowCount);
+        mSliceCount++;
+    }
+
+    @Override
+    public void finishTexture(final int texture, final PixelImage image) {
+        check(texture);
+    }
+
+    @Override
+    public int getTextureByteCount(final PixelImage image) {
+        return image.getByteCount();
+    }
+
+    @Override
+    public int createCubeMap(final PixelImage face) {
+        return create(getCubeMapByteCount(face));
+    }
+
+    @Override
+    public void uploadFaceRows(final int texture, final int face, final PixelImage image, final int firstRow,
+                               final int rowCount) {
+        uploadRows(texture, image, firstRow, rowCount);
+    }
+
+    @Override
+    public void finishCubeMap(final int texture, final PixelImage face) {
+        check(texture);
+    }
+
+    @Override
+    public int getCubeMapByteCount(final PixelImage face) {
+        return 6 * face.getByteCount();
+    }
+
+    @Override
+    public void deleteTexture(final int texture) {
+        if (texture != 0) {
+            check(texture);
+            mRows.remove(texture);
+            mBytes.remove(texture);
+            mDeleteCount++;
+        }
+    }
+
+    /**
+     * @return Rows uploaded into a live texture.
+     */
+    int getRows(final int texture) {
+        check(texture);
+        return mRows.get(texture);
+    }
+
+    boolean isLive(final int texture) {
+        return mRows.containsKey(texture);
+    }
+
+    int getLiveCount() {
+        return mRows.size();
+    }
+
+    /**
+     * @return Texture memory of all live textures.
+     */
+    long getLiveBytes() {
+        long bytes = 0;
+        for (int textureBytes : mBytes.values()) {
+            bytes += textureBytes;
+        }
+        return bytes;
+    }
+
+    int getSliceCount() {
+        return mSliceCount;
+    }
+
+    int getDeleteCount() {
+        return mDeleteCount;
+    }
+
+    private int create(final int bytes) {
+        final int texture = mNextTexture++;
+        mRows.put(texture, 0);
+        mBytes.put(texture, bytes);
+        return texture;
+    }
+
+    private void check(final int texture) {
+        if (!mRows.containsKey(texture)) {
+            throw new IllegalStateException("Texture " + texture + " is not live");
+        }
+    }
+}
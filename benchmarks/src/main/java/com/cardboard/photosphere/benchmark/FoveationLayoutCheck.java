@@ -0,0 +1,372 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.FoveationLayout;
+
+import java.util.Arrays;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the regions {@link FoveationLayout} splits an eye into: a worked 960x1080 eye,
+ *         then every combination of a few viewport sizes, symmetric and off centre frusta, lens
+ *         angles narrower than, equal to and wider than the frustum, and inner fractions from 0
+ *         to 1. The inner region has to lie inside the viewport and cover the part of the lens
+ *         its fraction spans, rounded outwards by less than a pixel per side, and grow with the
+ *         fraction. The composite rectangles the periphery is scaled up into have to tile the
+ *         rest of the viewport exactly. The periphery has to be the eye scaled and rounded up,
+ *         at least 1 pixel, and the fragment counts have to add up from the regions without
+ *         overflowing, the saving net of the composite.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: foveationLayoutCheck
+ */
+public final class FoveationLayoutCheck {
+
+    private static final int[] SIZES = {1, 2, 3, 7, 640, 959, 960, 1080, 1441};
+
+    /**
+     * Frusta at a near plane of 1, as left, right, bottom and top. A symmetric one of 90 degrees,
+     * the off centre ones Cardboard renders each eye with, and a narrow one.
+     */
+    private static final float[][] FRUSTA = {
+            {-1, 1, -1, 1},
+            {-0.8f, 1.2f, -1.1f, 0.9f},
+            {-1.2f, 0.8f, -0.9f, 1.1f},
+            {-0.3f, 0.3f, -0.2f, 0.2f}
+    };
+
+    /**
+     * Lens half angles in degrees, as left, right, bottom and top.
+     */
+    private static final float[][] LENSES = {
+            {40, 40, 40, 40},
+            {45, 45, 45, 45},
+            {35, 50, 40, 45},
+            {70, 70, 70, 70},
+            {0, 30, 10, 0}
+    };
+
+    private static final float[] FRACTIONS = {0, 0.1f, 0.25f, 1 / 3f, 0.5f, 0.75f, 0.9f, 1};
+
+    /**
+     * Tolerance of the expected pixel edges, for the projection holding the frustum in float.
+     */
+    private static final double EPSILON = 1e-3;
+
+    private FoveationLayoutCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkWorked();
+        failed |= !checkOffCentre();
+        failed |= !checkInnerSweep();
+        failed |= !checkWholeEye();
+        failed |= !checkPeriphery();
+        failed |= !checkLargeEye();
+        failed |= !checkInvalid();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 960x1080 with a 90 degree vertical field of view and square pixels, so the frustum spans
+     * tangents of 0.889 across and 1 up, and 40 degree lens half angles at half the fraction.
+     * tan(20) = 0.364 lands 283.5 and 676.5 pixels across, 343.5 and 736.5 up. 480x540 of
+     * periphery and 394x394 inner are shaded, the other 881564 pixels composited, 259200 more
+     * than drawing the eye whole.
+     */
+    private static boolean checkWorked() {
+        final FoveationLayout layout = new FoveationLayout(0.5f, 0.5f);
+        final float aspect = 960f / 1080;
+        layout.update(960, 1080, frustum(-aspect, aspect, -1, 1), 40, 40, 40, 40);
+        final int[] expected = {283, 343, 394, 394};
+        return report("960x1080 eye: inner " + Arrays.toString(layout.getInnerRect()) + ", periphery "
+                        + layout.getPeripheryWidth() + "x" + layout.getPeripheryHeight() + ", shaded "
+                        + layout.getShadedFragments() + " of " + layout.getFullFragments() + ", expected "
+                        + Arrays.toString(expected) + ", 480x540, 414436 of 1036800, " + layout.getCompositeFragments()
+                        + " composited, saved " + layout.getSavedFragments() + ", expected 881564, -259200",
+                Arrays.equals(layout.getInnerRect(), expected) && layout.getPeripheryWidth() == 480
+                        && layout.getPeripheryHeight() == 540 && layout.getFullFragments() == 1036800
+                        && layout.getShadedFragments() == 414436 && layout.getCompositeFragments() == 881564
+                        && layout.getSavedFragments() == 1036800 - 414436 - 881564);
+    }
+
+    /**
+     * A frustum wider to the right and lower down puts the lens centre left of and above the
+     * viewport's centre, and the inner region with it.
+     */
+    private static boolean checkOffCentre() {
+        final FoveationLayout layout = new FoveationLayout(0.5f, 0.5f);
+        layout.update(1000, 1000, frustum(FRUSTA[1]), 40, 40, 40, 40);
+        final int[] inner = layout.getInnerRect();
+        // The lens centre is 400 pixels across and 550 up, tan(20) = 0.364 is 182 pixels.
+        final int[] expected = {218, 368, 364, 364};
+        return report("off centre frustum: inner " + Arrays.toString(inner) + ", expected "
+                + Arrays.toString(expected), Arrays.equals(inner, expected));
+    }
+
+    /**
+     * Every size, frustum, lens and fraction, against the edges worked out here.
+     */
+    private static boolean checkInnerSweep() {
+        int layouts = 0;
+        String failure = null;
+        for (final float[] frustum : FRUSTA) {
+            final float[] projection = frustum(frustum);
+            for (final float[] lens : LENSES) {
+                for (final int width : SIZES) {
+                    for (int h = 0; h < SIZES.length && failure == null; h += 2) {
+                        final int height = SIZES[h];
+                        int[] previous = null;
+                        for (final float fraction : FRACTIONS) {
+                            final FoveationLayout layout = new FoveationLayout(fraction, 0.5f);
+                            layout.update(width, height, projection, lens[0], lens[1], lens[2], lens[3]);
+                            final int[] inner = layout.getInnerRect().clone();
+                            final String where = width + "x" + height + " frustum " + Arrays.toString(frustum)
+                                    + " lens " + Arrays.toString(lens) + " fraction " + fraction + ": inner "
+                                    + Arrays.toString(inner);
+                            failure = checkInner(inner, width, height, frustum, lens, fraction, where);
+                            if (failure == null) {
+                                failure = checkComposite(layout, width, height, where);
+                            }
+                            if (failure == null && previous != null && !contains(inner, previous)) {
+                                failure = where + " lost " + Arrays.toString(previous) + " of a smaller fraction";
+                            }
+                            if (failure != null) {
+                                break;
+                            }
+                            previous = inner;
+                            layouts++;
+                        }
+                    }
+                }
+            }
+        }
+        return report(failure != null ? failure : layouts + " layouts cover their part of the lens, inside the "
+                + "viewport, rounded out by less than a pixel", failure == null);
+    }
+
+    private static String checkInner(final int[] inner, final int width, final int height, final float[] frustum,
+                                     final float[] lens, final float fraction, final String where) {
+        if (inner[0] < 0 || inner[1] < 0 || inner[2] < 0 || inner[3] < 0
+                || inner[0] + inner[2] > width || inner[1] + inner[3] > height) {
+            return where + " is outside the viewport";
+        }
+        final double left = edge(-tangent(lens[0], fraction), frustum[0], frustum[1], width);
+        final double right = edge(tangent(lens[1], fraction), frustum[0], frustum[1], width);
+        final double bottom = edge(-tangent(lens[2], fraction), frustum[2], frustum[3], height);
+        final double top = edge(tangent(lens[3], fraction), frustum[2], frustum[3], height);
+        if (!(covers(inner[0], inner[0] + inner[2], left, right)
+                && covers(inner[1], inner[1] + inner[3], bottom, top))) {
+            return where + ", expected it around " + left + " to " + right + " across, " + bottom + " to " + top
+                    + " up";
+        }
+        return null;
+    }
+
+    /**
+     * The composite rectangles and the inner region tile the viewport: each pixel is in exactly
+     * one of them.
+     */
+    private static String checkComposite(final FoveationLayout layout, final int width, final int height,
+                                         final String where) {
+        final int count = layout.getCompositeRectCount();
+        final int[] rects = Arrays.copyOf(layout.getCompositeRects(), count * 4 + 4);
+        System.arraycopy(layout.getInnerRect(), 0, rects, count * 4, 4);
+        long area = 0;
+        for (int i = 0; i < rects.length; i += 4) {
+            final boolean empty = rects[i + 2] <= 0 || rects[i + 3] <= 0;
+            if (rects[i] < 0 || rects[i + 1] < 0 || rects[i] + rects[i + 2] > width
+                    || rects[i + 1] + rects[i + 3] > height || i < count * 4 && empty) {
+                return where + ", composite " + Arrays.toString(rects) + " is outside the viewport or empty";
+            }
+            for (int j = 0; j < i; j += 4) {
+                if (overlap(rects, i, j)) {
+                    return where + ", composite " + Arrays.toString(rects) + " overlaps";
+                }
+            }
+            area += (long) rects[i + 2] * rects[i + 3];
+        }
+        final long inner = (long) rects[count * 4 + 2] * rects[count * 4 + 3];
+        if (count > 4 || area != (long) width * height || layout.getCompositeFragments() != area - inner) {
+            return where + ", composite " + Arrays.toString(rects) + " covers " + area + " pixels, "
+                    + layout.getCompositeFragments() + " fragments";
+        }
+        return null;
+    }
+
+    private static boolean overlap(final int[] rects, final int i, final int j) {
+        return rects[i] < rects[j] + rects[j + 2] && rects[j] < rects[i] + rects[i + 2]
+                && rects[i + 1] < rects[j + 1] + rects[j + 3] && rects[j + 1] < rects[i + 1] + rects[i + 3];
+    }
+
+    /**
+     * A lens as wide as the frustum at the whole fraction covers the eye, a wider one is
+     * clipped to it, and a fraction of 0 leaves at most a pixel.
+     */
+    private static boolean checkWholeEye() {
+        boolean passed = true;
+        for (final int width : SIZES) {
+            for (final int height : SIZES) {
+                final FoveationLayout layout = new FoveationLayout(1, 1);
+                layout.update(width, height, frustum(FRUSTA[0]), 45, 45, 45, 45);
+                passed &= Arrays.equals(layout.getInnerRect(), new int[]{0, 0, width, height});
+                layout.update(width, height, frustum(FRUSTA[1]), 80, 80, 80, 80);
+                passed &= Arrays.equals(layout.getInnerRect(), new int[]{0, 0, width, height});
+
+                final FoveationLayout none = new FoveationLayout(0, 1);
+                none.update(width, height, frustum(FRUSTA[1]), 40, 40, 40, 40);
+                passed &= none.getInnerRect()[2] <= 1 && none.getInnerRect()[3] <= 1;
+            }
+        }
+        return report("whole fraction covers the eye, wider lenses are clipped, none leaves at most a pixel",
+                passed);
+    }
+
+    /**
+     * The periphery is the eye scaled and rounded up, never empty, and foveating everything at
+     * full resolution costs a whole eye more than not foveating, with nothing composited.
+     */
+    private static boolean checkPeriphery() {
+        final float[] scales = {0.0001f, 0.25f, 1 / 3f, 0.5f, 0.75f, 1};
+        String failure = null;
+        for (final float scale : scales) {
+            for (final int width : SIZES) {
+                for (final int height : SIZES) {
+                    final FoveationLayout layout = new FoveationLayout(0.5f, scale);
+                    layout.update(width, height, frustum(FRUSTA[1]), 40, 40, 40, 40);
+                    final int[] inner = layout.getInnerRect();
+                    final int peripheryWidth = layout.getPeripheryWidth();
+                    final int peripheryHeight = layout.getPeripheryHeight();
+                    if (!scaled(peripheryWidth, width, scale) || !scaled(peripheryHeight, height, scale)) {
+                        failure = width + "x" + height + " at " + scale + ": periphery " + peripheryWidth + "x"
+                                + peripheryHeight;
+                    } else if (layout.getShadedFragments()
+                            != (long) peripheryWidth * peripheryHeight + (long) inner[2] * inner[3]
+                            || layout.getFullFragments() != (long) width * height
+                            || layout.getCompositeFragments() != (long) width * height - (long) inner[2] * inner[3]
+                            || layout.getSavedFragments() != layout.getFullFragments() - layout.getShadedFragments()
+                            - layout.getCompositeFragments()) {
+                        failure = width + "x" + height + " at " + scale + ": fragments do not add up";
+                    }
+                }
+            }
+        }
+        final FoveationLayout full = new FoveationLayout(1, 1);
+        full.update(960, 1080, frustum(FRUSTA[0]), 45, 45, 45, 45);
+        final boolean passed = report(failure != null ? failure
+                : "periphery rounds up and never empties, fragments add up", failure == null);
+        return passed & report("foveating the whole eye at full resolution saves " + full.getSavedFragments()
+                + " fragments", full.getSavedFragments() == -1036800 && full.getCompositeRectCount() == 0);
+    }
+
+    /**
+     * Fragment counts past the range of an int.
+     */
+    private static boolean checkLargeEye() {
+        final FoveationLayout layout = new FoveationLayout(1, 1);
+        layout.update(50000, 50000, frustum(FRUSTA[0]), 45, 45, 45, 45);
+        return report("50000x50000 eye: " + layout.getFullFragments() + " full, " + layout.getShadedFragments()
+                + " shaded", layout.getFullFragments() == 2500000000L && layout.getShadedFragments() == 5000000000L);
+    }
+
+    private static boolean checkInvalid() {
+        final float[][] invalid = {{-0.1f, 0.5f}, {1.1f, 0.5f}, {0.5f, 0}, {0.5f, -1}, {0.5f, 1.1f}, {Float.NaN, 1}};
+        boolean passed = true;
+        for (final float[] foveation : invalid) {
+            try {
+                new FoveationLayout(foveation[0], foveation[1]);
+                passed = report("accepted " + Arrays.toString(foveation), false);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+        final float[][] valid = {{0, 1}, {1, 1}, {1, Float.MIN_VALUE}};
+        for (final float[] foveation : valid) {
+            try {
+                new FoveationLayout(foveation[0], foveation[1]);
+            } catch (IllegalArgumentException e) {
+                passed = report("refused " + Arrays.toString(foveation), false);
+            }
+        }
+        return report("refuses fractions and scales out of range only", passed);
+    }
+
+    /**
+     * @return The pixel of a tangent, in a viewport spanning the frustum's tangents min to max.
+     */
+    private static double edge(final double tangent, final double min, final double max, final int size) {
+        return Math.max(0, Math.min(size, (tangent - min) / (max - min) * size));
+    }
+
+    private static double tangent(final float lensDegrees, final float fraction) {
+        return Math.tan(Math.toRadians(lensDegrees * fraction));
+    }
+
+    /**
+     * @return True if the pixels start to end cover min to max, by less than a pixel more per
+     * side, or are empty where the lens region is.
+     */
+    private static boolean covers(final int start, final int end, final double min, final double max) {
+        if (max <= min) {
+            return end - start <= 1 && start >= Math.floor(min) - 1 && end <= Math.ceil(min) + 1;
+        }
+        return start <= min + EPSILON && start > min - 1 - EPSILON && end >= max - EPSILON
+                && end < max + 1 + EPSILON;
+    }
+
+    private static boolean contains(final int[] outer, final int[] inner) {
+        return inner[2] == 0 || inner[3] == 0 || outer[0] <= inner[0] && outer[1] <= inner[1]
+                && outer[0] + outer[2] >= inner[0] + inner[2] && outer[1] + outer[3] >= inner[1] + inner[3];
+    }
+
+    private static boolean scaled(final int scaled, final int size, final float scale) {
+        return scaled >= 1 && scaled >= size * scale && scaled < Math.max(1, size * scale + 1);
+    }
+
+    private static float[] frustum(final float[] frustum) {
+        return frustum(frustum[0], frustum[1], frustum[2], frustum[3]);
+    }
+
+    /**
+     * A perspective projection at a near plane of 1, laid out as frustumM lays it out.
+     */
+    private static float[] frustum(final float left, final float right, final float bottom, final float top) {
+        final float near = 1;
+        final float far = 100;
+        final float[] projection = new float[16];
+        projection[0] = 2 * near / (right - left);
+        projection[5] = 2 * near / (top - bottom);
+        projection[8] = (right + left) / (right - left);
+        projection[9] = (top + bottom) / (top - bottom);
+        projection[10] = -(far + near) / (far - near);
+        projection[11] = -1;
+        projection[14] = -2 * far * near / (far - near);
+        return projection;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
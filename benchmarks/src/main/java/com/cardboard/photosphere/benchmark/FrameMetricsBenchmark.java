@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.FrameMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Cost of recording into {@link FrameMetrics} on the hot path, alone and with threads
+ *         recording at the same time. Run with the GC profiler to see that it never allocates,
+ *         gc.alloc.rate.norm must stay at 0 B/op:
+ *         <p/>
+ *         ./gradlew :benchmarks:jmh -Pargs="FrameMetricsBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FrameMetricsBenchmark {
+
+    /**
+     * Refreshes at 60 Hz, so every frame interval recorded below is on time.
+     */
+    private static final long REFRESH_NANOS = 16666667L;
+
+    private final FrameMetrics mMetrics = new FrameMetrics(FrameMetrics.RING_CAPACITY);
+
+    /**
+     * Durations spread over the histogram, from microseconds to tens of milliseconds.
+     */
+    private long mDuration = 1000;
+    private long mFrameStart = 1;
+
+    @Benchmark
+    public FrameMetrics record() {
+        mDuration = mDuration * 3 % 50000000L + 1000;
+        mMetrics.record(FrameMetrics.Stage.DRAW, mDuration);
+        return mMetrics;
+    }
+
+    @Benchmark
+    public long recordSince() {
+        return mMetrics.recordSince(FrameMetrics.Stage.UPLOAD, System.nanoTime());
+    }
+
+    @Benchmark
+    public FrameMetrics frameStarted() {
+        mFrameStart += REFRESH_NANOS;
+        mMetrics.frameStarted(mFrameStart);
+        return mMetrics;
+    }
+
+    /**
+     * The GL and decoding threads record at once, here with more threads than that.
+     */
+    @Benchmark
+    @Threads(4)
+    public FrameMetrics recordContended() {
+        mMetrics.record(FrameMetrics.Stage.DECODE, 5000000L);
+        return mMetrics;
+    }
+}
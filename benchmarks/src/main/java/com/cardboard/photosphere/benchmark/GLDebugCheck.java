@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.GLDebugLayer;
+
+import java.util.ArrayDeque;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Runs frames shaped like the app's through a {@link GLDebugLayer} over a fake GL that
+ *         counts glGetError calls, and checks the count every mode makes per frame and where
+ *         it reports an error that a draw call keeps raising.
+ *         <p/>
+ *         Exits with 1 if any mode calls the GL more often than it should or blames the wrong
+ *         call site, so it can gate a build.
+ *         <p/>
+ *         Usage: glDebugCheck
+ */
+public final class GLDebugCheck {
+
+    private static final int FRAMES = 600;
+    private static final int SAMPLE_INTERVAL = 60;
+
+    /**
+     * Labelled call sites per frame, as MainActivity checks them drawing each eye on its own.
+     */
+    private static final String[] SITES = {"onReadyToDraw", "drawEye", "drawEye", "onDrawFrame"};
+
+    private static final int GL_INVALID_VALUE = 0x0501;
+
+    private GLDebugCheck() {
+    }
+
+    /**
+     * A GL that only records errors and counts how often they are asked for.
+     */
+    private static final class CountingGL implements GLDebugLayer.ErrorSource {
+        final ArrayDeque<Integer> mErrors = new ArrayDeque<Integer>();
+        int mCalls;
+
+        @Override
+        public int glGetError() {
+            mCalls++;
+            return mErrors.isEmpty() ? GLDebugLayer.GL_NO_ERROR : mErrors.poll();
+        }
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkCalls(GLDebugLayer.Mode.OFF, 0, 0);
+        failed |= !checkCalls(GLDebugLayer.Mode.SAMPLED, FRAMES / SAMPLE_INTERVAL, 1);
+        failed |= !checkCalls(GLDebugLayer.Mode.STRICT, FRAMES * SITES.length, SITES.length);
+        failed |= !checkSampledError();
+        failed |= !checkStrictError();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs error free frames and checks the glGetError calls in all and in the worst frame.
+     */
+    private static boolean checkCalls(final GLDebugLayer.Mode mode, final int expectedCalls,
+                                      final int expectedPerFrame) {
+        final CountingGL gl = new CountingGL();
+        final GLDebugLayer layer = new GLDebugLayer(gl, mode, SAMPLE_INTERVAL);
+        int maxPerFrame = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            final int before = gl.mCalls;
+            runFrame(layer, gl, null);
+            maxPerFrame = Math.max(maxPerFrame, gl.mCalls - before);
+        }
+        return report(mode + ": " + gl.mCalls + " glGetError calls in " + FRAMES + " frames, at most "
+                + maxPerFrame + " per frame", gl.mCalls == expectedCalls && maxPerFrame == expectedPerFrame);
+    }
+
+    /**
+     * A draw keeps raising an error from frame 10 on. The sampled check finds it at the end of
+     * a frame, the frame after names the call site.
+     */
+    private static boolean checkSampledError() {
+        final CountingGL gl = new CountingGL();
+        final GLDebugLayer layer = new GLDebugLayer(gl, GLDebugLayer.Mode.SAMPLED, SAMPLE_INTERVAL);
+        int found = -1;
+        int pinpointed = -1;
+        String site = null;
+        for (int frame = 1; frame <= FRAMES && pinpointed < 0; frame++) {
+            final boolean errors = runFrame(layer, gl, frame >= 10 ? "drawEye" : null);
+            if (errors && found < 0) {
+                found = frame;
+            } else if (errors) {
+                pinpointed = frame;
+                site = layer.getLastError();
+            }
+        }
+        return report("SAMPLED: error found in frame " + found + ", located in frame " + pinpointed + " as \""
+                + site + "\"", found == SAMPLE_INTERVAL && pinpointed == SAMPLE_INTERVAL + 1
+                && site != null && site.startsWith("drawEye:"));
+    }
+
+    /**
+     * The first raised error throws at the call site right after it.
+     */
+    private static boolean checkStrictError() {
+        final CountingGL gl = new CountingGL();
+        final GLDebugLayer layer = new GLDebugLayer(gl, GLDebugLayer.Mode.STRICT, SAMPLE_INTERVAL);
+        String message = null;
+        try {
+            runFrame(layer, gl, "drawEye");
+        } catch (RuntimeException e) {
+            message = e.getMessage();
+        }
+        return report("STRICT: threw \"" + message + "\"", message != null && message.startsWith("drawEye:"));
+    }
+
+    /**
+     * @param failingSite Call site whose GL calls raise an error, or null.
+     * @return What {@link GLDebugLayer#endFrame()} returned.
+     */
+    private static boolean runFrame(final GLDebugLayer layer, final CountingGL gl, final String failingSite) {
+        layer.beginFrame();
+        for (String site : SITES) {
+            if (site.equals(failingSite) && gl.mErrors.isEmpty()) {
+                gl.mErrors.add(GL_INVALID_VALUE);
+            }
+            layer.check(site);
+        }
+        return layer.endFrame();
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.BufferObjectGeometryUploader;
+import com.cardboard.photosphere.ClientArrayGeometryUploader;
+import com.cardboard.photosphere.GLCalls;
+import com.cardboard.photosphere.GeometryUploader;
+import com.cardboard.photosphere.RenderState;
+import com.cardboard.photosphere.SphereMesh;
+import com.cardboard.photosphere.TileGrid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Uploads a tiled sphere through both {@link GeometryUploader}s over a {@link FakeGL}
+ *         and draws it tile by tile for {@link #FRAMES} frames, the way Sphere does. Checks that
+ *         buffer objects are created and filled once, that every attribute and draw points at the
+ *         right buffer with the right byte offset, that the client array fallback draws from the
+ *         right buffer positions with no buffer bound, and that release unbinds before deleting.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: geometryUploaderCheck
+ */
+public final class GeometryUploaderCheck {
+
+    private static final int FRAMES = 100;
+    private static final int DEPTH = 4;
+    private static final float RADIUS = 5f;
+
+    private static final int POSITION_HANDLE = 0;
+    private static final int TEXTURE_HANDLE = 1;
+
+    private GeometryUploaderCheck() {
+    }
+
+    public static void main(final String[] args) {
+        final SphereMesh mesh = new SphereMesh(new TileGrid(8192, 4096, 2048), DEPTH, RADIUS);
+        boolean failed = false;
+        failed |= !checkBufferObjects(mesh);
+        failed |= !checkNoBufferObjects(mesh);
+        failed |= !checkClientArrays(mesh);
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Uploads once, then draws every frame from the two buffers without touching their data.
+     */
+    private static boolean checkBufferObjects(final SphereMesh mesh) {
+        final FakeGL gl = new FakeGL();
+        final RenderState renderState = new RenderState(gl);
+        final GeometryUploader uploader = new BufferObjectGeometryUploader(renderState);
+
+        final boolean uploaded = uploader.upload(vertices(mesh), indices(mesh));
+        final int vertexBytes = mesh.getVertexCount() * SphereMesh.NUM_FLOATS_PER_VERTEX * SphereMesh.BYTES_PER_FLOAT;
+        final int indexBytes = mesh.getIndexCount() * SphereMesh.BYTES_PER_SHORT;
+        boolean passed = uploaded && gl.getCount(FakeGL.GEN_BUFFERS) == 1 && gl.getCount(FakeGL.BUFFER_DATA) == 2;
+        int vertexBuffer = 0;
+        int indexBuffer = 0;
+        for (int call = 0; call < gl.getLoggedCount(); call++) {
+            if (gl.getKind(call) == FakeGL.BUFFER_DATA) {
+                passed &= gl.getArg(call, 2) != 0 && gl.getArg(call, 3) == 0;
+                if (gl.getArg(call, 0) == GLCalls.GL_ARRAY_BUFFER) {
+                    vertexBuffer = gl.getArg(call, 2);
+                    passed &= gl.getArg(call, 1) == vertexBytes;
+                } else {
+                    indexBuffer = gl.getArg(call, 2);
+                    passed &= gl.getArg(call, 0) == GLCalls.GL_ELEMENT_ARRAY_BUFFER && gl.getArg(call, 1) == indexBytes;
+                }
+            }
+        }
+        passed &= vertexBuffer != 0 && indexBuffer != 0 && vertexBuffer != indexBuffer;
+        final boolean uploadPassed = passed;
+
+        gl.clear();
+        int badDraws = 0;
+        int drawCalls = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            drawFrame(uploader, mesh);
+            for (int call = 0; call < gl.getLoggedCount(); call++) {
+                final int kind = gl.getKind(call);
+                if (kind == FakeGL.ATTRIB_POINTER) {
+                    final int handle = gl.getArg(call, 0);
+                    final int offset = handle == POSITION_HANDLE ? 0
+                            : SphereMesh.TEXTURE_OFFSET * SphereMesh.BYTES_PER_FLOAT;
+                    if (gl.getArg(call, 2) != SphereMesh.VERTEX_STRIDE || gl.getArg(call, 3) != offset
+                            || gl.getArg(call, 4) != vertexBuffer) {
+                        badDraws++;
+                    }
+                } else if (kind == FakeGL.DRAW_ELEMENTS) {
+                    final int tile = drawCalls % mesh.getTileCount();
+                    if (gl.getArg(call, 1) != mesh.getTileIndexCount(tile)
+                            || gl.getArg(call, 2) != mesh.getTileIndexStart(tile) * SphereMesh.BYTES_PER_SHORT
+                            || gl.getArg(call, 3) != indexBuffer) {
+                        badDraws++;
+                    }
+                    drawCalls++;
+                } else if (kind != FakeGL.BIND_BUFFER) {
+                    badDraws++;
+                }
+            }
+            // The upload left both buffers bound, so no frame binds them again.
+            passed &= gl.getCount(FakeGL.BIND_BUFFER) == 0;
+            gl.clear();
+        }
+        passed &= badDraws == 0 && drawCalls == FRAMES * mesh.getTileCount();
+
+        uploader.release();
+        passed &= gl.getCount(FakeGL.DELETE_BUFFERS) == 1 && gl.getArrayBuffer() == 0
+                && gl.getElementArrayBuffer() == 0;
+
+        return report("buffer objects: upload " + (uploadPassed ? "once, sized right" : "wrong") + ", "
+                + drawCalls + " draws over " + FRAMES + " frames, " + badDraws + " with wrong offsets or buffers",
+                passed);
+    }
+
+    /**
+     * Without buffer objects the upload fails before filling anything, so Sphere can fall back.
+     */
+    private static boolean checkNoBufferObjects(final SphereMesh mesh) {
+        final FakeGL gl = new FakeGL();
+        gl.setBuffersAvailable(false);
+        final GeometryUploader uploader = new BufferObjectGeometryUploader(new RenderState(gl));
+        final boolean uploaded = uploader.upload(vertices(mesh), indices(mesh));
+        return report("no buffer objects: upload " + (uploaded ? "claimed" : "refused") + ", "
+                        + gl.getCount(FakeGL.BUFFER_DATA) + " buffers filled",
+                !uploaded && gl.getCount(FakeGL.BUFFER_DATA) == 0);
+    }
+
+    /**
+     * The fallback unbinds the buffers a previous uploader left bound and draws from client
+     * memory, positioned at the attribute and the tile.
+     */
+    private static boolean checkClientArrays(final SphereMesh mesh) {
+        final FakeGL gl = new FakeGL();
+        final RenderState renderState = new RenderState(gl);
+        final GeometryUploader buffers = new BufferObjectGeometryUploader(renderState);
+        buffers.upload(vertices(mesh), indices(mesh));
+        drawFrame(buffers, mesh);
+
+        final GeometryUploader uploader = new ClientArrayGeometryUploader(renderState);
+        gl.clear();
+        uploader.upload(vertices(mesh), indices(mesh));
+        boolean passed = gl.getCallCount() == 0;
+        int badDraws = 0;
+        drawFrame(uploader, mesh);
+        int drawCalls = 0;
+        for (int call = 0; call < gl.getLoggedCount(); call++) {
+            final int kind = gl.getKind(call);
+            if (kind == FakeGL.ATTRIB_POINTER_CLIENT) {
+                final int offset = gl.getArg(call, 0) == POSITION_HANDLE ? 0 : SphereMesh.TEXTURE_OFFSET;
+                if (gl.getArg(call, 3) != offset || gl.getArg(call, 4) != 0) {
+                    badDraws++;
+                }
+            } else if (kind == FakeGL.DRAW_ELEMENTS_CLIENT) {
+                final int tile = drawCalls++;
+                if (gl.getArg(call, 1) != mesh.getTileIndexCount(tile)
+                        || gl.getArg(call, 2) != mesh.getTileIndexStart(tile) || gl.getArg(call, 3) != 0) {
+                    badDraws++;
+                }
+            } else if (kind != FakeGL.BIND_BUFFER) {
+                badDraws++;
+            }
+        }
+        passed &= badDraws == 0 && drawCalls == mesh.getTileCount();
+        return report("client arrays: " + drawCalls + " draws, " + badDraws + " with wrong positions or buffers",
+                passed);
+    }
+
+    /**
+     * Draws every tile once, as Sphere does.
+     */
+    private static void drawFrame(final GeometryUploader uploader, final SphereMesh mesh) {
+        uploader.bindAttribute(POSITION_HANDLE, SphereMesh.NUM_FLOATS_PER_POSITION, SphereMesh.VERTEX_STRIDE, 0);
+        uploader.bindAttribute(TEXTURE_HANDLE, SphereMesh.NUM_FLOATS_PER_TEXTURE, SphereMesh.VERTEX_STRIDE,
+                SphereMesh.TEXTURE_OFFSET);
+        for (int tile = 0; tile < mesh.getTileCount(); tile++) {
+            uploader.drawElements(GLCalls.GL_TRIANGLES, mesh.getTileIndexStart(tile), mesh.getTileIndexCount(tile));
+        }
+    }
+
+    private static FloatBuffer vertices(final SphereMesh mesh) {
+        final FloatBuffer buffer = ByteBuffer.allocateDirect(mesh.getVertices().length * SphereMesh.BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(mesh.getVertices()).position(0);
+        return buffer;
+    }
+
+    private static ShortBuffer indices(final SphereMesh mesh) {
+        final ShortBuffer buffer = ByteBuffer.allocateDirect(mesh.getIndices().length * SphereMesh.BYTES_PER_SHORT)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        buffer.put(mesh.getIndices()).position(0);
+        return buffer;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
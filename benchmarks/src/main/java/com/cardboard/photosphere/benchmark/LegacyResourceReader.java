@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Text resources as RawResourceReader read them before the asset cache: line by line
+ *         through a reader, each line appended to a builder with a '\n'. Kept as the baseline the
+ *         asset reader is benchmarked against.
+ */
+final class LegacyResourceReader {
+
+    private LegacyResourceReader() {
+    }
+
+    static String readText(final InputStream inputStream) {
+        final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+
+        String nextLine;
+        final StringBuilder body = new StringBuilder();
+
+        try {
+            while ((nextLine = bufferedReader.readLine()) != null) {
+                body.append(nextLine);
+                body.append('\n');
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return body.toString();
+    }
+}
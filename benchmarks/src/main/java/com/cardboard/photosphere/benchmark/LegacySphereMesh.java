@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.Maths;
+import com.cardboard.photosphere.SphereMesh;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The untiled sphere as SphereMesh generated it before the trig tables: four sin / cos
+ *         calls per vertex and vertices numbered as the strips first reach them. Kept as the
+ *         baseline the new generator is benchmarked and checked against.
+ */
+final class LegacySphereMesh {
+
+    private final float[] mVertices;
+    private final short[] mIndices;
+
+    LegacySphereMesh(final int depth, final float radius) {
+        final int d = SphereMesh.clampDepth(depth);
+        final int totalNumStrips = SphereMesh.numStrips(d);
+        final int numRings = SphereMesh.numRings(d);
+        final int numColumns = totalNumStrips + 1;
+        final double altitudeStepAngle = Maths.ONE_TWENTY_DEGREES / Maths.power(2, d);
+        final double azimuthStepAngle = Maths.THREE_SIXTY_DEGREES / totalNumStrips;
+
+        final int expectedVertexCount = SphereMesh.vertexCount(d);
+        mVertices = new float[expectedVertexCount * SphereMesh.NUM_FLOATS_PER_VERTEX];
+        mIndices = new short[SphereMesh.indexCount(d)];
+
+        final int[] slots = new int[(numRings + 1) * numColumns];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = -1;
+        }
+
+        final int numVerticesPerStrip = numRings * 2;
+        final int[] strip = new int[numVerticesPerStrip];
+        int vertexCount = 0;
+        int indexPos = 0;
+
+        for (int stripNum = 0; stripNum < totalNumStrips; stripNum++) {
+            int stripPos = 0;
+
+            for (int ring = 0; ring < numRings; ring++) {
+                int halfStep = 2 * stripNum + ring;
+                int slot = ring * numColumns + (halfStep - ring + 2) / 2;
+                if (slots[slot] < 0) {
+                    slots[slot] = vertexCount;
+                    putVertex(vertexCount++, radius, ring * altitudeStepAngle,
+                            halfStep * azimuthStepAngle / 2.0);
+                }
+                strip[stripPos++] = slots[slot];
+
+                halfStep -= 1;
+                slot = (ring + 1) * numColumns + (halfStep - ring + 1) / 2;
+                if (slots[slot] < 0) {
+                    slots[slot] = vertexCount;
+                    putVertex(vertexCount++, radius, (ring + 1) * altitudeStepAngle,
+                            halfStep * azimuthStepAngle / 2.0);
+                }
+                strip[stripPos++] = slots[slot];
+            }
+
+            for (int i = 0; i < numVerticesPerStrip - 2; i++) {
+                if ((i & 1) == 0) {
+                    mIndices[indexPos++] = (short) strip[i];
+                    mIndices[indexPos++] = (short) strip[i + 1];
+                } else {
+                    mIndices[indexPos++] = (short) strip[i + 1];
+                    mIndices[indexPos++] = (short) strip[i];
+                }
+                mIndices[indexPos++] = (short) strip[i + 2];
+            }
+        }
+    }
+
+    private void putVertex(final int vertex, final float radius, final double polarAngle, final double azimuth) {
+        final double altitude = Maths.NINETY_DEGREES - polarAngle;
+        final double y = radius * Math.sin(altitude);
+        final double h = radius * Math.cos(altitude);
+        final double z = h * Math.sin(azimuth);
+        final double x = h * Math.cos(azimuth);
+
+        int pos = vertex * SphereMesh.NUM_FLOATS_PER_VERTEX;
+        mVertices[pos++] = (float) x;
+        mVertices[pos++] = (float) y;
+        mVertices[pos++] = (float) z;
+        mVertices[pos++] = (float) (1 - azimuth / Maths.THREE_SIXTY_DEGREES);
+        mVertices[pos] = (float) (1 - (altitude + Maths.NINETY_DEGREES) / Maths.ONE_EIGHTY_DEGREES);
+    }
+
+    float[] getVertices() {
+        return mVertices;
+    }
+
+    short[] getIndices() {
+        return mIndices;
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.LodSelector;
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.PanoramaDecoder;
+import com.cardboard.photosphere.PanoramaLoader;
+import com.cardboard.photosphere.PanoramaSource;
+import com.cardboard.photosphere.PanoramaTexture;
+import com.cardboard.photosphere.PixelImage;
+import com.cardboard.photosphere.StagingBufferPool;
+import com.cardboard.photosphere.TileDecoder;
+import com.cardboard.photosphere.TileGrid;
+import com.cardboard.photosphere.TileStreamer;
+import com.cardboard.photosphere.TiledImage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Drives {@link PanoramaLoader} and {@link TileStreamer} frame by frame with fake decoders,
+ *         a {@link FakeTextureUploader} and an executor that runs its tasks when told to. Checks
+ *         that uploads are sliced across frames, that a newer request supersedes an older one,
+ *         that prefetches are neither superseded nor fatal when they fail, and that a prefetch
+ *         leaves the streamed panorama open on its decoder. A streamed panorama that is being
+ *         replaced, or whose GL context was lost, must not queue or decode tiles any more.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: loaderCheck
+ */
+public final class LoaderCheck {
+
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * GL_RGBA and GL_UNSIGNED_BYTE, the fakes never reach a GL.
+     */
+    private static final int RGBA = 0x1908;
+    private static final int UNSIGNED_BYTE = 0x1401;
+
+    /**
+     * Rows PanoramaLoader uploads per slice.
+     */
+    private static final int ROWS_PER_SLICE = 64;
+
+    /**
+     * Upload budget of the streamer's frames. The loader's get none, so they upload one slice.
+     */
+    private static final long FRAME_BUDGET_NANOS = 4000000L;
+
+    private static final int PANORAMA = 1;
+    private static final int OTHER_PANORAMA = 2;
+    private static final int BROKEN_PANORAMA = 3;
+
+    private LoaderCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkSlicedUpload();
+        failed |= !checkSupersede();
+        failed |= !checkLoaderPrefetch();
+        failed |= !checkLoaderFailures();
+        failed |= !checkStreamerHandoff();
+        failed |= !checkStreamerPrefetch();
+        failed |= !checkStreamerFailures();
+        failed |= !checkStreamerSupersede();
+        failed |= !checkStreamerLostContext();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * With no time budget every frame uploads one slice, and the texture is only handed out
+     * once all rows are in.
+     */
+    private static boolean checkSlicedUpload() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaLoader loader = newLoader(executor, uploader);
+
+        loader.request(PANORAMA);
+        final boolean nothingBeforeDecode = loader.onGlFrame(0, 0, -1, 0) == null && uploader.getSliceCount() == 0;
+        executor.runAll();
+
+        int frames = 0;
+        PanoramaTexture texture = null;
+        while (texture == null && frames < 100) {
+            texture = loader.onGlFrame(0, 0, -1, 0);
+            frames++;
+        }
+        final int expected = FakePanoramaDecoder.HEIGHT / ROWS_PER_SLICE;
+        final boolean complete = texture != null
+                && uploader.getRows(texture.getTextureHandle(0)) == FakePanoramaDecoder.HEIGHT;
+        return report("sliced upload: handed out after " + frames + " frames of one slice, expected " + expected,
+                nothingBeforeDecode && complete && frames == expected && uploader.getSliceCount() == expected);
+    }
+
+    /**
+     * A request made while an older one is half uploaded drops the older one's texture.
+     */
+    private static boolean checkSupersede() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaLoader loader = newLoader(executor, uploader);
+
+        loader.request(PANORAMA);
+        executor.runAll();
+        loader.onGlFrame(0, 0, -1, 0);
+        final boolean halfway = uploader.getLiveCount() == 1;
+
+        loader.request(OTHER_PANORAMA);
+        executor.runAll();
+        PanoramaTexture texture = null;
+        for (int frame = 0; frame < 100 && texture == null; frame++) {
+            texture = loader.onGlFrame(0, 0, -1, 0);
+        }
+        final boolean ok = halfway && texture != null && texture.getResourceId() == OTHER_PANORAMA
+                && uploader.getLiveCount() == 1 && uploader.getDeleteCount() == 1;
+        return report("supersede: " + (texture != null ? "panorama " + texture.getResourceId() : "nothing")
+                + " handed out, " + uploader.getDeleteCount() + " texture deleted", ok);
+    }
+
+    /**
+     * A prefetch is uploaded after the request and never handed out by onGlFrame.
+     */
+    private static boolean checkLoaderPrefetch() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaLoader loader = newLoader(executor, uploader);
+
+        loader.request(PANORAMA);
+        loader.prefetch(OTHER_PANORAMA);
+        executor.runAll();
+        final List<Integer> handedOut = new ArrayList<Integer>();
+        for (int frame = 0; frame < 100; frame++) {
+            final PanoramaTexture texture = loader.onGlFrame(0, 0, -1, 0);
+            if (texture != null) {
+                handedOut.add(texture.getResourceId());
+            }
+        }
+        final PanoramaTexture prefetched = loader.pollPrefetched();
+        final boolean ok = handedOut.size() == 1 && handedOut.get(0) == PANORAMA && prefetched != null
+                && prefetched.getResourceId() == OTHER_PANORAMA && loader.pollPrefetched() == null;
+        return report("loader prefetch: handed out " + handedOut + ", prefetched "
+                + (prefetched != null ? prefetched.getResourceId() : null), ok);
+    }
+
+    /**
+     * A failed prefetch is reported to the listener and dropped, a failed request fails the frame.
+     */
+    private static boolean checkLoaderFailures() {
+        final ManualExecutor executor = new ManualExecutor();
+        final PanoramaLoader loader = newLoader(executor, new FakeTextureUploader());
+        final RecordingListener listener = new RecordingListener();
+        loader.setPrefetchFailureListener(listener);
+
+        loader.prefetch(BROKEN_PANORAMA);
+        executor.runAll();
+        final boolean prefetchDropped = !failsFrame(loader) && listener.mFailed.size() == 1
+                && listener.mFailed.get(0) == BROKEN_PANORAMA && loader.pollPrefetched() == null;
+
+        loader.request(BROKEN_PANORAMA);
+        executor.runAll();
+        final boolean requestFails = failsFrame(loader);
+        return report("loader failures: prefetch " + (prefetchDropped ? "dropped" : "not dropped") + ", request "
+                + (requestFails ? "fails the frame" : "does not fail the frame"), prefetchDropped && requestFails);
+    }
+
+    /**
+     * The coarsest base level of a request is handed out in the first frame, tiles follow.
+     */
+    private static boolean checkStreamerHandoff() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final FakeTileDecoder decoder = new FakeTileDecoder();
+        final TileStreamer streamer = newStreamer(executor, uploader, decoder, new FakeTileDecoder());
+
+        streamer.request(PANORAMA);
+        executor.runAll();
+        final PanoramaTexture texture = streamer.onGlFrame(0, 0, -1, 0);
+        if (texture == null) {
+            return report("streamer handoff: nothing handed out in the first frame", false);
+        }
+        final int baseRows = uploader.getRows(texture.getBaseTextureHandle());
+        runFrames(streamer, executor, 50);
+        final int resident = residentTiles(texture);
+        return report("streamer handoff: " + baseRows + " row base level in the first frame, " + resident
+                + " tiles resident after 50 frames", baseRows <= 256 && resident > 0);
+    }
+
+    /**
+     * A prefetch decodes on its own decoder, so the streamed panorama is never reopened.
+     */
+    private static boolean checkStreamerPrefetch() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final FakeTileDecoder decoder = new FakeTileDecoder();
+        final FakeTileDecoder prefetchDecoder = new FakeTileDecoder();
+        final TileStreamer streamer = newStreamer(executor, uploader, decoder, prefetchDecoder);
+
+        streamer.request(PANORAMA);
+        executor.runAll();
+        streamer.onGlFrame(0, 0, -1, FRAME_BUDGET_NANOS);
+        runFrames(streamer, executor, 5);
+        final int decodedBefore = decoder.mDecodeCount;
+
+        streamer.prefetch(OTHER_PANORAMA);
+        executor.runAll();
+        // Turn around, so new tiles are decoded after the prefetch.
+        for (int frame = 0; frame < 50; frame++) {
+            streamer.onGlFrame(0, 0, 1, FRAME_BUDGET_NANOS);
+            executor.runAll();
+        }
+        final PanoramaTexture prefetched = streamer.pollPrefetched();
+
+        final boolean ok = decoder.mOpened.size() == 1 && prefetchDecoder.mOpened.size() == 1
+                && prefetchDecoder.mOpened.get(0) == OTHER_PANORAMA && !prefetchDecoder.isOpen()
+                && decoder.mDecodeCount > decodedBefore && prefetched != null
+                && prefetched.getResourceId() == OTHER_PANORAMA;
+        return report("streamer prefetch: streaming decoder opened " + decoder.mOpened + ", prefetch decoder "
+                + prefetchDecoder.mOpened + (prefetchDecoder.isOpen() ? " and left open" : " and closed"), ok);
+    }
+
+    /**
+     * As for the loader: failed prefetches are dropped, failed requests fail the frame.
+     */
+    private static boolean checkStreamerFailures() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTileDecoder decoder = new FakeTileDecoder();
+        final TileStreamer streamer = newStreamer(executor, new FakeTextureUploader(), decoder,
+                new FakeTileDecoder());
+        final RecordingListener listener = new RecordingListener();
+        streamer.setPrefetchFailureListener(listener);
+
+        streamer.request(PANORAMA);
+        executor.runAll();
+        final PanoramaTexture texture = streamer.onGlFrame(0, 0, -1, FRAME_BUDGET_NANOS);
+        streamer.prefetch(BROKEN_PANORAMA);
+        executor.runAll();
+        boolean prefetchDropped = listener.mFailed.size() == 1 && listener.mFailed.get(0) == BROKEN_PANORAMA;
+        for (int frame = 0; frame < 10; frame++) {
+            prefetchDropped &= !failsFrame(streamer);
+            executor.runAll();
+        }
+        prefetchDropped &= texture != null && residentTiles(texture) > 0;
+
+        streamer.request(BROKEN_PANORAMA);
+        executor.runAll();
+        final boolean requestFails = failsFrame(streamer);
+        return report("streamer failures: prefetch " + (prefetchDropped ? "dropped" : "not dropped") + ", request "
+                + (requestFails ? "fails the frame" : "does not fail the frame"), prefetchDropped && requestFails);
+    }
+
+    /**
+     * While the base level of a new request decodes, the old panorama stays on screen but queues
+     * no tile tasks, and tiles start again for the new one once it is handed out.
+     */
+    private static boolean checkStreamerSupersede() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTileDecoder decoder = new FakeTileDecoder();
+        final TileStreamer streamer = newStreamer(executor, new FakeTextureUploader(), decoder,
+                new FakeTileDecoder());
+
+        streamer.request(PANORAMA);
+        executor.runAll();
+        streamer.onGlFrame(0, 0, -1, FRAME_BUDGET_NANOS);
+        runFrames(streamer, executor, 5);
+
+        // Hold the new base level back, and turn around so the old panorama wants new tiles.
+        streamer.request(OTHER_PANORAMA);
+        final Runnable base = executor.mTasks.poll();
+        final int tasksBefore = executor.mRunCount;
+        PanoramaTexture handoff = null;
+        for (int frame = 0; frame < 20; frame++) {
+            handoff = streamer.onGlFrame(0, 0, 1, FRAME_BUDGET_NANOS);
+            executor.runAll();
+        }
+        final int tasksWhileDecoding = executor.mRunCount - tasksBefore;
+
+        base.run();
+        for (int frame = 0; frame < 20 && handoff == null; frame++) {
+            handoff = streamer.onGlFrame(0, 0, 1, FRAME_BUDGET_NANOS);
+        }
+        final int decodedBefore = decoder.mDecodeCount;
+        runFrames(streamer, executor, 20);
+        final boolean streams = handoff != null && handoff.getResourceId() == OTHER_PANORAMA
+                && decoder.mDecodeCount > decodedBefore && residentTiles(handoff) > 0;
+        return report("streamer supersede: " + tasksWhileDecoding + " tile tasks queued while the new base level "
+                + "decoded, " + (streams ? "streaming" : "not streaming") + " the new panorama after",
+                tasksWhileDecoding == 0 && streams);
+    }
+
+    /**
+     * Tile decodes queued for a lost GL context are skipped.
+     */
+    private static boolean checkStreamerLostContext() {
+        final ManualExecutor executor = new ManualExecutor();
+        final FakeTileDecoder decoder = new FakeTileDecoder();
+        final TileStreamer streamer = newStreamer(executor, new FakeTextureUploader(), decoder,
+                new FakeTileDecoder());
+
+        streamer.request(PANORAMA);
+        executor.runAll();
+        streamer.onGlFrame(0, 0, -1, FRAME_BUDGET_NANOS);
+        final boolean queued = !executor.mTasks.isEmpty();
+        final int decodedBefore = decoder.mDecodeCount;
+        streamer.onSurfaceCreated(4096);
+        executor.runAll();
+        return report("streamer lost context: " + (decoder.mDecodeCount - decodedBefore)
+                + " queued tiles decoded after the surface was recreated", queued
+                && decoder.mDecodeCount == decodedBefore);
+    }
+
+    private static PanoramaLoader newLoader(final Executor executor, final FakeTextureUploader uploader) {
+        final PanoramaLoader loader = new PanoramaLoader(executor, new FakePanoramaDecoder(), uploader,
+                new StagingBufferPool(new NativeMemoryTracker(), 64L * MB, null));
+        loader.onSurfaceCreated(4096);
+        return loader;
+    }
+
+    /**
+     * A streamer of 4096x2048 panoramas in 512 pixel tiles, for a 1440 pixel high eye, which
+     * wants the equator's tiles at full resolution.
+     */
+    private static TileStreamer newStreamer(final Executor executor, final FakeTextureUploader uploader,
+                                            final TileDecoder decoder, final TileDecoder prefetchDecoder) {
+        final LodSelector lodSelector = new LodSelector();
+        lodSelector.setViewport(1440, 90);
+        final TileStreamer streamer = new TileStreamer(executor, decoder, prefetchDecoder, uploader,
+                new StagingBufferPool(new NativeMemoryTracker(), 64L * MB, null), 512, 1024,
+                Math.toRadians(10), Math.toRadians(30), 16, lodSelector);
+        streamer.onSurfaceCreated(4096);
+        return streamer;
+    }
+
+    private static void runFrames(final PanoramaSource source, final ManualExecutor executor, final int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            source.onGlFrame(0, 0, -1, FRAME_BUDGET_NANOS);
+            executor.runAll();
+        }
+    }
+
+    private static int residentTiles(final PanoramaTexture texture) {
+        int resident = 0;
+        for (int tile = 0; tile < texture.getGrid().getTileCount(); tile++) {
+            if (texture.getTextureHandle(tile) != 0) {
+                resident++;
+            }
+        }
+        return resident;
+    }
+
+    private static boolean failsFrame(final PanoramaSource source) {
+        try {
+            source.onGlFrame(0, 0, -1, 0);
+            return false;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    private static PixelImage newImage(final int width, final int height, final StagingBufferPool buffers) {
+        return new PixelImage(width, height, 4, RGBA, UNSIGNED_BYTE, buffers.acquire(width * height * 4));
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+
+    /**
+     * Queues tasks until told to run them, on the calling thread, in order.
+     */
+    private static final class ManualExecutor implements Executor {
+        final Queue<Runnable> mTasks = new ArrayDeque<Runnable>();
+        int mRunCount;
+
+        @Override
+        public void execute(final Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+                mRunCount++;
+            }
+        }
+    }
+
+    /**
+     * Decodes every panorama but the broken one into a single 512x256 tile.
+     */
+    private static final class FakePanoramaDecoder implements PanoramaDecoder {
+        static final int WIDTH = 512;
+        static final int HEIGHT = 256;
+
+        @Override
+        public TiledImage decode(final int resourceId, final int maxTileSize, final StagingBufferPool buffers)
+                throws IOException {
+            if (resourceId == BROKEN_PANORAMA) {
+                throw new IOException("Panorama " + resourceId + " is broken");
+            }
+            return new TiledImage(new TileGrid(WIDTH, HEIGHT, WIDTH),
+                    new PixelImage[]{newImage(WIDTH, HEIGHT, buffers)});
+        }
+    }
+
+    /**
+     * Opens every panorama but the broken one as 4096x2048 pixels, and remembers what it opened.
+     */
+    private static final class FakeTileDecoder implements TileDecoder {
+        final List<Integer> mOpened = new ArrayList<Integer>();
+        int mDecodeCount;
+        private int mResourceId;
+
+        @Override
+        public void open(final int resourceId) throws IOException {
+            close();
+            mOpened.add(resourceId);
+            if (resourceId == BROKEN_PANORAMA) {
+                throw new IOException("Panorama " + resourceId + " is broken");
+            }
+            mResourceId = resourceId;
+        }
+
+        @Override
+        public int getWidth() {
+            checkOpen();
+            return 4096;
+        }
+
+        @Override
+        public int getHeight() {
+            checkOpen();
+            return 2048;
+        }
+
+        @Override
+        public PixelImage decodeRegion(final int left, final int top, final int width, final int height,
+                                       final int sampleSize, final StagingBufferPool buffers) {
+            checkOpen();
+            mDecodeCount++;
+            return newImage((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize, buffers);
+        }
+
+        @Override
+        public void close() {
+            mResourceId = 0;
+        }
+
+        boolean isOpen() {
+            return mResourceId != 0;
+        }
+
+        private void checkOpen() {
+            if (mResourceId == 0) {
+                throw new IllegalStateException("No panorama open");
+            }
+        }
+    }
+
+    private static final class RecordingListener implements PanoramaSource.PrefetchFailureListener {
+        final List<Integer> mFailed = new ArrayList<Integer>();
+
+        @Override
+        public void onPrefetchFailed(final int resourceId, final IOException e) {
+            mFailed.add(resourceId);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.LodSelector;
+import com.cardboard.photosphere.TileGrid;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the levels {@link LodSelector} picks: a few worked out by hand, then every
+ *         viewport height from {@link #MIN_HEIGHT} to {@link #MAX_HEIGHT} on every row of a few
+ *         grids against the texel densities worked out here. A level has to change exactly where
+ *         the surplus of texels per pixel crosses a power of two, coarser levels only come with
+ *         smaller viewports, and polar rows of a square image get coarser levels than the
+ *         equator. With a current level, a row has to stay at it until the surplus clears the
+ *         next threshold by {@link LodSelector#HYSTERESIS}, drop to a finer level as soon as its
+ *         own threshold is missed, and not flip while the viewport jitters around a threshold.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: lodSelectorCheck
+ */
+public final class LodSelectorCheck {
+
+    private static final float FOV = 90;
+    private static final int MAX_LEVEL = 5;
+    private static final int MIN_HEIGHT = 64;
+    private static final int MAX_HEIGHT = 4096;
+
+    /**
+     * Viewport heights the jitter check moves between either side of a threshold.
+     */
+    private static final int JITTER = 6;
+    private static final int JITTER_FRAMES = 200;
+
+    private static final TileGrid[] GRIDS = {
+            new TileGrid(8192, 4096, 512),
+            new TileGrid(4096, 4096, 512),
+            new TileGrid(5000, 2500, 2048),
+            new TileGrid(16384, 2048, 2048)
+    };
+
+    private LodSelectorCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkUnsetViewport();
+        failed |= !checkWorked();
+        failed |= !checkMinTexelsPerPixel();
+        for (final TileGrid grid : GRIDS) {
+            failed |= !checkThresholds(grid);
+            failed |= !checkHysteresis(grid);
+        }
+        failed |= !checkPoles();
+        failed |= !checkJitter();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkUnsetViewport() {
+        final LodSelector selector = new LodSelector();
+        boolean passed = true;
+        for (int row = 0; row < GRIDS[0].getRows(); row++) {
+            passed &= selector.selectLevel(GRIDS[0], row, MAX_LEVEL) == 0
+                    && selector.selectLevel(GRIDS[0], row, MAX_LEVEL, 3) == 0;
+        }
+        return report("level 0 until the viewport is set", passed);
+    }
+
+    /**
+     * 8192x4096 has 4096 / pi = 1303.8 texels per radian, a 90 degree viewport has half its
+     * height in pixels per radian.
+     */
+    private static boolean checkWorked() {
+        final int[][] cases = {
+                // Height, max level, level.
+                {2000, MAX_LEVEL, 0},
+                {1080, MAX_LEVEL, 1},
+                {500, MAX_LEVEL, 2},
+                {500, 1, 1},
+                {100, MAX_LEVEL, 4},
+                {50, MAX_LEVEL, 5},
+                {50, 0, 0}
+        };
+        final LodSelector selector = new LodSelector();
+        boolean passed = true;
+        for (final int[] worked : cases) {
+            selector.setViewport(worked[0], FOV);
+            final int level = selector.selectLevel(GRIDS[0], 3, worked[1]);
+            passed &= report(String.format("8192x4096 on %d pixels at most level %d: level %d, expected %d",
+                    worked[0], worked[1], level, worked[2]), level == worked[2]);
+        }
+        return passed;
+    }
+
+    private static boolean checkMinTexelsPerPixel() {
+        final LodSelector one = new LodSelector();
+        final LodSelector two = new LodSelector(2f);
+        one.setViewport(500, FOV);
+        two.setViewport(500, FOV);
+        boolean passed = report("2 texels per pixel are a level finer: " + two.selectLevel(GRIDS[0], 3, MAX_LEVEL)
+                + " rather than " + one.selectLevel(GRIDS[0], 3, MAX_LEVEL),
+                two.selectLevel(GRIDS[0], 3, MAX_LEVEL) == one.selectLevel(GRIDS[0], 3, MAX_LEVEL) - 1);
+        for (final float invalid : new float[]{0f, -1f}) {
+            try {
+                new LodSelector(invalid);
+                passed &= report("accepted " + invalid + " texels per pixel", false);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Every height on every row: the level is the coarsest whose threshold the surplus reaches,
+     * and it only changes where the surplus crosses that threshold.
+     */
+    private static boolean checkThresholds(final TileGrid grid) {
+        final LodSelector selector = new LodSelector();
+        int changes = 0;
+        String failure = null;
+        for (int row = 0; row < grid.getRows() && failure == null; row++) {
+            int previous = Integer.MAX_VALUE;
+            double previousSurplus = 0;
+            for (int height = MIN_HEIGHT; height <= MAX_HEIGHT && failure == null; height++) {
+                selector.setViewport(height, FOV);
+                final double surplus = surplus(grid, row, height);
+                final int level = selector.selectLevel(grid, row, MAX_LEVEL);
+                if (level != expectedLevel(surplus)) {
+                    failure = grid + " row " + row + " on " + height + " pixels: level " + level + " at surplus "
+                            + surplus + ", expected " + expectedLevel(surplus);
+                } else if (level > previous) {
+                    failure = grid + " row " + row + " on " + height + " pixels went coarser, to " + level;
+                } else if (level < previous && previous != Integer.MAX_VALUE) {
+                    // The step down has to sit between the two heights' surpluses.
+                    if (!(previousSurplus >= (1 << previous) && surplus < (1 << previous))) {
+                        failure = grid + " row " + row + " left level " + previous + " on " + height
+                                + " pixels at surplus " + surplus;
+                    }
+                    changes++;
+                }
+                previous = level;
+                previousSurplus = surplus;
+            }
+        }
+        return report(failure != null ? failure : grid + ": " + changes + " level changes, each on its threshold",
+                failure == null && changes > 0);
+    }
+
+    /**
+     * Every height on every row from every current level, against the rule worked out here.
+     */
+    private static boolean checkHysteresis(final TileGrid grid) {
+        final LodSelector selector = new LodSelector();
+        int held = 0;
+        String failure = null;
+        for (int row = 0; row < grid.getRows() && failure == null; row++) {
+            for (int height = MIN_HEIGHT; height <= MAX_HEIGHT && failure == null; height++) {
+                selector.setViewport(height, FOV);
+                final double surplus = surplus(grid, row, height);
+                for (int current = -1; current <= MAX_LEVEL && failure == null; current++) {
+                    final int level = selector.selectLevel(grid, row, MAX_LEVEL, current);
+                    final int expected = expectedLevel(surplus, current);
+                    if (level != expected) {
+                        failure = grid + " row " + row + " on " + height + " pixels from level " + current
+                                + ": level " + level + " at surplus " + surplus + ", expected " + expected;
+                    }
+                    if (level != expectedLevel(surplus)) {
+                        held++;
+                    }
+                }
+            }
+        }
+        return report(failure != null ? failure
+                : grid + ": hysteresis held " + held + " rows and heights at their level", failure == null && held > 0);
+    }
+
+    /**
+     * Parallels shrink towards the poles, so the top and bottom rows of a square image have more
+     * texels per radian across than the equator.
+     */
+    private static boolean checkPoles() {
+        final TileGrid grid = GRIDS[1];
+        final LodSelector selector = new LodSelector();
+        selector.setViewport(1080, FOV);
+        final int pole = selector.selectLevel(grid, 0, MAX_LEVEL);
+        final int equator = selector.selectLevel(grid, grid.getRows() / 2, MAX_LEVEL);
+        boolean symmetric = true;
+        for (int row = 0; row < grid.getRows(); row++) {
+            symmetric &= selector.selectLevel(grid, row, MAX_LEVEL)
+                    == selector.selectLevel(grid, grid.getRows() - 1 - row, MAX_LEVEL);
+        }
+        return report(grid + " on 1080 pixels: level " + pole + " at the poles, " + equator + " at the equator",
+                pole == 1 && equator == 0 && symmetric);
+    }
+
+    /**
+     * A viewport that moves a few pixels either side of a threshold, with the chosen level fed
+     * back as the current one, as a resumed panorama does.
+     */
+    private static boolean checkJitter() {
+        final TileGrid grid = GRIDS[0];
+        final LodSelector selector = new LodSelector();
+        int threshold = MAX_HEIGHT;
+        selector.setViewport(threshold, FOV);
+        final int fine = selector.selectLevel(grid, 0, MAX_LEVEL);
+        while (selector.selectLevel(grid, 0, MAX_LEVEL) == fine) {
+            selector.setViewport(--threshold, FOV);
+        }
+
+        int plainChanges = 0;
+        int heldChanges = 0;
+        int plain = fine;
+        int current = fine;
+        for (int frame = 0; frame < JITTER_FRAMES; frame++) {
+            selector.setViewport(threshold + (frame % 2 == 0 ? -JITTER : JITTER), FOV);
+            final int plainLevel = selector.selectLevel(grid, 0, MAX_LEVEL);
+            final int level = selector.selectLevel(grid, 0, MAX_LEVEL, current);
+            plainChanges += plainLevel != plain ? 1 : 0;
+            heldChanges += level != current ? 1 : 0;
+            plain = plainLevel;
+            current = level;
+        }
+        return report(String.format("viewport jittering %d pixels around %d: %d level changes without "
+                + "hysteresis, %d with", JITTER, threshold, plainChanges, heldChanges),
+                plainChanges == JITTER_FRAMES && heldChanges == 0);
+    }
+
+    private static int expectedLevel(final double surplus) {
+        int level = 0;
+        while (level < MAX_LEVEL && surplus >= 1 << (level + 1)) {
+            level++;
+        }
+        return level;
+    }
+
+    private static int expectedLevel(final double surplus, final int current) {
+        final int level = expectedLevel(surplus);
+        if (current < 0 || level <= current) {
+            return level;
+        }
+        for (int coarser = level; coarser > current; coarser--) {
+            if (surplus >= (1 << coarser) * (double) LodSelector.HYSTERESIS) {
+                return coarser;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Texels per pixel of a row, from the image's texels per radian along its widest parallel
+     * and down a meridian, over the viewport's pixels per radian.
+     */
+    private static double surplus(final TileGrid grid, final int row, final int height) {
+        final double polarStart = Math.PI * grid.getTileY(row) / grid.getImageHeight();
+        final double polarEnd = Math.PI * (grid.getTileY(row) + grid.getTileHeight(row)) / grid.getImageHeight();
+        final double widest = polarStart <= Math.PI / 2 && polarEnd >= Math.PI / 2
+                ? 1 : Math.max(Math.sin(polarStart), Math.sin(polarEnd));
+        final double texelsPerRadian = Math.min(grid.getImageHeight() / Math.PI,
+                grid.getImageWidth() / (2 * Math.PI) / widest);
+        return texelsPerRadian / (height / 2.0 / Math.tan(Math.toRadians(FOV) / 2));
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
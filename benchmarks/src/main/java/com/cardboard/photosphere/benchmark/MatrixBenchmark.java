@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.EyeMatrices;
+import com.cardboard.photosphere.Maths;
+import com.cardboard.photosphere.MatrixHelper;
+import com.cardboard.photosphere.PosePredictor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         The matrix math of a frame: composing both eyes' view projections when the head moved
+ *         and when it did not, the head pose correction, and the helpers used while setting up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MatrixBenchmark {
+
+    /**
+     * Eye types as Cardboard numbers them.
+     */
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+
+    private final EyeMatrices mEyeMatrices = new EyeMatrices();
+    private final float[] mProjection = new float[16];
+    private final float[][] mLeftViews = new float[2][16];
+    private final float[][] mRightViews = new float[2][16];
+    private final float[] mSampled = new float[4];
+    private final float[] mPredicted = new float[4];
+    private final float[] mCorrection = new float[16];
+    private int mFrame;
+    private int mExponent;
+
+    @Setup
+    public void setUp() {
+        final float[] camera = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, -0.5f, 1};
+        mEyeMatrices.setCamera(camera);
+        MatrixHelper.perspectiveM(mProjection, 90, 1f, 1f, 10f);
+        mEyeMatrices.setProjection(mProjection);
+
+        // Two head orientations a little apart, so every frame sees a new eye view.
+        for (int i = 0; i < 2; i++) {
+            final float angle = 0.01f * (i + 1);
+            PosePredictor.toMatrix(new float[]{0, (float) Math.sin(angle / 2), 0, (float) Math.cos(angle / 2)},
+                    mLeftViews[i]);
+            PosePredictor.toMatrix(new float[]{0, (float) Math.sin(angle / 2), 0, (float) Math.cos(angle / 2)},
+                    mRightViews[i]);
+            mLeftViews[i][12] = 0.03f;
+            mRightViews[i][12] = -0.03f;
+        }
+        mSampled[3] = 1;
+        mPredicted[1] = (float) Math.sin(0.005);
+        mPredicted[3] = (float) Math.cos(0.005);
+    }
+
+    /**
+     * Both eyes after the head moved, every product is recomputed.
+     */
+    @Benchmark
+    public float[] frameMoved() {
+        final int pose = mFrame++ & 1;
+        mEyeMatrices.getViewProjection(LEFT, mLeftViews[pose]);
+        return mEyeMatrices.getViewProjection(RIGHT, mRightViews[pose]);
+    }
+
+    /**
+     * Both eyes with the head still, the products are reused.
+     */
+    @Benchmark
+    public float[] frameStill() {
+        mEyeMatrices.getViewProjection(LEFT, mLeftViews[0]);
+        return mEyeMatrices.getViewProjection(RIGHT, mRightViews[0]);
+    }
+
+    /**
+     * The head pose correction applied before drawing.
+     */
+    @Benchmark
+    public float[] headCorrection() {
+        PosePredictor.relativeRotation(mSampled, mPredicted, mCorrection);
+        return mCorrection;
+    }
+
+    @Benchmark
+    public float[] perspective() {
+        MatrixHelper.perspectiveM(mProjection, 90, 1f, 1f, 10f);
+        return mProjection;
+    }
+
+    @Benchmark
+    public int power() {
+        return Maths.power(3, mExponent++ & 15);
+    }
+}
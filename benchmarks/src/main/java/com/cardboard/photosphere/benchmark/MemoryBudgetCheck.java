@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.RenderState;
+import com.cardboard.photosphere.ShaderProgram;
+import com.cardboard.photosphere.ShaderProgramCache;
+import com.cardboard.photosphere.SphereDrawer;
+import com.cardboard.photosphere.SphereMesh;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the native memory the sphere's geometry holds at every depth, from 0 (clamped
+ *         to 1) to {@link SphereMesh#MAXIMUM_ALLOWED_DEPTH}, against {@link #GEOMETRY_BYTES}: the
+ *         interleaved vertices and the indices while the mesh is built, nothing once it is in
+ *         buffer objects, and the same bytes for as long as client arrays draw from it.
+ *         Rebuilding at another depth and releasing must leave exactly the new mesh's bytes and
+ *         nothing, in that order.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: memoryBudgetCheck
+ */
+public final class MemoryBudgetCheck {
+
+    /**
+     * GEOMETRY bytes of the sphere's mesh by depth, vertices at 20 bytes and indices at 2. A mesh
+     * that grows has to change this budget with it.
+     */
+    private static final long[] GEOMETRY_BYTES = {560, 560, 2100, 8060, 31500, 124460, 494700, 1972460};
+
+    private static final float RADIUS = 5f;
+
+    private MemoryBudgetCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        for (int depth = 0; depth <= SphereMesh.MAXIMUM_ALLOWED_DEPTH; depth++) {
+            failed |= !checkDepth(depth);
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkDepth(final int depth) {
+        final long budget = GEOMETRY_BYTES[depth];
+        final int other = depth == SphereMesh.MAXIMUM_ALLOWED_DEPTH ? 1 : SphereMesh.MAXIMUM_ALLOWED_DEPTH;
+        final long base = geometryBytes();
+
+        // With buffer objects the direct copy goes as soon as it is uploaded.
+        final ShaderProgramCache programs = FakeShaderCompiler.newCache();
+        final ShaderProgram program = FakeShaderCompiler.link(programs, "sphere");
+        final SphereDrawer uploaded = new SphereDrawer(depth, RADIUS, new RenderState(new FakeGL()));
+        final long built = geometryBytes() - base;
+        uploaded.onSurfaceCreated(program, null);
+        final long resident = geometryBytes() - base;
+        uploaded.release();
+
+        // Client arrays keep drawing from it.
+        final FakeGL noBuffers = new FakeGL();
+        noBuffers.setBuffersAvailable(false);
+        final SphereDrawer client = new SphereDrawer(depth, RADIUS, new RenderState(noBuffers));
+        client.onSurfaceCreated(program, null);
+        final long clientArrays = geometryBytes() - base;
+        client.setDepth(other);
+        final long rebuilt = geometryBytes() - base;
+        client.release();
+        final long released = geometryBytes() - base;
+
+        final boolean passed = built == budget && SphereMesh.byteSize(SphereMesh.clampDepth(depth)) == budget
+                && resident == 0 && clientArrays == budget && rebuilt == GEOMETRY_BYTES[other] && released == 0;
+        return report("depth " + depth + ": " + built + " bytes built, budget " + budget + ", " + resident
+                + " in buffer objects, " + clientArrays + " with client arrays, " + rebuilt + " at depth " + other
+                + ", " + released + " released", passed);
+    }
+
+    private static long geometryBytes() {
+        return NativeMemoryTracker.get().getLiveBytes(NativeMemoryTracker.Owner.GEOMETRY);
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
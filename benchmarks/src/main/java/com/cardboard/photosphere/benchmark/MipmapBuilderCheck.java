@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.MipmapBuilder;
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.PixelImage;
+import com.cardboard.photosphere.StagingBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the mip levels {@link MipmapBuilder} builds: how many levels a texture has, that
+ *         every level is half the one before it rounded down and at least 1, and that box
+ *         filtered levels hold exactly the rounded average of their 2x2 source texels, with odd
+ *         last rows and columns dropped. The values are checked against a few worked texels and
+ *         against a straightforward reimplementation on random images of 3 and 4 bytes per pixel.
+ *         Lanczos levels of a flat image have to stay flat.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: mipmapBuilderCheck
+ */
+public final class MipmapBuilderCheck {
+
+    private static final int GL_RGB = 0x1907;
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * Width, height and the level count, level 0 and the 1x1 level included.
+     */
+    private static final int[][] LEVEL_COUNTS = {
+            {1, 1, 1},
+            {2, 1, 2},
+            {1, 2, 2},
+            {3, 3, 2},
+            {5, 3, 3},
+            {640, 480, 10},
+            {1000, 3, 10},
+            {512, 256, 10},
+            {2048, 2048, 12},
+            {4096, 2048, 13}
+    };
+
+    /**
+     * Size and the power of two closest to it in scale.
+     */
+    private static final int[][] NEAREST_POWERS_OF_TWO = {
+            {1, 1}, {2, 2}, {3, 4}, {5, 4}, {6, 8}, {352, 256}, {384, 512}, {500, 512}, {1000, 1024}, {1536, 2048}
+    };
+
+    private static final int[][] SIZES = {{5, 3}, {7, 1}, {1, 6}, {640, 480}, {256, 256}, {97, 33}};
+
+    private static final StagingBufferPool BUFFERS = new StagingBufferPool(new NativeMemoryTracker(), 64L * MB, null);
+
+    private MipmapBuilderCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkLevelCounts();
+        failed |= !checkNearestPowerOfTwo();
+        failed |= !checkLevelSizes();
+        failed |= !checkWorkedTexels();
+        for (final int[] size : SIZES) {
+            failed |= !checkBoxValues(size[0], size[1], 4);
+            failed |= !checkBoxValues(size[0], size[1], 3);
+        }
+        failed |= !checkFlatLanczos();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkLevelCounts() {
+        boolean passed = true;
+        for (final int[] count : LEVEL_COUNTS) {
+            final int levels = MipmapBuilder.getLevelCount(count[0], count[1]);
+            passed &= report(count[0] + "x" + count[1] + " has " + levels + " levels, expected " + count[2],
+                    levels == count[2]);
+        }
+        return passed;
+    }
+
+    private static boolean checkNearestPowerOfTwo() {
+        boolean passed = true;
+        for (final int[] size : NEAREST_POWERS_OF_TWO) {
+            final int nearest = MipmapBuilder.nearestPowerOfTwo(size[0]);
+            passed &= report("nearest power of two to " + size[0] + " is " + nearest + ", expected " + size[1],
+                    nearest == size[1] && MipmapBuilder.isPowerOfTwo(nearest));
+        }
+        return passed;
+    }
+
+    private static boolean checkLevelSizes() {
+        boolean passed = true;
+        for (final int[] size : SIZES) {
+            final PixelImage image = random(size[0], size[1], 4, new Random(size[0] * 31 + size[1]));
+            final PixelImage[] levels = MipmapBuilder.build(image, MipmapBuilder.Filter.BOX, BUFFERS);
+            boolean halved = levels.length == MipmapBuilder.getLevelCount(size[0], size[1]) - 1;
+            int width = size[0];
+            int height = size[1];
+            for (int i = 0; i < levels.length && halved; i++) {
+                width = Math.max(1, width / 2);
+                height = Math.max(1, height / 2);
+                halved = levels[i].getWidth() == width && levels[i].getHeight() == height
+                        && levels[i].getByteCount() == width * height * 4
+                        && levels[i].getFormat() == GL_RGBA && levels[i].getType() == GL_UNSIGNED_BYTE;
+            }
+            passed &= report(size[0] + "x" + size[1] + " builds " + levels.length + " levels down to "
+                    + width + "x" + height, halved && width == 1 && height == 1);
+            recycle(levels);
+        }
+        return passed;
+    }
+
+    /**
+     * A 5x3 single channel image, whose last column and row are dropped, and its 2x1 and 1x1
+     * levels worked out by hand. 0 + 1 + 2 + 3 rounds 1.5 up to 2.
+     */
+    private static boolean checkWorkedTexels() {
+        final byte[] source = {
+                0, 1, 10, 20, 99,
+                2, 3, 30, 41, 99,
+                99, 99, 99, 99, 99
+        };
+        final PixelImage image = new PixelImage(5, 3, 1, GL_RGB, GL_UNSIGNED_BYTE, copy(source));
+        final PixelImage[] levels = MipmapBuilder.build(image, MipmapBuilder.Filter.BOX, BUFFERS);
+        final byte[] level1 = bytes(levels[0]);
+        final byte[] level2 = bytes(levels[1]);
+        final boolean passed = levels.length == 2 && Arrays.equals(level1, new byte[]{2, 25})
+                && Arrays.equals(level2, new byte[]{14});
+        recycle(levels);
+        return report("worked texels " + Arrays.toString(level1) + " then " + Arrays.toString(level2)
+                + ", expected [2, 25] then [14]", passed);
+    }
+
+    private static boolean checkBoxValues(final int width, final int height, final int bytesPerPixel) {
+        final PixelImage image = random(width, height, bytesPerPixel, new Random(width * 131 + height));
+        final PixelImage[] levels = MipmapBuilder.build(image, MipmapBuilder.Filter.BOX, BUFFERS);
+
+        byte[] expected = bytes(image);
+        int levelWidth = width;
+        int levelHeight = height;
+        int mismatches = 0;
+        for (final PixelImage level : levels) {
+            expected = halve(expected, levelWidth, levelHeight, bytesPerPixel);
+            levelWidth = Math.max(1, levelWidth / 2);
+            levelHeight = Math.max(1, levelHeight / 2);
+            final byte[] actual = bytes(level);
+            for (int i = 0; i < expected.length; i++) {
+                if (actual[i] != expected[i]) {
+                    mismatches++;
+                }
+            }
+        }
+        recycle(levels);
+        return report(width + "x" + height + " at " + bytesPerPixel + " bytes per pixel, " + mismatches
+                + " box filtered components off", mismatches == 0);
+    }
+
+    private static boolean checkFlatLanczos() {
+        final byte[] flat = new byte[97 * 33 * 4];
+        for (int i = 0; i < flat.length; i++) {
+            flat[i] = (byte) (i % 4 == 3 ? 255 : 40 + 70 * (i % 4));
+        }
+        final PixelImage image = new PixelImage(97, 33, 4, GL_RGBA, GL_UNSIGNED_BYTE, copy(flat));
+        final PixelImage resampled = MipmapBuilder.resample(image, 128, 32, BUFFERS);
+        final PixelImage[] levels = MipmapBuilder.build(resampled, MipmapBuilder.Filter.LANCZOS, BUFFERS);
+        int off = 0;
+        off += countOff(resampled);
+        for (final PixelImage level : levels) {
+            off += countOff(level);
+        }
+        resampled.recycle(BUFFERS);
+        recycle(levels);
+        return report("flat image resampled to 128x32 and Lanczos filtered, " + off + " components off", off == 0);
+    }
+
+    private static int countOff(final PixelImage image) {
+        final byte[] pixels = bytes(image);
+        int off = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            final int expected = i % 4 == 3 ? 255 : 40 + 70 * (i % 4);
+            if ((pixels[i] & 0xff) != expected) {
+                off++;
+            }
+        }
+        return off;
+    }
+
+    /**
+     * The 2x2 box filter as GL defines level sizes: the result is half the source rounded down,
+     * texels past the last row or column repeat it, and averages round half up.
+     */
+    private static byte[] halve(final byte[] source, final int width, final int height, final int bytesPerPixel) {
+        final int halfWidth = Math.max(1, width / 2);
+        final int halfHeight = Math.max(1, height / 2);
+        final byte[] result = new byte[halfWidth * halfHeight * bytesPerPixel];
+        for (int y = 0; y < halfHeight; y++) {
+            for (int x = 0; x < halfWidth; x++) {
+                for (int c = 0; c < bytesPerPixel; c++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < 2; dy++) {
+                        for (int dx = 0; dx < 2; dx++) {
+                            final int sx = Math.min(2 * x + dx, width - 1);
+                            final int sy = Math.min(2 * y + dy, height - 1);
+                            sum += source[(sy * width + sx) * bytesPerPixel + c] & 0xff;
+                        }
+                    }
+                    result[(y * halfWidth + x) * bytesPerPixel + c] = (byte) Math.round(sum / 4f);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static PixelImage random(final int width, final int height, final int bytesPerPixel,
+                                     final Random random) {
+        final byte[] pixels = new byte[width * height * bytesPerPixel];
+        random.nextBytes(pixels);
+        return new PixelImage(width, height, bytesPerPixel, bytesPerPixel == 4 ? GL_RGBA : GL_RGB,
+                GL_UNSIGNED_BYTE, copy(pixels));
+    }
+
+    private static ByteBuffer copy(final byte[] pixels) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels).rewind();
+        return buffer;
+    }
+
+    private static byte[] bytes(final PixelImage image) {
+        final byte[] pixels = new byte[image.getByteCount()];
+        final ByteBuffer buffer = image.getPixels().duplicate();
+        buffer.position(0);
+        buffer.get(pixels);
+        return pixels;
+    }
+
+    private static void recycle(final PixelImage[] levels) {
+        for (final PixelImage level : levels) {
+            level.recycle(BUFFERS);
+        }
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.PixelDiskCache;
+import com.cardboard.photosphere.PixelImage;
+import com.cardboard.photosphere.StagingBufferPool;
+import com.cardboard.photosphere.TileGrid;
+import com.cardboard.photosphere.TiledImage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         What {@link PixelDiskCache} saves: decoding a JPEG panorama into a staging buffer, the
+ *         work a miss does, against reading the same pixels back from a cache entry, the work a
+ *         hit does. Storing an entry, the rest of a miss, is timed as well. The JVM's JPEG
+ *         decoder stands in for BitmapFactory. One operation is one pixel, so the score in
+ *         operations per microsecond is megapixels per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PixelDiskCacheBenchmark {
+
+    private static final int WIDTH = 2048;
+    private static final int HEIGHT = 1024;
+    private static final int PIXELS = WIDTH * HEIGHT;
+
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+
+    private static final String KEY = "panorama";
+
+    /**
+     * Tile size of the cached image, the whole panorama or the streamer's tiles.
+     */
+    @Param({"2048", "512"})
+    public int tileSize;
+
+    private StagingBufferPool mBuffers;
+    private byte[] mJpeg;
+    private File mDirectory;
+    private PixelDiskCache mCache;
+    private TiledImage mImage;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBuffers = new StagingBufferPool(new NativeMemoryTracker(), 256L * 1024 * 1024, null);
+
+        // Gradients with some noise, which compress about as well as a photo.
+        final Random random = new Random(42);
+        final BufferedImage photo = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final int noise = random.nextInt(16);
+                photo.setRGB(x, y, ((x * 255 / WIDTH + noise) << 16) | ((y * 255 / HEIGHT + noise) << 8)
+                        | ((x + y) & 0xff));
+            }
+        }
+        final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(photo, "jpg", jpeg);
+        mJpeg = jpeg.toByteArray();
+
+        mDirectory = File.createTempFile("pixels", "");
+        mDirectory.delete();
+        mCache = new PixelDiskCache(mDirectory, Long.MAX_VALUE);
+        final PixelImage decoded = decodeJpeg();
+        mImage = split(decoded, new TileGrid(WIDTH, HEIGHT, tileSize));
+        decoded.recycle(mBuffers);
+        mCache.put(KEY, mImage);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCache.remove(KEY);
+        mDirectory.delete();
+    }
+
+    /**
+     * Decodes the JPEG into RGBA pixels, as a miss does before it can upload anything.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public PixelImage decode() throws IOException {
+        final PixelImage image = decodeJpeg();
+        image.recycle(mBuffers);
+        return image;
+    }
+
+    /**
+     * @return The JPEG's pixels as RGBA in a staging buffer.
+     */
+    private PixelImage decodeJpeg() throws IOException {
+        final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(mJpeg));
+        final int[] row = new int[WIDTH];
+        final ByteBuffer pixels = mBuffers.acquire(PIXELS * BYTES_PER_PIXEL);
+        for (int y = 0; y < HEIGHT; y++) {
+            decoded.getRGB(0, y, WIDTH, 1, row, 0, WIDTH);
+            for (int argb : row) {
+                pixels.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb).put((byte) (argb >>> 24));
+            }
+        }
+        pixels.position(0);
+        return new PixelImage(WIDTH, HEIGHT, BYTES_PER_PIXEL, GL_RGBA, GL_UNSIGNED_BYTE, pixels);
+    }
+
+    /**
+     * Reads the entry back into staging buffers, checking every tile's CRC.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public TiledImage hit() {
+        final TiledImage image = mCache.get(KEY, mBuffers);
+        for (int tile = 0; tile < image.getTileCount(); tile++) {
+            image.getTile(tile).recycle(mBuffers);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the entry, what a miss adds after decoding.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public void store() throws IOException {
+        mCache.put(KEY, mImage);
+    }
+
+    /**
+     * Copies a decoded panorama into one image per tile.
+     */
+    private TiledImage split(final PixelImage image, final TileGrid grid) {
+        final PixelImage[] tiles = new PixelImage[grid.getTileCount()];
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final int width = grid.getTileWidth(column);
+                final int height = grid.getTileHeight(row);
+                final ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL);
+                final ByteBuffer source = image.getPixels().duplicate();
+                for (int y = 0; y < height; y++) {
+                    final int start = ((grid.getTileY(row) + y) * WIDTH + grid.getTileX(column)) * BYTES_PER_PIXEL;
+                    source.limit(start + width * BYTES_PER_PIXEL).position(start);
+                    pixels.put(source);
+                }
+                pixels.position(0);
+                tiles[grid.getTileIndex(column, row)] = new PixelImage(width, height, BYTES_PER_PIXEL, GL_RGBA,
+                        GL_UNSIGNED_BYTE, pixels);
+            }
+        }
+        return new TiledImage(grid, tiles);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.PosePredictor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Replays synthetic head traces through every {@link PosePredictor.Model} and reports the
+ *         angular error of the predicted orientation against the true one at the target time.
+ *         <p/>
+ *         Samples arrive at 60 Hz with jitter, and each one is predicted a fixed latency ahead.
+ *         Exits with 1 if a predicting model does worse than no prediction on any trace, so it
+ *         can gate a build.
+ *         <p/>
+ *         Usage: poseReplay [--latency-ms N] [--seconds N]
+ */
+public final class PoseReplay {
+
+    private static final double FRAME_SECONDS = 1 / 60.0;
+    private static final double JITTER_SECONDS = 0.002;
+
+    private PoseReplay() {
+    }
+
+    /**
+     * A head orientation over time.
+     */
+    interface Trace {
+        String getName();
+
+        /**
+         * @param seconds Time since the start.
+         * @param result  Receives yaw, pitch and roll in radians.
+         */
+        void angles(double seconds, double[] result);
+    }
+
+    public static void main(final String[] args) {
+        double latency = 0.030;
+        double seconds = 20;
+        for (int i = 0; i < args.length; i++) {
+            if ("--latency-ms".equals(args[i]) && i + 1 < args.length) {
+                latency = Double.parseDouble(args[++i]) / 1000;
+            } else if ("--seconds".equals(args[i]) && i + 1 < args.length) {
+                seconds = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("Usage: poseReplay [--latency-ms N] [--seconds N]");
+                System.exit(2);
+            }
+        }
+
+        boolean regressed = false;
+        for (Trace trace : traces()) {
+            double baseline = 0;
+            for (PosePredictor.Model model : PosePredictor.Model.values()) {
+                final double[] errors = replay(trace, model, latency, seconds);
+                final double mean = mean(errors);
+                if (model == PosePredictor.Model.NONE) {
+                    baseline = mean;
+                } else if (mean > baseline) {
+                    regressed = true;
+                }
+                System.out.println(String.format("%-12s %-22s mean %6.3f deg  p95 %6.3f deg  max %6.3f deg",
+                        trace.getName(), model, mean, percentile(errors, 0.95), percentile(errors, 1)));
+            }
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return Angular error in degrees of every prediction.
+     */
+    static double[] replay(final Trace trace, final PosePredictor.Model model, final double latency,
+                           final double seconds) {
+        final PosePredictor predictor = new PosePredictor(model);
+        final Random jitter = new Random(7);
+        final double[] angles = new double[3];
+        final float[] sample = new float[4];
+        final float[] truth = new float[4];
+        final float[] predicted = new float[4];
+        final int frames = (int) (seconds / FRAME_SECONDS);
+        final double[] errors = new double[frames];
+
+        for (int frame = 0; frame < frames; frame++) {
+            final double time = frame * FRAME_SECONDS + (jitter.nextDouble() * 2 - 1) * JITTER_SECONDS;
+            trace.angles(time, angles);
+            toQuaternion(angles, sample);
+            predictor.addSample(toNanos(time), sample);
+
+            trace.angles(time + latency, angles);
+            toQuaternion(angles, truth);
+            predictor.predict(toNanos(time + latency), predicted);
+            errors[frame] = Math.toDegrees(PosePredictor.angleBetween(predicted, truth));
+        }
+        return errors;
+    }
+
+    static Trace[] traces() {
+        return new Trace[]{
+                new Trace() {
+                    @Override
+                    public String getName() {
+                        return "sweep";
+                    }
+
+                    @Override
+                    public void angles(final double seconds, final double[] result) {
+                        // Looking around at a relaxed pace.
+                        result[0] = Math.toRadians(40) * Math.sin(2 * Math.PI * 0.4 * seconds);
+                        result[1] = Math.toRadians(10) * Math.sin(2 * Math.PI * 0.25 * seconds);
+                        result[2] = 0;
+                    }
+                },
+                new Trace() {
+                    @Override
+                    public String getName() {
+                        return "turns";
+                    }
+
+                    @Override
+                    public void angles(final double seconds, final double[] result) {
+                        // 60 degree turns of 300 ms with a minimum jerk profile, one a second.
+                        final double phase = seconds - Math.floor(seconds);
+                        final double s = Math.min(1, phase / 0.3);
+                        final double step = s * s * s * (10 - 15 * s + 6 * s * s);
+                        result[0] = Math.toRadians(60) * (Math.floor(seconds) % 2 == 0 ? step : 1 - step);
+                        result[1] = 0;
+                        result[2] = 0;
+                    }
+                },
+                new Trace() {
+                    private final double[] mFrequencies = {0.3, 0.7, 1.3, 2.1};
+                    private final double[] mPhases = {0.2, 1.9, 4.1, 0.7};
+
+                    @Override
+                    public String getName() {
+                        return "wander";
+                    }
+
+                    @Override
+                    public void angles(final double seconds, final double[] result) {
+                        // Sums of sines on every axis, with shrinking amplitudes.
+                        Arrays.fill(result, 0);
+                        for (int i = 0; i < mFrequencies.length; i++) {
+                            final double amplitude = Math.toRadians(25) / (i + 1);
+                            for (int axis = 0; axis < 3; axis++) {
+                                result[axis] += (axis == 2 ? 0.3 : 1) * amplitude
+                                        * Math.sin(2 * Math.PI * mFrequencies[i] * seconds + mPhases[i] * (axis + 1));
+                            }
+                        }
+                    }
+                }
+        };
+    }
+
+    /**
+     * Yaw about y, then pitch about x, then roll about z.
+     */
+    private static void toQuaternion(final double[] angles, final float[] q) {
+        final double cy = Math.cos(angles[0] / 2), sy = Math.sin(angles[0] / 2);
+        final double cp = Math.cos(angles[1] / 2), sp = Math.sin(angles[1] / 2);
+        final double cr = Math.cos(angles[2] / 2), sr = Math.sin(angles[2] / 2);
+        q[0] = (float) (cy * sp * cr + sy * cp * sr);
+        q[1] = (float) (sy * cp * cr - cy * sp * sr);
+        q[2] = (float) (cy * cp * sr - sy * sp * cr);
+        q[3] = (float) (cy * cp * cr + sy * sp * sr);
+    }
+
+    private static long toNanos(final double seconds) {
+        return (long) (seconds * 1e9);
+    }
+
+    private static double mean(final double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double percentile(final double[] values, final double fraction) {
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.PanoramaTexture;
+import com.cardboard.photosphere.RenderState;
+import com.cardboard.photosphere.ShaderProgram;
+import com.cardboard.photosphere.ShaderProgramCache;
+import com.cardboard.photosphere.SphereDrawer;
+import com.cardboard.photosphere.StereoBatch;
+import com.cardboard.photosphere.TileGrid;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Runs the sphere's frames through {@link RenderState} and {@link SphereDrawer} over a
+ *         {@link FakeGL}, the way MainActivity draws them, and checks that once the state is set
+ *         every frame makes the same, expected number of GL calls and allocates nothing.
+ *         <p/>
+ *         Frames are drawn eye by eye and instanced, for the single texture sphere, a tiled
+ *         panorama with every tile resident and one still drawing from its base layer.
+ *         Allocations are read from the JVM's per thread allocation counter, after
+ *         {@link #WARM_UP_FRAMES} frames to let the JIT settle.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: renderFrameCheck
+ */
+public final class RenderFrameCheck {
+
+    private static final int WARM_UP_FRAMES = 20000;
+    private static final int FRAMES = 2000;
+    private static final int ROUNDS = 5;
+    private static final int DEPTH = 5;
+    private static final float RADIUS = 5f;
+
+    /**
+     * Calls every eye makes whatever it draws: both attribute pointers and the matrix.
+     */
+    private static final int CALLS_PER_EYE = 3;
+
+    private static final TileGrid TILES = new TileGrid(8192, 4096, 2048);
+
+    private RenderFrameCheck() {
+    }
+
+    public static void main(final String[] args) {
+        final int tiles = TILES.getTileCount();
+        boolean failed = false;
+
+        // One texture bound once: per eye only the fixed calls and the draw.
+        failed |= !checkFrames("single texture, per eye", null, false, false, 2 * (CALLS_PER_EYE + 1));
+
+        // A texture per tile: every draw binds its tile's texture, the transforms are all the same.
+        failed |= !checkFrames("resident tiles, per eye", TILES, false, false, 2 * (CALLS_PER_EYE + 2 * tiles));
+
+        // The base layer stays bound, every draw sets its tile's part of it.
+        failed |= !checkFrames("base layer, per eye", TILES, true, false, 2 * (CALLS_PER_EYE + 2 * tiles));
+
+        // Both eyes in one pass.
+        failed |= !checkFrames("resident tiles, instanced", TILES, false, true, CALLS_PER_EYE + 2 * tiles);
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param grid          Tiles of the panorama, null for a single texture.
+     * @param baseOnly      True to draw every tile from the base layer.
+     * @param instanced     True to draw both eyes with one instanced call per tile.
+     * @param expectedCalls GL calls of every steady frame.
+     */
+    private static boolean checkFrames(final String name, final TileGrid grid, final boolean baseOnly,
+                                       final boolean instanced, final int expectedCalls) {
+        final FakeGL gl = new FakeGL();
+        final RenderState renderState = new RenderState(gl);
+        final ShaderProgramCache programs = FakeShaderCompiler.newCache();
+        final ShaderProgram program = FakeShaderCompiler.link(programs, "sphere");
+        final ShaderProgram stereoProgram = FakeShaderCompiler.link(programs, "sphere stereo");
+
+        final SphereDrawer drawer = new SphereDrawer(DEPTH, RADIUS, renderState);
+        drawer.onSurfaceCreated(program, stereoProgram);
+        final PanoramaTexture texture = new PanoramaTexture(1, grid == null ? new TileGrid(4096, 2048, 4096) : grid);
+        int nextTexture = 1;
+        texture.setBaseTextureHandle(nextTexture++, 0);
+        if (!baseOnly) {
+            for (int tile = 0; tile < texture.getGrid().getTileCount(); tile++) {
+                texture.setTextureHandle(tile, nextTexture++, 0);
+            }
+        }
+        drawer.setTexture(texture);
+
+        final float[] left = new float[16];
+        final float[] right = new float[16];
+        final StereoBatch batch = new StereoBatch();
+        batch.setMatrix(0, left);
+        batch.setMatrix(1, right);
+
+        for (int frame = 0; frame < WARM_UP_FRAMES; frame++) {
+            drawFrame(drawer, instanced, left, right, batch);
+        }
+
+        int minCalls = Integer.MAX_VALUE;
+        int maxCalls = 0;
+        int stateCalls = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            gl.clear();
+            drawFrame(drawer, instanced, left, right, batch);
+            minCalls = Math.min(minCalls, gl.getCallCount());
+            maxCalls = Math.max(maxCalls, gl.getCallCount());
+            stateCalls += gl.getCount(FakeGL.USE_PROGRAM) + gl.getCount(FakeGL.BIND_BUFFER)
+                    + gl.getCount(FakeGL.ENABLE) + gl.getCount(FakeGL.CULL_FACE) + gl.getCount(FakeGL.FRONT_FACE)
+                    + gl.getCount(FakeGL.ENABLE_ATTRIB) + gl.getCount(FakeGL.ACTIVE_TEXTURE)
+                    + gl.getCount(FakeGL.BUFFER_DATA);
+        }
+
+        final long allocated = allocatedBytes(drawer, instanced, left, right, batch);
+        drawer.release();
+
+        return report(name + ": " + minCalls + ".." + maxCalls + " GL calls per frame, expected " + expectedCalls
+                        + ", " + stateCalls + " redundant state calls, " + allocated + " bytes allocated in "
+                        + FRAMES + " frames",
+                minCalls == expectedCalls && maxCalls == expectedCalls && stateCalls == 0 && allocated == 0);
+    }
+
+    /**
+     * Draws a frame the way MainActivity does: prepare once, then both eyes.
+     */
+    private static void drawFrame(final SphereDrawer drawer, final boolean instanced, final float[] left,
+                                  final float[] right, final StereoBatch batch) {
+        drawer.prepareFrame();
+        if (instanced) {
+            drawer.drawStereo(batch);
+        } else {
+            drawer.draw(left);
+            drawer.draw(right);
+        }
+    }
+
+    /**
+     * @return Bytes the calling thread allocates drawing {@link #FRAMES} frames, less what
+     * reading the counter itself allocates. The least of {@link #ROUNDS} rounds, as the JIT may
+     * allocate once recompiling the loop, while anything a frame allocates shows in every round.
+     */
+    private static long allocatedBytes(final SphereDrawer drawer, final boolean instanced, final float[] left,
+                                       final float[] right, final StereoBatch batch) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = threads.getThreadAllocatedBytes(thread);
+            final long overhead = threads.getThreadAllocatedBytes(thread) - start;
+            final long before = threads.getThreadAllocatedBytes(thread);
+            for (int frame = 0; frame < FRAMES; frame++) {
+                drawFrame(drawer, instanced, left, right, batch);
+            }
+            least = Math.min(least, threads.getThreadAllocatedBytes(thread) - before - overhead);
+        }
+        return least;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
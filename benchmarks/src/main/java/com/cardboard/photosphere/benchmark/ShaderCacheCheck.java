@@ -0,0 +1,309 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.ShaderProgram;
+import com.cardboard.photosphere.ShaderProgramCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks {@link ShaderProgramCache} over a fake compiler that hands out numbered programs
+ *         and binaries naming them: how keys hash, that programs are shared, that a new context
+ *         or a new launch links from binaries, that binaries of another driver, rejected or
+ *         corrupt ones fall back to compiling, and that a warm up on another thread never links a
+ *         program twice.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: shaderCacheCheck
+ */
+public final class ShaderCacheCheck {
+
+    private static final String[] ATTRIBUTES = {"a_Position", "a_TexCoordinate"};
+    private static final String[] UNIFORMS = {"u_MVPMatrix", "u_Texture"};
+
+    private ShaderCacheCheck() {
+    }
+
+    /**
+     * Compiles by numbering programs, optionally slowly, and loads binaries unless told to
+     * reject them.
+     */
+    private static final class FakeCompiler implements ShaderProgramCache.Compiler {
+        final String mDriver;
+        final boolean mBinaries;
+        final long mCompileMillis;
+        final AtomicInteger mNextProgram = new AtomicInteger(1);
+        final AtomicInteger mCompiles = new AtomicInteger();
+        final AtomicInteger mFinishes = new AtomicInteger();
+        volatile boolean mRejectBinaries;
+
+        FakeCompiler(final String driver, final boolean binaries, final long compileMillis) {
+            this.mDriver = driver;
+            this.mBinaries = binaries;
+            this.mCompileMillis = compileMillis;
+        }
+
+        @Override
+        public int compile(final String vertexShader, final String fragmentShader, final String[] attributes) {
+            if (vertexShader.contains("error")) {
+                throw new RuntimeException("Error creating shader.");
+            }
+            mCompiles.incrementAndGet();
+            if (mCompileMillis > 0) {
+                try {
+                    Thread.sleep(mCompileMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return mNextProgram.getAndIncrement();
+        }
+
+        @Override
+        public ShaderProgramCache.Binary getBinary(final int program) {
+            return mBinaries ? new ShaderProgramCache.Binary(0x1234, ("program " + program).getBytes()) : null;
+        }
+
+        @Override
+        public int loadBinary(final ShaderProgramCache.Binary binary) {
+            return mRejectBinaries || binary.getFormat() != 0x1234 ? 0 : mNextProgram.getAndIncrement();
+        }
+
+        @Override
+        public int getUniformLocation(final int program, final String name) {
+            return Arrays.asList(UNIFORMS).indexOf(name);
+        }
+
+        @Override
+        public void deleteProgram(final int program) {
+        }
+
+        @Override
+        public void finish() {
+            mFinishes.incrementAndGet();
+        }
+
+        @Override
+        public String getDriver() {
+            return mDriver;
+        }
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final File directory = Files.createTempDirectory("shaders").toFile();
+        boolean failed = false;
+        try {
+            failed |= !checkKeys();
+            failed |= !checkSharing();
+            failed |= !checkContextLoss();
+            failed |= !checkLaunches(directory);
+            failed |= !checkWithoutBinaries();
+            failed |= !checkWarmUp();
+        } finally {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static ShaderProgramCache.Key key(final String name) {
+        return new ShaderProgramCache.Key("vertex " + name, "fragment " + name, ATTRIBUTES);
+    }
+
+    private static boolean checkKeys() {
+        final ShaderProgramCache.Key key = key("sphere");
+        boolean passed = report("hash: " + key.getHash(), key.getHash().matches("[0-9a-f]{40}"));
+        passed &= report("keys of equal sources and bindings are equal",
+                key.equals(key("sphere")) && key.hashCode() == key("sphere").hashCode());
+        passed &= report("a changed source changes the key", !key.equals(key("spheres")));
+        passed &= report("other attribute bindings change the key",
+                !key.equals(new ShaderProgramCache.Key("vertex sphere", "fragment sphere",
+                        new String[]{"a_TexCoordinate", "a_Position"})));
+        passed &= report("moving text between sources changes the key",
+                !new ShaderProgramCache.Key("ab", "c", new String[0]).equals(
+                        new ShaderProgramCache.Key("a", "bc", new String[0])));
+        passed &= report("moving text between attributes changes the key",
+                !new ShaderProgramCache.Key("a", "b", new String[]{"cd", "e"}).equals(
+                        new ShaderProgramCache.Key("a", "b", new String[]{"c", "de"})));
+        return passed;
+    }
+
+    private static boolean checkSharing() {
+        final FakeCompiler compiler = new FakeCompiler("gpu", true, 0);
+        final ShaderProgramCache cache = new ShaderProgramCache(compiler, null);
+        final ShaderProgram sphere = cache.getProgram(key("sphere"), UNIFORMS);
+        final ShaderProgram again = cache.getProgram(key("sphere"), UNIFORMS);
+        final ShaderProgram cube = cache.getProgram(key("cube"), UNIFORMS);
+        boolean passed = report("sharing: " + compiler.mCompiles.get() + " compiles, " + cache.getHitCount()
+                        + " hit for three requests of two programs",
+                compiler.mCompiles.get() == 2 && cache.getHitCount() == 1
+                        && sphere.getHandle() == again.getHandle() && sphere.getHandle() != cube.getHandle());
+        passed &= report("uniforms looked up in order", again.getUniformLocation(1) == 1);
+
+        boolean thrown = false;
+        try {
+            cache.getProgram(new ShaderProgramCache.Key("error", "fragment", ATTRIBUTES), UNIFORMS);
+        } catch (RuntimeException e) {
+            thrown = true;
+        }
+        passed &= report("a program that does not compile throws", thrown);
+        return passed;
+    }
+
+    private static boolean checkContextLoss() {
+        final FakeCompiler compiler = new FakeCompiler("gpu", true, 0);
+        final ShaderProgramCache cache = new ShaderProgramCache(compiler, null);
+        final int before = cache.getProgram(key("sphere"), UNIFORMS).getHandle();
+        cache.onSurfaceCreated();
+        final int after = cache.getProgram(key("sphere"), UNIFORMS).getHandle();
+        return report("context loss: relinked from the binary in memory, " + compiler.mCompiles.get() + " compile",
+                compiler.mCompiles.get() == 1 && cache.getBinaryLoadCount() == 1 && before != after);
+    }
+
+    private static boolean checkLaunches(final File directory) throws IOException {
+        final ShaderProgramCache first = new ShaderProgramCache(new FakeCompiler("gpu", true, 0), directory);
+        first.getProgram(key("sphere"), UNIFORMS);
+        first.getProgram(key("cube"), UNIFORMS);
+
+        final FakeCompiler compiler = new FakeCompiler("gpu", true, 0);
+        final ShaderProgramCache second = new ShaderProgramCache(compiler, directory);
+        second.getProgram(key("sphere"), UNIFORMS);
+        second.getProgram(key("cube"), UNIFORMS);
+        boolean passed = report("next launch: " + second.getBinaryLoadCount() + " programs from disk, "
+                + compiler.mCompiles.get() + " compiled", second.getBinaryLoadCount() == 2 && compiler.mCompiles.get() == 0);
+
+        final FakeCompiler updated = new FakeCompiler("gpu 2", true, 0);
+        final ShaderProgramCache third = new ShaderProgramCache(updated, directory);
+        third.getProgram(key("sphere"), UNIFORMS);
+        passed &= report("another driver: compiled, its binary stored", updated.mCompiles.get() == 1
+                && third.getBinaryLoadCount() == 0);
+
+        final FakeCompiler rejecting = new FakeCompiler("gpu 2", true, 0);
+        rejecting.mRejectBinaries = true;
+        final ShaderProgramCache fourth = new ShaderProgramCache(rejecting, directory);
+        fourth.getProgram(key("sphere"), UNIFORMS);
+        passed &= report("rejected binary: " + fourth.getBinaryRejectCount() + " rejected, compiled",
+                fourth.getBinaryRejectCount() == 1 && rejecting.mCompiles.get() == 1);
+
+        // Cut every entry short.
+        final File[] files = directory.listFiles();
+        for (File file : files) {
+            final RandomAccessFile entry = new RandomAccessFile(file, "rw");
+            try {
+                entry.setLength(entry.length() - 3);
+            } finally {
+                entry.close();
+            }
+        }
+        final FakeCompiler afterCorruption = new FakeCompiler("gpu 2", true, 0);
+        final ShaderProgramCache fifth = new ShaderProgramCache(afterCorruption, directory);
+        fifth.getProgram(key("sphere"), UNIFORMS);
+        fifth.getProgram(key("cube"), UNIFORMS);
+        passed &= report("truncated entries: compiled", afterCorruption.mCompiles.get() == 2
+                && fifth.getBinaryLoadCount() == 0);
+        return passed;
+    }
+
+    private static boolean checkWithoutBinaries() {
+        final FakeCompiler compiler = new FakeCompiler("gpu", false, 0);
+        final ShaderProgramCache cache = new ShaderProgramCache(compiler, null);
+        cache.getProgram(key("sphere"), UNIFORMS);
+        cache.onSurfaceCreated();
+        cache.getProgram(key("sphere"), UNIFORMS);
+        return report("no binaries: compiled for every context", compiler.mCompiles.get() == 2);
+    }
+
+    /**
+     * Warms up on one thread while another asks for the same programs in the opposite order,
+     * with compiles slow enough for the two to meet.
+     */
+    private static boolean checkWarmUp() throws InterruptedException {
+        final FakeCompiler compiler = new FakeCompiler("gpu", true, 20);
+        final ShaderProgramCache cache = new ShaderProgramCache(compiler, null);
+        final List<ShaderProgramCache.Key> keys = new ArrayList<ShaderProgramCache.Key>();
+        for (int i = 0; i < 8; i++) {
+            keys.add(key("program " + i));
+        }
+        final int[] warmedUp = new int[1];
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmedUp[0] = cache.warmUp(keys);
+            }
+        });
+        thread.start();
+
+        final List<ShaderProgramCache.Key> reversed = new ArrayList<ShaderProgramCache.Key>(keys);
+        Collections.reverse(reversed);
+        final int[] handles = new int[keys.size()];
+        for (int i = 0; i < reversed.size(); i++) {
+            handles[i] = cache.getProgram(reversed.get(i), UNIFORMS).getHandle();
+        }
+        thread.join();
+
+        boolean consistent = true;
+        for (int i = 0; i < reversed.size(); i++) {
+            consistent &= cache.getProgram(reversed.get(i), UNIFORMS).getHandle() == handles[i];
+        }
+        boolean passed = report("warm up: " + compiler.mCompiles.get() + " compiles for " + keys.size() + " programs, "
+                        + warmedUp[0] + " on the warm up thread",
+                compiler.mCompiles.get() == keys.size() && consistent && warmedUp[0] > 0
+                        && compiler.mFinishes.get() == warmedUp[0]);
+
+        // A new context stops a warm up of the old one.
+        final FakeCompiler slow = new FakeCompiler("gpu", false, 20);
+        final ShaderProgramCache restarted = new ShaderProgramCache(slow, null);
+        final Thread stale = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmedUp[0] = restarted.warmUp(keys);
+            }
+        });
+        stale.start();
+        Thread.sleep(30);
+        restarted.onSurfaceCreated();
+        stale.join();
+        final int program = restarted.getProgram(keys.get(0), UNIFORMS).getHandle();
+        passed &= report("new context: warm up stopped after " + warmedUp[0] + " of " + keys.size()
+                + ", its programs dropped", warmedUp[0] < keys.size() && program > warmedUp[0]);
+        return passed;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.ForkJoinRange;
+import com.cardboard.photosphere.SphereMesh;
+import com.cardboard.photosphere.TileGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Generation of the sphere geometry at every depth, the CPU side of the Sphere
+ *         constructor. The rest of it only hands the arrays to the GL.
+ *         <p/>
+ *         {@link #legacy} is the generator before the trig tables, to compare against. The pool
+ *         only builds strips in parallel from SphereMesh's vertex threshold, below it
+ *         {@link #generateOnPool} shows what the check costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SphereMeshBenchmark {
+
+    private static final float RADIUS = 5f;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7"})
+    public int depth;
+
+    /**
+     * A 4096x2048 panorama in the 512 pixel tiles the app streams.
+     */
+    private final TileGrid mGrid = new TileGrid(4096, 2048, 512);
+
+    private final ForkJoinPool mPool = new ForkJoinPool();
+    private final ForkJoinRange mParallel = new ForkJoinRange(mPool);
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public SphereMesh generate() {
+        return new SphereMesh(depth, RADIUS);
+    }
+
+    @Benchmark
+    public SphereMesh generateTiled() {
+        return new SphereMesh(mGrid, depth, RADIUS);
+    }
+
+    @Benchmark
+    public SphereMesh generateOnPool() {
+        return new SphereMesh(depth, RADIUS, mParallel);
+    }
+
+    @Benchmark
+    public Object legacy() {
+        return new LegacySphereMesh(depth, RADIUS);
+    }
+}
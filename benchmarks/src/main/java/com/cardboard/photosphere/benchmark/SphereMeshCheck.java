@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.ForkJoinRange;
+import com.cardboard.photosphere.SphereMesh;
+import com.cardboard.photosphere.TileGrid;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the table driven {@link SphereMesh} against {@link LegacySphereMesh} at every
+ *         depth. Vertices are numbered differently, so triangles are compared corner by corner:
+ *         positions must agree within {@link #POSITION_BOUND} of the radius and texture
+ *         coordinates within {@link #TEXTURE_BOUND}. Also checks that every vertex is used and
+ *         that building the strips on a pool gives the same mesh.
+ *         <p/>
+ *         Vertex and index counts are checked against the counts the strip layout implies, and
+ *         tiled meshes against their tiles' index ranges. No mesh may hold the same vertex twice.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: sphereMeshCheck
+ */
+public final class SphereMeshCheck {
+
+    private static final float RADIUS = 5f;
+    private static final double POSITION_BOUND = 1e-6;
+    private static final double TEXTURE_BOUND = 1e-6;
+
+    /**
+     * Positions closer than this fraction of the radius are the same point on the sphere.
+     */
+    private static final double POSITION_QUANTUM = 1e-5;
+
+    /**
+     * Tile layouts the tiled meshes are checked with: tiles that divide the image and tiles that
+     * leave narrower edge tiles.
+     */
+    private static final TileGrid[] GRIDS = {new TileGrid(8192, 4096, 2048), new TileGrid(5000, 2500, 2048)};
+
+    private SphereMeshCheck() {
+    }
+
+    public static void main(final String[] args) {
+        final ForkJoinPool pool = new ForkJoinPool();
+        boolean failed = false;
+        try {
+            for (int depth = 1; depth <= SphereMesh.MAXIMUM_ALLOWED_DEPTH; depth++) {
+                final SphereMesh mesh = new SphereMesh(depth, RADIUS);
+                failed |= !checkAgainstLegacy(depth, mesh, new LegacySphereMesh(depth, RADIUS));
+                failed |= !checkAllUsed(depth, mesh);
+                failed |= !checkParallel(depth, mesh, new SphereMesh(depth, RADIUS, new ForkJoinRange(pool)));
+                failed |= !checkCounts(depth, mesh);
+                failed |= !checkNoDuplicates("depth " + depth, mesh);
+                for (TileGrid grid : GRIDS) {
+                    failed |= !checkTiled(grid, depth);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkAgainstLegacy(final int depth, final SphereMesh mesh, final LegacySphereMesh legacy) {
+        final short[] indices = mesh.getIndices();
+        final short[] legacyIndices = legacy.getIndices();
+        if (indices.length != legacyIndices.length) {
+            return report("depth " + depth + ": " + indices.length + " indices, legacy has " + legacyIndices.length,
+                    false);
+        }
+        double positionError = 0;
+        double textureError = 0;
+        for (int i = 0; i < indices.length; i++) {
+            final int pos = (indices[i] & 0xffff) * SphereMesh.NUM_FLOATS_PER_VERTEX;
+            final int legacyPos = (legacyIndices[i] & 0xffff) * SphereMesh.NUM_FLOATS_PER_VERTEX;
+            for (int j = 0; j < SphereMesh.NUM_FLOATS_PER_VERTEX; j++) {
+                final double error = Math.abs(mesh.getVertices()[pos + j] - legacy.getVertices()[legacyPos + j]);
+                if (j < SphereMesh.TEXTURE_OFFSET) {
+                    positionError = Math.max(positionError, error / RADIUS);
+                } else {
+                    textureError = Math.max(textureError, error);
+                }
+            }
+        }
+        return report(String.format("depth %d: largest error %.3g of the radius in positions, %.3g in texture"
+                        + " coordinates", depth, positionError, textureError),
+                positionError <= POSITION_BOUND && textureError <= TEXTURE_BOUND);
+    }
+
+    private static boolean checkAllUsed(final int depth, final SphereMesh mesh) {
+        final boolean[] used = new boolean[mesh.getVertexCount()];
+        for (short index : mesh.getIndices()) {
+            used[index & 0xffff] = true;
+        }
+        int unused = 0;
+        for (boolean u : used) {
+            if (!u) {
+                unused++;
+            }
+        }
+        return report("depth " + depth + ": " + unused + " of " + used.length + " vertices unused", unused == 0);
+    }
+
+    private static boolean checkParallel(final int depth, final SphereMesh mesh, final SphereMesh parallel) {
+        final boolean same = Arrays.equals(mesh.getVertices(), parallel.getVertices())
+                && Arrays.equals(mesh.getIndices(), parallel.getIndices());
+        return report("depth " + depth + ": pool built mesh " + (same ? "is identical" : "differs"), same);
+    }
+
+    /**
+     * Counts from the strip layout: 5 * 2^(depth - 1) strips from pole to pole over
+     * 3 * 2^(depth - 1) rings. Every strip has one triangle at each pole and two per ring in
+     * between; the poles have a vertex per strip, the rings in between a vertex per strip plus
+     * one on the seam.
+     */
+    private static boolean checkCounts(final int depth, final SphereMesh mesh) {
+        final int strips = 5 << (depth - 1);
+        final int rings = 3 << (depth - 1);
+        final int vertices = 2 * strips + (rings - 1) * (strips + 1);
+        final int indices = strips * (2 * rings - 2) * 3;
+        final int positions = 2 + (rings - 1) * strips;
+
+        int outOfRange = 0;
+        for (short index : mesh.getIndices()) {
+            if ((index & 0xffff) >= mesh.getVertexCount()) {
+                outOfRange++;
+            }
+        }
+        final int distinct = distinctPositions(mesh);
+        final boolean passed = mesh.getVertexCount() == vertices
+                && mesh.getVertices().length == vertices * SphereMesh.NUM_FLOATS_PER_VERTEX
+                && mesh.getIndexCount() == indices && mesh.getIndices().length == indices
+                && SphereMesh.vertexCount(depth) == vertices && SphereMesh.indexCount(depth) == indices
+                && SphereMesh.byteSize(depth)
+                == vertices * SphereMesh.VERTEX_STRIDE + indices * SphereMesh.BYTES_PER_SHORT
+                && mesh.getTileCount() == 1 && mesh.getTileIndexStart(0) == 0
+                && mesh.getTileIndexCount(0) == indices
+                && outOfRange == 0 && distinct == positions;
+        return report("depth " + depth + ": " + mesh.getVertexCount() + " vertices, " + mesh.getIndexCount()
+                + " indices, " + distinct + " points, expected " + vertices + ", " + indices + ", " + positions
+                + ", " + outOfRange + " indices out of range", passed);
+    }
+
+    /**
+     * Every tile's indices are a run of whole triangles directly after the previous tile's, and
+     * the vertices are the ones its patches need.
+     */
+    private static boolean checkTiled(final TileGrid grid, final int depth) {
+        final int fitted = SphereMesh.fitTiledDepth(grid, depth);
+        final SphereMesh mesh = new SphereMesh(grid, fitted, RADIUS);
+        final String name = "depth " + depth + " on " + grid.getImageWidth() + "x" + grid.getImageHeight()
+                + " in " + grid.getColumns() + "x" + grid.getRows() + " tiles";
+
+        boolean contiguous = mesh.getTileCount() == grid.getTileCount();
+        int next = 0;
+        for (int tile = 0; contiguous && tile < mesh.getTileCount(); tile++) {
+            contiguous = mesh.getTileIndexStart(tile) == next && mesh.getTileIndexCount(tile) > 0
+                    && mesh.getTileIndexCount(tile) % 3 == 0;
+            next += mesh.getTileIndexCount(tile);
+        }
+        contiguous &= next == mesh.getIndexCount();
+        final boolean passed = contiguous && mesh.getVertexCount() == SphereMesh.tiledVertexCount(grid, fitted)
+                && mesh.getVertexCount() <= SphereMesh.MAXIMUM_VERTEX_COUNT;
+        return report(name + ": " + mesh.getVertexCount() + " vertices, tile ranges "
+                + (contiguous ? "contiguous" : "broken"), passed) & checkNoDuplicates(name, mesh);
+    }
+
+    /**
+     * Two vertices are duplicates if all their floats are equal, the seam and the poles share
+     * positions but not texture coordinates.
+     */
+    private static boolean checkNoDuplicates(final String name, final SphereMesh mesh) {
+        final float[] vertices = mesh.getVertices();
+        final Integer[] order = new Integer[mesh.getVertexCount()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final Comparator<Integer> byFloats = new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                for (int j = 0; j < SphereMesh.NUM_FLOATS_PER_VERTEX; j++) {
+                    final int c = Float.compare(vertices[a * SphereMesh.NUM_FLOATS_PER_VERTEX + j],
+                            vertices[b * SphereMesh.NUM_FLOATS_PER_VERTEX + j]);
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            }
+        };
+        Arrays.sort(order, byFloats);
+        int duplicates = 0;
+        for (int i = 1; i < order.length; i++) {
+            if (byFloats.compare(order[i - 1], order[i]) == 0) {
+                duplicates++;
+            }
+        }
+        return report(name + ": " + duplicates + " duplicate vertices", duplicates == 0);
+    }
+
+    private static int distinctPositions(final SphereMesh mesh) {
+        final float[] vertices = mesh.getVertices();
+        final Set<String> positions = new HashSet<String>();
+        for (int pos = 0; pos < vertices.length; pos += SphereMesh.NUM_FLOATS_PER_VERTEX) {
+            positions.add(quantize(vertices[pos]) + " " + quantize(vertices[pos + 1]) + " "
+                    + quantize(vertices[pos + 2]));
+        }
+        return positions.size();
+    }
+
+    private static long quantize(final float coordinate) {
+        return Math.round(coordinate / RADIUS / POSITION_QUANTUM);
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
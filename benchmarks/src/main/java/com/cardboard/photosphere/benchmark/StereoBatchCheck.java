@@ -0,0 +1,336 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.EyeMatrices;
+import com.cardboard.photosphere.MatrixHelper;
+import com.cardboard.photosphere.StereoBatch;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the per eye matrices and how both eyes are batched into one draw.
+ *         <p/>
+ *         {@link EyeMatrices} has to return projection * eyeView * headCorrection * camera for
+ *         every eye, recompute an eye only when its view or a shared matrix really changed, and
+ *         place every eye where its view matrix puts it. {@link StereoBatch} has to tell side by
+ *         side viewports from any other layout, pack the eyes' matrices left first, and its
+ *         shared clip space has to put every point on the same pixel the eye's own viewport
+ *         would, for points the eye's matrix projects from {@link EyeMatrices}.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: stereoBatchCheck
+ */
+public final class StereoBatchCheck {
+
+    private static final int LEFT = 1;
+    private static final int RIGHT = 2;
+
+    /**
+     * Half the distance between the eyes, in model units.
+     */
+    private static final float HALF_IPD = 0.032f;
+
+    private static final float[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    private static final float EPSILON = 1e-5f;
+    private static final float PIXEL_EPSILON = 1e-3f;
+    private static final int POINTS = 1000;
+
+    /**
+     * Marks a matrix element that only survives if the matrix is not recomputed.
+     */
+    private static final float SENTINEL = 12345f;
+
+    private static final int[][][] VIEWPORTS = {
+            // Left, right, and whether they are side by side.
+            {{0, 0, 960, 1080}, {960, 0, 960, 1080}, {1}},
+            {{100, 20, 640, 720}, {740, 20, 640, 720}, {1}},
+            {{0, 0, 960, 1080}, {960, 0, 959, 1080}, {0}},
+            {{0, 0, 960, 1080}, {960, 1, 960, 1080}, {0}},
+            {{0, 0, 960, 1080}, {961, 0, 960, 1080}, {0}},
+            {{960, 0, 960, 1080}, {0, 0, 960, 1080}, {0}},
+            {{0, 0, 960, 1080}, {960, 0, 960, 1079}, {0}}
+    };
+
+    private StereoBatchCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkProduct();
+        failed |= !checkCaching();
+        failed |= !checkEyePositions();
+        failed |= !checkViewports();
+        failed |= !checkPacking();
+        failed |= !checkSharedPixels();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkProduct() {
+        final Random random = new Random(7);
+        final EyeMatrices matrices = new EyeMatrices();
+        final float[] camera = random(random);
+        final float[] correction = random(random);
+        final float[] projection = random(random);
+        matrices.setCamera(camera);
+        matrices.setHeadCorrection(correction);
+        matrices.setProjection(projection);
+
+        float error = 0;
+        for (int eye = 0; eye < EyeMatrices.MAX_EYES; eye++) {
+            final float[] eyeView = random(random);
+            final float[] expected = multiply(projection, multiply(eyeView, multiply(correction, camera)));
+            error = Math.max(error, maxError(matrices.getViewProjection(eye, eyeView), expected));
+        }
+        return report(String.format("view projections of %d eyes within %.1e of the product",
+                EyeMatrices.MAX_EYES, error), error < EPSILON);
+    }
+
+    /**
+     * A matrix marked after it was returned keeps the mark exactly as long as it is not
+     * recomputed.
+     */
+    private static boolean checkCaching() {
+        final Random random = new Random(11);
+        final EyeMatrices matrices = new EyeMatrices();
+        final float[] camera = random(random);
+        final float[] projection = random(random);
+        final float[] left = random(random);
+        final float[] right = random(random);
+        matrices.setCamera(camera);
+        matrices.setProjection(projection);
+
+        boolean passed = true;
+        mark(matrices, left, right);
+        passed &= report("unchanged views keep both eyes' matrices", isMarked(matrices, LEFT, left)
+                && isMarked(matrices, RIGHT, right));
+
+        // Equal values in a new array are not a change.
+        matrices.setCamera(camera.clone());
+        matrices.setHeadCorrection(IDENTITY.clone());
+        matrices.setProjection(projection.clone());
+        passed &= report("setting equal matrices keeps both eyes' matrices", isMarked(matrices, LEFT, left.clone())
+                && isMarked(matrices, RIGHT, right.clone()));
+
+        // A new eye view recomputes that eye only.
+        final float[] moved = left.clone();
+        moved[12] += 0.01f;
+        passed &= report("a new left view recomputes the left eye only",
+                !isMarked(matrices, LEFT, moved) && isMarked(matrices, RIGHT, right));
+
+        final float[][] changes = {random(random), random(random), random(random)};
+        final String[] names = {"camera", "head correction", "projection"};
+        for (int i = 0; i < changes.length; i++) {
+            mark(matrices, moved, right);
+            if (i == 0) {
+                matrices.setCamera(changes[i]);
+            } else if (i == 1) {
+                matrices.setHeadCorrection(changes[i]);
+            } else {
+                matrices.setProjection(changes[i]);
+            }
+            passed &= report("a new " + names[i] + " recomputes both eyes",
+                    !isMarked(matrices, LEFT, moved) && !isMarked(matrices, RIGHT, right));
+        }
+        return passed;
+    }
+
+    /**
+     * Eyes either side of a head turned by an angle and lifted off the origin, seen through an
+     * identity camera.
+     */
+    private static boolean checkEyePositions() {
+        final EyeMatrices matrices = new EyeMatrices();
+        matrices.setCamera(IDENTITY);
+        matrices.setProjection(IDENTITY);
+        float error = 0;
+        for (int degrees = 0; degrees < 360; degrees += 15) {
+            final double angle = Math.toRadians(degrees);
+            for (int eye = LEFT; eye <= RIGHT; eye++) {
+                final float offset = eye == LEFT ? -HALF_IPD : HALF_IPD;
+                // The eye sits offset along the head's right vector, which the turn rotates about y.
+                final float[] position = {(float) (offset * Math.cos(angle)), 1.6f,
+                        (float) (-offset * Math.sin(angle))};
+                final float[] view = lookFrom(position, angle);
+                matrices.getViewProjection(eye, view);
+                final float[] actual = matrices.getEyePosition(eye);
+                for (int axis = 0; axis < 3; axis++) {
+                    error = Math.max(error, Math.abs(actual[axis] - position[axis]));
+                }
+            }
+        }
+        return report(String.format("eye positions of turned heads within %.1e", error), error < EPSILON);
+    }
+
+    private static boolean checkViewports() {
+        final StereoBatch batch = new StereoBatch();
+        boolean passed = true;
+        for (final int[][] viewports : VIEWPORTS) {
+            final boolean expected = viewports[2][0] == 1;
+            final boolean sideBySide = batch.setViewports(viewports[0], viewports[1]);
+            final int[] shared = batch.getViewport();
+            final boolean covers = !expected || shared[0] == viewports[0][0] && shared[1] == viewports[0][1]
+                    && shared[2] == viewports[0][2] + viewports[1][2] && shared[3] == viewports[0][3];
+            passed &= report(Arrays.toString(viewports[0]) + " and " + Arrays.toString(viewports[1])
+                            + (sideBySide ? " share " + Arrays.toString(shared) : " are drawn apart"),
+                    sideBySide == expected && batch.isSideBySide() == expected && covers);
+        }
+        return passed;
+    }
+
+    private static boolean checkPacking() {
+        final Random random = new Random(13);
+        final StereoBatch batch = new StereoBatch();
+        final float[] left = random(random);
+        final float[] right = random(random);
+        batch.setMatrix(1, right);
+        batch.setMatrix(0, left);
+        final float[] packed = batch.getMatrices();
+        return report("matrices packed left first for a mat4[" + StereoBatch.EYES + "]",
+                packed.length == StereoBatch.EYES * 16 && Arrays.equals(Arrays.copyOfRange(packed, 0, 16), left)
+                        && Arrays.equals(Arrays.copyOfRange(packed, 16, 32), right));
+    }
+
+    /**
+     * Projects points in front of the head with each eye's matrix as the instanced draw reads it
+     * from the batch, maps them into the shared viewport, and compares the pixel with the one
+     * the eye's own viewport gives. Points outside the eye's clip space are what the shader
+     * discards, they only have to land outside the eye's half.
+     */
+    private static boolean checkSharedPixels() {
+        final int[] left = {100, 20, 640, 720};
+        final int[] right = {740, 20, 640, 720};
+        final float[] projection = new float[16];
+        MatrixHelper.perspectiveM(projection, 90, (float) left[2] / left[3], 1f, 10f);
+
+        final EyeMatrices matrices = new EyeMatrices();
+        matrices.setCamera(IDENTITY);
+        matrices.setProjection(projection);
+        final StereoBatch batch = new StereoBatch();
+        batch.setViewports(left, right);
+        batch.setMatrix(0, matrices.getViewProjection(LEFT, lookFrom(new float[]{-HALF_IPD, 0, 0}, 0.3)));
+        batch.setMatrix(1, matrices.getViewProjection(RIGHT, lookFrom(new float[]{HALF_IPD, 0, 0}, 0.3)));
+        final int[] shared = batch.getViewport();
+
+        final Random random = new Random(17);
+        float error = 0;
+        int inside = 0;
+        int strays = 0;
+        final float[] clip = new float[4];
+        for (int i = 0; i < POINTS; i++) {
+            final float[] point = {random.nextFloat() * 8 - 4, random.nextFloat() * 8 - 4,
+                    random.nextFloat() * 8 - 4, 1};
+            for (int eye = 0; eye < StereoBatch.EYES; eye++) {
+                final int[] own = eye == 0 ? left : right;
+                transform(clip, batch.getMatrices(), eye * 16, point);
+                if (clip[3] <= 0) {
+                    continue;
+                }
+                final float ownX = own[0] + (clip[0] / clip[3] + 1) / 2 * own[2];
+                final float sharedX = shared[0]
+                        + (StereoBatch.toSharedClipX(eye, clip[0], clip[3]) / clip[3] + 1) / 2 * shared[2];
+                if (Math.abs(clip[0]) <= clip[3]) {
+                    error = Math.max(error, Math.abs(sharedX - ownX));
+                    inside++;
+                } else if (sharedX >= own[0] && sharedX <= own[0] + own[2]) {
+                    strays++;
+                }
+            }
+        }
+        return report(String.format("%d points on the eyes' own pixels within %.1e, %d outside an eye landed "
+                + "in it", inside, error, strays), inside > POINTS / 4 && error < PIXEL_EPSILON && strays == 0);
+    }
+
+    private static void mark(final EyeMatrices matrices, final float[] left, final float[] right) {
+        matrices.getViewProjection(LEFT, left)[0] = SENTINEL;
+        matrices.getViewProjection(RIGHT, right)[0] = SENTINEL;
+    }
+
+    private static boolean isMarked(final EyeMatrices matrices, final int eye, final float[] eyeView) {
+        return matrices.getViewProjection(eye, eyeView)[0] == SENTINEL;
+    }
+
+    /**
+     * @return View matrix of an eye at a position, turned about y by an angle. Column major.
+     */
+    private static float[] lookFrom(final float[] position, final double angle) {
+        final float cos = (float) Math.cos(angle);
+        final float sin = (float) Math.sin(angle);
+        // Rotation R of the world into the eye, then -R * position.
+        final float[] view = {cos, 0, sin, 0, 0, 1, 0, 0, -sin, 0, cos, 0, 0, 0, 0, 1};
+        for (int row = 0; row < 3; row++) {
+            view[12 + row] = -(view[row] * position[0] + view[4 + row] * position[1] + view[8 + row] * position[2]);
+        }
+        return view;
+    }
+
+    private static void transform(final float[] result, final float[] matrix, final int offset, final float[] point) {
+        for (int row = 0; row < 4; row++) {
+            float sum = 0;
+            for (int k = 0; k < 4; k++) {
+                sum += matrix[offset + k * 4 + row] * point[k];
+            }
+            result[row] = sum;
+        }
+    }
+
+    /**
+     * @return lhs * rhs in doubles, column major.
+     */
+    private static float[] multiply(final float[] lhs, final float[] rhs) {
+        final float[] result = new float[16];
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += (double) lhs[k * 4 + row] * rhs[column * 4 + k];
+                }
+                result[column * 4 + row] = (float) sum;
+            }
+        }
+        return result;
+    }
+
+    private static float maxError(final float[] actual, final float[] expected) {
+        float error = 0;
+        for (int i = 0; i < 16; i++) {
+            error = Math.max(error, Math.abs(actual[i] - expected[i]));
+        }
+        return error;
+    }
+
+    private static float[] random(final Random random) {
+        final float[] matrix = new float[16];
+        for (int i = 0; i < 16; i++) {
+            matrix[i] = random.nextFloat() * 2 - 1;
+        }
+        return matrix;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.Maths;
+import com.cardboard.photosphere.SphereMesh;
+import com.cardboard.photosphere.TessellationSelector;
+import com.cardboard.photosphere.TileGrid;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks {@link TessellationSelector}: its error, measured over the first strip, against
+ *         a finer search over every triangle of the real mesh, using the mesh's own texture
+ *         coordinates; that the error falls by about four times per depth; that the lowest depth
+ *         within the error is picked for a range of viewports; and that tiled meshes are lowered
+ *         to a depth that fits unsigned short indices.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: tessellationCheck
+ */
+public final class TessellationCheck {
+
+    /**
+     * Samples per triangle edge of the search over the whole mesh, finer than the selector's.
+     */
+    private static final int SAMPLES_PER_EDGE = 12;
+
+    /**
+     * How far the first strip's error may fall below the whole mesh's, for its coarser samples.
+     */
+    private static final double SAMPLING_TOLERANCE = 0.05;
+
+    /**
+     * Eye viewport heights in pixels and vertical fields of view in degrees.
+     */
+    private static final int[] VIEWPORT_HEIGHTS = {480, 720, 1080, 1440, 2160};
+    private static final float[] FIELDS_OF_VIEW = {60, 90};
+
+    private TessellationCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        double previous = 0;
+        for (int depth = 1; depth <= SphereMesh.MAXIMUM_ALLOWED_DEPTH; depth++) {
+            final double error = TessellationSelector.angularError(depth);
+            failed |= !checkAgainstMesh(depth, error);
+            if (depth > 1) {
+                final double ratio = previous / error;
+                failed |= !report(String.format("depth %d: error falls %.2f times from depth %d", depth, ratio,
+                        depth - 1), ratio > 3 && ratio < 5);
+            }
+            failed |= !report("depth " + depth + ": " + SphereMesh.vertexCount(depth) + " vertices",
+                    SphereMesh.vertexCount(depth) <= SphereMesh.MAXIMUM_VERTEX_COUNT);
+            previous = error;
+        }
+        failed |= !checkSelection();
+        failed |= !checkTiledFit();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Searches every triangle of the untiled mesh, with the direction each texture coordinate
+     * belongs to worked out from the coordinate itself.
+     */
+    private static boolean checkAgainstMesh(final int depth, final double stripError) {
+        final SphereMesh mesh = new SphereMesh(depth, 1f);
+        final float[] vertices = mesh.getVertices();
+        final short[] indices = mesh.getIndices();
+        final double[][] corners = new double[3][];
+        final double[] texture = new double[6];
+        double error = 0;
+        for (int i = 0; i < indices.length; i += 3) {
+            for (int k = 0; k < 3; k++) {
+                final int pos = (indices[i + k] & 0xffff) * SphereMesh.NUM_FLOATS_PER_VERTEX;
+                corners[k] = new double[]{vertices[pos], vertices[pos + 1], vertices[pos + 2]};
+                texture[k * 2] = vertices[pos + SphereMesh.TEXTURE_OFFSET];
+                texture[k * 2 + 1] = vertices[pos + SphereMesh.TEXTURE_OFFSET + 1];
+            }
+            error = Math.max(error, triangleError(corners, texture));
+        }
+        return report(String.format("depth %d: error %.3g rad over the first strip, %.3g over the mesh", depth,
+                stripError, error), stripError <= error * (1 + SAMPLING_TOLERANCE)
+                && stripError >= error * (1 - SAMPLING_TOLERANCE));
+    }
+
+    private static double triangleError(final double[][] corners, final double[] texture) {
+        double error = 0;
+        for (int i = 0; i <= SAMPLES_PER_EDGE; i++) {
+            for (int j = 0; i + j <= SAMPLES_PER_EDGE; j++) {
+                final double[] weights = {(double) i / SAMPLES_PER_EDGE, (double) j / SAMPLES_PER_EDGE,
+                        (double) (SAMPLES_PER_EDGE - i - j) / SAMPLES_PER_EDGE};
+                final double[] seen = new double[3];
+                double s = 0;
+                double t = 0;
+                for (int k = 0; k < 3; k++) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        seen[axis] += weights[k] * corners[k][axis];
+                    }
+                    s += weights[k] * texture[k * 2];
+                    t += weights[k] * texture[k * 2 + 1];
+                }
+
+                // The mesh stores s mirrored and t from the north pole.
+                final double polar = t * Maths.ONE_EIGHTY_DEGREES;
+                final double azimuth = (1 - s) * Maths.THREE_SIXTY_DEGREES;
+                final double[] textured = {Math.sin(polar) * Math.cos(azimuth), Math.cos(polar),
+                        Math.sin(polar) * Math.sin(azimuth)};
+                error = Math.max(error, angle(seen, textured));
+            }
+        }
+        return error;
+    }
+
+    private static double angle(final double[] a, final double[] b) {
+        final double x = a[1] * b[2] - a[2] * b[1];
+        final double y = a[2] * b[0] - a[0] * b[2];
+        final double z = a[0] * b[1] - a[1] * b[0];
+        return Math.atan2(Math.sqrt(x * x + y * y + z * z), a[0] * b[0] + a[1] * b[1] + a[2] * b[2]);
+    }
+
+    /**
+     * Prints the depth picked for common viewports, which must be the lowest within the error.
+     */
+    private static boolean checkSelection() {
+        boolean passed = report("no viewport: depth " + new TessellationSelector().selectDepth(),
+                new TessellationSelector().selectDepth() == TessellationSelector.DEFAULT_DEPTH);
+        for (float fov : FIELDS_OF_VIEW) {
+            for (int height : VIEWPORT_HEIGHTS) {
+                final TessellationSelector selector = new TessellationSelector();
+                selector.setViewport(height, fov);
+                final int depth = selector.selectDepth();
+                final boolean within = selector.screenError(depth) <= TessellationSelector.DEFAULT_MAX_ERROR_PIXELS
+                        || depth == SphereMesh.MAXIMUM_ALLOWED_DEPTH;
+                final boolean lowest = depth == 1
+                        || selector.screenError(depth - 1) > TessellationSelector.DEFAULT_MAX_ERROR_PIXELS;
+                passed &= report(String.format("%d pixels high, %.0f degrees: depth %d, %.2f pixels of error",
+                        height, fov, depth, selector.screenError(depth)), within && lowest);
+            }
+        }
+        return passed;
+    }
+
+    /**
+     * Small tiles of a large panorama need more vertices than the strips, the depth must come
+     * down until the mesh can be built.
+     */
+    private static boolean checkTiledFit() {
+        boolean passed = true;
+        final TileGrid[] grids = {new TileGrid(4096, 2048, 512), new TileGrid(16384, 8192, 512)};
+        for (TileGrid grid : grids) {
+            final int depth = SphereMesh.fitTiledDepth(grid, SphereMesh.MAXIMUM_ALLOWED_DEPTH);
+            final SphereMesh mesh = new SphereMesh(grid, depth, 1f);
+            passed &= report(grid.getImageWidth() + "x" + grid.getImageHeight() + " in " + grid.getTileCount()
+                    + " tiles: depth " + depth + ", " + mesh.getVertexCount() + " vertices",
+                    depth == SphereMesh.MAXIMUM_ALLOWED_DEPTH
+                            || SphereMesh.tiledVertexCount(grid, depth + 1) > SphereMesh.MAXIMUM_VERTEX_COUNT);
+        }
+        return passed;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.PanoramaTexture;
+import com.cardboard.photosphere.PanoramaTextureCache;
+import com.cardboard.photosphere.PixelImage;
+import com.cardboard.photosphere.TileGrid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the texture memory accounting of {@link PanoramaTextureCache} against a
+ *         {@link FakeTextureUploader} that charges every texture it creates: the cache has to
+ *         report exactly the bytes of the live textures it owns, trimming has to release the
+ *         least recently used panoramas until it is within budget and never the pinned one, a
+ *         streamed panorama that grows has to be accounted for on the next trim, and replacing,
+ *         discarding and releasing panoramas has to release their bytes while clearing forgets
+ *         them without deleting anything.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: textureCacheCheck
+ */
+public final class TextureCacheCheck {
+
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+
+    private static final int TILE_SIZE = 64;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    private static final int BASE_BYTES = TILE_SIZE * (TILE_SIZE / 8) * 4;
+
+    private static final PixelImage TILE = image(TILE_SIZE, TILE_SIZE);
+    private static final PixelImage BASE = image(TILE_SIZE, TILE_SIZE / 8);
+
+    private TextureCacheCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        failed |= !checkCharged();
+        failed |= !checkTrim();
+        failed |= !checkPinned();
+        failed |= !checkGrowth();
+        failed |= !checkReplace();
+        failed |= !checkDiscard();
+        failed |= !checkReleaseAndClear();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkCharged() {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, Long.MAX_VALUE);
+        cache.put(panorama(uploader, 1, 4, 4, false));
+        cache.put(panorama(uploader, 2, 2, 1, false));
+        cache.put(panorama(uploader, 3, 3, 3, true));
+        final long expected = 8L * TILE_BYTES + BASE_BYTES;
+        cache.trim();
+        return report("3 panoramas charged " + cache.getByteCount() + " bytes, " + uploader.getLiveBytes()
+                        + " live, expected " + expected,
+                cache.getByteCount() == expected && uploader.getLiveBytes() == expected && cache.size() == 3);
+    }
+
+    /**
+     * Panoramas of 4, 2 and 3 tiles with a budget of 6 tiles. The oldest goes first and is
+     * enough, unless it was used again, when the two after it have to go instead.
+     */
+    private static boolean checkTrim() {
+        return checkTrim(false, 4L * TILE_BYTES) & checkTrim(true, 5L * TILE_BYTES);
+    }
+
+    private static boolean checkTrim(final boolean touchFirst, final long expectedRelease) {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, 6L * TILE_BYTES);
+        final PanoramaTexture first = panorama(uploader, 1, 4, 4, false);
+        final PanoramaTexture second = panorama(uploader, 2, 2, 2, false);
+        final PanoramaTexture third = panorama(uploader, 3, 3, 3, false);
+        cache.put(first);
+        cache.put(second);
+        cache.put(third);
+        if (touchFirst) {
+            cache.get(1);
+        }
+        final long before = uploader.getLiveBytes();
+        cache.trim();
+        final long released = before - uploader.getLiveBytes();
+        final boolean evicted = touchFirst
+                ? cache.size() == 1 && isLive(uploader, first) && !isLive(uploader, second) && !isLive(uploader, third)
+                : cache.size() == 2 && !isLive(uploader, first) && isLive(uploader, second) && isLive(uploader, third);
+        return report("trim to 6 tiles" + (touchFirst ? " after using the oldest again" : "") + " released "
+                        + released + " bytes, expected " + expectedRelease,
+                released == expectedRelease && evicted && cache.getByteCount() == uploader.getLiveBytes()
+                        && cache.getByteCount() <= 6L * TILE_BYTES);
+    }
+
+    private static boolean checkPinned() {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, 0);
+        final PanoramaTexture pinned = panorama(uploader, 1, 4, 4, true);
+        cache.put(pinned);
+        cache.put(panorama(uploader, 2, 2, 2, false));
+        cache.put(panorama(uploader, 3, 3, 3, false));
+        cache.pin(pinned);
+        cache.trim();
+        final long expected = 4L * TILE_BYTES + BASE_BYTES;
+        return report("trim to 0 kept the pinned panorama's " + cache.getByteCount() + " bytes, "
+                        + uploader.getLiveBytes() + " live, expected " + expected,
+                cache.size() == 1 && cache.contains(1) && cache.getByteCount() == expected
+                        && uploader.getLiveBytes() == expected && isLive(uploader, pinned));
+    }
+
+    /**
+     * A streamed panorama put with its base texture only, whose tiles arrive on later frames.
+     */
+    private static boolean checkGrowth() {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, 8L * TILE_BYTES);
+        final PanoramaTexture older = panorama(uploader, 1, 4, 4, false);
+        final PanoramaTexture streamed = panorama(uploader, 2, 8, 0, true);
+        cache.put(older);
+        cache.put(streamed);
+        cache.pin(streamed);
+        cache.trim();
+        final boolean kept = cache.size() == 2;
+
+        int frames = 0;
+        for (int tile = 0; tile < 8; tile++) {
+            streamed.setTextureHandle(tile, uploader.createTexture(TILE, false), uploader.getTextureByteCount(TILE));
+            cache.trim();
+            frames++;
+            if (!cache.contains(1)) {
+                break;
+            }
+        }
+        final long expected = (long) frames * TILE_BYTES + BASE_BYTES;
+        return report("streamed panorama grew past the budget after " + frames + " tiles, "
+                        + cache.getByteCount() + " bytes cached, expected " + expected,
+                kept && frames == 4 && !isLive(uploader, older) && cache.getByteCount() == expected
+                        && uploader.getLiveBytes() == expected);
+    }
+
+    private static boolean checkReplace() {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, 0);
+        final PanoramaTexture old = panorama(uploader, 1, 4, 4, true);
+        final PanoramaTexture replacement = panorama(uploader, 1, 2, 2, false);
+        cache.put(old);
+        cache.pin(old);
+        cache.put(replacement);
+        final boolean released = !isLive(uploader, old) && uploader.getLiveBytes() == 2L * TILE_BYTES;
+
+        // The replacement takes over the pin.
+        cache.trim();
+        final boolean pinned = cache.contains(1) && cache.get(1) == replacement && isLive(uploader, replacement);
+
+        // Putting the same panorama again deletes nothing.
+        cache.put(replacement);
+        return report("replacing a panorama released its " + (4 * TILE_BYTES + BASE_BYTES) + " bytes at once, "
+                        + uploader.getLiveBytes() + " live", released && pinned && isLive(uploader, replacement)
+                        && cache.getByteCount() == uploader.getLiveBytes());
+    }
+
+    private static boolean checkDiscard() {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, Long.MAX_VALUE);
+        final PanoramaTexture cached = panorama(uploader, 1, 2, 2, false);
+        final PanoramaTexture duplicate = panorama(uploader, 1, 3, 3, true);
+        cache.put(cached);
+        cache.discard(cached);
+        cache.discard(duplicate);
+        return report("discarding released only the uncached duplicate, " + uploader.getLiveBytes() + " live",
+                isLive(uploader, cached) && !isLive(uploader, duplicate)
+                        && uploader.getLiveBytes() == 2L * TILE_BYTES && cache.getByteCount() == 2L * TILE_BYTES);
+    }
+
+    private static boolean checkReleaseAndClear() {
+        final FakeTextureUploader uploader = new FakeTextureUploader();
+        final PanoramaTextureCache cache = new PanoramaTextureCache(uploader, Long.MAX_VALUE);
+        cache.put(panorama(uploader, 1, 4, 4, true));
+        cache.put(panorama(uploader, 2, 2, 2, false));
+        final int deletes = uploader.getDeleteCount();
+        cache.release();
+        final boolean released = uploader.getLiveBytes() == 0 && uploader.getDeleteCount() - deletes == 7
+                && cache.size() == 0 && cache.getByteCount() == 0;
+
+        final PanoramaTexture lost = panorama(uploader, 3, 2, 2, false);
+        cache.put(lost);
+        cache.clear();
+        return report("release deleted all 7 textures, clear forgot without deleting",
+                released && cache.size() == 0 && isLive(uploader, lost));
+    }
+
+    /**
+     * @param tiles    Tiles across.
+     * @param resident Tiles that have a texture, from the first.
+     * @param base     True to give it a base texture.
+     */
+    private static PanoramaTexture panorama(final FakeTextureUploader uploader, final int resourceId,
+                                            final int tiles, final int resident, final boolean base) {
+        final PanoramaTexture texture = new PanoramaTexture(resourceId, new TileGrid(tiles * TILE_SIZE, TILE_SIZE,
+                TILE_SIZE));
+        for (int tile = 0; tile < resident; tile++) {
+            texture.setTextureHandle(tile, uploader.createTexture(TILE, false), uploader.getTextureByteCount(TILE));
+        }
+        if (base) {
+            texture.setBaseTextureHandle(uploader.createTexture(BASE, false), uploader.getTextureByteCount(BASE));
+        }
+        return texture;
+    }
+
+    /**
+     * @return True if every texture of the panorama is live.
+     */
+    private static boolean isLive(final FakeTextureUploader uploader, final PanoramaTexture texture) {
+        boolean live = texture.getBaseTextureHandle() == 0 || uploader.isLive(texture.getBaseTextureHandle());
+        for (final int handle : texture.getTextureHandles()) {
+            live &= handle == 0 || uploader.isLive(handle);
+        }
+        return live;
+    }
+
+    private static PixelImage image(final int width, final int height) {
+        return new PixelImage(width, height, 4, GL_RGBA, GL_UNSIGNED_BYTE, ByteBuffer.allocate(width * height * 4));
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.MipmapBuilder;
+import com.cardboard.photosphere.NativeMemoryTracker;
+import com.cardboard.photosphere.PixelImage;
+import com.cardboard.photosphere.StagingBufferPool;
+import com.cardboard.photosphere.transcoder.Etc1Codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Throughput of readying decoded pixels for the GL on the CPU: resampling a panorama to
+ *         power of two sizes, building its mip levels, and encoding it to ETC1 as the transcoder
+ *         does. One operation is one source pixel, so the score in operations per microsecond is
+ *         megapixels per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TexturePrepBenchmark {
+
+    /**
+     * A panorama just short of power of two sizes, as a device without NPOT mipmaps gets it.
+     */
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1000;
+    private static final int PIXELS = WIDTH * HEIGHT;
+
+    /**
+     * Tile the ETC1 encoder is timed on, it is much slower than the rest.
+     */
+    private static final int ETC_SIZE = 256;
+    private static final int ETC_PIXELS = ETC_SIZE * ETC_SIZE;
+
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+
+    @Param({"BOX", "LANCZOS"})
+    public MipmapBuilder.Filter filter;
+
+    private StagingBufferPool mBuffers;
+    private PixelImage mImage;
+    private PixelImage mPowerOfTwoImage;
+    private int[] mArgb;
+
+    @Setup
+    public void setUp() {
+        mBuffers = new StagingBufferPool(new NativeMemoryTracker(), 256L * 1024 * 1024, null);
+        final Random random = new Random(42);
+
+        // Noise, so no filter takes a shortcut a photo would not allow.
+        mImage = noise(WIDTH, HEIGHT, random);
+        mPowerOfTwoImage = noise(MipmapBuilder.nearestPowerOfTwo(WIDTH), MipmapBuilder.nearestPowerOfTwo(HEIGHT),
+                random);
+        mArgb = new int[ETC_PIXELS];
+        for (int i = 0; i < mArgb.length; i++) {
+            mArgb[i] = random.nextInt();
+        }
+    }
+
+    private PixelImage noise(final int width, final int height, final Random random) {
+        final byte[] pixels = new byte[width * height * BYTES_PER_PIXEL];
+        random.nextBytes(pixels);
+        final ByteBuffer buffer = mBuffers.acquire(pixels.length);
+        buffer.put(pixels).position(0);
+        return new PixelImage(width, height, BYTES_PER_PIXEL, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+    }
+
+    /**
+     * Resamples to the nearest power of two sizes, the first step of GLTextureUploader.prepare.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public PixelImage resample() {
+        final PixelImage resampled = MipmapBuilder.resample(mImage, MipmapBuilder.nearestPowerOfTwo(WIDTH),
+                MipmapBuilder.nearestPowerOfTwo(HEIGHT), mBuffers);
+        resampled.recycle(mBuffers);
+        return resampled;
+    }
+
+    /**
+     * Builds every mip level below a power of two panorama, the second step.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public PixelImage[] buildMipmaps() {
+        final PixelImage[] levels = MipmapBuilder.build(mPowerOfTwoImage, filter, mBuffers);
+        for (PixelImage level : levels) {
+            level.recycle(mBuffers);
+        }
+        return levels;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ETC_PIXELS)
+    public byte[] encodeEtc1() {
+        return Etc1Codec.encode(mArgb, ETC_SIZE, ETC_SIZE);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.Maths;
+import com.cardboard.photosphere.TileGrid;
+
+import java.util.Arrays;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Checks the tile math of {@link TileGrid}: a few layouts worked out by hand, including
+ *         sizes that are not multiples of the tile size, and then every image edge up to
+ *         {@link #MAX_EDGE} against every tile size up to {@link #MAX_TILE_SIZE}. Along both
+ *         axes the tiles have to start at 0, follow each other without gaps or overlaps, be 1 to
+ *         the tile size across with only the last one smaller, and end exactly at the image's
+ *         edge, 1 in texture coordinates, 360 degrees of azimuth and 180 degrees from the pole.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: tileGridCheck
+ */
+public final class TileGridCheck {
+
+    private static final int MAX_EDGE = 1100;
+    private static final int MAX_TILE_SIZE = 96;
+
+    /**
+     * Image width, image height and tile size, then the expected column widths and row heights.
+     */
+    private static final int[][][] LAYOUTS = {
+            {{8192, 4096, 2048}, {2048, 2048, 2048, 2048}, {2048, 2048}},
+            {{5000, 2500, 2048}, {1667, 1667, 1666}, {1250, 1250}},
+            {{4097, 2049, 4096}, {2049, 2048}, {2049}},
+            {{4096, 2048, 4096}, {4096}, {2048}},
+            {{1030, 515, 256}, {206, 206, 206, 206, 206}, {172, 172, 171}},
+            {{7, 3, 2}, {2, 2, 2, 1}, {2, 1}},
+            {{1, 1, 512}, {1}, {1}}
+    };
+
+    private TileGridCheck() {
+    }
+
+    public static void main(final String[] args) {
+        boolean failed = false;
+        for (final int[][] layout : LAYOUTS) {
+            failed |= !checkLayout(layout);
+        }
+        failed |= !checkEdges();
+        failed |= !checkTileIndices();
+        failed |= !checkInvalid();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkLayout(final int[][] layout) {
+        final TileGrid grid = new TileGrid(layout[0][0], layout[0][1], layout[0][2]);
+        final int[] widths = new int[grid.getColumns()];
+        for (int column = 0; column < widths.length; column++) {
+            widths[column] = grid.getTileWidth(column);
+        }
+        final int[] heights = new int[grid.getRows()];
+        for (int row = 0; row < heights.length; row++) {
+            heights[row] = grid.getTileHeight(row);
+        }
+        return report(grid + " at most " + layout[0][2] + ": columns " + Arrays.toString(widths) + ", rows "
+                + Arrays.toString(heights), Arrays.equals(widths, layout[1]) && Arrays.equals(heights, layout[2])
+                && grid.getTileCount() == widths.length * heights.length);
+    }
+
+    /**
+     * Every image edge against every tile size, one axis at a time as the axes are laid out
+     * independently.
+     */
+    private static boolean checkEdges() {
+        int grids = 0;
+        String failure = null;
+        for (int edge = 1; edge <= MAX_EDGE && failure == null; edge++) {
+            for (int tileSize = 1; tileSize <= MAX_TILE_SIZE && failure == null; tileSize++) {
+                failure = checkColumns(new TileGrid(edge, 1, tileSize), tileSize);
+                if (failure == null) {
+                    failure = checkRows(new TileGrid(1, edge, tileSize), tileSize);
+                }
+                grids += 2;
+            }
+        }
+        return report(failure != null ? failure
+                : grids + " grids of edges 1 to " + MAX_EDGE + " and tiles 1 to " + MAX_TILE_SIZE
+                + " tile their image exactly", failure == null);
+    }
+
+    private static String checkColumns(final TileGrid grid, final int tileSize) {
+        final int edge = grid.getImageWidth();
+        final int columns = grid.getColumns();
+        if (columns != (edge + tileSize - 1) / tileSize) {
+            return grid + " at most " + tileSize + " has " + columns + " columns";
+        }
+        int x = 0;
+        for (int column = 0; column < columns; column++) {
+            final int width = grid.getTileWidth(column);
+            final boolean last = column == columns - 1;
+            if (grid.getTileX(column) != x || width < 1 || width > tileSize
+                    || (last ? width > grid.getTileWidth(0) : width != grid.getTileWidth(0))) {
+                return grid + " at most " + tileSize + ": column " + column + " at " + grid.getTileX(column)
+                        + " is " + width + " wide, expected it at " + x;
+            }
+            if (grid.getU0(column) != (float) x / edge || grid.getU1(column) != (float) (x + width) / edge
+                    || grid.getAzimuthStart(column) != Maths.THREE_SIXTY_DEGREES * ((double) x / edge)
+                    || column > 0 && grid.getAzimuthStart(column) != grid.getAzimuthEnd(column - 1)) {
+                return grid + " at most " + tileSize + ": column " + column + " spans u " + grid.getU0(column)
+                        + " to " + grid.getU1(column) + ", azimuth " + grid.getAzimuthStart(column) + " to "
+                        + grid.getAzimuthEnd(column);
+            }
+            x += width;
+        }
+        if (x != edge || grid.getU1(columns - 1) != 1f
+                || grid.getAzimuthEnd(columns - 1) != Maths.THREE_SIXTY_DEGREES) {
+            return grid + " at most " + tileSize + ": columns end at " + x + ", u " + grid.getU1(columns - 1)
+                    + ", azimuth " + grid.getAzimuthEnd(columns - 1);
+        }
+        return null;
+    }
+
+    private static String checkRows(final TileGrid grid, final int tileSize) {
+        final int edge = grid.getImageHeight();
+        final int rows = grid.getRows();
+        if (rows != (edge + tileSize - 1) / tileSize) {
+            return grid + " at most " + tileSize + " has " + rows + " rows";
+        }
+        int y = 0;
+        for (int row = 0; row < rows; row++) {
+            final int height = grid.getTileHeight(row);
+            final boolean last = row == rows - 1;
+            if (grid.getTileY(row) != y || height < 1 || height > tileSize
+                    || (last ? height > grid.getTileHeight(0) : height != grid.getTileHeight(0))) {
+                return grid + " at most " + tileSize + ": row " + row + " at " + grid.getTileY(row)
+                        + " is " + height + " high, expected it at " + y;
+            }
+            if (grid.getV0(row) != (float) y / edge || grid.getV1(row) != (float) (y + height) / edge
+                    || grid.getPolarStart(row) != Maths.ONE_EIGHTY_DEGREES * ((double) y / edge)
+                    || row > 0 && grid.getPolarStart(row) != grid.getPolarEnd(row - 1)) {
+                return grid + " at most " + tileSize + ": row " + row + " spans v " + grid.getV0(row)
+                        + " to " + grid.getV1(row) + ", polar " + grid.getPolarStart(row) + " to "
+                        + grid.getPolarEnd(row);
+            }
+            y += height;
+        }
+        if (y != edge || grid.getV1(rows - 1) != 1f || grid.getPolarEnd(rows - 1) != Maths.ONE_EIGHTY_DEGREES) {
+            return grid + " at most " + tileSize + ": rows end at " + y + ", v " + grid.getV1(rows - 1)
+                    + ", polar " + grid.getPolarEnd(rows - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Tiles are numbered row by row, each index once.
+     */
+    private static boolean checkTileIndices() {
+        final TileGrid grid = new TileGrid(5000, 2500, 1024);
+        final boolean[] seen = new boolean[grid.getTileCount()];
+        boolean passed = true;
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final int tile = grid.getTileIndex(column, row);
+                passed &= tile == row * grid.getColumns() + column && !seen[tile];
+                seen[tile] = true;
+            }
+        }
+        return report(grid + " numbers its " + grid.getTileCount() + " tiles row by row", passed);
+    }
+
+    private static boolean checkInvalid() {
+        final int[][] invalid = {{0, 1, 1}, {1, 0, 1}, {1, 1, 0}, {-4, 2, 2}};
+        boolean passed = true;
+        for (final int[] sizes : invalid) {
+            try {
+                new TileGrid(sizes[0], sizes[1], sizes[2]);
+                passed = report("accepted " + Arrays.toString(sizes), false);
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+        return report("refuses empty images and tiles", passed);
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cardboard.photosphere.benchmark;
+
+import com.cardboard.photosphere.TileGrid;
+import com.cardboard.photosphere.TileResidencyPolicy;
+import com.cardboard.photosphere.TileVisibility;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Replays synthetic head paths through {@link TileResidencyPolicy} and
+ *         {@link TileVisibility}, with the streamer's radii and cap, and reports the loads,
+ *         evictions, reloads and visible tiles missing on every path. Loads take a fixed number
+ *         of frames, and are dropped if the tile is no longer wanted when they finish.
+ *         <p/>
+ *         The head paths are {@link PoseReplay}'s, a jittering still head and a look at both
+ *         poles. Each path ends by holding still for {@link #SETTLE_FRAMES} frames.
+ *         <p/>
+ *         Checked on every path: no more tiles held than the cap, the visible tiles agree with
+ *         the closest points found by walking the tile edges, a still head neither loads nor
+ *         evicts once settled, and a settled head has every visible tile resident, or as many as
+ *         the cap allows. Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: tileReplay [--latency-frames N] [--seconds N]
+ */
+public final class TileReplay {
+
+    private static final double FRAME_SECONDS = 1 / 60.0;
+
+    /**
+     * The streamer's setup, see MainActivity: 90 degree eyes with the aspect of half a 16:9
+     * screen, and its margins and cap.
+     */
+    private static final double CONE = TileVisibility.coneHalfAngle(90, 0.89f);
+    private static final double LOAD_RADIUS = CONE + Math.toRadians(20);
+    private static final double EVICT_RADIUS = CONE + Math.toRadians(45);
+    private static final int MAX_RESIDENT = 24;
+
+    /**
+     * Panoramas replayed: one with fewer tiles in view than the cap, one with more.
+     */
+    private static final TileGrid[] GRIDS = {new TileGrid(4096, 2048, 512), new TileGrid(8192, 4096, 512)};
+
+    private static final int SETTLE_FRAMES = 120;
+
+    /**
+     * A tile loaded again this soon after its eviction counts as a reload.
+     */
+    private static final int RELOAD_FRAMES = 60;
+
+    /**
+     * Frames between visibility checks against the tile edges, and points walked per edge.
+     */
+    private static final int EDGE_CHECK_INTERVAL = 30;
+    private static final int EDGE_STEPS = 64;
+
+    private TileReplay() {
+    }
+
+    /**
+     * What a replay saw.
+     */
+    private static final class Result {
+        int mLoads;
+        int mEvictions;
+        int mReloads;
+        int mDropped;
+        int mVisibleFrames;
+        int mMissingFrames;
+        int mPeakHeld;
+        int mOverCap;
+        int mEdgeMismatches;
+        double mWorstEdgeError;
+        int mSettledChanges;
+        int mSettledVisible;
+        int mSettledResident;
+    }
+
+    public static void main(final String[] args) {
+        int latency = 6;
+        double seconds = 20;
+        for (int i = 0; i < args.length; i++) {
+            if ("--latency-frames".equals(args[i]) && i + 1 < args.length) {
+                latency = Integer.parseInt(args[++i]);
+            } else if ("--seconds".equals(args[i]) && i + 1 < args.length) {
+                seconds = Double.parseDouble(args[++i]);
+            } else {
+                System.err.println("Usage: tileReplay [--latency-frames N] [--seconds N]");
+                System.exit(2);
+            }
+        }
+
+        boolean failed = false;
+        for (TileGrid grid : GRIDS) {
+            for (PoseReplay.Trace trace : traces()) {
+                final Result result = replay(grid, trace, latency, seconds);
+                final boolean still = "still".equals(trace.getName());
+                final boolean passed = result.mOverCap == 0 && result.mEdgeMismatches == 0
+                        && (!still || result.mSettledChanges == 0)
+                        && result.mSettledResident >= Math.min(result.mSettledVisible, MAX_RESIDENT);
+                failed |= !passed;
+                System.out.println(String.format("%s %-7s %dx%d tiles  %4d loads %4d evictions %3d reloads %3d dropped"
+                                + "  %5.1f%% visible missing  peak %2d held  edge error %.1e  settled %d/%d",
+                        passed ? "ok   " : "FAIL ", trace.getName(), grid.getColumns(), grid.getRows(),
+                        result.mLoads, result.mEvictions, result.mReloads, result.mDropped,
+                        100.0 * result.mMissingFrames / Math.max(1, result.mVisibleFrames), result.mPeakHeld,
+                        result.mWorstEdgeError, result.mSettledResident, result.mSettledVisible));
+            }
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    static Result replay(final TileGrid grid, final PoseReplay.Trace trace, final int latency,
+                         final double seconds) {
+        final int tiles = grid.getTileCount();
+        final TileResidencyPolicy policy = new TileResidencyPolicy(grid, LOAD_RADIUS, EVICT_RADIUS, MAX_RESIDENT);
+        final int[] loadDone = new int[tiles];
+        final int[] evictedAt = new int[tiles];
+        Arrays.fill(loadDone, -1);
+        Arrays.fill(evictedAt, Integer.MIN_VALUE / 2);
+        final boolean[] visible = new boolean[tiles];
+        final double[] angles = new double[3];
+        final double[] direction = new double[3];
+        final Result result = new Result();
+
+        final int moving = (int) (seconds / FRAME_SECONDS);
+        final int frames = moving + SETTLE_FRAMES;
+        final int settled = frames - SETTLE_FRAMES / 2;
+        for (int frame = 0; frame < frames; frame++) {
+            trace.angles(Math.min(frame, moving) * FRAME_SECONDS, angles);
+            toDirection(angles, direction);
+
+            // Finished loads, dropped if the head moved away meanwhile.
+            for (int tile = 0; tile < tiles; tile++) {
+                if (loadDone[tile] == frame) {
+                    final boolean wanted = policy.isWanted(tile);
+                    policy.markLoaded(tile, wanted);
+                    loadDone[tile] = -1;
+                    if (!wanted) {
+                        result.mDropped++;
+                    }
+                }
+            }
+
+            policy.update(direction[0], direction[1], direction[2]);
+            final int changes = policy.getEvictCount() + policy.getLoadCount();
+            for (int i = 0; i < policy.getEvictCount(); i++) {
+                final int tile = policy.getEvict(i);
+                policy.markEvicted(tile);
+                evictedAt[tile] = frame;
+                result.mEvictions++;
+            }
+            for (int i = 0; i < policy.getLoadCount(); i++) {
+                final int tile = policy.getLoad(i);
+                policy.markRequested(tile);
+                loadDone[tile] = frame + latency;
+                result.mLoads++;
+                if (frame - evictedAt[tile] <= RELOAD_FRAMES) {
+                    result.mReloads++;
+                }
+            }
+
+            int held = 0;
+            for (int tile = 0; tile < tiles; tile++) {
+                if (policy.isResident(tile) || loadDone[tile] >= 0) {
+                    held++;
+                }
+            }
+            result.mPeakHeld = Math.max(result.mPeakHeld, held);
+            if (held > MAX_RESIDENT) {
+                result.mOverCap++;
+            }
+
+            final int visibleCount = TileVisibility.computeVisible(grid, direction[0], direction[1], direction[2],
+                    CONE, visible);
+            int residentVisible = 0;
+            for (int tile = 0; tile < tiles; tile++) {
+                if (visible[tile] && policy.isResident(tile)) {
+                    residentVisible++;
+                }
+            }
+            result.mVisibleFrames += visibleCount;
+            result.mMissingFrames += visibleCount - residentVisible;
+
+            if (frame % EDGE_CHECK_INTERVAL == 0) {
+                checkEdges(grid, direction, result);
+            }
+            if (frame >= settled) {
+                result.mSettledChanges += changes;
+            }
+            if (frame == frames - 1) {
+                result.mSettledVisible = visibleCount;
+                result.mSettledResident = residentVisible;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares every tile's angular distance with the closest of points walked along its edges,
+     * which is never closer than the true closest point, and at most half a step farther. A
+     * direction inside the tile is at distance 0.
+     */
+    private static void checkEdges(final TileGrid grid, final double[] d, final Result result) {
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final double p0 = grid.getPolarStart(row);
+                final double p1 = grid.getPolarEnd(row);
+                final double a0 = grid.getAzimuthStart(column);
+                final double a1 = grid.getAzimuthEnd(column);
+                final double polar = Math.acos(Math.max(-1, Math.min(1, d[1])));
+                double azimuth = Math.atan2(d[2], d[0]);
+                if (azimuth < 0) {
+                    azimuth += 2 * Math.PI;
+                }
+                double walked;
+                if (polar >= p0 && polar <= p1 && azimuth >= a0 && azimuth <= a1) {
+                    walked = 0;
+                } else {
+                    walked = Double.MAX_VALUE;
+                    for (int i = 0; i <= EDGE_STEPS; i++) {
+                        final double p = p0 + (p1 - p0) * i / EDGE_STEPS;
+                        final double a = a0 + (a1 - a0) * i / EDGE_STEPS;
+                        walked = Math.min(walked, Math.min(angleTo(d, p, a0), angleTo(d, p, a1)));
+                        walked = Math.min(walked, Math.min(angleTo(d, p0, a), angleTo(d, p1, a)));
+                    }
+                }
+                final double computed = TileVisibility.angularDistance(grid, column, row, d[0], d[1], d[2]);
+                final double error = walked - computed;
+                result.mWorstEdgeError = Math.max(result.mWorstEdgeError, Math.abs(error));
+                final double halfStep = Math.max(p1 - p0, a1 - a0) / EDGE_STEPS / 2;
+                if (error < -1e-9 || error > halfStep) {
+                    result.mEdgeMismatches++;
+                }
+            }
+        }
+    }
+
+    private static double angleTo(final double[] d, final double polar, final double azimuth) {
+        final double h = Math.sin(polar);
+        final double dot = d[0] * h * Math.cos(azimuth) + d[1] * Math.cos(polar) + d[2] * h * Math.sin(azimuth);
+        return Math.acos(Math.max(-1, Math.min(1, dot)));
+    }
+
+    /**
+     * Forward direction in the sphere's frame for a yaw and pitch, roll does not move it.
+     */
+    private static void toDirection(final double[] angles, final double[] direction) {
+        final double h = Math.cos(angles[1]);
+        direction[0] = h * Math.cos(angles[0]);
+        direction[1] = Math.sin(angles[1]);
+        direction[2] = h * Math.sin(angles[0]);
+    }
+
+    private static List<PoseReplay.Trace> traces() {
+        final List<PoseReplay.Trace> traces = new ArrayList<PoseReplay.Trace>(Arrays.asList(PoseReplay.traces()));
+        traces.add(new PoseReplay.Trace() {
+            private final Random mNoise = new Random(11);
+
+            @Override
+            public String getName() {
+                return "still";
+            }
+
+            @Override
+            public void angles(final double seconds, final double[] result) {
+                // Sensor noise and tremor of a head held still, half a degree, looking so that the
+                // tile edge at 90 degrees azimuth is right at the load radius.
+                result[0] = Math.PI / 2 - LOAD_RADIUS + Math.toRadians(0.5) * (mNoise.nextDouble() * 2 - 1);
+                result[1] = Math.toRadians(0.5) * (mNoise.nextDouble() * 2 - 1);
+                result[2] = 0;
+            }
+        });
+        traces.add(new PoseReplay.Trace() {
+            @Override
+            public String getName() {
+                return "poles";
+            }
+
+            @Override
+            public void angles(final double seconds, final double[] result) {
+                // Looking straight up and straight down every 8 seconds, while turning slowly.
+                result[0] = Math.toRadians(20) * seconds;
+                result[1] = Math.toRadians(89) * Math.sin(2 * Math.PI * seconds / 8);
+                result[2] = 0;
+            }
+        });
+        return traces;
+    }
+}
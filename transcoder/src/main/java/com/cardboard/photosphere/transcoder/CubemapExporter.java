@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.transcoder;
+
+import com.cardboard.photosphere.CubemapConverter;
+import com.cardboard.photosphere.ForkJoinRange;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Converts a panorama into the six faces of a cube map at build time, with the same
+ *         converter the app runs while loading.
+ *         <p/>
+ *         Faces are written as PNGs named after the GL face they belong to: px, nx, py, ny, pz
+ *         and nz. The face size defaults to the power of two nearest a quarter of the width.
+ *         <p/>
+ *         Usage: cubemap [--face-size N] [--bicubic] [--threads N] input.jpg output-directory
+ */
+public final class CubemapExporter {
+
+    private static final String[] FACE_NAMES = {"px", "nx", "py", "ny", "pz", "nz"};
+
+    private CubemapExporter() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int faceSize = 0;
+        CubemapConverter.Filter filter = CubemapConverter.Filter.BILINEAR;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String input = null;
+        String output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--face-size".equals(args[i]) && i + 1 < args.length) {
+                faceSize = Integer.parseInt(args[++i]);
+            } else if ("--bicubic".equals(args[i])) {
+                filter = CubemapConverter.Filter.BICUBIC;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (input == null) {
+                input = args[i];
+            } else if (output == null) {
+                output = args[i];
+            } else {
+                usage();
+            }
+        }
+        if (input == null || output == null || faceSize < 0 || threads <= 0) {
+            usage();
+            return;
+        }
+
+        final BufferedImage image = ImageIO.read(new File(input));
+        if (image == null) {
+            throw new IOException("Unable to decode " + input);
+        }
+        if (faceSize == 0) {
+            faceSize = CubemapConverter.faceSize(image.getWidth(), Integer.MAX_VALUE);
+        }
+
+        final long start = System.nanoTime();
+        final ByteBuffer[] faces = new ByteBuffer[CubemapConverter.FACES];
+        for (int face = 0; face < faces.length; face++) {
+            faces[face] = ByteBuffer.allocate(faceSize * faceSize * CubemapConverter.BYTES_PER_PIXEL);
+        }
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            new CubemapConverter(filter, new ForkJoinRange(pool)).convert(toRgba(image), image.getWidth(), image.getHeight(),
+                    faces, faceSize);
+        } finally {
+            pool.shutdown();
+        }
+        final long nanos = System.nanoTime() - start;
+
+        final File directory = new File(output);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + output);
+        }
+        for (int face = 0; face < faces.length; face++) {
+            ImageIO.write(toImage(faces[face], faceSize), "png", new File(directory, FACE_NAMES[face] + ".png"));
+        }
+        System.out.println("Wrote " + output + ": 6 faces of " + faceSize + "x" + faceSize + ", " + filter
+                + " on " + threads + " threads in " + nanos / 1000000 + " ms");
+    }
+
+    /**
+     * @return The image as tightly packed RGBA bytes, top row first.
+     */
+    static ByteBuffer toRgba(final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final ByteBuffer pixels = ByteBuffer.allocate(width * height * CubemapConverter.BYTES_PER_PIXEL);
+        final int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int argb : row) {
+                pixels.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb).put((byte) (argb >>> 24));
+            }
+        }
+        pixels.position(0);
+        return pixels;
+    }
+
+    private static BufferedImage toImage(final ByteBuffer pixels, final int size) {
+        final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        final int[] row = new int[size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int offset = (y * size + x) * CubemapConverter.BYTES_PER_PIXEL;
+                row[x] = (pixels.get(offset + 3) & 0xff) << 24 | (pixels.get(offset) & 0xff) << 16
+                        | (pixels.get(offset + 1) & 0xff) << 8 | pixels.get(offset + 2) & 0xff;
+            }
+            image.setRGB(0, y, size, 1, row, 0, size);
+        }
+        return image;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: cubemap [--face-size N] [--bicubic] [--threads N] input.jpg output-directory");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.transcoder;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Encodes and decodes ETC1 blocks.
+ *         <p/>
+ *         A block covers 4x4 pixels in 64 bits: two base colours, one per half of the block,
+ *         and a 2 bit intensity modifier per pixel. The encoder tries both ways of splitting the
+ *         block and both ways of storing the base colours, picks the best modifier table per half
+ *         and keeps the combination with the least squared error. The base colours are the
+ *         averages of the halves, which is fast and good enough for photographs.
+ */
+public final class Etc1Codec {
+
+    /**
+     * Bytes of one encoded block.
+     */
+    public static final int BYTES_PER_BLOCK = 8;
+
+    /**
+     * Intensity modifiers, per table for the pixel indices 0 to 3.
+     */
+    private static final int[][] MODIFIERS = {
+            {2, 8, -2, -8},
+            {5, 17, -5, -17},
+            {9, 29, -9, -29},
+            {13, 42, -13, -42},
+            {18, 60, -18, -60},
+            {24, 80, -24, -80},
+            {33, 106, -33, -106},
+            {47, 183, -47, -183}
+    };
+
+    private Etc1Codec() {
+    }
+
+    /**
+     * Encodes an image into blocks in row order. Partial blocks at the right and bottom edges
+     * repeat the last column and row.
+     *
+     * @param argb   Pixels as 0xAARRGGBB, row by row. Alpha is dropped.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return ((width + 3) / 4) * ((height + 3) / 4) blocks of 8 bytes.
+     */
+    public static byte[] encode(final int[] argb, final int width, final int height) {
+        final int blocksWide = (width + 3) / 4;
+        final int blocksHigh = (height + 3) / 4;
+        final byte[] output = new byte[blocksWide * blocksHigh * BYTES_PER_BLOCK];
+        final int[] block = new int[16];
+
+        int offset = 0;
+        for (int by = 0; by < blocksHigh; by++) {
+            for (int bx = 0; bx < blocksWide; bx++) {
+                for (int y = 0; y < 4; y++) {
+                    final int row = Math.min(by * 4 + y, height - 1) * width;
+                    for (int x = 0; x < 4; x++) {
+                        block[y * 4 + x] = argb[row + Math.min(bx * 4 + x, width - 1)];
+                    }
+                }
+                final long bits = encodeBlock(block);
+                for (int i = 0; i < BYTES_PER_BLOCK; i++) {
+                    output[offset++] = (byte) (bits >>> (56 - 8 * i));
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Decodes blocks in row order.
+     *
+     * @param blocks Encoded blocks, as from {@link #encode}.
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return Pixels as 0xFFRRGGBB, row by row.
+     */
+    public static int[] decode(final byte[] blocks, final int width, final int height) {
+        final int blocksWide = (width + 3) / 4;
+        final int blocksHigh = (height + 3) / 4;
+        if (blocks.length != blocksWide * blocksHigh * BYTES_PER_BLOCK) {
+            throw new IllegalArgumentException("Expected " + blocksWide * blocksHigh + " blocks for "
+                    + width + "x" + height + ", got " + blocks.length + " bytes");
+        }
+
+        final int[] argb = new int[width * height];
+        final int[] block = new int[16];
+        int offset = 0;
+        for (int by = 0; by < blocksHigh; by++) {
+            for (int bx = 0; bx < blocksWide; bx++) {
+                long bits = 0;
+                for (int i = 0; i < BYTES_PER_BLOCK; i++) {
+                    bits = (bits << 8) | (blocks[offset++] & 0xff);
+                }
+                decodeBlock(bits, block);
+                for (int y = 0; y < 4 && by * 4 + y < height; y++) {
+                    for (int x = 0; x < 4 && bx * 4 + x < width; x++) {
+                        argb[(by * 4 + y) * width + bx * 4 + x] = block[y * 4 + x];
+                    }
+                }
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * Encodes one block.
+     *
+     * @param block 16 pixels as 0xAARRGGBB, row by row.
+     * @return The block's 64 bits.
+     */
+    static long encodeBlock(final int[] block) {
+        long best = 0;
+        long bestError = Long.MAX_VALUE;
+        final int[] colour1 = new int[3];
+        final int[] colour2 = new int[3];
+        final int[] result = new int[2];
+
+        for (int flip = 0; flip < 2; flip++) {
+            final float[] average1 = average(block, flip, 0);
+            final float[] average2 = average(block, flip, 1);
+
+            // Differential mode: 5 bit colours, the second within -4..3 of the first.
+            boolean differential = true;
+            final int[] quantised1 = new int[3];
+            final int[] quantised2 = new int[3];
+            for (int c = 0; c < 3; c++) {
+                quantised1[c] = quantise(average1[c], 31);
+                quantised2[c] = quantise(average2[c], 31);
+                final int delta = quantised2[c] - quantised1[c];
+                if (delta < -4 || delta > 3) {
+                    differential = false;
+                }
+            }
+            if (differential) {
+                for (int c = 0; c < 3; c++) {
+                    colour1[c] = expand5(quantised1[c]);
+                    colour2[c] = expand5(quantised2[c]);
+                }
+                final long error = encodeHalves(block, flip, colour1, colour2, result);
+                if (error < bestError) {
+                    bestError = error;
+                    best = pack(true, flip, quantised1, quantised2, result[0], result[1], block, colour1, colour2);
+                }
+            }
+
+            // Individual mode: two independent 4 bit colours.
+            for (int c = 0; c < 3; c++) {
+                quantised1[c] = quantise(average1[c], 15);
+                quantised2[c] = quantise(average2[c], 15);
+                colour1[c] = quantised1[c] * 17;
+                colour2[c] = quantised2[c] * 17;
+            }
+            final long error = encodeHalves(block, flip, colour1, colour2, result);
+            if (error < bestError) {
+                bestError = error;
+                best = pack(false, flip, quantised1, quantised2, result[0], result[1], block, colour1, colour2);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Decodes one block.
+     *
+     * @param bits  The block's 64 bits.
+     * @param block Receives 16 pixels as 0xFFRRGGBB, row by row.
+     */
+    static void decodeBlock(final long bits, final int[] block) {
+        final boolean differential = (bits >>> 33 & 1) != 0;
+        final int flip = (int) (bits >>> 32 & 1);
+        final int table1 = (int) (bits >>> 37 & 7);
+        final int table2 = (int) (bits >>> 34 & 7);
+
+        final int[] colour1 = new int[3];
+        final int[] colour2 = new int[3];
+        for (int c = 0; c < 3; c++) {
+            final int shift = 59 - 8 * c;
+            if (differential) {
+                final int base = (int) (bits >>> shift & 31);
+                final int delta = ((int) (bits >>> (shift - 3) & 7) << 29) >> 29;
+                colour1[c] = expand5(base);
+                colour2[c] = expand5(base + delta);
+            } else {
+                colour1[c] = (int) (bits >>> (shift + 1) & 15) * 17;
+                colour2[c] = (int) (bits >>> (shift - 3) & 15) * 17;
+            }
+        }
+
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                final boolean second = flip == 0 ? x >= 2 : y >= 2;
+                final int index = x * 4 + y;
+                final int modifier = MODIFIERS[second ? table2 : table1][pixelIndex(bits, index)];
+                final int[] colour = second ? colour2 : colour1;
+                block[y * 4 + x] = 0xff000000 | clamp(colour[0] + modifier) << 16
+                        | clamp(colour[1] + modifier) << 8 | clamp(colour[2] + modifier);
+            }
+        }
+    }
+
+    /**
+     * Picks the best table of both halves.
+     *
+     * @param result Receives the tables of the first and second half.
+     * @return Squared error of the whole block.
+     */
+    private static long encodeHalves(final int[] block, final int flip, final int[] colour1, final int[] colour2,
+                                     final int[] result) {
+        long total = 0;
+        for (int half = 0; half < 2; half++) {
+            final int[] colour = half == 0 ? colour1 : colour2;
+            long bestError = Long.MAX_VALUE;
+            for (int table = 0; table < MODIFIERS.length; table++) {
+                long error = 0;
+                for (int i = 0; i < 16 && error < bestError; i++) {
+                    if (isInHalf(i, flip, half)) {
+                        error += bestModifierError(block[i], colour, MODIFIERS[table]);
+                    }
+                }
+                if (error < bestError) {
+                    bestError = error;
+                    result[half] = table;
+                }
+            }
+            total += bestError;
+        }
+        return total;
+    }
+
+    private static long pack(final boolean differential, final int flip, final int[] quantised1,
+                             final int[] quantised2, final int table1, final int table2, final int[] block,
+                             final int[] colour1, final int[] colour2) {
+        long bits = 0;
+        for (int c = 0; c < 3; c++) {
+            final int shift = 59 - 8 * c;
+            if (differential) {
+                bits |= (long) quantised1[c] << shift;
+                bits |= (long) ((quantised2[c] - quantised1[c]) & 7) << (shift - 3);
+            } else {
+                bits |= (long) quantised1[c] << (shift + 1);
+                bits |= (long) quantised2[c] << (shift - 3);
+            }
+        }
+        bits |= (long) table1 << 37;
+        bits |= (long) table2 << 34;
+        bits |= (differential ? 1L : 0L) << 33;
+        bits |= (long) flip << 32;
+
+        for (int i = 0; i < 16; i++) {
+            final boolean second = isInHalf(i, flip, 1);
+            final int[] modifiers = MODIFIERS[second ? table2 : table1];
+            final int index = bestModifier(block[i], second ? colour2 : colour1, modifiers);
+            final int x = i % 4;
+            final int y = i / 4;
+            final int bit = x * 4 + y;
+            bits |= (long) (index >> 1) << (16 + bit);
+            bits |= (long) (index & 1) << bit;
+        }
+        return bits;
+    }
+
+    private static int pixelIndex(final long bits, final int index) {
+        return (int) ((bits >>> (16 + index) & 1) << 1 | (bits >>> index & 1));
+    }
+
+    /**
+     * @param i    Pixel in row order.
+     * @param flip 0 for left and right halves, 1 for top and bottom halves.
+     * @param half 0 or 1.
+     */
+    private static boolean isInHalf(final int i, final int flip, final int half) {
+        final int coordinate = flip == 0 ? i % 4 : i / 4;
+        return (coordinate >= 2) == (half == 1);
+    }
+
+    private static float[] average(final int[] block, final int flip, final int half) {
+        final float[] sum = new float[3];
+        for (int i = 0; i < 16; i++) {
+            if (isInHalf(i, flip, half)) {
+                sum[0] += block[i] >> 16 & 0xff;
+                sum[1] += block[i] >> 8 & 0xff;
+                sum[2] += block[i] & 0xff;
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            sum[c] /= 8;
+        }
+        return sum;
+    }
+
+    private static int bestModifier(final int pixel, final int[] colour, final int[] modifiers) {
+        int best = 0;
+        long bestError = Long.MAX_VALUE;
+        for (int m = 0; m < 4; m++) {
+            final long error = error(pixel, colour, modifiers[m]);
+            if (error < bestError) {
+                bestError = error;
+                best = m;
+            }
+        }
+        return best;
+    }
+
+    private static long bestModifierError(final int pixel, final int[] colour, final int[] modifiers) {
+        long bestError = Long.MAX_VALUE;
+        for (int m = 0; m < 4; m++) {
+            bestError = Math.min(bestError, error(pixel, colour, modifiers[m]));
+        }
+        return bestError;
+    }
+
+    private static long error(final int pixel, final int[] colour, final int modifier) {
+        final int r = clamp(colour[0] + modifier) - (pixel >> 16 & 0xff);
+        final int g = clamp(colour[1] + modifier) - (pixel >> 8 & 0xff);
+        final int b = clamp(colour[2] + modifier) - (pixel & 0xff);
+        return r * r + g * g + b * b;
+    }
+
+    private static int quantise(final float value, final int max) {
+        return Math.max(0, Math.min(max, Math.round(value * max / 255f)));
+    }
+
+    private static int expand5(final int value) {
+        return value << 3 | value >> 2;
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
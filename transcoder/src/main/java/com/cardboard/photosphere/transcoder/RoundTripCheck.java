@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.transcoder;
+
+import com.cardboard.photosphere.EtcContainer;
+import com.cardboard.photosphere.TileGrid;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Round trips a synthetic panorama through {@link Etc1Codec} and {@link EtcContainer}:
+ *         encode every level of every tile, write the container, read it back and decode. Every
+ *         level has to keep its layout and come back above {@link #MIN_PSNR} against the pixels
+ *         it was encoded from. The panorama's sizes are multiples of neither 4 nor the tile size,
+ *         so partial blocks and edge tiles go through the same path. Flat colours have to come
+ *         back within {@link #MAX_FLAT_ERROR} per channel, and a truncated container has to be
+ *         refused.
+ *         <p/>
+ *         Exits with 1 if any check fails, so it can gate a build.
+ *         <p/>
+ *         Usage: roundTripCheck
+ */
+public final class RoundTripCheck {
+
+    private static final int WIDTH = 1030;
+    private static final int HEIGHT = 515;
+    private static final int TILE_SIZE = 256;
+    private static final int LEVELS = 4;
+
+    /**
+     * Lowest acceptable peak signal to noise ratio of any level, in dB.
+     */
+    private static final double MIN_PSNR = 30;
+
+    /**
+     * Largest acceptable difference of any channel of a flat colour.
+     */
+    private static final int MAX_FLAT_ERROR = 8;
+
+    private static final int[] FLAT_COLOURS = {0x000000, 0xffffff, 0x808080, 0xff0000, 0x00ff00, 0x0000ff,
+            0x3c7a1e, 0xd4a05f};
+
+    private RoundTripCheck() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        boolean failed = false;
+        failed |= !checkPanorama();
+        failed |= !checkFlatColours();
+        failed |= !checkTruncated();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkPanorama() throws IOException {
+        final BufferedImage image = panorama();
+        final TileGrid grid = new TileGrid(WIDTH, HEIGHT, TILE_SIZE);
+        final EtcContainer container = roundTrip(grid, Transcoder.encode(image, grid, LEVELS));
+
+        boolean passed = report("layout " + container.getGrid() + ", " + container.getLevelCount() + " levels",
+                grid.equals(container.getGrid()) && container.getLevelCount() == LEVELS
+                        && container.getFormat() == EtcContainer.GL_ETC1_RGB8_OES);
+
+        final long[] squaredError = new long[LEVELS];
+        final long[] samples = new long[LEVELS];
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final int tile = grid.getTileIndex(column, row);
+                int width = grid.getTileWidth(column);
+                int height = grid.getTileHeight(row);
+                int[] source = image.getRGB(grid.getTileX(column), grid.getTileY(row), width, height,
+                        null, 0, width);
+                for (int level = 0; level < LEVELS; level++) {
+                    if (level > 0) {
+                        final int levelWidth = EtcContainer.levelSize(grid.getTileWidth(column), level);
+                        final int levelHeight = EtcContainer.levelSize(grid.getTileHeight(row), level);
+                        source = Transcoder.downsample(source, width, height, levelWidth, levelHeight);
+                        width = levelWidth;
+                        height = levelHeight;
+                    }
+                    if (container.getLevelWidth(tile, level) != width
+                            || container.getLevelHeight(tile, level) != height) {
+                        passed &= report("tile " + tile + " level " + level + " is "
+                                + container.getLevelWidth(tile, level) + "x" + container.getLevelHeight(tile, level)
+                                + ", expected " + width + "x" + height, false);
+                        continue;
+                    }
+                    final ByteBuffer data = container.getLevelData(tile, level);
+                    final byte[] blocks = new byte[data.remaining()];
+                    data.get(blocks);
+                    squaredError[level] += squaredError(source, Etc1Codec.decode(blocks, width, height));
+                    samples[level] += (long) width * height * 3;
+                }
+            }
+        }
+
+        for (int level = 0; level < LEVELS; level++) {
+            final double psnr = psnr(squaredError[level], samples[level]);
+            passed &= report(String.format("level %d PSNR %.2f dB, at least %.0f", level, psnr, MIN_PSNR),
+                    psnr >= MIN_PSNR);
+        }
+        return passed;
+    }
+
+    private static boolean checkFlatColours() {
+        boolean passed = true;
+        for (final int colour : FLAT_COLOURS) {
+            final int[] source = new int[5 * 3];
+            Arrays.fill(source, 0xff000000 | colour);
+            final int[] decoded = Etc1Codec.decode(Etc1Codec.encode(source, 5, 3), 5, 3);
+            int error = 0;
+            for (int i = 0; i < source.length; i++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    error = Math.max(error, Math.abs((source[i] >> shift & 0xff) - (decoded[i] >> shift & 0xff)));
+                }
+            }
+            passed &= report(String.format("flat #%06x, %d off", colour, error), error <= MAX_FLAT_ERROR);
+        }
+        return passed;
+    }
+
+    private static boolean checkTruncated() throws IOException {
+        final TileGrid grid = new TileGrid(64, 32, 32);
+        final byte[] whole = write(grid, Transcoder.encode(new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB),
+                grid, 2));
+        try {
+            EtcContainer.read(ByteBuffer.wrap(whole, 0, whole.length - 1).slice());
+            return report("truncated container read", false);
+        } catch (IOException e) {
+            return report("truncated container refused: " + e.getMessage(), true);
+        }
+    }
+
+    private static EtcContainer roundTrip(final TileGrid grid, final byte[][][] blocks) throws IOException {
+        return EtcContainer.read(ByteBuffer.wrap(write(grid, blocks)));
+    }
+
+    private static byte[] write(final TileGrid grid, final byte[][][] blocks) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EtcContainer.write(output, EtcContainer.GL_ETC1_RGB8_OES, grid, blocks[0].length, blocks);
+        return output.toByteArray();
+    }
+
+    /**
+     * A smooth sky over noisy ground, with hue along the azimuth and lit windows in a few
+     * buildings, so it compresses roughly like a photograph with hard edges in it.
+     */
+    private static BufferedImage panorama() {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                final double azimuth = 2 * Math.PI * x / WIDTH;
+                final double elevation = (double) y / HEIGHT;
+                final boolean building = y > HEIGHT * 0.6 && (x / 97) % 3 == 0;
+                final boolean window = building && x % 7 < 3 && y % 7 < 3;
+                int r = (int) (120 + 80 * Math.sin(azimuth) - 60 * elevation);
+                int g = (int) (150 + 60 * Math.cos(azimuth) - 40 * elevation);
+                int b = (int) (220 - 150 * elevation);
+                if (window) {
+                    r = 240;
+                    g = 220;
+                    b = 150;
+                } else if (building) {
+                    r = 90;
+                    g = 80;
+                    b = 70;
+                }
+                final int noise = random.nextInt(elevation > 0.5 ? 33 : 9) - (elevation > 0.5 ? 16 : 4);
+                image.setRGB(x, y, clamp(r + noise) << 16 | clamp(g + noise) << 8 | clamp(b + noise));
+            }
+        }
+        return image;
+    }
+
+    private static long squaredError(final int[] source, final int[] decoded) {
+        long squaredError = 0;
+        for (int i = 0; i < source.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                final int difference = (source[i] >> shift & 0xff) - (decoded[i] >> shift & 0xff);
+                squaredError += difference * difference;
+            }
+        }
+        return squaredError;
+    }
+
+    private static double psnr(final long squaredError, final long samples) {
+        final double meanSquaredError = (double) squaredError / samples;
+        return meanSquaredError == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / meanSquaredError);
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static boolean report(final String result, final boolean passed) {
+        System.out.println((passed ? "ok    " : "FAIL  ") + result);
+        return passed;
+    }
+}
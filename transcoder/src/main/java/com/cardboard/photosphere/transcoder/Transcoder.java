@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 Google Inc. All Rights Reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.cardboard.photosphere.transcoder;
+
+import com.cardboard.photosphere.EtcContainer;
+import com.cardboard.photosphere.TileGrid;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.ImageIO;
+
+/**
+ * @author Sree Kumar A.V
+ *         <p/>
+ *         Transcodes a panorama into an ETC1 container the app maps from its assets.
+ *         <p/>
+ *         The panorama is split into the same tiles the app streams, and every tile gets a chain
+ *         of levels halved with a box filter, matching the sample sizes the app decodes coarse
+ *         tiles at. With --verify the written file is read back and level 0 is decoded and
+ *         compared to the source.
+ *         <p/>
+ *         Usage: transcoder [--tile-size N] [--levels N] [--verify] input.jpg output.etcp
+ */
+public final class Transcoder {
+
+    private static final int DEFAULT_TILE_SIZE = 512;
+    private static final int DEFAULT_LEVELS = 4;
+
+    /**
+     * Lowest acceptable peak signal to noise ratio of level 0 when verifying, in dB.
+     */
+    private static final double MIN_PSNR = 25;
+
+    private Transcoder() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int tileSize = DEFAULT_TILE_SIZE;
+        int levels = DEFAULT_LEVELS;
+        boolean verify = false;
+        String input = null;
+        String output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--tile-size".equals(args[i]) && i + 1 < args.length) {
+                tileSize = Integer.parseInt(args[++i]);
+            } else if ("--levels".equals(args[i]) && i + 1 < args.length) {
+                levels = Integer.parseInt(args[++i]);
+            } else if ("--verify".equals(args[i])) {
+                verify = true;
+            } else if (input == null) {
+                input = args[i];
+            } else if (output == null) {
+                output = args[i];
+            } else {
+                usage();
+            }
+        }
+        if (input == null || output == null || tileSize <= 0 || levels <= 0) {
+            usage();
+            return;
+        }
+
+        final BufferedImage image = ImageIO.read(new File(input));
+        if (image == null) {
+            throw new IOException("Unable to decode " + input);
+        }
+        final TileGrid grid = new TileGrid(image.getWidth(), image.getHeight(), tileSize);
+
+        final long start = System.nanoTime();
+        final byte[][][] blocks = encode(image, grid, levels);
+        final OutputStream stream = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            EtcContainer.write(stream, EtcContainer.GL_ETC1_RGB8_OES, grid, levels, blocks);
+        } finally {
+            stream.close();
+        }
+        System.out.println("Wrote " + output + ": " + grid + ", " + levels + " levels, "
+                + new File(output).length() + " bytes in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        if (verify && !verify(image, new File(output), grid, levels)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Encodes every level of every tile.
+     *
+     * @return Blocks per tile and level, as {@link EtcContainer#write} takes them.
+     */
+    static byte[][][] encode(final BufferedImage image, final TileGrid grid, final int levels) {
+        final byte[][][] blocks = new byte[grid.getTileCount()][levels][];
+        for (int row = 0; row < grid.getRows(); row++) {
+            for (int column = 0; column < grid.getColumns(); column++) {
+                final int tile = grid.getTileIndex(column, row);
+                int width = grid.getTileWidth(column);
+                int height = grid.getTileHeight(row);
+                int[] argb = image.getRGB(grid.getTileX(column), grid.getTileY(row), width, height,
+                        null, 0, width);
+
+                for (int level = 0; level < levels; level++) {
+                    if (level > 0) {
+                        final int levelWidth = EtcContainer.levelSize(grid.getTileWidth(column), level);
+                        final int levelHeight = EtcContainer.levelSize(grid.getTileHeight(row), level);
+                        argb = downsample(argb, width, height, levelWidth, levelHeight);
+                        width = levelWidth;
+                        height = levelHeight;
+                    }
+                    blocks[tile][level] = Etc1Codec.encode(argb, width, height);
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. An odd last row or column is dropped, as the app's
+     * level sizes round down.
+     */
+    static int[] downsample(final int[] argb, final int width, final int height,
+                            final int targetWidth, final int targetHeight) {
+        final int[] target = new int[targetWidth * targetHeight];
+        for (int y = 0; y < targetHeight; y++) {
+            final int y0 = Math.min(y * 2, height - 1);
+            final int y1 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < targetWidth; x++) {
+                final int x0 = Math.min(x * 2, width - 1);
+                final int x1 = Math.min(x * 2 + 1, width - 1);
+                final int p00 = argb[y0 * width + x0];
+                final int p01 = argb[y0 * width + x1];
+                final int p10 = argb[y1 * width + x0];
+                final int p11 = argb[y1 * width + x1];
+                int pixel = 0;
+                for (int shift = 0; shift < 32; shift += 8) {
+                    final int sum = (p00 >>> shift & 0xff) + (p01 >>> shift & 0xff)
+                            + (p10 >>> shift & 0xff) + (p11 >>> shift & 0xff);
+                    pixel |= ((sum + 2) >> 2) << shift;
+                }
+                target[y * targetWidth + x] = pixel;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Reads a written container back and compares its level 0 to the source image.
+     *
+     * @return True if the layout matches and the quality is acceptable.
+     */
+    static boolean verify(final BufferedImage image, final File file, final TileGrid grid, final int levels)
+            throws IOException {
+        final FileInputStream stream = new FileInputStream(file);
+        final EtcContainer container;
+        try {
+            container = EtcContainer.read(stream.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    stream.getChannel().size()));
+        } finally {
+            stream.close();
+        }
+
+        if (!grid.equals(container.getGrid()) || container.getLevelCount() != levels
+                || container.getFormat() != EtcContainer.GL_ETC1_RGB8_OES) {
+            System.err.println("Layout mismatch: " + container.getGrid() + ", " + container.getLevelCount()
+                    + " levels, format 0x" + Integer.toHexString(container.getFormat()));
+            return false;
+        }
+
+        long squaredError = 0;
+        for (int tile = 0; tile < grid.getTileCount(); tile++) {
+            for (int level = 0; level < levels; level++) {
+                final int expected = EtcContainer.dataSize(container.getLevelWidth(tile, level),
+                        container.getLevelHeight(tile, level));
+                if (container.getLevelData(tile, level).remaining() != expected) {
+                    System.err.println("Tile " + tile + " level " + level + " has "
+                            + container.getLevelData(tile, level).remaining() + " bytes, expected " + expected);
+                    return false;
+                }
+            }
+
+            final int column = tile % grid.getColumns();
+            final int row = tile / grid.getColumns();
+            final int width = grid.getTileWidth(column);
+            final int height = grid.getTileHeight(row);
+            final ByteBuffer data = container.getLevelData(tile, 0);
+            final byte[] blocks = new byte[data.remaining()];
+            data.get(blocks);
+            final int[] decoded = Etc1Codec.decode(blocks, width, height);
+            final int[] source = image.getRGB(grid.getTileX(column), grid.getTileY(row), width, height,
+                    null, 0, width);
+            for (int i = 0; i < source.length; i++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    final int difference = (source[i] >> shift & 0xff) - (decoded[i] >> shift & 0xff);
+                    squaredError += difference * difference;
+                }
+            }
+        }
+
+        final double meanSquaredError = (double) squaredError
+                / ((long) grid.getImageWidth() * grid.getImageHeight() * 3);
+        final double psnr = meanSquaredError == 0
+                ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / meanSquaredError);
+        System.out.println(String.format("Level 0 PSNR %.2f dB", psnr));
+        if (psnr < MIN_PSNR) {
+            System.err.println("PSNR below " + MIN_PSNR + " dB");
+            return false;
+        }
+        return true;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: transcoder [--tile-size N] [--levels N] [--verify] input.jpg output.etcp");
+        System.exit(2);
+    }
+}